@@ -0,0 +1,34 @@
+package jp.ne.takes.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.session.config.SessionRepositoryCustomizer;
+import org.springframework.session.jdbc.JdbcIndexedSessionRepository;
+
+import jp.ne.takes.security.SharedAccountSessions;
+
+/**
+ * 共有セッション(Spring Session JDBC)の設定クラス
+ *
+ * セッションの索引(PRINCIPAL_NAME)をメアドではなくログイン中のアカウントIDにし、
+ * アカウントの変更の際に全サーバーのセッションをIDで検索できるようにする(SharedAccountSessions)。
+ * ※ -Pjdbc-session でビルドした場合だけ含まれる(src/jdbc-session/java)
+ *
+ * @author k_igari
+ * @author Learning System Department
+ * @author TAKES Co., Ltd.
+ * @version 1.0 Date 2023/10
+ */
+@Configuration(proxyBeanMethods = false)
+public class JdbcSessionConfig {
+
+  /**
+   * セッションをアカウントIDで索引付けする
+   *
+   * @return セッションの保存先の設定
+   */
+  @Bean
+  public SessionRepositoryCustomizer<JdbcIndexedSessionRepository> accountIdIndexCustomizer() {
+    return repository -> repository.setIndexResolver(SharedAccountSessions::indexesOf);
+  }
+}
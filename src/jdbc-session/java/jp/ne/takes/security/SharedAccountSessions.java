@@ -0,0 +1,130 @@
+package jp.ne.takes.security;
+
+import java.util.Map;
+
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.web.context.HttpSessionSecurityContextRepository;
+import org.springframework.session.FindByIndexNameSessionRepository;
+import org.springframework.session.Session;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import jakarta.servlet.http.HttpSession;
+import jp.ne.takes.service.AccountChangedEvent;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 共有セッション（Spring Session）のログイン中のセッションへのアカウントの変更の反映。
+ *
+ * Spring Session のセッションは Servletコンテナのセッションではないため、セッションのイベントが発生せず
+ * {@link AccountSessionRegistry} には記録されない。代わりにセッションをアカウントIDで索引付けし
+ * （{@link #indexesOf}、メールアドレスを変更しても同じ索引で引ける）、アカウントの変更イベントの際に
+ * {@link FindByIndexNameSessionRepository} で全サーバーのセッションを検索して反映する。
+ * <ul>
+ *   <li>メールアドレスの変更：他のセッションの principal を差し替えて保存する（現在のセッションは {@link AuthenticationRefresher}）</li>
+ *   <li>パスワードの変更：現在のセッション以外（他の端末）を削除する</li>
+ *   <li>アカウントの削除：全セッションを削除する（現在のセッションは無効にする）</li>
+ * </ul>
+ * トランザクション内で発行されたイベントはコミット後に反映する。
+ * ※ -Pjdbc-session でビルドした場合だけ含まれる（src/jdbc-session/java）
+ *
+ * @param <S> セッションの型
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class SharedAccountSessions<S extends Session> {
+
+    /** SecurityContext を保存するセッション属性名 */
+    private static final String CONTEXT_KEY = HttpSessionSecurityContextRepository.SPRING_SECURITY_CONTEXT_KEY;
+
+    /** 共有セッションの保存先 */
+    private final FindByIndexNameSessionRepository<S> repository;
+
+    /**
+     * セッションの索引（ログイン中のアカウントID）
+     *
+     * @param session セッション
+     * @return 索引名 → 値（ログインしていない場合は空）
+     */
+    public static Map<String, String> indexesOf(Session session) {
+        if (session.getAttribute(CONTEXT_KEY) instanceof SecurityContext context
+                && context.getAuthentication() != null
+                && context.getAuthentication().getPrincipal() instanceof AccountPrincipal principal) {
+            return Map.of(FindByIndexNameSessionRepository.PRINCIPAL_NAME_INDEX_NAME, String.valueOf(principal.getId()));
+        }
+        return Map.of();
+    }
+
+    /**
+     * アカウントの変更をセッションに反映する
+     *
+     * @param event アカウントの変更イベント
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onAccountChanged(AccountChangedEvent event) {
+        var sessions = repository.findByPrincipalName(String.valueOf(event.getId()));
+        var current = currentSession();
+        for (var session : sessions.values()) {
+            var isCurrent = current != null && current.getId().equals(session.getId());
+            switch (event.getType()) {
+                case EMAIL_CHANGED -> {
+                    if (!isCurrent) {
+                        replaceEmail(session, event.getId(), event.getEmail());
+                    }
+                }
+                case PASSWORD_CHANGED -> {
+                    if (!isCurrent) {
+                        repository.deleteById(session.getId());
+                    }
+                }
+                case DELETED -> {
+                    if (isCurrent) {
+                        // リクエストの終了時に保存し直されないよう、リクエストのセッションとして無効にする
+                        current.invalidate();
+                    } else {
+                        repository.deleteById(session.getId());
+                    }
+                }
+            }
+        }
+        log.debug("アカウントの変更を共有セッション{}件に反映しました: {}", sessions.size(), event);
+    }
+
+    /**
+     * セッションの principal のメールアドレスを差し替えて保存する
+     *
+     * @param session セッション
+     * @param id アカウントID
+     * @param email 変更後のメールアドレス
+     */
+    private void replaceEmail(S session, int id, String email) {
+        if (!(session.getAttribute(CONTEXT_KEY) instanceof SecurityContext context)) {
+            return;
+        }
+        var auth = context.getAuthentication();
+        if (auth == null || !(auth.getPrincipal() instanceof AccountPrincipal principal)
+                || principal.getId() != id || principal.getEmail().equals(email)) {
+            return;
+        }
+        context.setAuthentication(AuthenticationRefresher.withPrincipal(auth,
+                new AccountPrincipal(id, email, principal.getAuthorities())));
+        session.setAttribute(CONTEXT_KEY, context);
+        repository.save(session);
+    }
+
+    /**
+     * 現在のリクエストのセッション（作成はしない）
+     *
+     * @return セッション（リクエストの処理中でない・セッションがない場合は {@code null}）
+     */
+    private static HttpSession currentSession() {
+        if (RequestContextHolder.getRequestAttributes() instanceof ServletRequestAttributes attributes) {
+            return attributes.getRequest().getSession(false);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,225 @@
+package jp.ne.takes.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import jp.ne.takes.dto.AccountDto;
+import jp.ne.takes.dto.AccountDto.Role;
+import jp.ne.takes.dto.AccountSummary;
+
+/**
+ * アカウントDAOのベンチマーク
+ * 各DAOの主要な操作のスループットと応答時間の分布(SampleTimeのパーセンタイル)を計測する。
+ * 1操作あたりのメモリ割当て量はGCプロファイラ(gc.alloc.rate.norm)で取得する
+ * (スレッド数・プロファイラの指定は{@link AccountDaoBenchmarks}を参照)
+ *
+ * 更新系はスレッドごとに担当するアカウントを分け、楽観ロックの競合が起きないようにしている。
+ * ※create は計測中にアカウントが増え続ける(件数は計測開始時の値)
+ *
+ * @author k_igari
+ * @author Learning System Department
+ * @author TAKES Co., Ltd.
+ * @version 1.0 Date 2023/10
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AccountDaoBenchmark {
+
+  /**
+   * 読取り対象を無作為に選ぶためのスレッドごとの状態
+   */
+  @State(Scope.Thread)
+  public static class Cursor {
+    /** 乱数 */
+    private final SplittableRandom random = new SplittableRandom();
+
+    /**
+     * 登録済みアカウントを1件選ぶ
+     *
+     * @param state 共通の状態
+     * @return 選んだアカウントの概要
+     */
+    AccountSummary next(AccountDaoState state) {
+      return state.accounts.get(random.nextInt(state.accounts.size()));
+    }
+  }
+
+  /**
+   * 更新・作成用のスレッドごとの状態
+   * 登録済みアカウントをスレッド数で分け、自スレッドの担当分だけを更新する
+   */
+  @State(Scope.Thread)
+  public static class Owner {
+    /** 担当するアカウント(版番号は更新のたびに手元で進める) */
+    private final List<AccountDto> owned = new ArrayList<>();
+    /** スレッド番号 */
+    private int threadIndex;
+    /** 次に更新する担当アカウントの位置 */
+    private int position;
+    /** 作成したアカウントの連番 */
+    private long created;
+
+    /**
+     * 担当するアカウントの読込み
+     *
+     * @param state 共通の状態
+     * @param thread スレッドの情報
+     */
+    @Setup(Level.Trial)
+    public void setUp(AccountDaoState state, ThreadParams thread) {
+      threadIndex = thread.getThreadIndex();
+      for (var i = threadIndex; i < state.accounts.size(); i += thread.getThreadCount()) {
+        state.accountDao.findById(state.accounts.get(i).getId()).ifPresent(owned::add);
+      }
+    }
+
+    /**
+     * 次に更新する担当アカウント
+     *
+     * @return 担当アカウント
+     */
+    AccountDto next() {
+      var account = owned.get(position);
+      position = (position + 1) % owned.size();
+      return account;
+    }
+
+    /**
+     * 作成用の未使用のメアド
+     *
+     * @return メアド
+     */
+    String newEmail() {
+      return "new-" + threadIndex + "-" + (created++) + "@bench.example";
+    }
+  }
+
+  /**
+   * 削除対象を1回ごとに作成する状態
+   * 作成は計測に含めない(Level.Invocation)
+   */
+  @State(Scope.Thread)
+  public static class Victim {
+    /** 削除するアカウントのID */
+    private int id;
+    /** 作成したアカウントの連番 */
+    private long created;
+
+    /**
+     * 削除対象の作成
+     * IDを設定しないDAO(ネイティブクエリ版)はメアドで読み直す
+     *
+     * @param state 共通の状態
+     * @param thread スレッドの情報
+     */
+    @Setup(Level.Invocation)
+    public void setUp(AccountDaoState state, ThreadParams thread) {
+      var email = "victim-" + thread.getThreadIndex() + "-" + (created++) + "@bench.example";
+      var account = new AccountDto(0, email, AccountDaoState.PASSWORD, Role.USER, 0);
+      state.accountDao.create(account);
+      id = account.getId() != 0 ? account.getId() : state.accountDao.findByEmail(email).get().getId();
+    }
+  }
+
+  /**
+   * メアドで1件取得
+   */
+  @Benchmark
+  public void findByEmail(AccountDaoState state, Cursor cursor, Blackhole bh) {
+    bh.consume(state.accountDao.findByEmail(cursor.next(state).getEmail()));
+  }
+
+  /**
+   * IDで1件取得
+   */
+  @Benchmark
+  public void findById(AccountDaoState state, Cursor cursor, Blackhole bh) {
+    bh.consume(state.accountDao.findById(cursor.next(state).getId()));
+  }
+
+  /**
+   * 全件取得
+   */
+  @Benchmark
+  public void findAll(AccountDaoState state, Blackhole bh) {
+    bh.consume(state.accountDao.findAll());
+  }
+
+  /**
+   * メアドの存在確認
+   */
+  @Benchmark
+  public boolean existsByEmail(AccountDaoState state, Cursor cursor) {
+    return state.accountDao.existsByEmail(cursor.next(state).getEmail());
+  }
+
+  /**
+   * 除外ID以外でのメアドの存在確認(自身を除外するため常に存在しない)
+   */
+  @Benchmark
+  public boolean existsByEmailAndIdNot(AccountDaoState state, Cursor cursor) {
+    var account = cursor.next(state);
+    return state.accountDao.existsByEmailAndIdNot(account.getEmail(), account.getId());
+  }
+
+  /**
+   * 1件作成
+   */
+  @Benchmark
+  public void create(AccountDaoState state, Owner owner) {
+    state.accountDao.create(new AccountDto(0, owner.newEmail(), AccountDaoState.PASSWORD, Role.USER, 0));
+  }
+
+  /**
+   * 1件更新(パスワードを書き換える)
+   */
+  @Benchmark
+  public void update(AccountDaoState state, Owner owner) {
+    var account = owner.next();
+    var update = new AccountDto(account.getId(), account.getEmail(),
+        account.getPassword() + "x", account.getRole(), account.getVersion());
+    state.accountDao.update(update);
+    account.setPassword(update.getPassword());
+    account.setVersion(account.getVersion() + 1);
+  }
+
+  /**
+   * メアドの条件付き更新(版番号を条件にしたUPDATE文1回)
+   */
+  @Benchmark
+  public boolean updateEmail(AccountDaoState state, Owner owner) {
+    var account = owner.next();
+    var email = "u" + account.getId() + "-" + (account.getVersion() + 1) + "@bench.example";
+    var updated = state.accountDao.updateEmail(account.getId(), account.getVersion(), email);
+    account.setEmail(email);
+    account.setVersion(account.getVersion() + 1);
+    return updated;
+  }
+
+  /**
+   * IDで1件削除
+   */
+  @Benchmark
+  public void deleteById(AccountDaoState state, Victim victim) {
+    state.accountDao.deleteById(victim.id);
+  }
+}
@@ -0,0 +1,55 @@
+package jp.ne.takes.benchmark;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * アカウントDAOのベンチマークの実行
+ * 1・4・CPU数のスレッド数で{@link AccountDaoBenchmark}を順に実行し、
+ * 結果をスレッド数ごとのJSON(target/jmh/account-dao-{スレッド数}t.json)に出力する
+ *
+ * <pre>
+ * mvn -Pbenchmark test-compile exec:exec
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark.args="-p dao=AccountDaoFeatMap -p size=1000"
+ * </pre>
+ * 引数はJMHのコマンドラインと同じ(-t はこのクラスが上書きする)
+ *
+ * @author k_igari
+ * @author Learning System Department
+ * @author TAKES Co., Ltd.
+ * @version 1.0 Date 2023/10
+ */
+public class AccountDaoBenchmarks {
+
+  /**
+   * ベンチマークの実行
+   *
+   * @param args JMHのコマンドライン引数
+   * @throws Exception 引数の誤り・実行の失敗
+   */
+  public static void main(String[] args) throws Exception {
+    var cli = new CommandLineOptions(args);
+    var resultDir = Files.createDirectories(Path.of("target", "jmh"));
+    var threadCounts = new TreeSet<>(List.of(1, 4, Runtime.getRuntime().availableProcessors()));
+    for (var threads : threadCounts) {
+      var options = new OptionsBuilder()
+          .parent(cli)
+          .threads(threads)
+          .addProfiler(GCProfiler.class)
+          .resultFormat(ResultFormatType.JSON)
+          .result(resultDir.resolve("account-dao-" + threads + "t.json").toString());
+      if (cli.getIncludes().isEmpty()) {
+        options.include(AccountDaoBenchmark.class.getSimpleName());
+      }
+      new Runner(options.build()).run();
+    }
+  }
+}
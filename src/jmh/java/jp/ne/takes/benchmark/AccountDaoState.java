@@ -0,0 +1,118 @@
+package jp.ne.takes.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import jp.ne.takes.Chapter20Application;
+import jp.ne.takes.dao.AccountDao;
+import jp.ne.takes.dto.AccountDto;
+import jp.ne.takes.dto.AccountDto.Role;
+import jp.ne.takes.dto.AccountSummary;
+
+/**
+ * ベンチマーク共通の状態
+ * 計測する組合せ(DAO × 件数)ごとにアプリケーションを起動し、
+ * インメモリのH2(MySQL互換モード)に指定件数のアカウントを登録する
+ *
+ * @author k_igari
+ * @author Learning System Department
+ * @author TAKES Co., Ltd.
+ * @version 1.0 Date 2023/10
+ */
+@State(Scope.Benchmark)
+public class AccountDaoState {
+  /** 計測するDAOのBean名(@Qualifierで指定する名前) */
+  @Param({
+      "AccountDaoFeatMap",
+      "AccountDaoFeatMappedFile",
+      "AccountDaoFeatEntityManagerJpql",
+      "AccountDaoFeatEntityManagerSql",
+      "AccountDaoFeatJpaRepository",
+      "AccountDaoFeatCache",
+      "AccountDaoFeatTiered"})
+  public String dao;
+
+  /** 事前に登録するアカウントの件数 */
+  @Param({"1000", "10000", "100000"})
+  public int size;
+
+  /** 登録するアカウントのパスワード(ハッシュ処理は計測対象外) */
+  static final String PASSWORD = "{noop}Bench123456";
+
+  /** アプリケーションコンテキスト */
+  private ConfigurableApplicationContext context;
+  /** マップドファイル版DAOのデータファイル用ディレクトリ */
+  private Path workDir;
+
+  /** 計測するDAO */
+  AccountDao accountDao;
+  /** 登録済みアカウントの概要(ID昇順) */
+  List<AccountSummary> accounts;
+
+  /**
+   * アプリケーションの起動とデータの登録
+   *
+   * @throws IOException 作業ディレクトリを作成できない場合
+   */
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    workDir = Files.createTempDirectory("account-bench");
+    context = new SpringApplicationBuilder(Chapter20Application.class)
+        .web(WebApplicationType.NONE)
+        .properties(
+            // 組合せごとに別のDBにする
+            "spring.datasource.url=jdbc:h2:mem:bench-" + System.nanoTime()
+                + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1",
+            "spring.datasource.driver-class-name=org.h2.Driver",
+            "spring.datasource.username=sa",
+            "spring.datasource.password=",
+            "spring.jpa.hibernate.ddl-auto=create",
+            "spring.datasource.hikari.maximum-pool-size=" + (Runtime.getRuntime().availableProcessors() + 4),
+            "account.mapped-file.path=" + workDir.resolve("accounts.dat"),
+            "account.map.wal.enabled=false",
+            "account.migration.enabled=false",
+            "account.bcrypt.strength=4",
+            "logging.level.root=WARN")
+        .run();
+    accountDao = context.getBean(dao, AccountDao.class);
+
+    // 初期データ(既に登録済みの数件を含めて size 件)を一括登録
+    var missing = size - accountDao.findAllSummaries().size();
+    var seed = new ArrayList<AccountDto>(Math.max(missing, 0));
+    for (var i = 0; i < missing; i++) {
+      seed.add(new AccountDto(0, "user" + i + "@bench.example", PASSWORD, Role.USER, 0));
+    }
+    accountDao.createAll(seed);
+    accounts = new ArrayList<>(accountDao.findAllSummaries());
+    accounts.sort(Comparator.comparingInt(AccountSummary::getId));
+  }
+
+  /**
+   * アプリケーションの停止と作業ディレクトリの削除
+   *
+   * @throws IOException 作業ディレクトリを削除できない場合
+   */
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    context.close();
+    try (var files = Files.walk(workDir)) {
+      for (var file : files.sorted(Comparator.reverseOrder()).toList()) {
+        Files.deleteIfExists(file);
+      }
+    }
+  }
+}
@@ -0,0 +1,413 @@
+package jp.ne.takes.benchmark;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import jdk.jfr.consumer.RecordingStream;
+import jp.ne.takes.Chapter20Application;
+import jp.ne.takes.dao.AccountDao;
+import jp.ne.takes.dto.AccountDto;
+import jp.ne.takes.dto.AccountDto.Role;
+
+/**
+ * リクエストの実行方式(プラットフォームスレッド/仮想スレッド)の負荷の比較
+ *
+ * 同じ条件でアプリケーションを2回起動し(account.virtual-threads.enabled=false/true)、
+ * 多数の同時接続から /account/list(ログイン済みセッションで一覧の1ページ目)と
+ * ログイン(ログイン画面の取得 + POST /login)を一定時間送り続けて、件数・スループット・応答時間を比べる。
+ * 既定のDBはインメモリのH2で、接続を返す前に一定時間待たせて遅いDBを模擬する。
+ * この待ちはsynchronizedの外(Thread.sleep)のため、JDBCドライバによるキャリアスレッドの固定は再現しない。
+ * 本番と同じドライバでの比較は db-url に MySQL を指定して行う(ベンチマーク専用のスキーマを指定すること。
+ * テーブルは起動のたびに作り直す)。
+ * 接続プールはTomcatのスレッド数(既定200)より大きくし、上限がスレッド数で決まるかを見る。
+ * 仮想スレッドの実行中はJFRのjdk.VirtualThreadPinnedを記録し、キャリアスレッドを固定した箇所を出力する。
+ *
+ * <pre>
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark.main=jp.ne.takes.benchmark.RequestLoadComparison
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark.main=jp.ne.takes.benchmark.RequestLoadComparison \
+ *     -Dbenchmark.args="concurrency=2000 duration=30 db-latency=50 pool=400"
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark.main=jp.ne.takes.benchmark.RequestLoadComparison \
+ *     -Dbenchmark.args="db-url=jdbc:mysql://localhost:3306/bench db-user=bench db-password=bench db-latency=0"
+ * </pre>
+ * Java 21以降で実行すること。結果は target/jmh/request-load.txt にも出力する
+ *
+ * @author k_igari
+ * @author Learning System Department
+ * @author TAKES Co., Ltd.
+ * @version 1.0 Date 2023/10
+ */
+public class RequestLoadComparison {
+  /** ログインに使うパスワード */
+  private static final String PASSWORD = "Passw0rd";
+  /** ログインに使うメアド */
+  private static final String EMAIL = "load@bench.example";
+  /** ログイン画面のCSRFトークン */
+  private static final Pattern CSRF = Pattern.compile("name=\"_csrf\" value=\"([^\"]+)\"");
+
+  /**
+   * 比較の実行
+   *
+   * @param args 名前=値(concurrency・duration[秒]・db-latency[ミリ秒]・pool・accounts・db-url・db-user・db-password)
+   * @throws Exception 起動・送信の失敗
+   */
+  public static void main(String[] args) throws Exception {
+    var options = new ConcurrentHashMap<String, String>();
+    for (var arg : args) {
+      var pair = arg.split("=", 2);
+      options.put(pair[0], pair.length == 2 ? pair[1] : "");
+    }
+    var concurrency = Integer.parseInt(options.getOrDefault("concurrency", "1000"));
+    var duration = Duration.ofSeconds(Long.parseLong(options.getOrDefault("duration", "20")));
+    var dbLatency = options.getOrDefault("db-latency", "20");
+    var pool = options.getOrDefault("pool", "400");
+    var accounts = Integer.parseInt(options.getOrDefault("accounts", "1000"));
+    var db = new Db(options.get("db-url"), options.getOrDefault("db-user", ""), options.getOrDefault("db-password", ""));
+
+    var report = new StringBuilder();
+    report.append(String.format("concurrency=%d duration=%ds db-latency=%sms pool=%s accounts=%d db=%s (Java %s)%n",
+        concurrency, duration.toSeconds(), dbLatency, pool, accounts, db.url() == null ? "h2" : db.url(),
+        Runtime.version()));
+    report.append(String.format("%-8s %-8s %9s %9s %9s %9s %9s %9s %9s%n",
+        "mode", "scenario", "requests", "ok", "failed", "req/s", "p50(ms)", "p99(ms)", "max(ms)"));
+    for (var virtual : new boolean[] {false, true}) {
+      var mode = virtual ? "virtual" : "platform";
+      try (var context = start(virtual, db, dbLatency, pool);
+          var pinned = virtual ? new PinnedRecorder() : null) {
+        seed(context, accounts);
+        var base = URI.create("http://localhost:" + context.getEnvironment().getProperty("local.server.port"));
+        var client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .followRedirects(HttpClient.Redirect.NEVER)
+            .executor(Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+              var thread = new Thread(r, "load-client");
+              thread.setDaemon(true);
+              return thread;
+            }))
+            .build();
+        var session = sessionCookie(login(client, base).join());
+
+        var listResult = run(concurrency, duration, () -> client.sendAsync(
+            HttpRequest.newBuilder(base.resolve("/account/list")).header("Cookie", session).build(),
+            BodyHandlers.discarding()).thenApply(res -> res.statusCode() == 200));
+        report.append(listResult.format(mode, "list"));
+
+        var loginResult = run(concurrency, duration, () -> login(client, base).thenApply(res ->
+            res.headers().firstValue("Location").map(location -> location.endsWith("/home")).orElse(false)));
+        report.append(loginResult.format(mode, "login"));
+
+        if (pinned != null) {
+          report.append(pinned.format());
+        }
+      }
+    }
+    System.out.print(report);
+    var resultDir = Files.createDirectories(Path.of("target", "jmh"));
+    Files.writeString(resultDir.resolve("request-load.txt"), report);
+  }
+
+  /**
+   * 接続先のDB
+   *
+   * @param url JDBCのURL({@code null}の場合はインメモリのH2)
+   * @param user ユーザー名
+   * @param password パスワード
+   */
+  private record Db(String url, String user, String password) {}
+
+  /**
+   * アプリケーションの起動
+   *
+   * @param virtual 仮想スレッドで処理する場合は{@code true}
+   * @param db 接続先のDB
+   * @param dbLatency DBの応答の遅延(ミリ秒)
+   * @param pool 接続プールの上限
+   * @return アプリケーションコンテキスト
+   */
+  private static ConfigurableApplicationContext start(boolean virtual, Db db, String dbLatency, String pool)
+      throws Exception {
+    var workDir = Files.createTempDirectory("request-load");
+    var h2 = db.url() == null;
+    return new SpringApplicationBuilder(Chapter20Application.class, SlowDatabase.class)
+        .properties(
+            "server.port=0",
+            "spring.datasource.url=" + (h2 ? "jdbc:h2:mem:load-" + System.nanoTime()
+                + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1" : db.url()),
+            "spring.datasource.driver-class-name=" + (h2 ? "org.h2.Driver" : "com.mysql.cj.jdbc.Driver"),
+            "spring.datasource.username=" + (h2 ? "sa" : db.user()),
+            "spring.datasource.password=" + (h2 ? "" : db.password()),
+            "spring.jpa.hibernate.ddl-auto=create",
+            "spring.datasource.hikari.maximum-pool-size=" + pool,
+            "account.virtual-threads.enabled=" + virtual,
+            "account.mapped-file.path=" + workDir.resolve("accounts.dat"),
+            "account.map.wal.enabled=false",
+            "account.migration.enabled=false",
+            // 本番の下限の強度で固定(計測の揺れを避ける)
+            "account.bcrypt.strength=10",
+            "bench.db-latency=" + dbLatency,
+            "logging.level.root=WARN")
+        .run();
+  }
+
+  /**
+   * ログイン用のアカウントと一覧用のアカウントを登録
+   *
+   * @param context アプリケーションコンテキスト
+   * @param accounts 一覧用のアカウントの件数
+   */
+  private static void seed(ConfigurableApplicationContext context, int accounts) {
+    var dao = context.getBean("AccountDaoFeatJpaRepository", AccountDao.class);
+    var encoder = context.getBean(PasswordEncoder.class);
+    var seed = new ArrayList<AccountDto>(accounts + 1);
+    seed.add(new AccountDto(0, EMAIL, encoder.encode(PASSWORD), Role.USER, 0));
+    for (var i = 0; i < accounts; i++) {
+      seed.add(new AccountDto(0, "user" + i + "@bench.example", "{noop}Bench123456", Role.USER, 0));
+    }
+    dao.createAll(seed);
+  }
+
+  /**
+   * ログイン(ログイン画面でセッションとCSRFトークンを取得してからPOST /login)
+   *
+   * @param client HTTPクライアント
+   * @param base アプリケーションのURL
+   * @return POST /login のレスポンス
+   */
+  private static CompletableFuture<HttpResponse<Void>> login(HttpClient client, URI base) {
+    return client.sendAsync(HttpRequest.newBuilder(base.resolve("/")).build(), BodyHandlers.ofString())
+        .thenCompose(page -> {
+          var matcher = CSRF.matcher(page.body());
+          if (!matcher.find()) {
+            throw new IllegalStateException("ログイン画面にCSRFトークンがありません: " + page.statusCode());
+          }
+          var form = "username=" + URLEncoder.encode(EMAIL, StandardCharsets.UTF_8)
+              + "&password=" + URLEncoder.encode(PASSWORD, StandardCharsets.UTF_8)
+              + "&_csrf=" + URLEncoder.encode(matcher.group(1), StandardCharsets.UTF_8);
+          return client.sendAsync(HttpRequest.newBuilder(base.resolve("/login"))
+              .header("Content-Type", "application/x-www-form-urlencoded")
+              .header("Cookie", sessionCookie(page))
+              .POST(BodyPublishers.ofString(form))
+              .build(), BodyHandlers.discarding());
+        });
+  }
+
+  /**
+   * レスポンスのセッションCookie
+   *
+   * @param response レスポンス
+   * @return JSESSIONID=...
+   */
+  private static String sessionCookie(HttpResponse<?> response) {
+    return response.headers().allValues("Set-Cookie").stream()
+        .filter(cookie -> cookie.startsWith("JSESSIONID="))
+        .map(cookie -> cookie.split(";", 2)[0])
+        .findFirst()
+        .orElseThrow(() -> new IllegalStateException("セッションCookieがありません: " + response.statusCode()));
+  }
+
+  /**
+   * 同時接続数分の利用者が、終了時刻まで応答を待っては次を送り続ける
+   *
+   * @param concurrency 同時接続数
+   * @param duration 送り続ける時間
+   * @param request 1回分の送信(成功の場合は{@code true})
+   * @return 集計結果
+   */
+  private static Result run(int concurrency, Duration duration, Supplier<CompletableFuture<Boolean>> request) {
+    var result = new Result();
+    var start = System.nanoTime();
+    var deadline = start + duration.toNanos();
+    var users = new ArrayList<CompletableFuture<Void>>(concurrency);
+    for (var i = 0; i < concurrency; i++) {
+      users.add(loop(request, deadline, result));
+    }
+    CompletableFuture.allOf(users.toArray(CompletableFuture[]::new)).join();
+    result.elapsedNanos = System.nanoTime() - start;
+    return result;
+  }
+
+  /**
+   * 1人分の送信の繰返し
+   */
+  private static CompletableFuture<Void> loop(Supplier<CompletableFuture<Boolean>> request, long deadline,
+      Result result) {
+    if (System.nanoTime() >= deadline) {
+      return CompletableFuture.completedFuture(null);
+    }
+    var sent = System.nanoTime();
+    return request.get()
+        .handle((ok, e) -> {
+          result.record(System.nanoTime() - sent, e == null && ok);
+          return null;
+        })
+        .thenCompose(ignored -> loop(request, deadline, result));
+  }
+
+  /**
+   * 集計結果
+   */
+  private static class Result {
+    private final ConcurrentLinkedQueue<Long> latencies = new ConcurrentLinkedQueue<>();
+    private final LongAdder ok = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private long elapsedNanos;
+
+    void record(long nanos, boolean success) {
+      latencies.add(nanos);
+      (success ? ok : failed).increment();
+    }
+
+    String format(String mode, String scenario) {
+      var sorted = new ArrayList<>(latencies);
+      sorted.sort(null);
+      var requests = sorted.size();
+      return String.format("%-8s %-8s %9d %9d %9d %9.0f %9.1f %9.1f %9.1f%n",
+          mode, scenario, requests, ok.sum(), failed.sum(),
+          requests / (elapsedNanos / 1e9), millis(sorted, 0.50), millis(sorted, 0.99), millis(sorted, 1.0));
+    }
+
+    private static double millis(List<Long> sorted, double quantile) {
+      if (sorted.isEmpty()) {
+        return 0;
+      }
+      var index = (int) Math.min(sorted.size() - 1, Math.ceil(quantile * sorted.size()) - 1);
+      return sorted.get(Math.max(index, 0)) / 1e6;
+    }
+  }
+
+  /**
+   * キャリアスレッドの固定(jdk.VirtualThreadPinned)の記録
+   * 固定したまま待った箇所を、アプリケーションのクラスの最初のフレームごとに数える
+   */
+  private static class PinnedRecorder implements AutoCloseable {
+    private static final String EVENT = "jdk.VirtualThreadPinned";
+    private final RecordingStream stream = new RecordingStream();
+    private final Map<String, LongAdder> sites = new ConcurrentHashMap<>();
+    private final LongAdder events = new LongAdder();
+
+    PinnedRecorder() {
+      stream.enable(EVENT).withoutThreshold().withStackTrace();
+      stream.onEvent(EVENT, event -> {
+        events.increment();
+        var site = "(スタックなし)";
+        if (event.getStackTrace() != null) {
+          var frames = event.getStackTrace().getFrames();
+          site = frames.stream()
+              .filter(frame -> frame.getMethod().getType().getName().startsWith("jp.ne.takes."))
+              .findFirst()
+              .or(() -> frames.stream().findFirst())
+              .map(frame -> frame.getMethod().getType().getName() + "." + frame.getMethod().getName()
+                  + ":" + frame.getLineNumber())
+              .orElse(site);
+        }
+        sites.computeIfAbsent(site, key -> new LongAdder()).increment();
+      });
+      stream.startAsync();
+    }
+
+    String format() {
+      var text = new StringBuilder(String.format("キャリアスレッドの固定: %d件%n", events.sum()));
+      sites.entrySet().stream()
+          .sorted(Comparator.comparingLong((Map.Entry<String, LongAdder> entry) -> entry.getValue().sum()).reversed())
+          .forEach(entry -> text.append(String.format("  %6d  %s%n", entry.getValue().sum(), entry.getKey())));
+      return text.toString();
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+      // 最後のイベントまで受け取ってから止める
+      TimeUnit.SECONDS.sleep(1);
+      stream.close();
+    }
+  }
+
+  /**
+   * 遅いDBの模擬
+   * 接続を返す(close)前に bench.db-latency ミリ秒待ち、その間は接続を占有したままにする
+   */
+  @Configuration(proxyBeanMethods = false)
+  static class SlowDatabase {
+
+    /**
+     * アプリケーションのデータソースを遅延付きで包む
+     *
+     * @param environment 環境(bench.db-latency)
+     * @return データソースを包むBeanPostProcessor
+     */
+    @Bean
+    static BeanPostProcessor slowDataSourcePostProcessor(Environment environment) {
+      var latency = environment.getProperty("bench.db-latency", Long.class, 0L);
+      return new BeanPostProcessor() {
+        @Override
+        public Object postProcessAfterInitialization(Object bean, String beanName) {
+          if (latency <= 0 || !"dataSource".equals(beanName) || !(bean instanceof DataSource dataSource)) {
+            return bean;
+          }
+          return new DelegatingDataSource(dataSource) {
+            @Override
+            public Connection getConnection() throws SQLException {
+              return slow(super.getConnection(), latency);
+            }
+          };
+        }
+      };
+    }
+
+    private static Connection slow(Connection target, long latency) {
+      return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] {Connection.class},
+          (proxy, method, args) -> {
+            switch (method.getName()) {
+              case "close" -> Thread.sleep(latency);
+              case "equals" -> {
+                return args[0] == proxy;
+              }
+              case "hashCode" -> {
+                return System.identityHashCode(proxy);
+              }
+              default -> {
+              }
+            }
+            try {
+              return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+              throw e.getTargetException();
+            }
+          });
+    }
+  }
+}
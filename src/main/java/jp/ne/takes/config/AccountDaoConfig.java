@@ -0,0 +1,118 @@
+package jp.ne.takes.config;
+
+import java.time.Duration;
+
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jp.ne.takes.dao.AccountDao;
+import jp.ne.takes.dao.CachingAccountDao;
+import jp.ne.takes.dao.TieredAccountDao;
+import jp.ne.takes.dao.TieredAccountDao.Durability;
+
+/**
+ * アカウントDAOの設定クラス
+ *
+ * 既存のアカウントDAO(@Repository)を包むキャッシュ版DAOを登録する。
+ * 包むDAOはプロパティ account.cache.delegate のBean名で選び、
+ * ヒット・ミス・追出しの件数は Micrometer のメトリクス(cache.gets / cache.evictions 等)として公開する。
+ * また、メモリの前段とDBの後段を組み合わせた階層版DAOを登録する(選択された場合だけ生成)。
+ * 各DAO・リポジトリのメソッドの処理時間は account.dao として計測する(DaoTimingPostProcessor)。
+ *
+ * @author k_igari
+ * @author Learning System Department
+ * @author TAKES Co., Ltd.
+ * @version 1.0 Date 2023/10
+ */
+@Configuration
+public class AccountDaoConfig {
+
+  /**
+   * アカウントDAO・リポジトリの処理時間の計測
+   * 他のBeanの生成前に登録するためstaticで定義する
+   *
+   * @param registry メトリクスの登録先
+   * @return 計測を追加するBeanPostProcessor
+   */
+  @Bean
+  public static DaoTimingPostProcessor daoTimingPostProcessor(ObjectProvider<MeterRegistry> registry) {
+    return new DaoTimingPostProcessor(registry);
+  }
+
+  /**
+   * キャッシュ版アカウントDAO
+   *
+   * @param beanFactory Bean名で委譲先を取得するためのファクトリ
+   * @param registry メトリクスの登録先
+   * @param delegateName 委譲先のBean名
+   * @param maximumSize キャッシュの最大件数
+   * @param ttl 保存してから無効になるまでの時間
+   * @return キャッシュ版アカウントDAO
+   */
+  @Bean("AccountDaoFeatCache")
+  public CachingAccountDao cachingAccountDao(
+      BeanFactory beanFactory,
+      MeterRegistry registry,
+      @Value("${account.cache.delegate:AccountDaoFeatJpaRepository}") String delegateName,
+      @Value("${account.cache.maximum-size:10000}") long maximumSize,
+      @Value("${account.cache.ttl:30s}") Duration ttl) {
+    var delegate = beanFactory.getBean(delegateName, AccountDao.class);
+    var dao = new CachingAccountDao(delegate, maximumSize, ttl);
+    CaffeineCacheMetrics.monitor(registry, dao.getByIdCache(), "account.byId");
+    CaffeineCacheMetrics.monitor(registry, dao.getByEmailCache(), "account.byEmail");
+    return dao;
+  }
+
+  /**
+   * 階層版アカウントDAO(メモリの前段 + DBの後段)
+   * 起動時にDBから全件を読み込むため、@Qualifierで選択された場合(または
+   * キャッシュ版の委譲先に指定された場合)だけ生成する。
+   * 未反映の件数・時間・隔離した件数は account.tiered.pending / account.tiered.lag /
+   * account.tiered.dead-letters として公開する
+   *
+   * @param beanFactory Bean名で後段を取得するためのファクトリ
+   * @param jdbcTemplate 書き戻し用のJdbcTemplate
+   * @param transactionManager 書き戻し用のトランザクションマネージャ
+   * @param registry メトリクスの登録先
+   * @param backName 後段のDAOのBean名
+   * @param durability 書き戻しの方式(SYNC/ASYNC)
+   * @param flushInterval 書き戻しの間隔(ASYNC)
+   * @param maxLag 未反映の時間の上限(ASYNC)
+   * @param maxPending 未反映の件数の上限(ASYNC)
+   * @return 階層版アカウントDAO
+   */
+  @Lazy
+  @Bean(name = "AccountDaoFeatTiered", destroyMethod = "close")
+  public TieredAccountDao tieredAccountDao(
+      BeanFactory beanFactory,
+      JdbcTemplate jdbcTemplate,
+      PlatformTransactionManager transactionManager,
+      MeterRegistry registry,
+      @Value("${account.tiered.back:AccountDaoFeatJpaRepository}") String backName,
+      @Value("${account.tiered.durability:ASYNC}") Durability durability,
+      @Value("${account.tiered.flush-interval:100ms}") Duration flushInterval,
+      @Value("${account.tiered.max-lag:1s}") Duration maxLag,
+      @Value("${account.tiered.max-pending:10000}") int maxPending) {
+    var back = beanFactory.getBean(backName, AccountDao.class);
+    var dao = new TieredAccountDao(back, jdbcTemplate, new TransactionTemplate(transactionManager),
+        durability, flushInterval, maxLag, maxPending);
+    dao.start();
+    Gauge.builder("account.tiered.pending", dao, TieredAccountDao::getPendingCount)
+        .description("DBへ未反映の変更の件数").register(registry);
+    Gauge.builder("account.tiered.lag", dao, TieredAccountDao::getLagMillis)
+        .description("最も古い未反映の変更からの経過時間").baseUnit("milliseconds").register(registry);
+    Gauge.builder("account.tiered.dead-letters", dao, TieredAccountDao::getDeadLetterCount)
+        .description("DBへ書き戻せずに隔離した変更の件数").register(registry);
+    return dao;
+  }
+}
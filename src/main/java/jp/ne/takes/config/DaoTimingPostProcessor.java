@@ -0,0 +1,132 @@
+package jp.ne.takes.config;
+
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.aop.framework.Advised;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jp.ne.takes.dao.AccountDao;
+import jp.ne.takes.repository.AccountRepository;
+
+/**
+ * アカウントDAOの処理時間の計測
+ *
+ * AccountDaoの全実装とAccountRepository(セキュリティのクラスから直接呼ばれる分を含む)の
+ * 各メソッドの処理時間を、ヒストグラム付きのタイマー account.dao として記録する。
+ * タグは dao(Bean名)・method(メソッド名)・exception(例外のクラス名、正常終了はnone)。
+ * /actuator/metrics/account.dao?tag=dao:AccountDaoFeatJpaRepository&amp;tag=method:findByEmail や
+ * /actuator/prometheus(パーセンタイルはヒストグラムから算出)で確認する。
+ *
+ * 既にプロキシ(@Transactional・リポジトリ)の場合は先頭に計測を追加し、
+ * トランザクションの開始・終了を含めた時間を計る。
+ *
+ * @author k_igari
+ * @author Learning System Department
+ * @author TAKES Co., Ltd.
+ * @version 1.0 Date 2023/10
+ */
+public class DaoTimingPostProcessor implements BeanPostProcessor {
+  /** メトリクス名 */
+  static final String METRIC = "account.dao";
+  /** ヒストグラムの下限 */
+  private static final Duration MIN_EXPECTED = Duration.ofNanos(1_000);
+  /** ヒストグラムの上限 */
+  private static final Duration MAX_EXPECTED = Duration.ofSeconds(10);
+
+  /** メトリクスの登録先(他のBeanより先に生成しないよう遅延して取得) */
+  private final ObjectProvider<MeterRegistry> registry;
+
+  /**
+   * コンストラクタ
+   *
+   * @param registry メトリクスの登録先
+   */
+  public DaoTimingPostProcessor(ObjectProvider<MeterRegistry> registry) {
+    this.registry = registry;
+  }
+
+  /**
+   * アカウントDAO・リポジトリに計測を追加
+   *
+   * @param bean Bean
+   * @param beanName Bean名
+   * @return 計測を追加したBean(対象外はそのまま)
+   */
+  @Override
+  public Object postProcessAfterInitialization(Object bean, String beanName) {
+    if (!(bean instanceof AccountDao) && !(bean instanceof AccountRepository)) {
+      return bean;
+    }
+    var interceptor = new TimingInterceptor(beanName);
+    if (bean instanceof Advised advised && !advised.isFrozen()) {
+      advised.addAdvice(0, interceptor);
+      return bean;
+    }
+    var factory = new ProxyFactory(bean);
+    // @PreDestroy等を継承元から見つけられるようクラスのプロキシにする
+    factory.setProxyTargetClass(true);
+    factory.addAdvice(interceptor);
+    return factory.getProxy(bean.getClass().getClassLoader());
+  }
+
+  /**
+   * 1つのBeanの呼出しを計測するインターセプタ
+   */
+  private class TimingInterceptor implements MethodInterceptor {
+    /** Bean名 */
+    private final String beanName;
+    /** メソッド → 正常終了時のタイマー(呼出しごとのタグの生成・登録の照会を省く) */
+    private final Map<Method, Timer> timers = new ConcurrentHashMap<>();
+
+    TimingInterceptor(String beanName) {
+      this.beanName = beanName;
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+      var method = invocation.getMethod();
+      if (method.getDeclaringClass() == Object.class) {
+        return invocation.proceed();
+      }
+      var start = System.nanoTime();
+      try {
+        var result = invocation.proceed();
+        timers.computeIfAbsent(method, m -> timer(m, "none"))
+            .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return result;
+      } catch (Throwable e) {
+        timer(method, e.getClass().getSimpleName()).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        throw e;
+      }
+    }
+
+    /**
+     * タイマーの取得(未登録の場合は登録)
+     *
+     * @param method メソッド
+     * @param exception 例外のクラス名
+     * @return タイマー
+     */
+    private Timer timer(Method method, String exception) {
+      return Timer.builder(METRIC)
+          .description("アカウントDAO・リポジトリの処理時間")
+          .tag("dao", beanName)
+          .tag("method", method.getName())
+          .tag("exception", exception)
+          .publishPercentileHistogram()
+          .minimumExpectedValue(MIN_EXPECTED)
+          .maximumExpectedValue(MAX_EXPECTED)
+          .register(registry.getObject());
+    }
+  }
+}
@@ -0,0 +1,67 @@
+package jp.ne.takes.config;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.r2dbc.core.DatabaseClient;
+
+import io.r2dbc.pool.ConnectionPool;
+import io.r2dbc.pool.ConnectionPoolConfiguration;
+import io.r2dbc.spi.ConnectionFactories;
+import io.r2dbc.spi.ConnectionFactoryOptions;
+
+/**
+ * ノンブロッキングのアカウントDAO(ReactiveAccountDaoFeatR2dbc)の接続の設定クラス
+ *
+ * 接続先は account.r2dbc.*。R2DBCの自動設定(spring.r2dbc.*)は使わない。
+ * ConnectionFactory のBeanがあると JDBC の DataSource の自動設定が無効になり
+ * JPA側(AccountRepository等)が起動しなくなるため、接続プールはBeanにせず DatabaseClient だけを公開する。
+ * 接続は最初のSQLの実行時に行う(起動時には接続しない)。
+ *
+ * @author k_igari
+ * @author Learning System Department
+ * @author TAKES Co., Ltd.
+ * @version 1.0 Date 2023/10
+ */
+@Configuration(proxyBeanMethods = false)
+public class R2dbcConfig implements DisposableBean {
+
+  /** 接続プール(終了時に閉じる) */
+  private ConnectionPool pool;
+
+  /**
+   * ノンブロッキングのアカウントDAOが使うSQLの実行
+   *
+   * @param url 接続先のURL(r2dbc:mysql://… など)
+   * @param username ユーザー名
+   * @param password パスワード
+   * @return SQLの実行
+   */
+  @Bean
+  public DatabaseClient reactiveDatabaseClient(
+      @Value("${account.r2dbc.url}") String url,
+      @Value("${account.r2dbc.username:}") String username,
+      @Value("${account.r2dbc.password:}") String password) {
+    var options = ConnectionFactoryOptions.parse(url).mutate();
+    if (!username.isEmpty()) {
+      options.option(ConnectionFactoryOptions.USER, username);
+    }
+    if (!password.isEmpty()) {
+      options.option(ConnectionFactoryOptions.PASSWORD, password);
+    }
+    var connectionFactory = ConnectionFactories.get(options.build());
+    pool = new ConnectionPool(ConnectionPoolConfiguration.builder(connectionFactory).build());
+    return DatabaseClient.create(pool);
+  }
+
+  /**
+   * 接続プールを閉じる
+   */
+  @Override
+  public void destroy() {
+    if (pool != null) {
+      pool.dispose();
+    }
+  }
+}
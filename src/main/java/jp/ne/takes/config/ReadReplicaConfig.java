@@ -0,0 +1,81 @@
+package jp.ne.takes.config;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+/**
+ * 読取りレプリカの設定クラス
+ *
+ * account.datasource.replica-urls を指定した場合だけ有効になり、
+ * 読取り専用トランザクションをレプリカへ、それ以外を主DB(spring.datasource.*)へ振り分ける。
+ * レプリカの接続にはユーザー名・パスワード・ドライバも主DBと同じものを使う。
+ *
+ * @author k_igari
+ * @author Learning System Department
+ * @author TAKES Co., Ltd.
+ * @version 1.0 Date 2023/10
+ */
+@Configuration
+@ConditionalOnProperty(name = "account.datasource.replica-urls")
+public class ReadReplicaConfig {
+
+  /**
+   * 振分け用のデータソース
+   *
+   * @param properties 主DBの接続設定(spring.datasource.*)
+   * @param replicaUrls レプリカの接続先URL一覧
+   * @param readYourWritesWindow 書込み後に主DBから読む時間
+   * @param healthCheckInterval レプリカのヘルスチェックの間隔
+   * @param healthCheckTimeout レプリカのヘルスチェックの応答待ちの上限
+   * @return 振分け用のデータソース
+   */
+  @Bean(destroyMethod = "close")
+  public ReadWriteRoutingDataSource routingDataSource(
+      DataSourceProperties properties,
+      @Value("${account.datasource.replica-urls}") List<String> replicaUrls,
+      @Value("${account.datasource.read-your-writes-window:5s}") Duration readYourWritesWindow,
+      @Value("${account.datasource.health-check-interval:10s}") Duration healthCheckInterval,
+      @Value("${account.datasource.health-check-timeout:2s}") Duration healthCheckTimeout) {
+    var primary = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    primary.setPoolName("primary");
+    var replicas = new ArrayList<DataSource>(replicaUrls.size());
+    for (var i = 0; i < replicaUrls.size(); i++) {
+      var replica = properties.initializeDataSourceBuilder().type(HikariDataSource.class)
+          .url(replicaUrls.get(i).trim())
+          .build();
+      replica.setPoolName("replica-" + i);
+      replica.setReadOnly(true);
+      replicas.add(replica);
+    }
+    var routing = new ReadWriteRoutingDataSource(primary, replicas, readYourWritesWindow, healthCheckTimeout);
+    routing.startHealthChecks(healthCheckInterval);
+    return routing;
+  }
+
+  /**
+   * アプリケーションが使うデータソース
+   * 接続の取得を最初のSQLの実行まで遅らせ、トランザクションの読取り専用の指定が
+   * 決まってから振り分けるようにする
+   *
+   * @param routingDataSource 振分け用のデータソース
+   * @return 遅延接続のデータソース
+   */
+  @Bean
+  @Primary
+  public DataSource dataSource(ReadWriteRoutingDataSource routingDataSource) {
+    return new LazyConnectionDataSourceProxy(routingDataSource);
+  }
+}
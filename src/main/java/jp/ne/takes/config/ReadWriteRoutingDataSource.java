@@ -0,0 +1,267 @@
+package jp.ne.takes.config;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import jp.ne.takes.security.AccountPrincipal;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 読取り・書込みで接続先を振り分けるデータソース
+ *
+ * 読取り専用トランザクション(@Transactional(readOnly = true))は正常なレプリカへ順番に、
+ * それ以外(書込み・トランザクション外)は主DBへ接続する。
+ * 接続先はトランザクション開始後に決める必要があるため、
+ * {@link org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy}で包んで使うこと。
+ *
+ * <ul>
+ *   <li>ヘルスチェック：一定間隔で各レプリカの接続を確認し、応答しないレプリカには振り分けない
+ *       (正常なレプリカが無い場合は主DBへ)</li>
+ *   <li>自分の書込みの読取り：書込みトランザクションのコミット後、一定時間はそのユーザーの読取りを主DBへ送り、
+ *       反映前のレプリカから古い値を読まないようにする(未ログインの書込みは全員が対象)</li>
+ * </ul>
+ *
+ * @author k_igari
+ * @author Learning System Department
+ * @author TAKES Co., Ltd.
+ * @version 1.0 Date 2023/10
+ */
+@Slf4j
+public class ReadWriteRoutingDataSource extends AbstractRoutingDataSource implements AutoCloseable {
+  /** 主DBのキー */
+  static final String PRIMARY = "primary";
+  /** トランザクションごとに書込みの記録を1回だけ登録するためのリソースキー */
+  private final Object writeMarkerKey = new Object();
+
+  /** レプリカのキー → データソース */
+  private final Map<String, DataSource> replicas = new HashMap<>();
+  /** 正常なレプリカのキー(ヘルスチェックで差し替える) */
+  private volatile List<String> healthyReplicas;
+  /** レプリカの選択位置(ラウンドロビン) */
+  private final AtomicInteger next = new AtomicInteger();
+
+  /** 書込み後に主DBから読む時間 */
+  private final long windowNanos;
+  /** ユーザーのキー → 最後に書き込んだ時刻 */
+  private final Cache<String, Long> lastWriteByUser;
+  /** 未ログインで最後に書き込んだ時刻(0は書込みなし) */
+  private final AtomicLong lastAnonymousWrite = new AtomicLong();
+
+  /** ヘルスチェックの応答待ちの上限(秒) */
+  private final int healthCheckTimeoutSeconds;
+  /** 定期的なヘルスチェック */
+  private ScheduledExecutorService healthChecker;
+
+  /**
+   * コンストラクタ
+   *
+   * @param primary 主DB
+   * @param replicaList レプリカ一覧
+   * @param readYourWritesWindow 書込み後に主DBから読む時間
+   * @param healthCheckTimeout ヘルスチェックの応答待ちの上限
+   */
+  public ReadWriteRoutingDataSource(DataSource primary, List<DataSource> replicaList,
+      Duration readYourWritesWindow, Duration healthCheckTimeout) {
+    var targets = new HashMap<Object, Object>();
+    targets.put(PRIMARY, primary);
+    for (var i = 0; i < replicaList.size(); i++) {
+      var key = "replica-" + i;
+      replicas.put(key, replicaList.get(i));
+      targets.put(key, replicaList.get(i));
+    }
+    setTargetDataSources(targets);
+    setDefaultTargetDataSource(primary);
+    afterPropertiesSet();
+    this.healthyReplicas = List.copyOf(replicas.keySet());
+    this.windowNanos = readYourWritesWindow.toNanos();
+    this.lastWriteByUser = Caffeine.newBuilder()
+        .expireAfterWrite(readYourWritesWindow)
+        .build();
+    this.healthCheckTimeoutSeconds = (int) Math.max(1, healthCheckTimeout.toSeconds());
+  }
+
+  /**
+   * 定期的なヘルスチェックの開始
+   *
+   * @param interval 確認の間隔
+   */
+  public void startHealthChecks(Duration interval) {
+    healthChecker = Executors.newSingleThreadScheduledExecutor(r -> {
+      var thread = new Thread(r, "replica-health-check");
+      thread.setDaemon(true);
+      return thread;
+    });
+    var millis = interval.toMillis();
+    healthChecker.scheduleWithFixedDelay(this::checkReplicas, millis, millis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * 停止
+   * ヘルスチェックを止め、主DB・レプリカの接続プールを閉じる
+   */
+  @Override
+  public void close() {
+    if (healthChecker != null) {
+      healthChecker.shutdownNow();
+    }
+    for (var dataSource : getResolvedDataSources().values()) {
+      if (dataSource instanceof AutoCloseable closeable) {
+        try {
+          closeable.close();
+        } catch (Exception e) {
+          log.warn("データソースを閉じられませんでした", e);
+        }
+      }
+    }
+  }
+
+  /**
+   * レプリカのヘルスチェック
+   * 接続を取得して応答を確認し、正常なレプリカの一覧を差し替える
+   */
+  public void checkReplicas() {
+    var healthy = new ArrayList<String>(replicas.size());
+    for (var entry : replicas.entrySet()) {
+      try (var connection = entry.getValue().getConnection()) {
+        if (connection.isValid(healthCheckTimeoutSeconds)) {
+          healthy.add(entry.getKey());
+          continue;
+        }
+      } catch (SQLException e) {
+        log.debug("レプリカへの接続に失敗: {}", entry.getKey(), e);
+      }
+      if (healthyReplicas.contains(entry.getKey())) {
+        log.warn("レプリカを振分け先から外します: {}", entry.getKey());
+      }
+    }
+    healthy.sort(null);
+    if (!healthy.equals(healthyReplicas)) {
+      log.info("振分け先のレプリカ: {}", healthy);
+    }
+    healthyReplicas = List.copyOf(healthy);
+  }
+
+  /**
+   * 正常なレプリカの一覧
+   *
+   * @return 正常なレプリカのキー
+   */
+  public List<String> getHealthyReplicas() {
+    return healthyReplicas;
+  }
+
+  /**
+   * 接続先のキーの決定
+   *
+   * @return 主DBまたはレプリカのキー
+   */
+  @Override
+  protected Object determineCurrentLookupKey() {
+    if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+      recordWriteOnCommit();
+      return PRIMARY;
+    }
+    if (recentlyWritten(currentUser())) {
+      return PRIMARY;
+    }
+    var healthy = healthyReplicas;
+    if (healthy.isEmpty()) {
+      return PRIMARY;
+    }
+    return healthy.get(Math.floorMod(next.getAndIncrement(), healthy.size()));
+  }
+
+  /**
+   * 書込みトランザクションのコミット時に書込み時刻を記録する
+   * (トランザクション外の接続は記録しない)
+   */
+  private void recordWriteOnCommit() {
+    if (!TransactionSynchronizationManager.isSynchronizationActive()
+        || TransactionSynchronizationManager.hasResource(writeMarkerKey)) {
+      return;
+    }
+    var user = currentUser();
+    TransactionSynchronizationManager.bindResource(writeMarkerKey, Boolean.TRUE);
+    TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+      @Override
+      public void afterCommit() {
+        markWritten(user);
+      }
+
+      @Override
+      public void afterCompletion(int status) {
+        TransactionSynchronizationManager.unbindResourceIfPossible(writeMarkerKey);
+      }
+    });
+  }
+
+  /**
+   * 書込み時刻の記録
+   *
+   * @param user ユーザーのキー({@code null}は未ログイン)
+   */
+  void markWritten(String user) {
+    var now = System.nanoTime();
+    if (user == null) {
+      lastAnonymousWrite.set(now);
+    } else {
+      lastWriteByUser.put(user, now);
+    }
+  }
+
+  /**
+   * 書込み後の一定時間内か確認
+   *
+   * @param user ユーザーのキー({@code null}は未ログイン)
+   * @return 本人または未ログインの書込みから一定時間内の場合は{@code true}
+   */
+  private boolean recentlyWritten(String user) {
+    var now = System.nanoTime();
+    var anonymous = lastAnonymousWrite.get();
+    if (anonymous != 0 && now - anonymous < windowNanos) {
+      return true;
+    }
+    if (user == null) {
+      return false;
+    }
+    var last = lastWriteByUser.getIfPresent(user);
+    return last != null && now - last < windowNanos;
+  }
+
+  /**
+   * ログイン中のユーザーを識別するキー
+   * メアドは更新で変わる(refreshIfSelfで差し替わる)ため、アカウントの場合はIDを使う
+   *
+   * @return ユーザーのキー(未ログインの場合は{@code null})
+   */
+  private static String currentUser() {
+    var auth = SecurityContextHolder.getContext().getAuthentication();
+    if (auth == null || auth instanceof AnonymousAuthenticationToken || !auth.isAuthenticated()) {
+      return null;
+    }
+    if (auth.getPrincipal() instanceof AccountPrincipal principal) {
+      return "account:" + principal.getId();
+    }
+    return auth.getName();
+  }
+}
@@ -1,19 +1,40 @@
 package jp.ne.takes.config;
 
+import java.time.Duration;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.HttpMethod;
+import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
 import org.springframework.security.config.annotation.method.configuration.EnableMethodSecurity;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
-import org.springframework.security.crypto.factory.PasswordEncoderFactories;
+import org.springframework.security.config.http.SessionCreationPolicy;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.web.SecurityFilterChain;
+import org.springframework.security.web.authentication.AuthenticationFailureHandler;
+import org.springframework.security.web.authentication.ExceptionMappingAuthenticationFailureHandler;
+import org.springframework.security.web.context.DelegatingSecurityContextRepository;
+import org.springframework.security.web.context.HttpSessionSecurityContextRepository;
+import org.springframework.security.web.context.RequestAttributeSecurityContextRepository;
+import org.springframework.security.web.context.SecurityContextRepository;
+import org.springframework.security.web.csrf.CookieCsrfTokenRepository;
+import org.springframework.security.web.savedrequest.NullRequestCache;
+
+import io.micrometer.core.instrument.MeterRegistry;
 
-import jp.ne.takes.repository.AccountRepository;
+import jp.ne.takes.security.AccountTokenService;
+import jp.ne.takes.security.AccountUserCache;
 import jp.ne.takes.security.AccountUserDetailsService;
-import jp.ne.takes.security.PasswordUpgradeSuccessHandler;
+import jp.ne.takes.security.AsyncRehashingAuthenticationProvider;
+import jp.ne.takes.security.BcryptStrengthCalibrator;
+import jp.ne.takes.security.OffloadingPasswordEncoder;
+import jp.ne.takes.security.PasswordHashingBusyException;
+import jp.ne.takes.security.PasswordRehasher;
+import jp.ne.takes.security.TokenSecurityContextRepository;
 import lombok.RequiredArgsConstructor;
 
 
@@ -26,53 +47,118 @@ import lombok.RequiredArgsConstructor;
  *   <li>ログイン処理のページとURL</li>
  *   <li>ログアウト処理のURLとリダイレクト先</li>
  *   <li>ユーザー認証に使うサービスとパスワードの取り扱い</li>
+ *   <li>ログイン状態の保持方法（account.auth.mode）</li>
  * </ul>
  * 
+ * account.auth.mode=session（既定）はログイン状態をセッションに保存し、
+ * token はログイン時に署名付きトークンを発行してCookieに保存する（サーバー側にセッションを持たない）。
+ * 
  * 現時点では開発用にパスワードは平文（NoOpPasswordEncoder）で処理。
  */
 @Configuration // Spring による Java ベースの設定クラスであることを示す
 @EnableWebSecurity // Spring Security を有効化する
 @EnableMethodSecurity //AccountControllerの@PreAuthorize("hasRole('ADMIN')")を有効にする
+@EnableAsync // ログイン後の再ハッシュ(PasswordRehasher)を非同期で実行する
 @RequiredArgsConstructor
 public class SecurityConfig {
 
   private final AccountUserDetailsService userDetailsService;
+  private final AccountUserCache userCache;
   
+  /**
+  * パスワードエンコーダの定義。
+  * 
+  * bcrypt の強度は起動時の計測で決めた値を使う（BcryptStrengthCalibrator）。
+  * ハッシュ処理はリクエストスレッドではなく専用スレッド（CPU数分）で実行し、
+  * 待ち行列が満杯の場合は待たずに混雑として失敗させる。
+  * 
+  * @param calibrator bcrypt の強度の自動調整
+  * @param registry メトリクスの登録先
+  * @param threads スレッド数（0の場合はCPU数）
+  * @param queueCapacity 待ち行列の上限
+  * @param maxWait 1件あたりの待ち時間の上限
+  * @return PasswordEncoderのインスタンス
+  */
   @Bean
-  public PasswordEncoder passwordEncoder() {
-      // {bcrypt}, {noop}, {pbkdf2}, {scrypt} 等の接頭辞で自動判別
-      return PasswordEncoderFactories.createDelegatingPasswordEncoder();
+  public PasswordEncoder passwordEncoder(
+      BcryptStrengthCalibrator calibrator,
+      MeterRegistry registry,
+      @Value("${account.hashing.threads:0}") int threads,
+      @Value("${account.hashing.queue-capacity:64}") int queueCapacity,
+      @Value("${account.hashing.max-wait:5s}") Duration maxWait) {
+      // {bcrypt}, {noop}, {pbkdf2@SpringSecurity_v5_8} の接頭辞で自動判別
+      var delegating = calibrator.createDelegatingPasswordEncoder();
+      return new OffloadingPasswordEncoder(delegating, threads, queueCapacity, maxWait, registry);
   }
   
   /**
   * 認証プロバイダの定義。
   * 
   * 認証処理に UserDetailsService と PasswordEncoder を使用するように指定。
+  * 短時間の再ログインでDBを照会しないよう、ユーザー情報のキャッシュも設定する。
+  * 保存済みハッシュの方式が現在と異なる・強度が低い場合は、ログイン後に非同期で再ハッシュする。
   * 
+  * @param passwordEncoder パスワードエンコーダ
+  * @param rehasher 非同期の再ハッシュ
   * @return DaoAuthenticationProviderのインスタンス
   */
   @Bean
-  public DaoAuthenticationProvider authProvider() {
-    var provider = new DaoAuthenticationProvider(); // 認証プロバイダーを作る
+  public DaoAuthenticationProvider authProvider(PasswordEncoder passwordEncoder, PasswordRehasher rehasher) {
+    // 認証プロバイダーを作り、パスワードの照合方法を設定
+    var provider = new AsyncRehashingAuthenticationProvider(passwordEncoder, rehasher);
     provider.setUserDetailsService(userDetailsService); // ユーザー情報の取得方法を設定
-    provider.setPasswordEncoder(passwordEncoder()); // パスワードの照合方法を設定
+    provider.setUserCache(userCache); // ユーザー情報のキャッシュを設定
     return provider;  // Spring に登録
    }
 
-  // 平文パスワードをログイン時に暗号化するメソッド。最終的に削除予定。
+  /**
+  * 認証失敗時の遷移先の定義。
+  * 
+  * @return 例外の種類で遷移先を切り替えるハンドラ
+  */
+  private AuthenticationFailureHandler authenticationFailureHandler() {
+    var handler = new ExceptionMappingAuthenticationFailureHandler();
+    handler.setDefaultFailureUrl("/?error");
+    handler.setExceptionMappings(Map.of(PasswordHashingBusyException.class.getName(), "/?busy"));
+    return handler;
+  }
+
+  /**
+  * ログイン状態の保存先の定義。
+  * 
+  * session の場合は Spring Security の既定と同じ（リクエスト属性とセッション）、
+  * token の場合は署名付きトークンのCookie。
+  * 
+  * @param authMode ログイン状態の保持方法（session/token）
+  * @param tokenService トークンの発行と検証
+  * @return SecurityContextRepositoryのインスタンス
+  */
   @Bean
-  public PasswordUpgradeSuccessHandler passwordUpgradeSuccessHandler(
-          AccountRepository accountRepository,
-          PasswordEncoder passwordEncoder) {
-      return new PasswordUpgradeSuccessHandler(accountRepository, passwordEncoder);
+  public SecurityContextRepository securityContextRepository(
+      @Value("${account.auth.mode:session}") String authMode,
+      AccountTokenService tokenService) {
+    if ("token".equals(authMode)) {
+      return new TokenSecurityContextRepository(tokenService);
+    }
+    return new DelegatingSecurityContextRepository(
+        new RequestAttributeSecurityContextRepository(), new HttpSessionSecurityContextRepository());
   }
-  
+
   @Bean
   // SecurityFilterChain セキュリティルール（認可・ログイン・ログアウトなど）を定義
   public SecurityFilterChain filterChain(
-       HttpSecurity http, 
-       PasswordUpgradeSuccessHandler passwordUpgradeSuccessHandler) throws Exception {  
+       HttpSecurity http,
+       SecurityContextRepository securityContextRepository) throws Exception {  
+    if (securityContextRepository instanceof TokenSecurityContextRepository) {
+      // トークン方式：セッションを作らない（CSRFトークンもCookieに保存し、ログイン前のURLは記憶しない）
+      http
+        .sessionManagement(session -> session.sessionCreationPolicy(SessionCreationPolicy.STATELESS))
+        .csrf(csrf -> csrf.csrfTokenRepository(new CookieCsrfTokenRepository()))
+        .requestCache(cache -> cache.requestCache(new NullRequestCache()));
+    }
     http 
+      // ログイン状態の保存先（ログイン成功時に保存）
+      .securityContext(context -> context.securityContextRepository(securityContextRepository))
       .authorizeHttpRequests(auth -> auth // パスへのアクセス制御を行う
           // ログイン画面やCSSなどは誰でもアクセス可
           .requestMatchers("/", "/login", "/styles.css").permitAll()
@@ -88,12 +174,10 @@ public class SecurityConfig {
           .loginProcessingUrl("/login")
           .usernameParameter("username")
           .passwordParameter("password")
-          // noop→bcrypt変換用のコード。最終的に削除する予定
-          .successHandler(passwordUpgradeSuccessHandler)
-          // 認証成功後に遷移するページ PasswordUpgradeSuccessHandlerクラス削除後に有効にする
-          //.defaultSuccessUrl("/home", true)
-          // 認証失敗時に遷移するURL
-          .failureUrl("/?error")
+          // 認証成功後に遷移するページ（{noop}の移行はPasswordMigrationJobで一括実行）
+          .defaultSuccessUrl("/home", true)
+          // 認証失敗時に遷移するURL（ハッシュ処理の混雑時は /?busy）
+          .failureHandler(authenticationFailureHandler())
           .permitAll()
       )
       .logout(logout -> logout
@@ -102,9 +186,9 @@ public class SecurityConfig {
           // ログアウト後にリダイレクトするページ
           .logoutSuccessUrl("/")
           .invalidateHttpSession(true)
-          .deleteCookies("JSESSIONID")
+          .deleteCookies("JSESSIONID", TokenSecurityContextRepository.COOKIE_NAME)
       );
 
   return http.build();
  }
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,53 @@
+package jp.ne.takes.config;
+
+import org.springframework.beans.factory.BeanClassLoaderAware;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.convert.ConversionService;
+import org.springframework.core.convert.support.GenericConversionService;
+import org.springframework.core.serializer.support.DeserializingConverter;
+import org.springframework.core.serializer.support.SerializingConverter;
+
+import jp.ne.takes.security.CompactSessionCodec;
+
+/**
+ * 共有セッションの設定クラス
+ *
+ * Spring Session JDBC(-Pjdbc-session でビルドした場合だけ含まれる)がある場合に有効になり、
+ * セッションをDB(SPRING_SESSION・SPRING_SESSION_ATTRIBUTES)に保存する。
+ * どのサーバーでも同じセッションを読めるため、複数台で動かしてもスティッキーセッションが不要になり、
+ * 各サーバーのヒープにセッションを溜めない。
+ * 属性の直列化は {@link CompactSessionCodec}(ログイン中のユーザーはID・メアド・権限名だけ)。
+ *
+ * @author k_igari
+ * @author Learning System Department
+ * @author TAKES Co., Ltd.
+ * @version 1.0 Date 2023/10
+ */
+@Configuration
+@ConditionalOnClass(name = "org.springframework.session.jdbc.JdbcIndexedSessionRepository")
+public class SessionConfig implements BeanClassLoaderAware {
+  /** 標準の直列化で復元するクラスのクラスローダ */
+  private ClassLoader classLoader;
+
+  @Override
+  public void setBeanClassLoader(ClassLoader classLoader) {
+    this.classLoader = classLoader;
+  }
+
+  /**
+   * セッション属性とDBの列(BLOB)の変換
+   * Spring Session JDBCがこのBean名で参照する
+   *
+   * @return 変換サービス
+   */
+  @Bean("springSessionConversionService")
+  public ConversionService springSessionConversionService() {
+    var codec = new CompactSessionCodec(classLoader);
+    var conversionService = new GenericConversionService();
+    conversionService.addConverter(Object.class, byte[].class, new SerializingConverter(codec));
+    conversionService.addConverter(byte[].class, Object.class, new DeserializingConverter(codec));
+    return conversionService;
+  }
+}
@@ -0,0 +1,143 @@
+package jp.ne.takes.config;
+
+import java.sql.Driver;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 仮想スレッドの設定クラス
+ *
+ * account.virtual-threads.enabled=true の場合だけ有効になり、
+ * Tomcatのリクエスト処理(コントローラ・サービス・DAOの呼出しを含む)と@Asyncの処理を
+ * 1件ごとの仮想スレッドで実行する。I/Oの待ちの間はキャリアスレッドを手放すため、
+ * スレッドプールの上限(server.tomcat.threads.max)で詰まらない。
+ * ただし synchronized の中で待つ間はキャリアスレッドを固定する(JDK 23以前)。
+ *
+ * <ul>
+ *   <li>Java 21以降が必要(ビルドはJava 17のままにするため、APIはリフレクションで呼ぶ)</li>
+ *   <li>bcryptはCPUを使う処理のため、仮想スレッドにせずハッシュ処理用スレッド(account.hashing.*)で実行する</li>
+ *   <li>キャリアスレッドを固定しない場合、同時に処理できる件数はDBの接続プール(spring.datasource.hikari.maximum-pool-size)で決まる</li>
+ *   <li>このアプリケーションのDAOの待ちはReentrantLock・キュー・Futureで行い、synchronizedは使わない</li>
+ *   <li>MySQLのJDBCドライバ(mysql-connector-j 8.0.33)は通信をsynchronizedの中で待つため、
+ *       JDK 23以前ではDBの応答待ちの間キャリアスレッドを固定する。同時にDBを待てる件数がCPU数で頭打ちになり、
+ *       MySQLではプラットフォームスレッドより遅くなりうる(起動時に警告する)。
+ *       効果を得るにはsynchronizedを除いたドライバ(9.0以降)かJDK 24以降(JEP 491)が必要</li>
+ *   <li>キャリアスレッドの固定は -Djdk.tracePinnedThreads=short またはJFRの jdk.VirtualThreadPinned で確認できる</li>
+ * </ul>
+ *
+ * @author k_igari
+ * @author Learning System Department
+ * @author TAKES Co., Ltd.
+ * @version 1.0 Date 2023/10
+ */
+@Slf4j
+@Configuration
+@ConditionalOnProperty(name = "account.virtual-threads.enabled", havingValue = "true")
+public class VirtualThreadConfig {
+  /** リクエスト処理用の実行器(1件ごとに仮想スレッドを作る) */
+  private final ExecutorService requestExecutor;
+
+  /**
+   * コンストラクタ
+   * 仮想スレッドを使えないJavaの場合は起動を失敗させる
+   */
+  public VirtualThreadConfig() {
+    this.requestExecutor = newThreadPerTaskExecutor(virtualThreadFactory("http-vt-"));
+    log.info("リクエストを仮想スレッドで処理します (Java {})", Runtime.version());
+    warnIfJdbcPins();
+  }
+
+  /**
+   * JDBCの応答待ちでキャリアスレッドを固定する組合せの場合に警告する
+   * (mysql-connector-j 8.x はsynchronizedの中で通信を待ち、JDK 23以前ではその間キャリアスレッドを固定する)
+   */
+  private static void warnIfJdbcPins() {
+    if (Runtime.version().feature() >= 24) {
+      return;
+    }
+    try {
+      var driver = (Driver) Class.forName("com.mysql.cj.jdbc.Driver").getDeclaredConstructor().newInstance();
+      if (driver.getMajorVersion() < 9) {
+        log.warn("MySQLのJDBCドライバ {}.{} はDBの応答待ちの間キャリアスレッドを固定します。"
+            + "同時に待てる件数がCPU数で頭打ちになるため、ドライバ9.0以降かJava 24以降で使用してください",
+            driver.getMajorVersion(), driver.getMinorVersion());
+      }
+    } catch (ReflectiveOperationException | LinkageError e) {
+      // MySQLのドライバを使わない構成
+    }
+  }
+
+  /**
+   * Tomcatのリクエスト処理を仮想スレッドにする
+   *
+   * @return プロトコルハンドラーの設定
+   */
+  @Bean
+  public TomcatProtocolHandlerCustomizer<?> virtualThreadProtocolHandlerCustomizer() {
+    return protocolHandler -> protocolHandler.setExecutor(requestExecutor);
+  }
+
+  /**
+   * 非同期処理(ログイン後の再ハッシュ等の@Async・MVCの非同期処理)を仮想スレッドにする
+   *
+   * @return 1件ごとに仮想スレッドを作る実行器
+   */
+  @Bean(name = {"applicationTaskExecutor", "taskExecutor"})
+  public AsyncTaskExecutor applicationTaskExecutor() {
+    var executor = new SimpleAsyncTaskExecutor();
+    executor.setThreadFactory(virtualThreadFactory("task-vt-"));
+    return executor;
+  }
+
+  /**
+   * 停止
+   * 処理中のリクエストはTomcatの停止で終わっているため、実行器を閉じるだけ
+   */
+  @PreDestroy
+  public void shutdown() {
+    requestExecutor.shutdown();
+  }
+
+  /**
+   * 仮想スレッドのファクトリ(Thread.ofVirtual().name(prefix, 0).factory())
+   *
+   * @param prefix スレッド名の接頭辞
+   * @return 仮想スレッドのファクトリ
+   */
+  static ThreadFactory virtualThreadFactory(String prefix) {
+    try {
+      var builderType = Class.forName("java.lang.Thread$Builder");
+      var builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      builder = builderType.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+      return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("仮想スレッドにはJava 21以降が必要です(実行中: " + Runtime.version() + ")", e);
+    }
+  }
+
+  /**
+   * タスクごとにスレッドを作る実行器(Executors.newThreadPerTaskExecutor(factory))
+   *
+   * @param factory スレッドのファクトリ
+   * @return 実行器
+   */
+  static ExecutorService newThreadPerTaskExecutor(ThreadFactory factory) {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+          .invoke(null, factory);
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("仮想スレッドにはJava 21以降が必要です(実行中: " + Runtime.version() + ")", e);
+    }
+  }
+}
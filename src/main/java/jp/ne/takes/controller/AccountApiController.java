@@ -0,0 +1,84 @@
+package jp.ne.takes.controller;
+
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import jp.ne.takes.dto.AccountPage;
+import jp.ne.takes.dto.AccountPageRequest;
+import jp.ne.takes.dto.AccountSort;
+import jp.ne.takes.dto.AccountSummary;
+import jp.ne.takes.service.ReactiveAccountService;
+import lombok.RequiredArgsConstructor;
+import reactor.core.publisher.Mono;
+
+/**
+ * アカウント照会APIコントローラークラスの定義
+ * 一覧・照会をJSONで返す。結果はMonoで返し、DBの応答を待つ間はリクエストのスレッドを解放する
+ * (非同期のサーブレット処理。応答はR2DBCの結果が届いた時点で書き出す)
+ * 
+ * @author k_igari  
+ * @author Learning System Department
+ * @author TAKES Co., Ltd.
+ * @version 1.0 Date 2023/10
+ */
+@RestController
+@RequestMapping("/api/accounts")
+@RequiredArgsConstructor
+public class AccountApiController {
+  /** ノンブロッキングのアカウント照会サービス */
+  private final ReactiveAccountService accountService;
+
+  /**
+   * ハンドラーメソッド 
+   * URL: http://localhost:8080/api/accounts?sort=&afterId=&afterEmail=&size=
+   * HTTPメソッド: GET
+   * キーセットページングで1ページ分だけ返す
+   *
+   * @param sort 並び順
+   * @param afterId カーソル：前ページ最終行のID
+   * @param afterEmail カーソル：前ページ最終行のメアド（メアド順のみ）
+   * @param size 1ページの件数
+   * @return 1ページ分のアカウントと次ページの要求
+   */
+  @GetMapping
+  public Mono<AccountPage> list(@RequestParam(name = "sort", required = false) AccountSort sort,
+                                @RequestParam(name = "afterId", required = false) Integer afterId,
+                                @RequestParam(name = "afterEmail", required = false) String afterEmail,
+                                @RequestParam(name = "size", required = false) Integer size) {
+    return accountService.findPage(AccountPageRequest.of(sort, afterId, afterEmail, size));
+  }
+
+  /**
+   * ハンドラーメソッド 
+   * URL: http://localhost:8080/api/accounts/{id}
+   * HTTPメソッド: GET
+   *
+   * @param id 取得するアカウントのID
+   * @return アカウントの概要(該当なしは404)
+   */
+  @GetMapping("/{id}")
+  public Mono<ResponseEntity<AccountSummary>> byId(@PathVariable(name = "id") int id) {
+    return accountService.findById(id)
+        .map(ResponseEntity::ok)
+        .defaultIfEmpty(ResponseEntity.notFound().build());
+  }
+
+  /**
+   * ハンドラーメソッド 
+   * URL: http://localhost:8080/api/accounts/search?email=
+   * HTTPメソッド: GET
+   *
+   * @param email 取得するアカウントのメアド
+   * @return アカウントの概要(該当なしは404)
+   */
+  @GetMapping("/search")
+  public Mono<ResponseEntity<AccountSummary>> byEmail(@RequestParam(name = "email") String email) {
+    return accountService.findByEmail(email)
+        .map(ResponseEntity::ok)
+        .defaultIfEmpty(ResponseEntity.notFound().build());
+  }
+}
@@ -1,5 +1,7 @@
 package jp.ne.takes.controller;
 
+import java.io.IOException;
+
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.stereotype.Controller;
@@ -10,12 +12,18 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.ModelAttribute;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.multipart.MultipartFile;
 
+import jakarta.servlet.http.HttpServletResponse;
 import jp.ne.takes.dto.AccountDto;
+import jp.ne.takes.dto.AccountPageRequest;
+import jp.ne.takes.dto.AccountSort;
 import jp.ne.takes.dto.AccountUpdateForm;
 import jp.ne.takes.dto.PasswordChangeForm;
 import jp.ne.takes.dto.User;
 import jp.ne.takes.security.AccountPrincipal;
+import jp.ne.takes.service.AccountImportService;
 import jp.ne.takes.service.AccountService;
 import lombok.RequiredArgsConstructor;
 
@@ -32,25 +40,63 @@ import lombok.RequiredArgsConstructor;
 public class AccountController {
   /** アカウントサービス */
   private final AccountService accountService;
+  /** アカウント一括取込みサービス */
+  private final AccountImportService accountImportService;
  
   /**
    * ハンドラーメソッド 
    * URL: http://localhost:8080/account-list
    * HTTPメソッド: GET
+   * キーセットページングで1ページ分だけ表示
    *
+   * @param sort 並び順
+   * @param afterId カーソル：前ページ最終行のID
+   * @param afterEmail カーソル：前ページ最終行のメアド（メアド順のみ）
+   * @param size 1ページの件数
    * @param mdl Modelオブジェクト
    * @return "account-list"（アカウント一覧画面を表示）
    */
   @GetMapping("/account/list")
-  public String list(Model mdl) {
-    // アカウント一覧を取得
-    var list = accountService.findAll();
-    // モデルにアカウント一覧を設定
-    mdl.addAttribute("accountList",list);
+  public String list(@RequestParam(name = "sort", required = false) AccountSort sort,
+                     @RequestParam(name = "afterId", required = false) Integer afterId,
+                     @RequestParam(name = "afterEmail", required = false) String afterEmail,
+                     @RequestParam(name = "size", required = false) Integer size,
+                     Model mdl) {
+    // アカウント一覧の1ページ分を取得
+    var request = AccountPageRequest.of(sort, afterId, afterEmail, size);
+    var page = accountService.findPage(request);
+    // モデルにアカウント一覧とページ情報を設定
+    mdl.addAttribute("accountList", page.getContent());
+    mdl.addAttribute("pageRequest", request);
+    mdl.addAttribute("page", page);
     // ビューにアカウント一覧画面を設定 
     return "account-list";
   }
 
+  /**
+   * アカウントのエクスポート：ハンドラーメソッド 
+   * URL: http://localhost:8080/account/export?format=CSV|NDJSON
+   * HTTPメソッド: GET
+   * 全件を1行ずつレスポンスへ直接書き出す（一覧をメモリに保持しない）
+   *
+   * @param format 出力形式
+   * @param response HttpServletResponseオブジェクト
+   * @throws IOException 書き出しに失敗した場合
+   */
+  @PreAuthorize("hasRole('ADMIN')")
+  @GetMapping("/account/export")
+  public void export(@RequestParam(name = "format", defaultValue = "CSV") AccountExportFormat format,
+                     HttpServletResponse response) throws IOException {
+    response.setContentType(format.getContentType());
+    response.setCharacterEncoding("UTF-8");
+    response.setHeader("Content-Disposition", "attachment; filename=\"accounts." + format.getExtension() + "\"");
+    var writer = response.getWriter();
+    writer.write(format.header());
+    // 1件ずつ変換して書き出す(バッファが一杯になるたびにクライアントへ送信される)
+    accountService.exportAll(account -> writer.write(format.format(account)));
+    writer.flush();
+  }
+
   /**
    * ハンドラーメソッド 
    * URL: http://localhost:8080/account/id
@@ -68,6 +114,7 @@ public class AccountController {
     var form = new AccountUpdateForm();
     form.setId(accountOpt.getId());
     form.setEmail(accountOpt.getEmail());
+    form.setVersion(accountOpt.getVersion());
     mdl.addAttribute("accountUpdateForm", form);
     return "account-form";
   }
@@ -194,4 +241,24 @@ public class AccountController {
     // 失敗
     return "account-register";
   }
+
+  /**
+   * アカウントの一括取込み：ハンドラーメソッド（管理者のみ）
+   * URL: http://localhost:8080/account/import
+   * HTTPメソッド: POST
+   * CSV(email,password[,role])を1行ずつ読み、まとめて登録する
+   *
+   * @param file アップロードされたCSVファイル
+   * @param mdl Modelオブジェクト
+   * @return "account-import"（取込み結果画面を表示）
+   * @throws IOException ファイルの読込みに失敗した場合
+   */
+  @PreAuthorize("hasRole('ADMIN')")
+  @PostMapping("/account/import")
+  public String importAccounts(@RequestParam("file") MultipartFile file, Model mdl) throws IOException {
+    try (var in = file.getInputStream()) {
+      mdl.addAttribute("result", accountImportService.importCsv(in));
+    }
+    return "account-import";
+  }
 }
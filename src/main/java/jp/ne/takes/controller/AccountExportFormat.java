@@ -0,0 +1,126 @@
+package jp.ne.takes.controller;
+
+import jp.ne.takes.dto.AccountDto;
+
+/**
+ * アカウントエクスポートの出力形式
+ * 1行ずつ文字列に変換してレスポンスへ直接書き出す
+ * ※パスワード(ハッシュ)は出力しない
+ *
+ * @author k_igari
+ * @author Learning System Department
+ * @author TAKES Co., Ltd.
+ * @version 1.0 Date 2023/10
+ */
+public enum AccountExportFormat {
+  /** CSV(ヘッダー行あり) */
+  CSV("text/csv", "csv") {
+    @Override
+    public String header() {
+      return "id,email,role\r\n";
+    }
+
+    @Override
+    public String format(AccountDto account) {
+      return account.getId() + "," + csv(account.getEmail()) + "," + account.getRole() + "\r\n";
+    }
+  },
+  /** 改行区切りJSON(1行1アカウント) */
+  NDJSON("application/x-ndjson", "ndjson") {
+    @Override
+    public String header() {
+      return "";
+    }
+
+    @Override
+    public String format(AccountDto account) {
+      return "{\"id\":" + account.getId()
+          + ",\"email\":" + json(account.getEmail())
+          + ",\"role\":\"" + account.getRole() + "\"}\n";
+    }
+  };
+
+  /** Content-Type */
+  private final String contentType;
+  /** ファイル拡張子 */
+  private final String extension;
+
+  private AccountExportFormat(String contentType, String extension) {
+    this.contentType = contentType;
+    this.extension = extension;
+  }
+
+  /**
+   * Content-Typeの取得
+   *
+   * @return Content-Type
+   */
+  public String getContentType() {
+    return contentType;
+  }
+
+  /**
+   * ファイル拡張子の取得
+   *
+   * @return ファイル拡張子
+   */
+  public String getExtension() {
+    return extension;
+  }
+
+  /**
+   * 先頭に1回だけ出力する文字列
+   *
+   * @return ヘッダー
+   */
+  public abstract String header();
+
+  /**
+   * アカウント1件分の行に変換
+   *
+   * @param account アカウント
+   * @return 改行付きの1行
+   */
+  public abstract String format(AccountDto account);
+
+  /**
+   * CSVの値をエスケープ
+   *
+   * @param value 値
+   * @return 必要に応じてダブルクォートで囲んだ値
+   */
+  private static String csv(String value) {
+    if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+      return value;
+    }
+    return "\"" + value.replace("\"", "\"\"") + "\"";
+  }
+
+  /**
+   * JSON文字列リテラルに変換
+   *
+   * @param value 値
+   * @return ダブルクォートで囲みエスケープした値
+   */
+  private static String json(String value) {
+    var sb = new StringBuilder(value.length() + 2).append('"');
+    for (var i = 0; i < value.length(); i++) {
+      var c = value.charAt(i);
+      switch (c) {
+        case '"' -> sb.append("\\\"");
+        case '\\' -> sb.append("\\\\");
+        case '\n' -> sb.append("\\n");
+        case '\r' -> sb.append("\\r");
+        case '\t' -> sb.append("\\t");
+        default -> {
+          if (c < 0x20) {
+            sb.append(String.format("\\u%04x", (int) c));
+          } else {
+            sb.append(c);
+          }
+        }
+      }
+    }
+    return sb.append('"').toString();
+  }
+}
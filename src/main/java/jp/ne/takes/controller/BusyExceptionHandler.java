@@ -0,0 +1,39 @@
+package jp.ne.takes.controller;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+import jakarta.servlet.http.HttpServletResponse;
+import jp.ne.takes.security.PasswordHashingBusyException;
+
+/**
+ * 混雑時の例外ハンドラー
+ * 登録・パスワード変更でハッシュ処理が混雑している場合に503の混雑画面を返す
+ * ※ログイン時の混雑はSecurityConfigの認証失敗ハンドラーで /?busy へ遷移
+ *
+ * @author k_igari
+ * @author Learning System Department
+ * @author TAKES Co., Ltd.
+ * @version 1.0 Date 2023/10
+ */
+@ControllerAdvice
+public class BusyExceptionHandler {
+
+  /** 再試行までの秒数(Retry-After) */
+  private static final String RETRY_AFTER_SECONDS = "5";
+
+  /**
+   * ハッシュ処理の混雑
+   *
+   * @param response HttpServletResponseオブジェクト
+   * @return "busy" (混雑画面を表示)
+   */
+  @ExceptionHandler(PasswordHashingBusyException.class)
+  @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+  public String busy(HttpServletResponse response) {
+    response.setHeader("Retry-After", RETRY_AFTER_SECONDS);
+    return "busy";
+  }
+}
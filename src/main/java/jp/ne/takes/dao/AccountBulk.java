@@ -0,0 +1,179 @@
+package jp.ne.takes.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.function.Function;
+
+import jp.ne.takes.dto.AccountDto;
+
+/**
+ * アカウント一括作成(createAll)の共通処理
+ * 1回のINSERT(またはバッチ)にまとめる件数の分割と、メアド重複の振分けを行う
+ * 振分け(登録済みの確認)の後に同じメアドが同時に登録された場合は、まとめたINSERTを取り消して
+ * 1件ずつ登録し直し、一意制約に当たった行だけを除く(他の行は作成する)
+ *
+ * @author k_igari
+ * @author Learning System Department
+ * @author TAKES Co., Ltd.
+ * @version 1.0 Date 2023/10
+ */
+final class AccountBulk {
+  /** 1回のINSERT(またはバッチ)にまとめる件数 */
+  static final int CHUNK_SIZE = 500;
+  /** 1件のINSERT */
+  static final String INSERT_SQL = "INSERT INTO accounts (email, password, role, version) VALUES (?, ?, ?, 0)";
+
+  /**
+   * まとめたINSERT(複数行INSERTまたはJDBCバッチ)
+   */
+  @FunctionalInterface
+  interface Insert {
+    /**
+     * アカウントをまとめて作成
+     *
+     * @param connection 接続(トランザクション中)
+     * @param accounts 作成するアカウント
+     * @throws SQLException 作成できない場合
+     */
+    void execute(Connection connection, List<AccountDto> accounts) throws SQLException;
+  }
+
+  private AccountBulk() {
+  }
+
+  /**
+   * 一覧をCHUNK_SIZE件ずつに分割
+   *
+   * @param accounts アカウント一覧
+   * @return 分割した一覧
+   */
+  static List<List<AccountDto>> chunks(List<AccountDto> accounts) {
+    var chunks = new ArrayList<List<AccountDto>>((accounts.size() + CHUNK_SIZE - 1) / CHUNK_SIZE);
+    for (var from = 0; from < accounts.size(); from += CHUNK_SIZE) {
+      chunks.add(accounts.subList(from, Math.min(from + CHUNK_SIZE, accounts.size())));
+    }
+    return chunks;
+  }
+
+  /**
+   * メアドが重複するアカウントの振分け
+   * 一覧内で重複するもの(2件目以降)と、既に登録済みのものを除く
+   *
+   * @param chunk アカウント一覧
+   * @param existing メアド一覧のうち登録済みのものを返す照会
+   * @param rejected 除いたアカウントの追加先
+   * @return 作成するアカウント
+   */
+  static List<AccountDto> accept(List<AccountDto> chunk, Function<List<String>, Collection<String>> existing,
+      List<AccountDto> rejected) {
+    var emails = chunk.stream().map(AccountDto::getEmail).distinct().toList();
+    var used = new HashSet<>(existing.apply(emails));
+    var accepted = new ArrayList<AccountDto>(chunk.size());
+    for (var account : chunk) {
+      // 登録済み、または一覧内の先行するアカウントが使用
+      if (!used.add(account.getEmail())) {
+        rejected.add(account);
+      } else {
+        accepted.add(account);
+      }
+    }
+    return accepted;
+  }
+
+  /**
+   * 振り分けたアカウントの作成
+   * まとめたINSERTが一意制約に当たった場合(振分け後に同じメアドが登録された)は、セーブポイントまで戻して
+   * 1件ずつ作成し直し、一意制約に当たったアカウントを除いた一覧に追加する
+   *
+   * @param connection 接続(トランザクション中)
+   * @param accepted 作成するアカウント
+   * @param insert まとめたINSERT
+   * @param rejected 除いたアカウントの追加先
+   * @throws SQLException 一意制約以外の理由で作成できない場合
+   */
+  static void insert(Connection connection, List<AccountDto> accepted, Insert insert, List<AccountDto> rejected)
+      throws SQLException {
+    if (accepted.isEmpty()) {
+      return;
+    }
+    var savepoint = connection.setSavepoint();
+    try {
+      insert.execute(connection, accepted);
+      connection.releaseSavepoint(savepoint);
+      return;
+    } catch (SQLException e) {
+      if (!isDuplicate(e)) {
+        throw e;
+      }
+      connection.rollback(savepoint);
+    }
+    try (var ps = connection.prepareStatement(INSERT_SQL)) {
+      for (var account : accepted) {
+        bind(ps, account);
+        var row = connection.setSavepoint();
+        try {
+          ps.executeUpdate();
+          connection.releaseSavepoint(row);
+        } catch (SQLException e) {
+          if (!isDuplicate(e)) {
+            throw e;
+          }
+          connection.rollback(row);
+          rejected.add(account);
+        }
+      }
+    }
+  }
+
+  /**
+   * JDBCバッチでまとめて作成(addBatch/executeBatch)
+   *
+   * @param connection 接続(トランザクション中)
+   * @param accounts 作成するアカウント
+   * @throws SQLException 作成できない場合
+   */
+  static void batch(Connection connection, List<AccountDto> accounts) throws SQLException {
+    try (var ps = connection.prepareStatement(INSERT_SQL)) {
+      for (var account : accounts) {
+        bind(ps, account);
+        ps.addBatch();
+      }
+      ps.executeBatch();
+    }
+  }
+
+  /**
+   * 1件分のパラメータの設定
+   *
+   * @param ps 文(email, password, role の順)
+   * @param account アカウント
+   * @throws SQLException 設定できない場合
+   */
+  static void bind(PreparedStatement ps, AccountDto account) throws SQLException {
+    ps.setString(1, account.getEmail());
+    ps.setString(2, account.getPassword());
+    ps.setString(3, account.getRole().name());
+  }
+
+  /**
+   * 一意制約違反か確認(原因・次の例外も確認)
+   *
+   * @param e 例外
+   * @return 一意制約違反の場合は{@code true}
+   */
+  private static boolean isDuplicate(SQLException e) {
+    for (Throwable t = e; t != null; t = t.getCause()) {
+      if (t instanceof SQLIntegrityConstraintViolationException) {
+        return true;
+      }
+    }
+    var next = e.getNextException();
+    return next != null && isDuplicate(next);
+  }
+}
@@ -2,8 +2,11 @@ package jp.ne.takes.dao;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 import jp.ne.takes.dto.AccountDto;
+import jp.ne.takes.dto.AccountPageRequest;
+import jp.ne.takes.dto.AccountSummary;
 
 /**
  * (*1) アカウントDAOインタフェース
@@ -14,6 +17,9 @@ import jp.ne.takes.dto.AccountDto;
  * @version 1.0 Date 2023/10
  */
 public interface AccountDao {
+  /** 全件ストリーム取得時のJDBCフェッチサイズ */
+  public static final int STREAM_FETCH_SIZE = 500;
+
   /**
    * メアドに対応するアカウントの取得
    *
@@ -28,6 +34,33 @@ public interface AccountDao {
    */
   public List<AccountDto> findAll();
 
+  /**
+   * 全アカウントの概要一覧の取得
+   * IDとメアドだけを取得する(パスワード・権限は読み込まない)
+   *
+   * @return 全アカウントの概要一覧
+   */
+  public List<AccountSummary> findAllSummaries();
+
+  /**
+   * アカウント一覧の1ページ分を取得
+   * カーソルより後ろの行を並び順に最大{@code request.getFetchSize()}件取得する
+   * IDとメアドだけを取得する(パスワード・権限は読み込まない)
+   *
+   * @param request ページ要求（並び順・カーソル・件数）
+   * @return 1ページ分のアカウントの概要（次ページ判定用に1件多く含む場合あり）
+   */
+  public List<AccountSummary> findPage(AccountPageRequest request);
+
+  /**
+   * 全アカウントを1件ずつ流すストリームの取得(エクスポート用)
+   * 全件をメモリに載せないため、件数に関係なくヒープ使用量は一定
+   * ※呼出し側のトランザクション内で消費し、try-with-resourcesで必ず閉じること
+   *
+   * @return 全アカウントのストリーム（ID昇順）
+   */
+  public Stream<AccountDto> streamAll();
+
   /**
    * IDに対応するアカウントの取得
    *
@@ -52,6 +85,19 @@ public interface AccountDao {
    */
   public void update(AccountDto account);
 
+  /**
+   * メアドの条件付き更新
+   * 版番号が{@code version}の場合だけメアドを書き換えて版番号を1増やす
+   * (DBでは UPDATE … WHERE id = ? AND version = ? の1文で実行し、事前の読込みはしない)
+   * 
+   * @param id 更新するアカウントのID
+   * @param version 画面表示時に読み込んだ版番号
+   * @param email 新しいメアド
+   * @return 更新した場合は{@code true}/他で更新・削除されていた場合は{@code false}
+   * @throws org.springframework.dao.DataIntegrityViolationException メアドが他のアカウントで使用されている場合
+   */
+  public boolean updateEmail(int id, int version, String email);
+
   /**
    * IDに対応するアカウントの削除
    *
@@ -73,4 +119,26 @@ public interface AccountDao {
    * @param account 作成するアカウント
    */
  public void create(AccountDto account);
+
+  /**
+   * メアドが未使用の場合だけアカウントを作成
+   * 存在確認と作成を1回の操作で行い、同時に登録されても同じメアドは1件しか作成されない
+   * (DBではメアドの一意制約に頼ったINSERTの1文で実行する)
+   * ※IDは実装によっては設定されない
+   *
+   * @param account 作成するアカウント
+   * @return 作成した場合は{@code true}/メアドが既に使用されている場合は{@code false}
+   */
+  public boolean createIfAbsent(AccountDto account);
+
+  /**
+   * アカウントの一括作成
+   * 複数行INSERTまたはJDBCバッチでまとめて作成する。
+   * メアドが登録済み、または一覧内で重複する(2件目以降の)アカウントは作成せずに返す
+   * ※パスワードはハッシュ済みで渡すこと。IDは実装によっては設定されない
+   *
+   * @param accounts 作成するアカウント一覧
+   * @return メアドの重複により作成しなかったアカウント一覧
+   */
+  public List<AccountDto> createAll(List<AccountDto> accounts);
 }
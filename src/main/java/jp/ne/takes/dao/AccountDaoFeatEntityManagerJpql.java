@@ -1,7 +1,12 @@
 package jp.ne.takes.dao;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
+
+import org.hibernate.Session;
+import org.hibernate.jpa.HibernateHints;
 
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
@@ -10,6 +15,8 @@ import jakarta.persistence.EntityManager;
 import jakarta.persistence.PersistenceContext;
 import jakarta.persistence.TypedQuery;
 import jp.ne.takes.dto.AccountDto;
+import jp.ne.takes.dto.AccountPageRequest;
+import jp.ne.takes.dto.AccountSummary;
 
 /**
  * アカウントDAOクラス
@@ -24,6 +31,9 @@ import jp.ne.takes.dto.AccountDto;
 /** 全メソッドをトランザクション内で実行(読取り専用) */
 @Transactional(readOnly = true)
 public class AccountDaoFeatEntityManagerJpql implements AccountDao {
+  /** 概要の射影先(コンストラクタ式用の完全修飾名) */
+  private static final String SUMMARY = AccountSummary.class.getName();
+
   /** EntityManagerのインスタンスをDI(注入) */
   @PersistenceContext
   private EntityManager entityManager;
@@ -61,6 +71,79 @@ public class AccountDaoFeatEntityManagerJpql implements AccountDao {
     return accounts;
   }
 
+  /**
+   * 全アカウントの概要一覧の取得
+   * コンストラクタ式でIDとメアドの列だけをSELECTする
+   *
+   * @return 全アカウントの概要一覧
+   */
+  @Override
+  public List<AccountSummary> findAllSummaries() {
+    // クエリの作成
+    var jpql = "SELECT new " + SUMMARY + "(id, email) FROM AccountDto ORDER BY id";
+    var query = entityManager.createQuery(jpql, AccountSummary.class);
+    // クエリの実行と結果の取得
+    return query.getResultList();
+  }
+
+  /**
+   * アカウント一覧の1ページ分を取得
+   * コンストラクタ式でIDとメアドの列だけをSELECTする
+   *
+   * @param request ページ要求（並び順・カーソル・件数）
+   * @return 1ページ分のアカウントの概要
+   */
+  @Override
+  public List<AccountSummary> findPage(AccountPageRequest request) {
+    var sort = request.getSort();
+    var op = sort.isAscending() ? ">" : "<";
+    var dir = sort.isAscending() ? "ASC" : "DESC";
+    // クエリの作成(カーソルより後ろの行に絞り込む)
+    var jpql = new StringBuilder("SELECT new " + SUMMARY + "(id, email) FROM AccountDto");
+    if (!request.isFirst()) {
+      if (sort.isByEmail()) {
+        jpql.append(" WHERE email ").append(op).append(" :email OR (email = :email AND id ").append(op).append(" :id)");
+      } else {
+        jpql.append(" WHERE id ").append(op).append(" :id");
+      }
+    }
+    if (sort.isByEmail()) {
+      jpql.append(" ORDER BY email ").append(dir).append(", id ").append(dir);
+    } else {
+      jpql.append(" ORDER BY id ").append(dir);
+    }
+    var query = entityManager.createQuery(jpql.toString(), AccountSummary.class);
+    // パラメータの設定
+    if (!request.isFirst()) {
+      query.setParameter("id", request.getAfterId());
+      if (sort.isByEmail()) {
+        query.setParameter("email", request.getAfterEmail());
+      }
+    }
+    // 取得件数の設定
+    query.setMaxResults(request.getFetchSize());
+    // クエリの実行と結果の取得
+    return query.getResultList();
+  }
+
+  /**
+   * 全アカウントを1件ずつ流すストリームの取得
+   * 読んだエンティティは順次デタッチし、永続化コンテキストを肥大させない
+   *
+   * @return 全アカウントのストリーム（ID昇順）
+   */
+  @Override
+  public Stream<AccountDto> streamAll() {
+    // クエリの作成
+    var jpql = "FROM AccountDto ORDER BY id";
+    var query = entityManager.createQuery(jpql, AccountDto.class);
+    // 前方向カーソルのフェッチサイズと読取り専用の設定
+    query.setHint(HibernateHints.HINT_FETCH_SIZE, STREAM_FETCH_SIZE);
+    query.setHint(HibernateHints.HINT_READ_ONLY, true);
+    // クエリの実行(結果は1件ずつ読み込まれる)
+    return query.getResultStream().peek(entityManager::detach);
+  }
+
   /**
    * IDに対応するアカウントの取得
    *
@@ -83,16 +166,15 @@ public class AccountDaoFeatEntityManagerJpql implements AccountDao {
    */
   @Override
   public boolean existsByEmailAndIdNot(String email, Integer id) {
-    // クエリの作成
-    var jpql = "FROM AccountDto WHERE email = :email AND id != :id";
-    var query = entityManager.createQuery(jpql, AccountDto.class);
+    // クエリの作成(行の中身は読まず、1件見つかった時点で終了)
+    var jpql = "SELECT 1 FROM AccountDto WHERE email = :email AND id != :id";
+    var query = entityManager.createQuery(jpql, Integer.class);
     // パラメータの設定
     query.setParameter("email", email);
     query.setParameter("id", id);
-    // クエリの実行と結果の取得
-    var accounts = query.getResultList();
+    query.setMaxResults(1);
     // メールアドレスが存在し、かつそのIDが指定されたIDと異なるかどうかを返す
-    return !accounts.isEmpty();
+    return !query.getResultList().isEmpty();
   }
 
   /**
@@ -106,6 +188,29 @@ public class AccountDaoFeatEntityManagerJpql implements AccountDao {
     entityManager.merge(account);    
   }
 
+  /**
+   * メアドの条件付き更新
+   * エンティティを読み込まず、一括更新のJPQLで版番号を条件に書き換える
+   * 
+   * @param id 更新するアカウントのID
+   * @param version 読み込んだ時の版番号
+   * @param email 新しいメアド
+   * @return 更新した場合は{@code true}/他で更新・削除されていた場合は{@code false}
+   */
+  @Transactional(readOnly = false)
+  @Override
+  public boolean updateEmail(int id, int version, String email) {
+    // クエリの作成
+    var jpql = "UPDATE AccountDto SET email = :email, version = version + 1 WHERE id = :id AND version = :version";
+    var query = entityManager.createQuery(jpql);
+    // パラメータの設定
+    query.setParameter("email", email);
+    query.setParameter("id", id);
+    query.setParameter("version", version);
+    // クエリの実行(更新件数で成否を判定)
+    return query.executeUpdate() == 1;
+  }
+
   /**
    * IDに対応するアカウントの削除
    *
@@ -126,7 +231,13 @@ public class AccountDaoFeatEntityManagerJpql implements AccountDao {
    */
   @Override
   public boolean existsByEmail(String email) {
-    return findByEmail(email).isPresent();
+    // クエリの作成(行の中身は読まず、1件見つかった時点で終了)
+    var jpql = "SELECT 1 FROM AccountDto WHERE email = :email";
+    var query = entityManager.createQuery(jpql, Integer.class);
+    // パラメータの設定
+    query.setParameter("email", email);
+    query.setMaxResults(1);
+    return !query.getResultList().isEmpty();
   }
 
   /**
@@ -139,4 +250,62 @@ public class AccountDaoFeatEntityManagerJpql implements AccountDao {
   public void create(AccountDto account) {
     entityManager.persist(account);
   }
-}
\ No newline at end of file
+
+  /**
+   * メアドが未使用の場合だけアカウントを作成
+   * JPQLにはINSERT IGNOREがないためネイティブクエリ1文で実行し、メアドの一意制約に当たった行は作成されない(更新件数0)
+   * ※IGNOREは一意制約以外のエラーも警告に変えるため、長さ等の検証は呼出し前に済ませること
+   *
+   * @param account 作成するアカウント
+   * @return 作成した場合は{@code true}/メアドが既に使用されている場合は{@code false}
+   */
+  @Transactional(readOnly = false)
+  @Override
+  public boolean createIfAbsent(AccountDto account) {
+    // クエリの作成
+    var sql = "INSERT IGNORE INTO accounts (email, password, role, version) VALUES (?, ?, ?, 0)";
+    var query = entityManager.createNativeQuery(sql);
+    // パラメータの設定
+    query.setParameter(1, account.getEmail());
+    query.setParameter(2, account.getPassword());
+    query.setParameter(3, account.getRole().name());
+    // クエリの実行(更新件数で成否を判定)
+    return query.executeUpdate() == 1;
+  }
+
+  /**
+   * アカウントの一括作成
+   * IDENTITY採番のエンティティはHibernateがINSERTをバッチにしないため、
+   * セッションのJDBC接続で500件ずつのバッチ(addBatch/executeBatch)として実行する
+   *
+   * @param accounts 作成するアカウント一覧
+   * @return メアドの重複により作成しなかったアカウント一覧
+   */
+  @Transactional(readOnly = false)
+  @Override
+  public List<AccountDto> createAll(List<AccountDto> accounts) {
+    var rejected = new ArrayList<AccountDto>();
+    var session = entityManager.unwrap(Session.class);
+    for (var chunk : AccountBulk.chunks(accounts)) {
+      var accepted = AccountBulk.accept(chunk, this::findExistingEmails, rejected);
+      session.doWork(connection -> AccountBulk.insert(connection, accepted, AccountBulk::batch, rejected));
+    }
+    return rejected;
+  }
+
+  /**
+   * 登録済みのメアドの取得
+   *
+   * @param emails 確認するメアド一覧
+   * @return 登録済みのメアド一覧
+   */
+  private List<String> findExistingEmails(List<String> emails) {
+    // クエリの作成
+    var jpql = "SELECT a.email FROM AccountDto a WHERE a.email IN :emails";
+    TypedQuery<String> query = entityManager.createQuery(jpql, String.class);
+    // パラメータの設定
+    query.setParameter("emails", emails);
+    // クエリの実行と結果の取得
+    return query.getResultList();
+  }
+}
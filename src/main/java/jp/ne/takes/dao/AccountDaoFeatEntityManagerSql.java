@@ -1,7 +1,14 @@
 package jp.ne.takes.dao;
 
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
+
+import org.hibernate.Session;
+import org.hibernate.jpa.HibernateHints;
 
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.PlatformTransactionManager;
@@ -13,6 +20,8 @@ import jakarta.persistence.EntityManager;
 import jakarta.persistence.PersistenceContext;
 import jakarta.persistence.Query;
 import jp.ne.takes.dto.AccountDto;
+import jp.ne.takes.dto.AccountPageRequest;
+import jp.ne.takes.dto.AccountSummary;
 import lombok.RequiredArgsConstructor;
 
 /**
@@ -69,6 +78,99 @@ public class AccountDaoFeatEntityManagerSql  implements AccountDao{
     return accounts;
   }
 
+  /**
+   * 全アカウントの概要一覧の取得
+   * IDとメアドの列だけをSELECTする
+   *
+   * @return 全アカウントの概要一覧
+   */
+  @Transactional(readOnly = true)
+  @Override
+  public List<AccountSummary> findAllSummaries() {
+    // クエリの作成
+    var sql = "SELECT id, email FROM accounts ORDER BY id";
+    Query query = entityManager.createNativeQuery(sql);
+    // クエリの実行と結果の取得
+    return toSummaries(query.getResultList());
+  }
+
+  /**
+   * アカウント一覧の1ページ分を取得
+   * IDとメアドの列だけをSELECTする
+   *
+   * @param request ページ要求（並び順・カーソル・件数）
+   * @return 1ページ分のアカウントの概要
+   */
+  @Transactional(readOnly = true)
+  @Override
+  public List<AccountSummary> findPage(AccountPageRequest request) {
+    var sort = request.getSort();
+    var op = sort.isAscending() ? ">" : "<";
+    var dir = sort.isAscending() ? "ASC" : "DESC";
+    // クエリの作成(カーソルより後ろの行に絞り込む)
+    var sql = new StringBuilder("SELECT id, email FROM accounts");
+    if (!request.isFirst()) {
+      if (sort.isByEmail()) {
+        sql.append(" WHERE email ").append(op).append(" ? OR (email = ? AND id ").append(op).append(" ?)");
+      } else {
+        sql.append(" WHERE id ").append(op).append(" ?");
+      }
+    }
+    if (sort.isByEmail()) {
+      sql.append(" ORDER BY email ").append(dir).append(", id ").append(dir);
+    } else {
+      sql.append(" ORDER BY id ").append(dir);
+    }
+    sql.append(" LIMIT ?");
+    Query query = entityManager.createNativeQuery(sql.toString());
+    // パラメータの設定
+    var index = 1;
+    if (!request.isFirst()) {
+      if (sort.isByEmail()) {
+        query.setParameter(index++, request.getAfterEmail());
+        query.setParameter(index++, request.getAfterEmail());
+      }
+      query.setParameter(index++, request.getAfterId());
+    }
+    query.setParameter(index, request.getFetchSize());
+    // クエリの実行と結果の取得
+    return toSummaries(query.getResultList());
+  }
+
+  /**
+   * SELECT id, email の結果行を概要に変換
+   *
+   * @param rows 結果行
+   * @return 概要一覧
+   */
+  private static List<AccountSummary> toSummaries(List<Object[]> rows) {
+    var summaries = new ArrayList<AccountSummary>(rows.size());
+    for (var row : rows) {
+      summaries.add(new AccountSummary(((Number) row[0]).intValue(), (String) row[1]));
+    }
+    return summaries;
+  }
+
+  /**
+   * 全アカウントを1件ずつ流すストリームの取得
+   * 読んだエンティティは順次デタッチし、永続化コンテキストを肥大させない
+   *
+   * @return 全アカウントのストリーム（ID昇順）
+   */
+  @Transactional(readOnly = true)
+  @Override
+  public Stream<AccountDto> streamAll() {
+    // クエリの作成
+    var sql = "SELECT * FROM accounts ORDER BY id";
+    Query query = entityManager.createNativeQuery(sql, AccountDto.class);
+    // 前方向カーソルのフェッチサイズと読取り専用の設定
+    query.setHint(HibernateHints.HINT_FETCH_SIZE, STREAM_FETCH_SIZE);
+    query.setHint(HibernateHints.HINT_READ_ONLY, true);
+    // クエリの実行(結果は1件ずつ読み込まれる)
+    Stream<AccountDto> accounts = query.getResultStream();
+    return accounts.peek(entityManager::detach);
+  }
+
   /**
    * IDに対応するアカウントの取得
    *
@@ -99,15 +201,14 @@ public class AccountDaoFeatEntityManagerSql  implements AccountDao{
   @Override
   public boolean existsByEmailAndIdNot(String email, Integer id) {
     // クエリの作成
-    String sql = "SELECT * FROM accounts WHERE email = ? AND id != ?";
-    Query query = entityManager.createNativeQuery(sql, AccountDto.class);
+    // (行の中身は読まず、1件見つかった時点で終了)
+    String sql = "SELECT 1 FROM accounts WHERE email = ? AND id != ? LIMIT 1";
+    Query query = entityManager.createNativeQuery(sql);
     // パラメータの設定
     query.setParameter(1, email);
     query.setParameter(2, id);
-    // クエリの実行と結果の取得
-    List<AccountDto> accounts = query.getResultList();
     // メールアドレスが存在し、かつそのIDが指定されたIDと異なるかどうかを返す
-    return !accounts.isEmpty();
+    return !query.getResultList().isEmpty();
   }
 
   /**
@@ -121,7 +222,7 @@ public class AccountDaoFeatEntityManagerSql  implements AccountDao{
     TransactionStatus status = transactionManager.getTransaction(new DefaultTransactionDefinition());
     try {
       // クエリの作成
-      var sql = "UPDATE accounts SET email = ?, password = ? WHERE id = ?";
+      var sql = "UPDATE accounts SET email = ?, password = ?, version = version + 1 WHERE id = ?";
       Query query = entityManager.createNativeQuery(sql);
       // パラメータの設定
       query.setParameter(1, account.getEmail());
@@ -138,6 +239,30 @@ public class AccountDaoFeatEntityManagerSql  implements AccountDao{
     }
   }
 
+  /**
+   * メアドの条件付き更新
+   * 版番号を条件にしたUPDATE文1回で書き換える
+   * ※update()と違い例外は握りつぶさない(メアドの重複を呼出し側で判定するため)
+   * 
+   * @param id 更新するアカウントのID
+   * @param version 読み込んだ時の版番号
+   * @param email 新しいメアド
+   * @return 更新した場合は{@code true}/他で更新・削除されていた場合は{@code false}
+   */
+  @Transactional(readOnly = false)
+  @Override
+  public boolean updateEmail(int id, int version, String email) {
+    // クエリの作成
+    var sql = "UPDATE accounts SET email = ?, version = version + 1 WHERE id = ? AND version = ?";
+    Query query = entityManager.createNativeQuery(sql);
+    // パラメータの設定
+    query.setParameter(1, email);
+    query.setParameter(2, id);
+    query.setParameter(3, version);
+    // クエリの実行(更新件数で成否を判定)
+    return query.executeUpdate() == 1;
+  }
+
   /**
    * IDに対応するアカウントの削除
    *
@@ -164,7 +289,12 @@ public class AccountDaoFeatEntityManagerSql  implements AccountDao{
   @Transactional(readOnly = true)
   @Override
   public boolean existsByEmail(String email) {
-    return findByEmail(email).isPresent();
+    // クエリの作成(行の中身は読まず、1件見つかった時点で終了)
+    var sql = "SELECT 1 FROM accounts WHERE email = ? LIMIT 1";
+    Query query = entityManager.createNativeQuery(sql);
+    // パラメータの設定
+    query.setParameter(1, email);
+    return !query.getResultList().isEmpty();
   }
 
   /**
@@ -176,12 +306,102 @@ public class AccountDaoFeatEntityManagerSql  implements AccountDao{
   @Override
   public void create(AccountDto account) {
     // クエリの作成
-    var sql = "INSERT INTO accounts (email, password) VALUES (?, ?)";
+    var sql = "INSERT INTO accounts (email, password, role, version) VALUES (?, ?, ?, 0)";
     Query query = entityManager.createNativeQuery(sql);
     // パラメータの設定
     query.setParameter(1, account.getEmail());
     query.setParameter(2, account.getPassword());
+    query.setParameter(3, account.getRole().name());
     // クエリの実行
     query.executeUpdate();
   }
-}
\ No newline at end of file
+
+  /**
+   * メアドが未使用の場合だけアカウントを作成
+   * INSERT IGNOREの1文で実行し、メアドの一意制約に当たった行は作成されない(更新件数0)
+   * ※IGNOREは一意制約以外のエラーも警告に変えるため、長さ等の検証は呼出し前に済ませること
+   *
+   * @param account 作成するアカウント
+   * @return 作成した場合は{@code true}/メアドが既に使用されている場合は{@code false}
+   */
+  @Transactional(readOnly = false)
+  @Override
+  public boolean createIfAbsent(AccountDto account) {
+    // クエリの作成
+    var sql = "INSERT IGNORE INTO accounts (email, password, role, version) VALUES (?, ?, ?, 0)";
+    Query query = entityManager.createNativeQuery(sql);
+    // パラメータの設定
+    query.setParameter(1, account.getEmail());
+    query.setParameter(2, account.getPassword());
+    query.setParameter(3, account.getRole().name());
+    // クエリの実行(更新件数で成否を判定)
+    return query.executeUpdate() == 1;
+  }
+
+  /**
+   * アカウントの一括作成
+   * 500件ずつ1文の複数行INSERT(VALUES (...), (...), ...)で作成する
+   *
+   * @param accounts 作成するアカウント一覧
+   * @return メアドの重複により作成しなかったアカウント一覧
+   */
+  @Transactional(readOnly = false)
+  @Override
+  public List<AccountDto> createAll(List<AccountDto> accounts) {
+    var rejected = new ArrayList<AccountDto>();
+    var session = entityManager.unwrap(Session.class);
+    for (var chunk : AccountBulk.chunks(accounts)) {
+      var accepted = AccountBulk.accept(chunk, this::findExistingEmails, rejected);
+      session.doWork(connection -> AccountBulk.insert(connection, accepted, AccountDaoFeatEntityManagerSql::insertRows,
+          rejected));
+    }
+    return rejected;
+  }
+
+  /**
+   * 1文の複数行INSERTで作成
+   *
+   * @param connection 接続(トランザクション中)
+   * @param accounts 作成するアカウント
+   * @throws SQLException 作成できない場合
+   */
+  private static void insertRows(Connection connection, List<AccountDto> accounts) throws SQLException {
+    // クエリの作成
+    var sql = new StringBuilder("INSERT INTO accounts (email, password, role, version) VALUES ");
+    for (var i = 0; i < accounts.size(); i++) {
+      sql.append(i == 0 ? "(?, ?, ?, 0)" : ", (?, ?, ?, 0)");
+    }
+    try (var ps = connection.prepareStatement(sql.toString())) {
+      // パラメータの設定
+      var position = 1;
+      for (var account : accounts) {
+        ps.setString(position++, account.getEmail());
+        ps.setString(position++, account.getPassword());
+        ps.setString(position++, account.getRole().name());
+      }
+      // クエリの実行
+      ps.executeUpdate();
+    }
+  }
+
+  /**
+   * 登録済みのメアドの取得
+   *
+   * @param emails 確認するメアド一覧
+   * @return 登録済みのメアド一覧
+   */
+  private List<String> findExistingEmails(List<String> emails) {
+    // クエリの作成
+    var sql = new StringBuilder("SELECT email FROM accounts WHERE email IN (");
+    for (var i = 0; i < emails.size(); i++) {
+      sql.append(i == 0 ? "?" : ", ?");
+    }
+    Query query = entityManager.createNativeQuery(sql.append(")").toString());
+    // パラメータの設定
+    for (var i = 0; i < emails.size(); i++) {
+      query.setParameter(i + 1, emails.get(i));
+    }
+    // クエリの実行と結果の取得
+    return query.getResultList();
+  }
+}
@@ -1,12 +1,24 @@
 package jp.ne.takes.dao;
 
+import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
 import jp.ne.takes.dto.AccountDto;
+import jp.ne.takes.dto.AccountPageRequest;
+import jp.ne.takes.dto.AccountSummary;
 import jp.ne.takes.repository.AccountRepository;
 import lombok.RequiredArgsConstructor;
 
@@ -25,6 +37,11 @@ import lombok.RequiredArgsConstructor;
 public class AccountDaoFeatJpaRepository implements AccountDao {
   /** AccountRepositoryのインスタンスをDI(注入) */
   private final AccountRepository repository;
+  /** JdbcTemplateのインスタンスをDI(注入) ※一括作成のバッチ用 */
+  private final JdbcTemplate jdbcTemplate;
+  /** EntityManagerのインスタンスをDI(注入) ※ストリーム取得時のデタッチ用 */
+  @PersistenceContext
+  private EntityManager entityManager;
 
   /**
    * メアドに対応するアカウントの取得
@@ -49,6 +66,58 @@ public class AccountDaoFeatJpaRepository implements AccountDao {
     return accounts;
   }
 
+  /**
+   * 全アカウントの概要一覧の取得
+   * DTO射影でIDとメアドの列だけをSELECTする
+   *
+   * @return 全アカウントの概要一覧
+   */
+  @Override
+  public List<AccountSummary> findAllSummaries() {
+    return repository.findAllByOrderByIdAsc(Pageable.unpaged(), AccountSummary.class);
+  }
+
+  /**
+   * アカウント一覧の1ページ分を取得
+   * 並び順ごとの派生クエリでカーソルより後ろを取得(DTO射影でIDとメアドの列だけ)
+   *
+   * @param request ページ要求（並び順・カーソル・件数）
+   * @return 1ページ分のアカウントの概要
+   */
+  @Override
+  public List<AccountSummary> findPage(AccountPageRequest request) {
+    // 件数だけを指定(ページ番号は常に0なのでOFFSETは発生しない)
+    var limit = PageRequest.ofSize(request.getFetchSize());
+    var id = request.getAfterId();
+    var email = request.getAfterEmail();
+    var type = AccountSummary.class;
+    return switch (request.getSort()) {
+      case ID_ASC -> request.isFirst()
+          ? repository.findAllByOrderByIdAsc(limit, type)
+          : repository.findByIdGreaterThanOrderByIdAsc(id, limit, type);
+      case ID_DESC -> request.isFirst()
+          ? repository.findAllByOrderByIdDesc(limit, type)
+          : repository.findByIdLessThanOrderByIdDesc(id, limit, type);
+      case EMAIL_ASC -> request.isFirst()
+          ? repository.findAllByOrderByEmailAscIdAsc(limit, type)
+          : repository.findByEmailGreaterThanOrEmailAndIdGreaterThanOrderByEmailAscIdAsc(email, email, id, limit, type);
+      case EMAIL_DESC -> request.isFirst()
+          ? repository.findAllByOrderByEmailDescIdDesc(limit, type)
+          : repository.findByEmailLessThanOrEmailAndIdLessThanOrderByEmailDescIdDesc(email, email, id, limit, type);
+    };
+  }
+
+  /**
+   * 全アカウントを1件ずつ流すストリームの取得
+   * 読んだエンティティは順次デタッチし、永続化コンテキストを肥大させない
+   *
+   * @return 全アカウントのストリーム（ID昇順）
+   */
+  @Override
+  public Stream<AccountDto> streamAll() {
+    return repository.streamAllByOrderByIdAsc().peek(entityManager::detach);
+  }
+
   /**
    * IDに対応するアカウントの取得
    *
@@ -83,6 +152,20 @@ public class AccountDaoFeatJpaRepository implements AccountDao {
     repository.save(account);    
   }
 
+  /**
+   * メアドの条件付き更新
+   * 
+   * @param id 更新するアカウントのID
+   * @param version 読み込んだ時の版番号
+   * @param email 新しいメアド
+   * @return 更新した場合は{@code true}/他で更新・削除されていた場合は{@code false}
+   */
+  @Transactional(readOnly = false)
+  @Override
+  public boolean updateEmail(int id, int version, String email) {
+    return repository.updateEmail(id, version, email) == 1;
+  }
+
   /**
    * IDに対応するアカウントの削除
    *
@@ -115,4 +198,54 @@ public class AccountDaoFeatJpaRepository implements AccountDao {
   public void create(AccountDto account) {
     repository.save(account);    
   }
-}
\ No newline at end of file
+
+  /**
+   * メアドが未使用の場合だけアカウントを作成
+   * INSERT IGNOREの1文で実行し、メアドの一意制約に当たった行は作成されない(更新件数0)
+   * 作成した場合は採番されたIDを設定する
+   * ※IGNOREは一意制約以外のエラーも警告に変えるため、長さ等の検証は呼出し前に済ませること
+   *
+   * @param account 作成するアカウント
+   * @return 作成した場合は{@code true}/メアドが既に使用されている場合は{@code false}
+   */
+  @Transactional(readOnly = false)
+  @Override
+  public boolean createIfAbsent(AccountDto account) {
+    var keyHolder = new GeneratedKeyHolder();
+    var created = jdbcTemplate.update(connection -> {
+      var ps = connection.prepareStatement("INSERT IGNORE INTO accounts (email, password, role, version) VALUES (?, ?, ?, 0)",
+          Statement.RETURN_GENERATED_KEYS);
+      ps.setString(1, account.getEmail());
+      ps.setString(2, account.getPassword());
+      ps.setString(3, account.getRole().name());
+      return ps;
+    }, keyHolder);
+    if (created != 1) {
+      return false;
+    }
+    account.setId(keyHolder.getKey().intValue());
+    return true;
+  }
+
+  /**
+   * アカウントの一括作成
+   * IDENTITY採番のエンティティはsaveAllでも1件ずつINSERTされるため、
+   * JdbcTemplateで500件ずつのバッチとして実行する(同じトランザクションに参加)
+   *
+   * @param accounts 作成するアカウント一覧
+   * @return メアドの重複により作成しなかったアカウント一覧
+   */
+  @Transactional(readOnly = false)
+  @Override
+  public List<AccountDto> createAll(List<AccountDto> accounts) {
+    var rejected = new ArrayList<AccountDto>();
+    for (var chunk : AccountBulk.chunks(accounts)) {
+      var accepted = AccountBulk.accept(chunk, repository::findExistingEmails, rejected);
+      jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+        AccountBulk.insert(connection, accepted, AccountBulk::batch, rejected);
+        return null;
+      });
+    }
+    return rejected;
+  }
+}
@@ -1,63 +1,213 @@
 package jp.ne.takes.dao;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
 
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.stereotype.Repository;
 
+import jakarta.annotation.PostConstruct;
 import jp.ne.takes.dto.AccountDto;
 import jp.ne.takes.dto.AccountDto.Role;
+import jp.ne.takes.dto.AccountPageRequest;
+import jp.ne.takes.dto.AccountSummary;
+import lombok.RequiredArgsConstructor;
 
 /**
  * アカウントDAOクラス
  * Feat.マップ
- * 
+ *
+ * マップには不変の版番号付きレコードを保存し、呼出し側にはコピーしたDTOを返す。
+ * 更新は対象IDのロック(IDで分割)の中で行うため、別のIDの更新はグローバルロックなしで並行に実行できる。
+ * ロックの中で保存済みの版番号と読み込んだ時の版番号を比べ、不一致(他で更新済み)の場合は更新しない
+ * (CASの再試行の代わりにロックで比較と差替えを一体にする。後勝ちで上書きしない)。
+ * 変更はWAL(AccountWriteAheadLog)に記録してからマップに反映し、再起動時に復元する。
+ * fsyncがALWAYSの場合は永続化の完了まで他から見えず、WALに書けない場合は例外となりマップは変わらない。
+ *
  * @author k_igari
  * @author Learning System Department
  * @author TAKES Co., Ltd.
  * @version 1.0 Date 2023/10
  */
-@Repository("AccountDaoFeatMap")  // (*2-5.) 名前の設定 
+@Repository("AccountDaoFeatMap")  // (*2-5.) 名前の設定
+@RequiredArgsConstructor
 public class AccountDaoFeatMap implements AccountDao {
   /**
-   * 似非データベース※非永続的
-   * ※ダブルブレース初期化は匿名内部クラスの生成、メモリリークの可能性、シリアル化の問題あり
+   * 似非データベース
+   * ※WALが無効(既定)の場合は非永続的
    */
-  private static Map<Integer, AccountDto> accounts = new ConcurrentHashMap<>() {{
-    put(1, new AccountDto(1,"takes@takes.ne.jp","Takes200038",Role.ADMIN));
-    put(2, new AccountDto(2, "gs_k.igari@takesgrp.info","Takes123456",Role.USER));
-    put(3, new AccountDto(3, "k.igari@takes.ne.jp","Takes123456",Role.USER));
-  }};
+  private final Map<Integer, AccountRecord> accounts = new ConcurrentHashMap<>();
+
+  /** IDの採番(最後に払い出したID) */
+  private final AtomicInteger sequence = new AtomicInteger();
+
+  /**
+   * メアドの二次索引：メアド → ID
+   * 登録・更新時のputIfAbsentでメアドの一意性を保証する
+   */
+  private final Map<String, Integer> emailIndex = new ConcurrentHashMap<>();
+
+  /** ページング用のソート済み索引：ID順 */
+  private final NavigableSet<Integer> idOrder = new ConcurrentSkipListSet<>();
+
+  /**
+   * ページング用のソート済み索引：(メアド, ID)順
+   * キーの追加・削除はIDごとのロック(idLocks)の中で、その時点のレコードと照合して行う
+   * (同じIDのメアド変更が並行しても、最新のメアドのキーが必ず残る)
+   */
+  private final NavigableSet<EmailKey> emailOrder = new ConcurrentSkipListSet<>(
+      Comparator.comparing(EmailKey::email).thenComparingInt(EmailKey::id));
+
+  /** 更新・削除とメアド順索引の更新用のロック(IDで分割) */
+  private final ReentrantLock[] idLocks = newLocks(64);
+
+  /** 先行書込みログ(変更の永続化) */
+  private final AccountWriteAheadLog wal;
+
+  /** メアド順索引のキー */
+  private record EmailKey(String email, int id) {}
+
+  /**
+   * 初期化
+   * WALが有効な場合はスナップショットとログから復元して書込みを開始し、空であれば初期データを保存する
+   */
+  @PostConstruct
+  public void init() {
+    if (wal.isEnabled()) {
+      var recovered = new HashMap<Integer, AccountRecord>();
+      sequence.set(wal.recover(recovered));
+      recovered.values().forEach(this::index);
+      wal.start(accounts::values);
+    }
+    if (accounts.isEmpty()) {
+      store(new AccountDto(1,"takes@takes.ne.jp","Takes200038",Role.ADMIN, 0));
+      store(new AccountDto(2, "gs_k.igari@takesgrp.info","Takes123456",Role.USER, 0));
+      store(new AccountDto(3, "k.igari@takes.ne.jp","Takes123456",Role.USER, 0));
+    }
+  }
 
   /**
    * メアドに対応するアカウントの取得
+   * メアド索引で引くためO(1)
    *
    * @param email 取得するアカウントのメアド
    * @return メアドに対応するアカウント
    */
   @Override
   public Optional<AccountDto> findByEmail(String email) {
-    for (var account : accounts.values()) {
-      if (account.getEmail().equals(email)) {
-        return Optional.of(account);
-      }
+    var id = emailIndex.get(email);
+    if (id == null) {
+      return Optional.empty();
     }
-    return Optional.empty();
+    return findById(id);
   }
 
   /**
    * 全アカウント一覧の取得
-   * 
+   *
    * @return 全アカウント一覧
    */
   @Override
   public List<AccountDto> findAll() {
     // mapの値をlistに変換
-    return new ArrayList<>(accounts.values());
+    var list = new ArrayList<AccountDto>(accounts.size());
+    for (var account : accounts.values()) {
+      list.add(account.toDto());
+    }
+    return list;
+  }
+
+  /**
+   * 全アカウントの概要一覧の取得
+   * パスワード・権限はコピーしない
+   *
+   * @return 全アカウントの概要一覧（ID昇順）
+   */
+  @Override
+  public List<AccountSummary> findAllSummaries() {
+    var list = new ArrayList<AccountSummary>(accounts.size());
+    for (var id : idOrder) {
+      var account = accounts.get(id);
+      if (account != null) {
+        list.add(account.toSummary());
+      }
+    }
+    return list;
+  }
+
+  /**
+   * アカウント一覧の1ページ分を取得
+   * ソート済み索引をカーソル位置から辿るため、件数に関係なくO(log n + ページ件数)
+   *
+   * @param request ページ要求（並び順・カーソル・件数）
+   * @return 1ページ分のアカウントの概要
+   */
+  @Override
+  public List<AccountSummary> findPage(AccountPageRequest request) {
+    var sort = request.getSort();
+    var page = new ArrayList<AccountSummary>(request.getFetchSize());
+    if (sort.isByEmail()) {
+      NavigableSet<EmailKey> keys = emailOrder;
+      if (!request.isFirst()) {
+        var cursor = new EmailKey(request.getAfterEmail(), request.getAfterId());
+        keys = sort.isAscending() ? keys.tailSet(cursor, false) : keys.headSet(cursor, false);
+      }
+      for (var key : sort.isAscending() ? keys : keys.descendingSet()) {
+        var account = accounts.get(key.id());
+        if (account == null || !account.email().equals(key.email())) {
+          // 削除済み・メアド変更済みの古いキー：ロックの中で照合し直して取り除く
+          reindexEmail(key.id(), key.email());
+          continue;
+        }
+        page.add(account.toSummary());
+        if (page.size() == request.getFetchSize()) {
+          break;
+        }
+      }
+    } else {
+      NavigableSet<Integer> keys = idOrder;
+      if (!request.isFirst()) {
+        keys = sort.isAscending() ? keys.tailSet(request.getAfterId(), false) : keys.headSet(request.getAfterId(), false);
+      }
+      for (var id : sort.isAscending() ? keys : keys.descendingSet()) {
+        var account = accounts.get(id);
+        if (account == null) {
+          // 索引を辿る間に削除された
+          continue;
+        }
+        page.add(account.toSummary());
+        if (page.size() == request.getFetchSize()) {
+          break;
+        }
+      }
+    }
+    return page;
+  }
+
+  /**
+   * 全アカウントを1件ずつ流すストリームの取得
+   * ID索引の弱一貫性イテレータを辿るため、コピーを作らず走査中の更新も妨げない
+   *
+   * @return 全アカウントのストリーム（ID昇順）
+   */
+  @Override
+  public Stream<AccountDto> streamAll() {
+    return idOrder.stream()
+        .map(accounts::get)
+        .filter(Objects::nonNull)
+        .map(AccountRecord::toDto);
   }
 
   /**
@@ -68,42 +218,77 @@ public class AccountDaoFeatMap implements AccountDao {
    */
   @Override
   public Optional<AccountDto> findById(Integer id) {
-    return Optional.ofNullable(accounts.get(id));
+    var account = accounts.get(id);
+    return account == null ? Optional.empty() : Optional.of(account.toDto());
   }
 
   /**
    * 除外ID以外でメアドが存在するか確認
-   * 
+   *
    * @param email 存在確認するメアド
    * @param id 除外するID
    * @return 除外ID以外でメアドが存在する場合は{@code true}/存在しない場合は{@code false}
    */
   @Override
   public boolean existsByEmailAndIdNot(String email, Integer id) {
-    for (var account : accounts.values()) {
-      if (!account.getEmail().equals(email)) {
-        // メアドが異なる
-        continue;
-      }
-      if (account.getId() == id) {
-        // 除外ID
-        continue;
-      }
-      // メアドが存在する
-      return true;
-    }
-    // メアドが存在しない
-    return false;
+    var owner = emailIndex.get(email);
+    // メアドが存在し、かつ除外IDではない
+    return owner != null && !owner.equals(id);
   }
 
   /**
    * アカウントの更新
-   * 
+   * IDのロックの中で読み込んだ時の版番号を確認し、一致する場合だけ次の版に置き換えてアカウントの版番号を進める
+   *
    * @param account 更新するアカウント
+   * @throws DuplicateKeyException 新メアドが他のアカウントで使用されている場合
+   * @throws OptimisticLockingFailureException 他で更新されていた場合
    */
   @Override
   public void update(AccountDto account) {
-    accounts.put(account.getId(), account);
+    int id = account.getId();
+    var lock = lockOf(id);
+    lock.lock();
+    try {
+      var current = accounts.get(id);
+      if (current == null) {
+        // 削除済み
+        return;
+      }
+      if (current.version() != account.getVersion()) {
+        throw new OptimisticLockingFailureException("他で更新されています: id=" + id);
+      }
+      replace(current, new AccountRecord(id, account.getEmail(), account.getPassword(), account.getRole(), current.version() + 1));
+      account.setVersion(current.version() + 1);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * メアドの条件付き更新
+   * 保存済みの版番号が一致する場合だけ差し替える(不一致は他で更新済み)
+   *
+   * @param id 更新するアカウントのID
+   * @param version 読み込んだ時の版番号
+   * @param email 新しいメアド
+   * @return 更新した場合は{@code true}/他で更新・削除されていた場合は{@code false}
+   */
+  @Override
+  public boolean updateEmail(int id, int version, String email) {
+    var lock = lockOf(id);
+    lock.lock();
+    try {
+      var current = accounts.get(id);
+      if (current == null || current.version() != version) {
+        // 削除済み・他で更新済み
+        return false;
+      }
+      replace(current, new AccountRecord(id, email, current.password(), current.role(), version + 1));
+      return true;
+    } finally {
+      lock.unlock();
+    }
   }
 
   /**
@@ -113,30 +298,253 @@ public class AccountDaoFeatMap implements AccountDao {
    */
   @Override
   public void deleteById(Integer id) {
-    accounts.remove(id);
+    var lock = lockOf(id);
+    lock.lock();
+    try {
+      var removed = accounts.get(id);
+      if (removed == null) {
+        return;
+      }
+      wal.delete(removed, () -> accounts.remove(id));
+      emailIndex.remove(removed.email(), id);
+      idOrder.remove(id);
+      reindexEmail(id, removed.email());
+    } finally {
+      lock.unlock();
+    }
   }
 
   /**
    * メアドが存在するか確認
-   * 
+   *
    * @param email 存在確認するメアド
    * @return メアドが存在する場合は{@code true}/存在しない場合は{@code false}
    */
   @Override
   public boolean existsByEmail(String email) {
-    return findByEmail(email).isPresent();
+    return emailIndex.containsKey(email);
   }
 
   /**
    * アカウントの作成
-   * 
+   * IDは採番カウンタから払い出し、メアド索引へのputIfAbsentで一意性を確保してから保存する
+   *
    * @param account 作成するアカウント
+   * @throws DuplicateKeyException メアドが既に使用されている場合
    */
   @Override
   public void create(AccountDto account) {
-    var allKeys = accounts.keySet();
-    var newId = Collections.max(allKeys) + 1;
+    if (!createIfAbsent(account)) {
+      throw new DuplicateKeyException("メールアドレスは既に使用されています: " + account.getEmail());
+    }
+  }
+
+  /**
+   * メアドが未使用の場合だけアカウントを作成
+   * メアド索引へのputIfAbsentが成功したスレッドだけが保存する
+   *
+   * @param account 作成するアカウント
+   * @return 作成した場合は{@code true}/メアドが既に使用されている場合は{@code false}
+   */
+  @Override
+  public boolean createIfAbsent(AccountDto account) {
+    var newId = sequence.incrementAndGet();
+    if (emailIndex.putIfAbsent(account.getEmail(), newId) != null) {
+      return false;
+    }
     account.setId(newId);
-    accounts.put(newId, account);
+    var record = AccountRecord.of(account, 0);
+    try {
+      wal.upsert(record, () -> accounts.put(newId, record));
+    } catch (RuntimeException e) {
+      // 記録できなかった：確保したメアドを返す
+      emailIndex.remove(account.getEmail(), newId);
+      throw e;
+    }
+    idOrder.add(newId);
+    emailOrder.add(new EmailKey(account.getEmail(), newId));
+    return true;
+  }
+
+  /**
+   * 初期データの保存
+   * IDと版番号は引数の値のまま保存する(TieredAccountDaoのDBからの読込みにも使用)
+   *
+   * @param account 保存するアカウント
+   */
+  void store(AccountDto account) {
+    var record = AccountRecord.of(account, account.getVersion());
+    wal.upsert(record, () -> index(record));
+    sequence.accumulateAndGet(record.id(), Math::max);
+  }
+
+  /**
+   * 変更の取消し(TieredAccountDaoのSYNCの書き戻しが失敗した場合)
+   * IDの現在のレコードが取り消す変更の結果のままの場合だけ、変更前のレコードに戻す
+   * (その後に他で変更されていた場合や、戻すメアドが他で使われた場合は戻さない)
+   *
+   * @param id アカウントのID
+   * @param written 取り消す変更の結果({@code null}の場合は削除の取消し)
+   * @param previous 変更前のアカウント({@code null}の場合は作成の取消し)
+   * @return 戻した場合は{@code true}
+   */
+  boolean revert(int id, AccountDto written, AccountDto previous) {
+    var lock = lockOf(id);
+    lock.lock();
+    try {
+      var current = accounts.get(id);
+      var unchanged = (written == null) ? current == null
+          : current != null && current.version() == written.getVersion();
+      if (!unchanged) {
+        return false;
+      }
+      if (previous == null) {
+        wal.delete(current, () -> accounts.remove(id));
+        emailIndex.remove(current.email(), id);
+        idOrder.remove(id);
+        reindexEmail(id, current.email());
+        return true;
+      }
+      var restored = AccountRecord.of(previous, previous.getVersion());
+      var owner = emailIndex.putIfAbsent(restored.email(), id);
+      if (owner != null && owner != id) {
+        return false;
+      }
+      try {
+        wal.upsert(restored, () -> accounts.put(id, restored));
+      } catch (RuntimeException e) {
+        if (owner == null) {
+          emailIndex.remove(restored.email(), id);
+        }
+        throw e;
+      }
+      idOrder.add(id);
+      if (current != null && !current.email().equals(restored.email())) {
+        emailIndex.remove(current.email(), id);
+        reindexEmail(id, current.email());
+      } else {
+        emailOrder.add(new EmailKey(restored.email(), id));
+      }
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * レコードをマップと各索引に登録
+   *
+   * @param record 登録するレコード
+   */
+  private void index(AccountRecord record) {
+    var id = record.id();
+    emailIndex.put(record.email(), id);
+    accounts.put(id, record);
+    idOrder.add(id);
+    emailOrder.add(new EmailKey(record.email(), id));
+  }
+
+  /**
+   * レコードの置き換え(IDのロックの中で呼ぶ)
+   * メアドが変わる場合は新メアドを索引に確保し、WALへの記録後にマップへ反映してから旧メアドを外す。
+   * 記録できなかった場合は確保したメアドを返し、マップは変えない
+   *
+   * @param current 現在のレコード
+   * @param next 次の版のレコード
+   * @throws DuplicateKeyException 新メアドが他のアカウントで使用されている場合
+   */
+  private void replace(AccountRecord current, AccountRecord next) {
+    var id = next.id();
+    var emailChanged = !next.email().equals(current.email());
+    var claimed = false;
+    if (emailChanged) {
+      var owner = emailIndex.putIfAbsent(next.email(), id);
+      if (owner != null && owner != id) {
+        throw new DuplicateKeyException("メールアドレスは既に使用されています: " + next.email());
+      }
+      claimed = (owner == null);
+    }
+    try {
+      wal.upsert(next, () -> accounts.put(id, next));
+    } catch (RuntimeException e) {
+      if (claimed) {
+        emailIndex.remove(next.email(), id);
+      }
+      throw e;
+    }
+    if (emailChanged) {
+      emailIndex.remove(current.email(), id);
+      reindexEmail(id, current.email());
+    }
+  }
+
+  /**
+   * メアド順索引をIDの最新のレコードに合わせる
+   * ロックの中で読み直したレコードのメアドのキーを追加し、それ以外になった旧メアドのキーを外す。
+   * 並行した更新のうち最後に実行されたものが最新のレコードを反映するため、
+   * X→Y→Xのような入替えでも最新のキーが消えず、古いキーも残らない
+   *
+   * @param id アカウントのID
+   * @param oldEmail 外す候補の旧メアド
+   */
+  private void reindexEmail(int id, String oldEmail) {
+    var lock = lockOf(id);
+    lock.lock();
+    try {
+      var current = accounts.get(id);
+      if (current != null) {
+        emailOrder.add(new EmailKey(current.email(), id));
+      }
+      if (current == null || !current.email().equals(oldEmail)) {
+        emailOrder.remove(new EmailKey(oldEmail, id));
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * IDのロックの取得
+   * (TieredAccountDaoが変更前後のレコードを他の更新と混ざらずに取得するためにも使用)
+   *
+   * @param id アカウントのID
+   * @return ロック
+   */
+  ReentrantLock lockOf(int id) {
+    return idLocks[id & (idLocks.length - 1)];
+  }
+
+  /**
+   * ロックの配列の作成
+   *
+   * @param size 個数(2のべき乗)
+   * @return ロックの配列
+   */
+  private static ReentrantLock[] newLocks(int size) {
+    var locks = new ReentrantLock[size];
+    for (int i = 0; i < size; i++) {
+      locks[i] = new ReentrantLock();
+    }
+    return locks;
+  }
+
+  /**
+   * アカウントの一括作成
+   * 1件ずつcreateと同じくputIfAbsentでメアドを確保し、確保できないものは作成しない
+   *
+   * @param accounts 作成するアカウント一覧
+   * @return メアドの重複により作成しなかったアカウント一覧
+   */
+  @Override
+  public List<AccountDto> createAll(List<AccountDto> accounts) {
+    var rejected = new ArrayList<AccountDto>();
+    for (var account : accounts) {
+      try {
+        create(account);
+      } catch (DuplicateKeyException e) {
+        rejected.add(account);
+      }
+    }
+    return rejected;
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,1301 @@
+package jp.ne.takes.dao;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Repository;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jp.ne.takes.dto.AccountDto;
+import jp.ne.takes.dto.AccountDto.Role;
+import jp.ne.takes.dto.AccountPageRequest;
+import jp.ne.takes.dto.AccountSummary;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * アカウントDAOクラス
+ * Feat.メモリマップドファイル
+ *
+ * アカウントをファイル上の固定長レコード(512バイト)としてヒープ外に保持する。
+ * 索引はint配列のオープンアドレス法(ID → スロット、メアドのハッシュ → スロット)と、
+ * ID順・メアド順に並べたIDのint配列で、アカウントごとのJavaオブジェクトやIntegerの箱詰めを持たないため、
+ * 件数が増えてもGCの負荷は増えない。
+ * findById・findByEmailは返却するDTO以外のオブジェクトを生成しない。
+ *
+ * 有効なレコードはその場で書き換えない。更新は新しい版を空きスロットに書いてから旧スロットを削除済みにし
+ * (削除済みのスロットは次の書込みで再利用する)、各レコードにはCRC32を持たせる。
+ * 書込みの途中でプロセスが落ちても、旧版か新版のどちらかが完全な形で残る。
+ * 起動時はファイル全体を走査し、CRCの合わないレコードを捨て、同じIDが2件あれば版番号の大きい方を残して
+ * 索引だけを再構築する(データの再投入は不要)。
+ * OSの停止・電源断にも備える場合は account.mapped-file.force=true とする(書込みごとにディスクへ同期)。
+ * ※使用する場合のみファイルを開くよう遅延初期化
+ *
+ * @author k_igari
+ * @author Learning System Department
+ * @author TAKES Co., Ltd.
+ * @version 1.0 Date 2023/10
+ */
+@Repository("AccountDaoFeatMappedFile")  // (*2-6) 名前の設定
+@Lazy
+@Slf4j
+public class AccountDaoFeatMappedFile implements AccountDao {
+  /** 1レコードのバイト数 */
+  private static final int RECORD_SIZE = 512;
+  /** レコード内の位置：ID(int) */
+  private static final int OFF_ID = 0;
+  /** レコード内の位置：状態(byte) */
+  private static final int OFF_STATE = 4;
+  /** レコード内の位置：権限(byte) */
+  private static final int OFF_ROLE = 5;
+  /** レコード内の位置：メアドの文字数(short) */
+  private static final int OFF_EMAIL_LEN = 6;
+  /** レコード内の位置：パスワードの文字数(short) */
+  private static final int OFF_PASSWORD_LEN = 8;
+  /** レコード内の位置：版番号(int) */
+  private static final int OFF_VERSION = 12;
+  /** レコード内の位置：メアド(UTF-16) */
+  private static final int OFF_EMAIL = 16;
+  /** メアドの最大文字数 */
+  private static final int MAX_EMAIL = 160;
+  /** レコード内の位置：パスワード(UTF-16) */
+  private static final int OFF_PASSWORD = OFF_EMAIL + MAX_EMAIL * 2;
+  /** レコード内の位置：CRC32(int、状態を除く使用範囲) */
+  private static final int OFF_CRC = RECORD_SIZE - 4;
+  /** パスワードの最大文字数 */
+  private static final int MAX_PASSWORD = (OFF_CRC - OFF_PASSWORD) / 2;
+
+  /** 先頭スロット(ヘッダー)：形式を表す値(IDの位置) */
+  private static final int MAGIC = 0x41434332;  // "ACC2"
+  /** 先頭スロット(ヘッダー)：最後に払い出したID(版番号の位置) */
+  private static final int OFF_LAST_ID = OFF_VERSION;
+  /** ヘッダーのスロット */
+  private static final int HEADER_SLOT = 0;
+
+  /** 状態：未使用(一度も書いていない) */
+  private static final byte EMPTY = 0;
+  /** 状態：ヘッダー */
+  private static final byte HEADER = 1;
+  /** 状態：有効 */
+  private static final byte LIVE = 3;
+  /** 状態：削除済み・旧版(再利用可) */
+  private static final byte DELETED = 4;
+
+  /** 権限(序数で保存) */
+  private static final Role[] ROLES = Role.values();
+
+  /** データファイル */
+  private final Path path;
+  /** セグメント番号を求めるシフト量 */
+  private final int segmentShift;
+  /** セグメント内のスロット番号を求めるマスク */
+  private final int segmentMask;
+  /** 1セグメントのバイト数 */
+  private final long segmentBytes;
+  /** 書込みごとにディスクへ同期するか */
+  private final boolean force;
+
+  /** 読取りは並行、書込みは排他 */
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+  /** ファイルチャネル */
+  private FileChannel channel;
+  /** マップ済みのセグメント */
+  private MappedByteBuffer[] segments = new MappedByteBuffer[0];
+  /** 一度でも使用したスロット数(これ以降は未使用) */
+  private int highWater;
+  /** 最後に払い出したID */
+  private int lastId;
+  /** CRCの計算(書込みロック内・起動時のみ使用) */
+  private final CRC32 crc = new CRC32();
+  /** 索引：ID → スロット */
+  private final IdTable ids = new IdTable(1024);
+  /** 索引：メアド → スロット */
+  private final EmailTable emails = new EmailTable(1024);
+  /** 索引：ID昇順のID */
+  private IntList idOrder = new IntList(1024);
+  /** 索引：メアド順(同一メアドはID順)のID */
+  private IntList emailOrder = new IntList(1024);
+  /** 再利用できるスロット */
+  private final IntList freeSlots = new IntList(64);
+
+  /**
+   * コンストラクタ
+   *
+   * @param path データファイルのパス
+   * @param segmentRecords 1セグメントのレコード数(2のべき乗)
+   * @param force 書込みごとにディスクへ同期する場合は{@code true}
+   */
+  public AccountDaoFeatMappedFile(
+      @Value("${account.mapped-file.path:data/accounts.dat}") String path,
+      @Value("${account.mapped-file.segment-records:131072}") int segmentRecords,
+      @Value("${account.mapped-file.force:false}") boolean force) {
+    if (Integer.bitCount(segmentRecords) != 1 || segmentRecords > (1 << 21)) {
+      throw new IllegalArgumentException("segment-records は 2^21 以下の2のべき乗で指定してください: " + segmentRecords);
+    }
+    this.path = Path.of(path);
+    this.segmentShift = Integer.numberOfTrailingZeros(segmentRecords);
+    this.segmentMask = segmentRecords - 1;
+    this.segmentBytes = (long) segmentRecords * RECORD_SIZE;
+    this.force = force;
+  }
+
+  /**
+   * ファイルを開いて索引を再構築
+   * 空のファイルであれば初期データを登録する
+   *
+   * @throws IOException ファイルを開けない場合
+   */
+  @PostConstruct
+  void open() throws IOException {
+    var parent = path.toAbsolutePath().getParent();
+    if (parent != null) {
+      Files.createDirectories(parent);
+    }
+    channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+    var existing = (int) ((channel.size() + segmentBytes - 1) / segmentBytes);
+    for (var i = 0; i < Math.max(existing, 1); i++) {
+      addSegment();
+    }
+    var header = segment(HEADER_SLOT);
+    var state = header.get(offset(HEADER_SLOT) + OFF_STATE);
+    if (state == EMPTY) {
+      header.putInt(offset(HEADER_SLOT) + OFF_ID, MAGIC);
+      header.put(offset(HEADER_SLOT) + OFF_STATE, HEADER);
+    } else if (state != HEADER || header.getInt(offset(HEADER_SLOT) + OFF_ID) != MAGIC) {
+      channel.close();
+      throw new DataAccessResourceFailureException("データファイルの形式が異なります(旧形式のファイルは削除してください): " + path);
+    }
+    lastId = header.getInt(offset(HEADER_SLOT) + OFF_LAST_ID);
+    highWater = HEADER_SLOT + 1;
+    recover();
+    if (ids.size() == 0 && lastId == 0) {
+      create(new AccountDto(0, "takes@takes.ne.jp", "Takes200038", Role.ADMIN, 0));
+      create(new AccountDto(0, "gs_k.igari@takesgrp.info", "Takes123456", Role.USER, 0));
+      create(new AccountDto(0, "k.igari@takes.ne.jp", "Takes123456", Role.USER, 0));
+    }
+  }
+
+  /**
+   * ファイル全体を走査して索引を再構築
+   * CRCの合わないレコード(書込み途中のもの)は捨て、同じIDが複数あれば版番号の大きい方を残す
+   */
+  private void recover() {
+    var capacity = segments.length << segmentShift;
+    var discarded = 0;
+    for (var slot = HEADER_SLOT + 1; slot < capacity; slot++) {
+      var buf = segment(slot);
+      var off = offset(slot);
+      var state = buf.get(off + OFF_STATE);
+      if (state == EMPTY) {
+        continue;
+      }
+      highWater = slot + 1;
+      if (state != LIVE || buf.getInt(off + OFF_CRC) != checksum(slot)) {
+        if (state == LIVE) {
+          discarded++;
+        }
+        continue;
+      }
+      var id = buf.getInt(off + OFF_ID);
+      lastId = Math.max(lastId, id);
+      var other = ids.get(id);
+      if (other < 0) {
+        ids.put(id, slot);
+      } else if (buf.getInt(off + OFF_VERSION) > segment(other).getInt(offset(other) + OFF_VERSION)) {
+        // 旧版を削除済みにする前に停止していた
+        markDeleted(other);
+        ids.put(id, slot);
+      } else {
+        markDeleted(slot);
+      }
+    }
+    // 有効でないスロットは再利用する(小さいスロットから使うよう降順に積む)
+    for (var slot = highWater - 1; slot > HEADER_SLOT; slot--) {
+      if (segment(slot).get(offset(slot) + OFF_STATE) != LIVE) {
+        freeSlots.add(slot);
+      }
+    }
+    var order = ids.keys();
+    Arrays.sort(order);
+    for (var id : order) {
+      var slot = ids.get(id);
+      if (emails.find(slot) >= 0) {
+        // 電源断などで同じメアドが2件残った場合はIDの小さい方を残す
+        log.warn("メールアドレスが重複したレコードを削除します: ID={}", id);
+        ids.remove(id);
+        markDeleted(slot);
+        freeSlots.add(slot);
+        continue;
+      }
+      emails.put(slot);
+    }
+    order = ids.keys();
+    Arrays.sort(order);
+    idOrder = IntList.of(order);
+    // 起動時のみ箱詰めしてソートする
+    emailOrder = IntList.of(Arrays.stream(order).boxed()
+        .sorted((a, b) -> compareSlots(ids.get(a), ids.get(b)))
+        .mapToInt(Integer::intValue)
+        .toArray());
+    if (discarded > 0) {
+      log.warn("書込み途中のレコードを{}件破棄しました: {}", discarded, path);
+    }
+  }
+
+  /**
+   * ディスクへ書き出してファイルを閉じる
+   *
+   * @throws IOException ファイルを閉じられない場合
+   */
+  @PreDestroy
+  void close() throws IOException {
+    lock.writeLock().lock();
+    try {
+      for (var segment : segments) {
+        segment.force();
+      }
+      channel.close();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * メアドに対応するアカウントの取得
+   *
+   * @param email 取得するアカウントのメアド
+   * @return メアドに対応するアカウント
+   */
+  @Override
+  public Optional<AccountDto> findByEmail(String email) {
+    lock.readLock().lock();
+    try {
+      var slot = emails.find(email);
+      return slot < 0 ? Optional.empty() : Optional.of(read(slot));
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * 全アカウント一覧の取得
+   *
+   * @return 全アカウント一覧
+   */
+  @Override
+  public List<AccountDto> findAll() {
+    lock.readLock().lock();
+    try {
+      var list = new ArrayList<AccountDto>(idOrder.size());
+      for (var i = 0; i < idOrder.size(); i++) {
+        list.add(read(ids.get(idOrder.get(i))));
+      }
+      return list;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * 全アカウントの概要一覧の取得
+   * IDとメアドだけをデコードし、パスワードは読まない
+   *
+   * @return 全アカウントの概要一覧（ID昇順）
+   */
+  @Override
+  public List<AccountSummary> findAllSummaries() {
+    lock.readLock().lock();
+    try {
+      var list = new ArrayList<AccountSummary>(idOrder.size());
+      for (var i = 0; i < idOrder.size(); i++) {
+        list.add(readSummary(ids.get(idOrder.get(i))));
+      }
+      return list;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * アカウント一覧の1ページ分を取得
+   * ID順・メアド順に並べた索引を二分探索してカーソル位置へ移動する(O(log n + ページ件数))
+   * IDとメアドだけをデコードし、パスワードは読まない
+   *
+   * @param request ページ要求（並び順・カーソル・件数）
+   * @return 1ページ分のアカウントの概要
+   */
+  @Override
+  public List<AccountSummary> findPage(AccountPageRequest request) {
+    var sort = request.getSort();
+    var limit = request.getFetchSize();
+    lock.readLock().lock();
+    try {
+      var order = sort.isByEmail() ? emailOrder : idOrder;
+      int start;
+      if (request.isFirst()) {
+        start = sort.isAscending() ? 0 : order.size() - 1;
+      } else if (sort.isByEmail()) {
+        start = sort.isAscending()
+            ? emailBound(request.getAfterEmail(), request.getAfterId(), true)
+            : emailBound(request.getAfterEmail(), request.getAfterId(), false) - 1;
+      } else {
+        start = sort.isAscending()
+            ? idBound(request.getAfterId())
+            : idBound(request.getAfterId() - 1) - 1;
+      }
+      var step = sort.isAscending() ? 1 : -1;
+      var page = new ArrayList<AccountSummary>(limit);
+      for (var i = start; i >= 0 && i < order.size() && page.size() < limit; i += step) {
+        page.add(readSummary(ids.get(order.get(i))));
+      }
+      return page;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * 全アカウントを1件ずつ流すストリームの取得
+   * 開始時点のIDの一覧を写し、1件ごとに読取りロックを取るため、走査中の更新は妨げない(弱一貫性)
+   *
+   * @return 全アカウントのストリーム（ID昇順）
+   */
+  @Override
+  public Stream<AccountDto> streamAll() {
+    int[] order;
+    lock.readLock().lock();
+    try {
+      order = idOrder.toArray();
+    } finally {
+      lock.readLock().unlock();
+    }
+    return Arrays.stream(order)
+        .mapToObj(this::readIfPresent)
+        .filter(Objects::nonNull);
+  }
+
+  /**
+   * IDに対応するアカウントの取得
+   *
+   * @param id 取得するアカウントのID
+   * @return IDに対応するアカウント
+   */
+  @Override
+  public Optional<AccountDto> findById(Integer id) {
+    lock.readLock().lock();
+    try {
+      var slot = ids.get(id);
+      return slot < 0 ? Optional.empty() : Optional.of(read(slot));
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * 除外ID以外でメアドが存在するか確認
+   *
+   * @param email 存在確認するメアド
+   * @param id 除外するID
+   * @return 除外ID以外でメアドが存在する場合は{@code true}/存在しない場合は{@code false}
+   */
+  @Override
+  public boolean existsByEmailAndIdNot(String email, Integer id) {
+    lock.readLock().lock();
+    try {
+      var slot = emails.find(email);
+      return slot >= 0 && segment(slot).getInt(offset(slot) + OFF_ID) != id;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * アカウントの更新
+   * 新しい版を別のスロットに書き、版番号を1増やす
+   *
+   * @param account 更新するアカウント
+   * @throws DuplicateKeyException 新メアドが他のアカウントで使用されている場合
+   */
+  @Override
+  public void update(AccountDto account) {
+    checkLength(account);
+    lock.writeLock().lock();
+    try {
+      var slot = ids.get(account.getId());
+      if (slot < 0) {
+        return;
+      }
+      var other = emails.find(account.getEmail());
+      if (other >= 0 && other != slot) {
+        throw new DuplicateKeyException("メールアドレスは既に使用されています: " + account.getEmail());
+      }
+      rewrite(slot, account, segment(slot).getInt(offset(slot) + OFF_VERSION) + 1, other < 0);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * メアドの条件付き更新
+   * 書込みロック内で版番号を確認し、一致する場合だけ新しい版を書く
+   *
+   * @param id 更新するアカウントのID
+   * @param version 読み込んだ時の版番号
+   * @param email 新しいメアド
+   * @return 更新した場合は{@code true}/他で更新・削除されていた場合は{@code false}
+   */
+  @Override
+  public boolean updateEmail(int id, int version, String email) {
+    lock.writeLock().lock();
+    try {
+      var slot = ids.get(id);
+      if (slot < 0 || segment(slot).getInt(offset(slot) + OFF_VERSION) != version) {
+        return false;
+      }
+      var other = emails.find(email);
+      if (other >= 0 && other != slot) {
+        throw new DuplicateKeyException("メールアドレスは既に使用されています: " + email);
+      }
+      var account = read(slot);
+      account.setEmail(email);
+      checkLength(account);
+      rewrite(slot, account, version + 1, other < 0);
+      return true;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * IDに対応するアカウントの削除
+   * スロットは削除済みにして次の書込みで再利用する
+   *
+   * @param id 削除するアカウントのID
+   */
+  @Override
+  public void deleteById(Integer id) {
+    lock.writeLock().lock();
+    try {
+      var slot = ids.get(id);
+      if (slot < 0) {
+        return;
+      }
+      emailOrder.removeAt(emailIndex(slot));
+      idOrder.removeAt(idBound(id - 1));
+      emails.remove(slot);
+      ids.remove(id);
+      retire(slot);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * メアドが存在するか確認
+   *
+   * @param email 存在確認するメアド
+   * @return メアドが存在する場合は{@code true}/存在しない場合は{@code false}
+   */
+  @Override
+  public boolean existsByEmail(String email) {
+    lock.readLock().lock();
+    try {
+      return emails.find(email) >= 0;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * アカウントの作成
+   * 空きスロットに書き込み、IDは採番順に払い出す
+   *
+   * @param account 作成するアカウント
+   * @throws DuplicateKeyException メアドが既に使用されている場合
+   */
+  @Override
+  public void create(AccountDto account) {
+    if (!createIfAbsent(account)) {
+      throw new DuplicateKeyException("メールアドレスは既に使用されています: " + account.getEmail());
+    }
+  }
+
+  /**
+   * メアドが未使用の場合だけアカウントを作成
+   * 書込みロック内でメアドを確認してから空きスロットに書き込む
+   *
+   * @param account 作成するアカウント
+   * @return 作成した場合は{@code true}/メアドが既に使用されている場合は{@code false}
+   */
+  @Override
+  public boolean createIfAbsent(AccountDto account) {
+    checkLength(account);
+    lock.writeLock().lock();
+    try {
+      if (emails.find(account.getEmail()) >= 0) {
+        return false;
+      }
+      var slot = insert(account);
+      if (force) {
+        forceSlot(HEADER_SLOT);
+        forceSlot(slot);
+      }
+      return true;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * 新しいアカウントを空きスロットに書き込み、索引に追加
+   * IDの払い出しはレコードより先にヘッダーへ記録する(停止しても同じIDを払い出さない)
+   *
+   * @param account 作成するアカウント
+   * @return 書き込んだスロット
+   */
+  private int insert(AccountDto account) {
+    var slot = allocate();
+    account.setId(++lastId);
+    segment(HEADER_SLOT).putInt(offset(HEADER_SLOT) + OFF_LAST_ID, lastId);
+    write(slot, account, 0);
+    ids.put(account.getId(), slot);
+    emails.put(slot);
+    idOrder.add(account.getId());
+    emailOrder.insert(emailIndex(slot), account.getId());
+    return slot;
+  }
+
+  /**
+   * 新しい版を別のスロットに書いてから旧スロットを削除済みにする
+   * 強制同期する場合は新しい版をディスクに書き出してから旧版を消す
+   *
+   * @param slot 現在のスロット
+   * @param account 書き込むアカウント
+   * @param version 新しい版番号
+   * @param emailChanged メアドが変わる場合は{@code true}
+   */
+  private void rewrite(int slot, AccountDto account, int version, boolean emailChanged) {
+    if (emailChanged) {
+      // 旧メアドの位置は旧スロットで探す
+      emailOrder.removeAt(emailIndex(slot));
+    }
+    emails.remove(slot);
+    var target = allocate();
+    write(target, account, version);
+    if (force) {
+      forceSlot(target);
+    }
+    ids.put(account.getId(), target);
+    emails.put(target);
+    if (emailChanged) {
+      emailOrder.insert(emailIndex(target), account.getId());
+    }
+    retire(slot);
+  }
+
+  /**
+   * 書き込むスロットの割当て(削除済みのスロットを優先)
+   *
+   * @return スロット
+   */
+  private int allocate() {
+    if (freeSlots.size() > 0) {
+      return freeSlots.removeAt(freeSlots.size() - 1);
+    }
+    if (highWater == segments.length << segmentShift) {
+      addSegment();
+    }
+    return highWater++;
+  }
+
+  /**
+   * スロットを削除済みにして再利用の対象にする
+   *
+   * @param slot スロット
+   */
+  private void retire(int slot) {
+    markDeleted(slot);
+    if (force) {
+      forceSlot(slot);
+    }
+    freeSlots.add(slot);
+  }
+
+  /**
+   * スロットの状態を削除済みにする
+   *
+   * @param slot スロット
+   */
+  private void markDeleted(int slot) {
+    segment(slot).put(offset(slot) + OFF_STATE, DELETED);
+  }
+
+  /**
+   * 1レコード分をディスクへ書き出す
+   *
+   * @param slot スロット
+   */
+  private void forceSlot(int slot) {
+    segment(slot).force(offset(slot), RECORD_SIZE);
+  }
+
+  /**
+   * セグメントを1つ追加でマップ(ファイルも拡張される)
+   */
+  private void addSegment() {
+    try {
+      var n = segments.length;
+      var segment = channel.map(MapMode.READ_WRITE, n * segmentBytes, segmentBytes);
+      segments = Arrays.copyOf(segments, n + 1);
+      segments[n] = segment;
+    } catch (IOException e) {
+      throw new DataAccessResourceFailureException("データファイルを拡張できません: " + path, e);
+    }
+  }
+
+  /**
+   * スロットを含むセグメントの取得
+   *
+   * @param slot スロット
+   * @return セグメント
+   */
+  private MappedByteBuffer segment(int slot) {
+    return segments[slot >>> segmentShift];
+  }
+
+  /**
+   * セグメント内のレコード先頭位置
+   *
+   * @param slot スロット
+   * @return バイト位置
+   */
+  private int offset(int slot) {
+    return (slot & segmentMask) * RECORD_SIZE;
+  }
+
+  /**
+   * ID昇順の索引で、IDが指定値より大きい最初の位置(二分探索)
+   *
+   * @param id ID
+   * @return 位置(該当なしは件数)
+   */
+  private int idBound(int id) {
+    var lo = 0;
+    var hi = idOrder.size();
+    while (lo < hi) {
+      var mid = (lo + hi) >>> 1;
+      if (idOrder.get(mid) <= id) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  /**
+   * メアド順の索引で、カーソルより後ろ(またはカーソル以降)の最初の位置(二分探索)
+   *
+   * @param email カーソルのメアド
+   * @param id カーソルのID
+   * @param after カーソルと一致する行を含めない場合は{@code true}
+   * @return 位置(該当なしは件数)
+   */
+  private int emailBound(String email, int id, boolean after) {
+    var lo = 0;
+    var hi = emailOrder.size();
+    while (lo < hi) {
+      var mid = (lo + hi) >>> 1;
+      var c = compareToCursor(ids.get(emailOrder.get(mid)), email, id);
+      if (after ? c <= 0 : c < 0) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  /**
+   * メアド順の索引で、スロットのレコード以降の最初の位置(二分探索)
+   * 索引に含まれるレコードであればその位置、含まれなければ挿入位置となる
+   *
+   * @param slot スロット
+   * @return 位置
+   */
+  private int emailIndex(int slot) {
+    var lo = 0;
+    var hi = emailOrder.size();
+    while (lo < hi) {
+      var mid = (lo + hi) >>> 1;
+      if (compareSlots(ids.get(emailOrder.get(mid)), slot) < 0) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  /**
+   * レコードをDTOに変換
+   *
+   * @param slot スロット
+   * @return DTO
+   */
+  private AccountDto read(int slot) {
+    var buf = segment(slot);
+    var off = offset(slot);
+    return new AccountDto(
+        buf.getInt(off + OFF_ID),
+        readChars(buf, off + OFF_EMAIL, buf.getShort(off + OFF_EMAIL_LEN)),
+        readChars(buf, off + OFF_PASSWORD, buf.getShort(off + OFF_PASSWORD_LEN)),
+        ROLES[buf.get(off + OFF_ROLE)],
+        buf.getInt(off + OFF_VERSION));
+  }
+
+  /**
+   * レコードの概要の読込み(パスワードはデコードしない)
+   *
+   * @param slot スロット
+   * @return 概要
+   */
+  private AccountSummary readSummary(int slot) {
+    var buf = segment(slot);
+    var off = offset(slot);
+    return new AccountSummary(
+        buf.getInt(off + OFF_ID),
+        readChars(buf, off + OFF_EMAIL, buf.getShort(off + OFF_EMAIL_LEN)));
+  }
+
+  /**
+   * 存在するアカウントだけを読取りロック内でDTOに変換
+   *
+   * @param id ID
+   * @return DTO(削除済みは{@code null})
+   */
+  private AccountDto readIfPresent(int id) {
+    lock.readLock().lock();
+    try {
+      var slot = ids.get(id);
+      return slot < 0 ? null : read(slot);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * 文字列の読込み
+   *
+   * @param buf セグメント
+   * @param off 位置
+   * @param length 文字数
+   * @return 文字列
+   */
+  private static String readChars(MappedByteBuffer buf, int off, int length) {
+    var chars = new char[length];
+    for (var i = 0; i < length; i++) {
+      chars[i] = buf.getChar(off + i * 2);
+    }
+    return new String(chars);
+  }
+
+  /**
+   * レコードの書込み
+   * CRC、状態の順に最後に書き、途中までのレコードを有効と見なさないようにする
+   *
+   * @param slot スロット(有効なレコードを持たないこと)
+   * @param account 書き込むアカウント
+   * @param version 版番号
+   */
+  private void write(int slot, AccountDto account, int version) {
+    var buf = segment(slot);
+    var off = offset(slot);
+    var email = account.getEmail();
+    var password = account.getPassword();
+    buf.putInt(off + OFF_ID, account.getId());
+    buf.put(off + OFF_ROLE, (byte) account.getRole().ordinal());
+    buf.putShort(off + OFF_EMAIL_LEN, (short) email.length());
+    buf.putShort(off + OFF_PASSWORD_LEN, (short) password.length());
+    buf.putInt(off + OFF_VERSION, version);
+    for (var i = 0; i < email.length(); i++) {
+      buf.putChar(off + OFF_EMAIL + i * 2, email.charAt(i));
+    }
+    for (var i = 0; i < password.length(); i++) {
+      buf.putChar(off + OFF_PASSWORD + i * 2, password.charAt(i));
+    }
+    buf.putInt(off + OFF_CRC, checksum(slot));
+    buf.put(off + OFF_STATE, LIVE);
+  }
+
+  /**
+   * レコードのCRC32(状態とCRC自体を除き、使用している範囲だけ)
+   *
+   * @param slot スロット
+   * @return CRC32の下位32ビット
+   */
+  private int checksum(int slot) {
+    var buf = segment(slot);
+    var off = offset(slot);
+    var emailLength = Math.min(Math.max(buf.getShort(off + OFF_EMAIL_LEN), 0), MAX_EMAIL);
+    var passwordLength = Math.min(Math.max(buf.getShort(off + OFF_PASSWORD_LEN), 0), MAX_PASSWORD);
+    crc.reset();
+    crc.update(buf.slice(off + OFF_ID, OFF_STATE - OFF_ID));
+    crc.update(buf.slice(off + OFF_ROLE, OFF_EMAIL + emailLength * 2 - OFF_ROLE));
+    crc.update(buf.slice(off + OFF_PASSWORD, passwordLength * 2));
+    return (int) crc.getValue();
+  }
+
+  /**
+   * 固定長レコードに収まるか確認
+   *
+   * @param account アカウント
+   * @throws DataIntegrityViolationException 収まらない場合
+   */
+  private static void checkLength(AccountDto account) {
+    if (account.getEmail().length() > MAX_EMAIL) {
+      throw new DataIntegrityViolationException("メールアドレスは" + MAX_EMAIL + "文字以内にしてください");
+    }
+    if (account.getPassword().length() > MAX_PASSWORD) {
+      throw new DataIntegrityViolationException("パスワードは" + MAX_PASSWORD + "文字以内にしてください");
+    }
+  }
+
+  /**
+   * レコードのメアドと文字列の一致確認(オブジェクトを生成しない)
+   *
+   * @param slot スロット
+   * @param email メアド
+   * @return 一致する場合は{@code true}
+   */
+  private boolean emailEquals(int slot, String email) {
+    var buf = segment(slot);
+    var off = offset(slot);
+    var length = buf.getShort(off + OFF_EMAIL_LEN);
+    if (length != email.length()) {
+      return false;
+    }
+    for (var i = 0; i < length; i++) {
+      if (buf.getChar(off + OFF_EMAIL + i * 2) != email.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * レコード同士のメアドの一致確認(オブジェクトを生成しない)
+   *
+   * @param a スロット
+   * @param b スロット
+   * @return 一致する場合は{@code true}
+   */
+  private boolean emailEquals(int a, int b) {
+    var bufA = segment(a);
+    var offA = offset(a);
+    var bufB = segment(b);
+    var offB = offset(b);
+    var length = bufA.getShort(offA + OFF_EMAIL_LEN);
+    if (length != bufB.getShort(offB + OFF_EMAIL_LEN)) {
+      return false;
+    }
+    for (var i = 0; i < length; i++) {
+      if (bufA.getChar(offA + OFF_EMAIL + i * 2) != bufB.getChar(offB + OFF_EMAIL + i * 2)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * レコードのメアドのハッシュ値(String#hashCodeと同じ値)
+   *
+   * @param slot スロット
+   * @return ハッシュ値
+   */
+  private int emailHash(int slot) {
+    var buf = segment(slot);
+    var off = offset(slot);
+    var length = buf.getShort(off + OFF_EMAIL_LEN);
+    var h = 0;
+    for (var i = 0; i < length; i++) {
+      h = 31 * h + buf.getChar(off + OFF_EMAIL + i * 2);
+    }
+    return h;
+  }
+
+  /**
+   * レコード同士のメアド順の比較(同一メアドはID順)
+   *
+   * @param a スロット
+   * @param b スロット
+   * @return 比較結果
+   */
+  private int compareSlots(int a, int b) {
+    var bufA = segment(a);
+    var offA = offset(a);
+    var bufB = segment(b);
+    var offB = offset(b);
+    var lenA = bufA.getShort(offA + OFF_EMAIL_LEN);
+    var lenB = bufB.getShort(offB + OFF_EMAIL_LEN);
+    for (var i = 0; i < Math.min(lenA, lenB); i++) {
+      var c = Character.compare(bufA.getChar(offA + OFF_EMAIL + i * 2), bufB.getChar(offB + OFF_EMAIL + i * 2));
+      if (c != 0) {
+        return c;
+      }
+    }
+    if (lenA != lenB) {
+      return lenA - lenB;
+    }
+    return Integer.compare(bufA.getInt(offA + OFF_ID), bufB.getInt(offB + OFF_ID));
+  }
+
+  /**
+   * レコードとカーソルのメアド順の比較(同一メアドはID順)
+   *
+   * @param slot スロット
+   * @param email カーソルのメアド
+   * @param id カーソルのID
+   * @return 比較結果
+   */
+  private int compareToCursor(int slot, String email, int id) {
+    var buf = segment(slot);
+    var off = offset(slot);
+    var length = buf.getShort(off + OFF_EMAIL_LEN);
+    for (var i = 0; i < Math.min(length, email.length()); i++) {
+      var c = Character.compare(buf.getChar(off + OFF_EMAIL + i * 2), email.charAt(i));
+      if (c != 0) {
+        return c;
+      }
+    }
+    if (length != email.length()) {
+      return length - email.length();
+    }
+    return Integer.compare(buf.getInt(off + OFF_ID), id);
+  }
+
+  /**
+   * ハッシュ値の攪拌
+   *
+   * @param h ハッシュ値
+   * @return 攪拌後の値
+   */
+  private static int mix(int h) {
+    h *= 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * 可変長のint配列(索引の並び・空きスロットに使用)
+   * 途中への挿入・削除は配列のコピーで行う(O(n)だがオブジェクトは生成しない)
+   */
+  private static final class IntList {
+    private int[] values;
+    private int size;
+
+    IntList(int capacity) {
+      values = new int[Math.max(capacity, 16)];
+    }
+
+    static IntList of(int[] values) {
+      var list = new IntList(values.length * 2);
+      System.arraycopy(values, 0, list.values, 0, values.length);
+      list.size = values.length;
+      return list;
+    }
+
+    int size() {
+      return size;
+    }
+
+    int get(int index) {
+      return values[index];
+    }
+
+    void add(int value) {
+      insert(size, value);
+    }
+
+    void insert(int index, int value) {
+      if (size == values.length) {
+        values = Arrays.copyOf(values, values.length * 2);
+      }
+      System.arraycopy(values, index, values, index + 1, size - index);
+      values[index] = value;
+      size++;
+    }
+
+    int removeAt(int index) {
+      var value = values[index];
+      System.arraycopy(values, index + 1, values, index, size - index - 1);
+      size--;
+      return value;
+    }
+
+    int[] toArray() {
+      return Arrays.copyOf(values, size);
+    }
+  }
+
+  /**
+   * 索引：ID → スロット(int配列のオープンアドレス法)
+   * キー0は未使用、-1は削除済みの印(IDは1以上)
+   * 1未満のIDは印と取り違えないよう、登録済みとして扱わない
+   */
+  private static final class IdTable {
+    private static final int FREE = 0;
+    private static final int TOMBSTONE = -1;
+    private int[] keys;
+    private int[] slots;
+    /** 有効な件数 */
+    private int size;
+    /** 未使用でない件数(削除済みの印を含む) */
+    private int used;
+
+    IdTable(int capacity) {
+      keys = new int[capacity];
+      slots = new int[capacity];
+    }
+
+    int size() {
+      return size;
+    }
+
+    /** 有効なIDの一覧(順不同) */
+    int[] keys() {
+      return Arrays.stream(keys).filter(key -> key > 0).toArray();
+    }
+
+    int get(int id) {
+      if (id <= 0) {
+        return -1;
+      }
+      var mask = keys.length - 1;
+      for (var i = mix(id) & mask; ; i = (i + 1) & mask) {
+        var key = keys[i];
+        if (key == id) {
+          return slots[i];
+        }
+        if (key == FREE) {
+          return -1;
+        }
+      }
+    }
+
+    void put(int id, int slot) {
+      if (id <= 0) {
+        throw new IllegalArgumentException("IDは1以上です: " + id);
+      }
+      if ((used + 1) * 2 > keys.length) {
+        rehash();
+      }
+      var mask = keys.length - 1;
+      var target = -1;
+      for (var i = mix(id) & mask; ; i = (i + 1) & mask) {
+        var key = keys[i];
+        if (key == id) {
+          slots[i] = slot;
+          return;
+        }
+        if (key == TOMBSTONE && target < 0) {
+          target = i;
+        }
+        if (key == FREE) {
+          if (target < 0) {
+            target = i;
+            used++;
+          }
+          break;
+        }
+      }
+      keys[target] = id;
+      slots[target] = slot;
+      size++;
+    }
+
+    void remove(int id) {
+      if (id <= 0) {
+        return;
+      }
+      var mask = keys.length - 1;
+      for (var i = mix(id) & mask; ; i = (i + 1) & mask) {
+        var key = keys[i];
+        if (key == id) {
+          keys[i] = TOMBSTONE;
+          size--;
+          return;
+        }
+        if (key == FREE) {
+          return;
+        }
+      }
+    }
+
+    private void rehash() {
+      var oldKeys = keys;
+      var oldSlots = slots;
+      var capacity = (size + 1) * 4 > oldKeys.length ? oldKeys.length * 2 : oldKeys.length;
+      keys = new int[capacity];
+      slots = new int[capacity];
+      size = 0;
+      used = 0;
+      for (var i = 0; i < oldKeys.length; i++) {
+        if (oldKeys[i] > 0) {
+          put(oldKeys[i], oldSlots[i]);
+        }
+      }
+    }
+  }
+
+  /**
+   * 索引：メアド → スロット(int配列のオープンアドレス法)
+   * メアド自体はファイル上のレコードと照合し、ハッシュ値とスロットだけを保持する
+   */
+  private final class EmailTable {
+    private static final int FREE = -1;
+    private static final int TOMBSTONE = -2;
+    private int[] hashes;
+    private int[] slots;
+    /** 有効な件数 */
+    private int size;
+    /** 未使用でない件数(削除済みの印を含む) */
+    private int used;
+
+    EmailTable(int capacity) {
+      hashes = new int[capacity];
+      slots = new int[capacity];
+      Arrays.fill(slots, FREE);
+    }
+
+    int find(String email) {
+      var h = email.hashCode();
+      var mask = slots.length - 1;
+      for (var i = mix(h) & mask; ; i = (i + 1) & mask) {
+        var slot = slots[i];
+        if (slot == FREE) {
+          return -1;
+        }
+        if (slot >= 0 && hashes[i] == h && emailEquals(slot, email)) {
+          return slot;
+        }
+      }
+    }
+
+    /** スロットのレコードと同じメアドの登録済みスロット(なければ-1) */
+    int find(int target) {
+      var h = emailHash(target);
+      var mask = slots.length - 1;
+      for (var i = mix(h) & mask; ; i = (i + 1) & mask) {
+        var slot = slots[i];
+        if (slot == FREE) {
+          return -1;
+        }
+        if (slot >= 0 && hashes[i] == h && emailEquals(slot, target)) {
+          return slot;
+        }
+      }
+    }
+
+    void put(int slot) {
+      if ((used + 1) * 2 > slots.length) {
+        rehash();
+      }
+      insert(emailHash(slot), slot);
+    }
+
+    void remove(int slot) {
+      var h = emailHash(slot);
+      var mask = slots.length - 1;
+      for (var i = mix(h) & mask; ; i = (i + 1) & mask) {
+        if (slots[i] == slot) {
+          slots[i] = TOMBSTONE;
+          size--;
+          return;
+        }
+        if (slots[i] == FREE) {
+          return;
+        }
+      }
+    }
+
+    private void insert(int h, int slot) {
+      var mask = slots.length - 1;
+      var i = mix(h) & mask;
+      while (slots[i] >= 0) {
+        i = (i + 1) & mask;
+      }
+      if (slots[i] == FREE) {
+        used++;
+      }
+      hashes[i] = h;
+      slots[i] = slot;
+      size++;
+    }
+
+    private void rehash() {
+      var oldHashes = hashes;
+      var oldSlots = slots;
+      var capacity = (size + 1) * 4 > oldSlots.length ? oldSlots.length * 2 : oldSlots.length;
+      hashes = new int[capacity];
+      slots = new int[capacity];
+      Arrays.fill(slots, FREE);
+      size = 0;
+      used = 0;
+      for (var i = 0; i < oldSlots.length; i++) {
+        if (oldSlots[i] >= 0) {
+          insert(oldHashes[i], oldSlots[i]);
+        }
+      }
+    }
+  }
+
+  /**
+   * アカウントの一括作成
+   * 書込みロックを1回だけ取得し、まとめて書き込む(強制同期する場合も最後に1回だけ)
+   *
+   * @param accounts 作成するアカウント一覧
+   * @return メアドの重複により作成しなかったアカウント一覧
+   * @throws DataIntegrityViolationException メアド・パスワードが長すぎるアカウントを含む場合(1件も作成しない)
+   */
+  @Override
+  public List<AccountDto> createAll(List<AccountDto> accounts) {
+    accounts.forEach(AccountDaoFeatMappedFile::checkLength);
+    var rejected = new ArrayList<AccountDto>();
+    lock.writeLock().lock();
+    try {
+      for (var account : accounts) {
+        if (emails.find(account.getEmail()) >= 0) {
+          rejected.add(account);
+          continue;
+        }
+        insert(account);
+      }
+      if (force) {
+        for (var segment : segments) {
+          segment.force();
+        }
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+    return rejected;
+  }
+}
@@ -0,0 +1,51 @@
+package jp.ne.takes.dao;
+
+import jp.ne.takes.dto.AccountDto;
+import jp.ne.takes.dto.AccountDto.Role;
+import jp.ne.takes.dto.AccountSummary;
+
+/**
+ * メモリ上のアカウント保存用の不変レコード
+ * 呼出し側には{@link #toDto()}でコピーしたDTOを渡し、保存済みの値を書き換えさせない
+ *
+ * @param id ID
+ * @param email メールアドレス
+ * @param password パスワード
+ * @param role 権限
+ * @param version 版番号(更新のたびに1増える)
+ *
+ * @author k_igari
+ * @author Learning System Department
+ * @author TAKES Co., Ltd.
+ * @version 1.0 Date 2023/10
+ */
+record AccountRecord(int id, String email, String password, Role role, int version) {
+  /**
+   * DTOからレコードを作成
+   *
+   * @param account DTO
+   * @param version 版番号
+   * @return レコード
+   */
+  static AccountRecord of(AccountDto account, int version) {
+    return new AccountRecord(account.getId(), account.getEmail(), account.getPassword(), account.getRole(), version);
+  }
+
+  /**
+   * 呼出し側に渡すDTOのコピーを作成
+   *
+   * @return DTO
+   */
+  AccountDto toDto() {
+    return new AccountDto(id, email, password, role, version);
+  }
+
+  /**
+   * 一覧表示用の概要を作成
+   *
+   * @return 概要(IDとメアドのみ)
+   */
+  AccountSummary toSummary() {
+    return new AccountSummary(id, email);
+  }
+}
@@ -0,0 +1,673 @@
+package jp.ne.takes.dao;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PreDestroy;
+import jp.ne.takes.dto.AccountDto.Role;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * マップ版DAO(AccountDaoFeatMap)の先行書込みログ(WAL)とスナップショット
+ *
+ * 作成・更新・削除を追記専用のログに書き、起動時は最新スナップショットの読込み後に
+ * それ以降のログだけを再生する。ログは1本の書込みスレッドがまとめて書き込み、
+ * fsyncも1回にまとめる(グループコミット)。
+ * 定期的にログのセグメントを切り替えて全件のスナップショットを取り、古いログを削除する。
+ *
+ * レコードは版番号付きの全項目で記録するため、再生は「より新しい版だけを反映」すればよく、
+ * スナップショット取得中の更新(ファジースナップショット)やログの記録順の前後に影響されない。
+ * 記録とマップへの反映は1つの区間として行い、スナップショットはセグメントの切替え前に
+ * 途中の区間の終了を待つ(古いセグメントに記録済みでマップに未反映の変更を取りこぼさない)。
+ * ログに書けなかった場合は以降の記録を全て拒否する(書込み停止)。
+ * 一部だけ書けたログの後に記録を続けると再生時に途中から読めなくなるため、再起動まで再開しない。
+ * ※無効(既定)の場合は何もしない
+ *
+ * @author k_igari
+ * @author Learning System Department
+ * @author TAKES Co., Ltd.
+ * @version 1.0 Date 2023/10
+ */
+@Component
+@Slf4j
+public class AccountWriteAheadLog {
+  /** fsyncの方針 */
+  public enum FsyncPolicy {
+    /** 書込みごとにfsyncし完了まで待つ(同時の書込みは1回のfsyncにまとめる) */
+    ALWAYS,
+    /** 一定間隔でfsyncし、書込み側は待たない */
+    INTERVAL,
+    /** fsyncしない(OSに任せる) */
+    NEVER
+  }
+
+  /** 操作：作成・更新 */
+  private static final byte OP_UPSERT = 1;
+  /** 操作：削除 */
+  private static final byte OP_DELETE = 2;
+  /** 1回の書込みでまとめる最大件数 */
+  private static final int MAX_BATCH = 4096;
+  /** ログのファイル名 */
+  private static final Pattern SEGMENT = Pattern.compile("wal-(\\d+)\\.log");
+  /** スナップショットのファイル名 */
+  private static final Pattern SNAPSHOT = Pattern.compile("snapshot-(\\d+)\\.dat");
+  /** キュー上のセグメント切替えの印 */
+  private static final byte[] ROTATE = new byte[0];
+  /** 読込み結果：途中で切れた・CRCが合わない記録 */
+  private static final byte[] TORN = new byte[0];
+
+  /** 有効か */
+  private final boolean enabled;
+  /** 保存先ディレクトリ */
+  private final Path directory;
+  /** fsyncの方針 */
+  private final FsyncPolicy fsync;
+  /** INTERVALのfsync間隔(ミリ秒) */
+  private final long fsyncIntervalMillis;
+  /** スナップショットの間隔(秒) */
+  private final long snapshotIntervalSeconds;
+  /** スナップショットを取る書込み件数 */
+  private final long snapshotEntries;
+
+  /** 書込み待ちのキュー */
+  private final BlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+  /** 前回スナップショット以降の書込み件数 */
+  private final AtomicLong entriesSinceSnapshot = new AtomicLong();
+  /** スナップショット取得中か */
+  private final AtomicBoolean snapshotting = new AtomicBoolean();
+  /** 記録から反映までの区間(読込みロック)とセグメントの切替え(書込みロック)の排他 */
+  private final ReentrantReadWriteLock applying = new ReentrantReadWriteLock();
+  /** 停止要求 */
+  private volatile boolean running;
+  /** 書込みの失敗(失敗後は記録を受け付けない) */
+  private volatile Throwable failure;
+  /** 書込みスレッド */
+  private Thread writer;
+  /** スナップショット用スレッド */
+  private ScheduledExecutorService scheduler;
+  /** スナップショットの取得元 */
+  private Supplier<Iterable<AccountRecord>> source;
+
+  /** 現在のセグメント番号(書込みスレッドが更新し、スナップショット時に参照) */
+  private volatile long segmentNo;
+  /** 現在のセグメント(書込みスレッドのみ使用) */
+  private FileChannel channel;
+  /** 現在のセグメントへの出力(書込みスレッドのみ使用) */
+  private OutputStream out;
+
+  /** キューの要素 */
+  private record Entry(byte[] bytes, CompletableFuture<Void> done) {}
+
+  /**
+   * コンストラクタ
+   *
+   * @param enabled 有効か
+   * @param directory 保存先ディレクトリ
+   * @param fsync fsyncの方針
+   * @param fsyncIntervalMillis INTERVALのfsync間隔(ミリ秒)
+   * @param snapshotIntervalSeconds スナップショットの間隔(秒)
+   * @param snapshotEntries スナップショットを取る書込み件数
+   */
+  public AccountWriteAheadLog(
+      @Value("${account.map.wal.enabled:false}") boolean enabled,
+      @Value("${account.map.wal.directory:data/wal}") String directory,
+      @Value("${account.map.wal.fsync:INTERVAL}") FsyncPolicy fsync,
+      @Value("${account.map.wal.fsync-interval-ms:50}") long fsyncIntervalMillis,
+      @Value("${account.map.wal.snapshot-interval-seconds:600}") long snapshotIntervalSeconds,
+      @Value("${account.map.wal.snapshot-entries:100000}") long snapshotEntries) {
+    this.enabled = enabled;
+    this.directory = Path.of(directory);
+    this.fsync = fsync;
+    this.fsyncIntervalMillis = fsyncIntervalMillis;
+    this.snapshotIntervalSeconds = snapshotIntervalSeconds;
+    this.snapshotEntries = snapshotEntries;
+  }
+
+  /**
+   * 無効なログの作成(永続化しないメモリ専用のマップ用)
+   *
+   * @return 無効なログ
+   */
+  public static AccountWriteAheadLog disabled() {
+    return new AccountWriteAheadLog(false, "", FsyncPolicy.NEVER, 0, 0, 0);
+  }
+
+  /**
+   * 有効か確認
+   *
+   * @return 有効な場合は{@code true}
+   */
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * 起動時の復元
+   * 最新のスナップショットを読み込み、それ以降のログを順に再生する。
+   * 途中で切れた(CRC不一致の)末尾の記録は書込み途中のクラッシュとして読み捨てる
+   * (書込みの失敗後は記録しないため、壊れた記録より後ろに有効な記録はない)
+   *
+   * @param records 復元先(ID → レコード)
+   * @return 復元したレコードの最大ID
+   */
+  public int recover(Map<Integer, AccountRecord> records) {
+    try {
+      Files.createDirectories(directory);
+      var snapshotNo = latest(SNAPSHOT);
+      var maxId = 0;
+      if (snapshotNo >= 0) {
+        try (var in = open(snapshotFile(snapshotNo))) {
+          while (true) {
+            var payload = readEntry(in);
+            if (payload == null) {
+              break;
+            }
+            if (payload == TORN) {
+              throw new DataAccessResourceFailureException("スナップショットが壊れています: " + snapshotFile(snapshotNo));
+            }
+            var record = decode(payload);
+            records.put(record.id(), record);
+            maxId = Math.max(maxId, record.id());
+          }
+        }
+      }
+      // スナップショット以降のログを再生(削除済みIDは再作成されない)
+      var deleted = new HashSet<Integer>();
+      var replayed = 0L;
+      for (var no : list(SEGMENT)) {
+        if (no < snapshotNo) {
+          continue;
+        }
+        try (var in = open(segmentFile(no))) {
+          while (true) {
+            var payload = readEntry(in);
+            if (payload == null) {
+              break;
+            }
+            if (payload == TORN) {
+              log.warn("WALの末尾の壊れた記録を読み捨てました: {}", segmentFile(no));
+              break;
+            }
+            var record = decode(payload);
+            maxId = Math.max(maxId, record.id());
+            replayed++;
+            if (payload[0] == OP_DELETE) {
+              records.remove(record.id());
+              deleted.add(record.id());
+            } else if (!deleted.contains(record.id())) {
+              records.merge(record.id(), record, (a, b) -> a.version() >= b.version() ? a : b);
+            }
+          }
+        }
+        segmentNo = Math.max(segmentNo, no);
+      }
+      segmentNo = Math.max(segmentNo, snapshotNo);
+      log.info("WALから{}件を復元しました(スナップショット{}、再生{}件)", records.size(), snapshotNo, replayed);
+      return maxId;
+    } catch (IOException e) {
+      throw new DataAccessResourceFailureException("WALを復元できません: " + directory, e);
+    }
+  }
+
+  /**
+   * 書込みの開始
+   * 復元後の新しいセグメントから書き始め、書込みスレッドとスナップショットを開始する
+   *
+   * @param source スナップショットの取得元
+   */
+  public void start(Supplier<Iterable<AccountRecord>> source) {
+    this.source = source;
+    try {
+      openSegment(segmentNo + 1);
+    } catch (IOException e) {
+      throw new DataAccessResourceFailureException("WALを開けません: " + directory, e);
+    }
+    running = true;
+    writer = new Thread(this::writeLoop, "account-wal-writer");
+    writer.setDaemon(true);
+    writer.start();
+    scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+      var t = new Thread(r, "account-wal-snapshot");
+      t.setDaemon(true);
+      return t;
+    });
+    scheduler.scheduleWithFixedDelay(this::snapshotIfDirty, snapshotIntervalSeconds, snapshotIntervalSeconds, TimeUnit.SECONDS);
+  }
+
+  /**
+   * 作成・更新の記録と反映
+   *
+   * @param record 反映後のレコード
+   * @param apply 記録後に行うマップへの反映
+   * @throws DataAccessResourceFailureException 記録できなかった場合(反映は行わない)
+   */
+  public void upsert(AccountRecord record, Runnable apply) {
+    log(OP_UPSERT, record, apply);
+  }
+
+  /**
+   * 削除の記録と反映
+   *
+   * @param record 削除するレコード
+   * @param apply 記録後に行うマップからの削除
+   * @throws DataAccessResourceFailureException 記録できなかった場合(反映は行わない)
+   */
+  public void delete(AccountRecord record, Runnable apply) {
+    log(OP_DELETE, record, apply);
+  }
+
+  /**
+   * 記録してから反映する
+   * 記録から反映までをスナップショットのセグメント切替えと排他にする
+   *
+   * @param op 操作
+   * @param record レコード
+   * @param apply 反映
+   */
+  private void log(byte op, AccountRecord record, Runnable apply) {
+    if (!enabled) {
+      apply.run();
+      return;
+    }
+    var lock = applying.readLock();
+    lock.lock();
+    try {
+      append(encode(op, record));
+      apply.run();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * 停止
+   * キューに残った記録を書き切ってからfsyncして閉じる
+   */
+  @PreDestroy
+  public void stop() {
+    if (!running) {
+      return;
+    }
+    running = false;
+    scheduler.shutdownNow();
+    try {
+      writer.join(TimeUnit.SECONDS.toMillis(10));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * 記録をキューに入れる
+   * ALWAYSの場合はfsync完了まで待つ
+   *
+   * @param bytes 記録
+   * @throws DataAccessResourceFailureException 書込みに失敗した(失敗済みの)場合
+   */
+  private void append(byte[] bytes) {
+    if (!enabled) {
+      return;
+    }
+    if (failure != null) {
+      throw new DataAccessResourceFailureException("WALの書込みに失敗したため、更新を受け付けません", failure);
+    }
+    var done = (fsync == FsyncPolicy.ALWAYS) ? new CompletableFuture<Void>() : null;
+    queue.add(new Entry(bytes, done));
+    if (entriesSinceSnapshot.incrementAndGet() >= snapshotEntries && !snapshotting.get()) {
+      scheduler.execute(this::snapshot);
+    }
+    if (done != null) {
+      await(done);
+    }
+  }
+
+  /**
+   * 書込みスレッドの処理
+   * キューにある記録をまとめて書き、方針に従ってfsyncしてから待ち合わせを解除する。
+   * 書込みに失敗した場合は失敗を記録し、その時点でキューにある記録も含めて全て失敗させる
+   */
+  private void writeLoop() {
+    var batch = new ArrayList<Entry>(MAX_BATCH);
+    var lastForce = System.nanoTime();
+    var dirty = false;
+    while (running || !queue.isEmpty()) {
+      try {
+        var first = queue.poll(Math.max(fsyncIntervalMillis, 1), TimeUnit.MILLISECONDS);
+        if (first != null) {
+          batch.add(first);
+          queue.drainTo(batch, MAX_BATCH - 1);
+          if (failure != null) {
+            // 失敗前にキューに入っていた記録
+            fail(batch, failure);
+            batch.clear();
+            continue;
+          }
+          for (var entry : batch) {
+            if (entry.bytes() == ROTATE) {
+              // 切替え前の記録を確実に書いてから次のセグメントへ
+              out.flush();
+              channel.force(false);
+              openSegment(segmentNo + 1);
+            } else {
+              out.write(entry.bytes());
+              dirty = true;
+            }
+          }
+          out.flush();
+        }
+        var now = System.nanoTime();
+        if (dirty && (fsync == FsyncPolicy.ALWAYS
+            || (fsync == FsyncPolicy.INTERVAL && now - lastForce >= TimeUnit.MILLISECONDS.toNanos(fsyncIntervalMillis)))) {
+          channel.force(false);
+          lastForce = now;
+          dirty = false;
+        }
+        for (var entry : batch) {
+          if (entry.done() != null) {
+            entry.done().complete(null);
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        running = false;
+      } catch (IOException | RuntimeException e) {
+        log.error("WALの書込みに失敗しました。以降の更新を受け付けません", e);
+        failure = e;
+        fail(batch, e);
+      }
+      batch.clear();
+    }
+    try {
+      if (failure == null) {
+        out.flush();
+        channel.force(false);
+      }
+      channel.close();
+    } catch (IOException e) {
+      log.error("WALを閉じられません", e);
+    }
+  }
+
+  /**
+   * 記録の待ち合わせを失敗で解除する
+   *
+   * @param batch 記録
+   * @param cause 失敗の原因
+   */
+  private static void fail(List<Entry> batch, Throwable cause) {
+    for (var entry : batch) {
+      if (entry.done() != null) {
+        entry.done().completeExceptionally(cause);
+      }
+    }
+  }
+
+  /**
+   * 前回以降に書込みがあればスナップショットを取る
+   */
+  private void snapshotIfDirty() {
+    if (entriesSinceSnapshot.get() > 0 && failure == null) {
+      snapshot();
+    }
+  }
+
+  /**
+   * スナップショットの取得
+   * 1. 記録から反映までの途中の変更を待ち、書込みスレッドに新しいセグメントへ切り替えさせる
+   *    (切替え前のセグメントに記録した変更はマップに反映済み。切替え後の変更は新しいセグメントから再生する)
+   * 2. マップ全件を一時ファイルに書きfsyncしてから名前を変える
+   * 3. 新しいセグメントより前のログと古いスナップショットを削除する
+   */
+  void snapshot() {
+    if (!snapshotting.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      var rotated = new CompletableFuture<Void>();
+      var lock = applying.writeLock();
+      lock.lock();
+      try {
+        queue.add(new Entry(ROTATE, rotated));
+        await(rotated);
+      } finally {
+        lock.unlock();
+      }
+      var no = segmentNo;
+      entriesSinceSnapshot.set(0);
+      var tmp = directory.resolve(String.format("snapshot-%016d.tmp", no));
+      var count = 0L;
+      try (var ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+        var snapshotOut = new BufferedOutputStream(Channels.newOutputStream(ch), 1 << 16);
+        for (var record : source.get()) {
+          snapshotOut.write(encode(OP_UPSERT, record));
+          count++;
+        }
+        snapshotOut.flush();
+        ch.force(true);
+      }
+      Files.move(tmp, snapshotFile(no), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      for (var old : list(SEGMENT)) {
+        if (old < no) {
+          Files.deleteIfExists(segmentFile(old));
+        }
+      }
+      for (var old : list(SNAPSHOT)) {
+        if (old < no) {
+          Files.deleteIfExists(snapshotFile(old));
+        }
+      }
+      log.info("スナップショット{}を作成しました({}件)", no, count);
+    } catch (IOException | RuntimeException e) {
+      log.error("スナップショットの作成に失敗しました", e);
+    } finally {
+      snapshotting.set(false);
+    }
+  }
+
+  /**
+   * 新しいセグメントを開く(書込みスレッドまたは開始時のみ)
+   *
+   * @param no セグメント番号
+   * @throws IOException 開けない場合
+   */
+  private void openSegment(long no) throws IOException {
+    if (channel != null) {
+      channel.close();
+    }
+    segmentNo = no;
+    channel = FileChannel.open(segmentFile(no), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    out = new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16);
+  }
+
+  /**
+   * 書込み完了の待ち合わせ
+   *
+   * @param done 完了通知
+   */
+  private static void await(CompletableFuture<Void> done) {
+    try {
+      done.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new DataAccessResourceFailureException("WALの書込み待ちが中断されました", e);
+    } catch (ExecutionException e) {
+      throw new DataAccessResourceFailureException("WALの書込みに失敗しました", e.getCause());
+    }
+  }
+
+  /**
+   * 記録の符号化
+   * [長さ int][CRC32 int][操作 byte][ID int][版番号 int][権限 byte][メアド UTF][パスワード UTF]
+   *
+   * @param op 操作
+   * @param record レコード
+   * @return 記録
+   */
+  private static byte[] encode(byte op, AccountRecord record) {
+    try {
+      var payload = new ByteArrayOutputStream(128);
+      var data = new DataOutputStream(payload);
+      data.writeByte(op);
+      data.writeInt(record.id());
+      data.writeInt(record.version());
+      data.writeByte(record.role().ordinal());
+      data.writeUTF(record.email());
+      data.writeUTF(record.password());
+      var bytes = payload.toByteArray();
+      var crc = new CRC32();
+      crc.update(bytes);
+      var entry = new ByteArrayOutputStream(bytes.length + 8);
+      var header = new DataOutputStream(entry);
+      header.writeInt(bytes.length);
+      header.writeInt((int) crc.getValue());
+      header.write(bytes);
+      return entry.toByteArray();
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * 記録の復号
+   *
+   * @param payload 長さ・CRCを除いた記録
+   * @return レコード
+   * @throws IOException 形式が不正な場合
+   */
+  private static AccountRecord decode(byte[] payload) throws IOException {
+    var data = new DataInputStream(new ByteArrayInputStream(payload));
+    data.readByte();
+    var id = data.readInt();
+    var version = data.readInt();
+    var role = Role.values()[data.readByte()];
+    var email = data.readUTF();
+    var password = data.readUTF();
+    return new AccountRecord(id, email, password, role, version);
+  }
+
+  /**
+   * 記録を1件読む
+   *
+   * @param in 入力
+   * @return 長さ・CRCを除いた記録(末尾の場合は{@code null}、途中で切れている・CRCが合わない場合は{@link #TORN})
+   * @throws IOException 読込みに失敗した場合
+   */
+  private static byte[] readEntry(DataInputStream in) throws IOException {
+    var first = in.read();
+    if (first < 0) {
+      return null;
+    }
+    try {
+      var length = (first << 24) | (in.readUnsignedByte() << 16) | (in.readUnsignedByte() << 8) | in.readUnsignedByte();
+      var expected = in.readInt();
+      if (length <= 0 || length > (1 << 20)) {
+        return TORN;
+      }
+      var payload = new byte[length];
+      in.readFully(payload);
+      var crc = new CRC32();
+      crc.update(payload);
+      return ((int) crc.getValue() == expected) ? payload : TORN;
+    } catch (EOFException e) {
+      return TORN;
+    }
+  }
+
+  /**
+   * ファイルを読込み用に開く
+   *
+   * @param file ファイル
+   * @return 入力
+   * @throws IOException 開けない場合
+   */
+  private static DataInputStream open(Path file) throws IOException {
+    InputStream in = Files.newInputStream(file);
+    return new DataInputStream(new BufferedInputStream(in, 1 << 16));
+  }
+
+  /**
+   * 番号付きファイルの一覧(番号の昇順)
+   *
+   * @param pattern ファイル名の形式
+   * @return 番号の一覧
+   * @throws IOException 一覧を取得できない場合
+   */
+  private List<Long> list(Pattern pattern) throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files
+          .map(p -> pattern.matcher(p.getFileName().toString()))
+          .filter(m -> m.matches())
+          .map(m -> Long.parseLong(m.group(1)))
+          .sorted()
+          .toList();
+    }
+  }
+
+  /**
+   * 最新の番号
+   *
+   * @param pattern ファイル名の形式
+   * @return 最新の番号(ない場合は-1)
+   * @throws IOException 一覧を取得できない場合
+   */
+  private long latest(Pattern pattern) throws IOException {
+    var numbers = list(pattern);
+    return numbers.isEmpty() ? -1 : numbers.get(numbers.size() - 1);
+  }
+
+  /**
+   * セグメントのパス
+   *
+   * @param no セグメント番号
+   * @return パス
+   */
+  private Path segmentFile(long no) {
+    return directory.resolve(String.format("wal-%016d.log", no));
+  }
+
+  /**
+   * スナップショットのパス
+   *
+   * @param no スナップショット番号(取得時に切り替えたセグメント番号)
+   * @return パス
+   */
+  private Path snapshotFile(long no) {
+    return directory.resolve(String.format("snapshot-%016d.dat", no));
+  }
+}
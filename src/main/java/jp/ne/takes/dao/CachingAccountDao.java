@@ -0,0 +1,399 @@
+package jp.ne.takes.dao;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import jp.ne.takes.dto.AccountDto;
+import jp.ne.takes.dto.AccountPageRequest;
+import jp.ne.takes.dto.AccountSummary;
+
+/**
+ * アカウントDAOクラス
+ * Feat.キャッシュ(他のアカウントDAOを包むデコレータ)
+ *
+ * findById・findByEmail・存在確認を件数上限とTTL付きのキャッシュで返し、
+ * 1リクエスト内で同じアカウントを何度も読む処理(更新・認証情報の差替え)のDB往復を減らす。
+ * 更新・作成・削除の際は該当するエントリを無効化する(書込みは常に委譲先へ)。
+ *
+ * キャッシュにはコピーを保存し、呼出し側にもコピーを返すため、
+ * 呼出し側でDTOを書き換えてもキャッシュの内容は変わらない。
+ * トランザクション中の書込みは、コミット後にもう一度無効化して
+ * コミット前に読まれた古い値が残らないようにする。
+ * 委譲先から読んだ値は、読込み中に無効化があった場合(世代が変わった場合)は保存しない
+ * (無効化の後に古い読込み結果が保存されて残ることがない)。
+ * DAOを通さずにDBを更新する処理(再ハッシュ・一括移行)は{@link #evict(int, String)}で無効化する。
+ * ※一覧・ページング・エクスポートはキャッシュせず委譲先をそのまま使う
+ *
+ * @author k_igari
+ * @author Learning System Department
+ * @author TAKES Co., Ltd.
+ * @version 1.0 Date 2023/10
+ */
+public class CachingAccountDao implements AccountDao {
+  /** 委譲先のDAO */
+  private final AccountDao delegate;
+  /** ID → アカウント */
+  private final Cache<Integer, AccountDto> byId;
+  /**
+   * メアド → ID
+   * 未登録のメアドも空のOptionalとして保存し、存在確認もキャッシュから返す
+   */
+  private final Cache<String, Optional<Integer>> byEmail;
+  /**
+   * 無効化の世代
+   * 無効化の前に1増やし、委譲先からの読込み中に変わった場合は読み込んだ値を保存しない
+   */
+  private final AtomicLong generation = new AtomicLong();
+
+  /**
+   * コンストラクタ
+   *
+   * @param delegate 委譲先のDAO
+   * @param maximumSize キャッシュの最大件数(ID・メアドそれぞれ)
+   * @param ttl 保存してから無効になるまでの時間
+   */
+  public CachingAccountDao(AccountDao delegate, long maximumSize, Duration ttl) {
+    this.delegate = delegate;
+    this.byId = Caffeine.newBuilder()
+        .maximumSize(maximumSize)
+        .expireAfterWrite(ttl)
+        .recordStats()
+        .build();
+    this.byEmail = Caffeine.newBuilder()
+        .maximumSize(maximumSize)
+        .expireAfterWrite(ttl)
+        .recordStats()
+        .build();
+  }
+
+  /**
+   * IDのキャッシュの取得(統計の公開用)
+   *
+   * @return IDのキャッシュ
+   */
+  public Cache<Integer, AccountDto> getByIdCache() {
+    return byId;
+  }
+
+  /**
+   * メアドのキャッシュの取得(統計の公開用)
+   *
+   * @return メアドのキャッシュ
+   */
+  public Cache<String, Optional<Integer>> getByEmailCache() {
+    return byEmail;
+  }
+
+  /**
+   * メアドに対応するアカウントの取得
+   * メアド → IDをキャッシュから引き、アカウントはIDのキャッシュから返す
+   *
+   * @param email 取得するアカウントのメアド
+   * @return メアドに対応するアカウント
+   */
+  @Override
+  public Optional<AccountDto> findByEmail(String email) {
+    var cachedId = byEmail.getIfPresent(email);
+    if (cachedId != null) {
+      if (cachedId.isEmpty()) {
+        return Optional.empty();
+      }
+      var cached = byId.getIfPresent(cachedId.get());
+      if (cached != null && email.equals(cached.getEmail())) {
+        return Optional.of(copy(cached));
+      }
+    }
+    var loaded = generation.get();
+    var accountOpt = delegate.findByEmail(email);
+    accountOpt.ifPresentOrElse(account -> put(account, loaded), () -> putAbsent(email, loaded));
+    return accountOpt.map(CachingAccountDao::copy);
+  }
+
+  /**
+   * 全アカウント一覧の取得
+   *
+   * @return 全アカウント一覧
+   */
+  @Override
+  public List<AccountDto> findAll() {
+    return delegate.findAll();
+  }
+
+  /**
+   * 全アカウントの概要一覧の取得
+   *
+   * @return 全アカウントの概要一覧
+   */
+  @Override
+  public List<AccountSummary> findAllSummaries() {
+    return delegate.findAllSummaries();
+  }
+
+  /**
+   * アカウント一覧の1ページ分を取得
+   *
+   * @param request ページ要求（並び順・カーソル・件数）
+   * @return 1ページ分のアカウントの概要
+   */
+  @Override
+  public List<AccountSummary> findPage(AccountPageRequest request) {
+    return delegate.findPage(request);
+  }
+
+  /**
+   * 全アカウントを1件ずつ流すストリームの取得
+   *
+   * @return 全アカウントのストリーム（ID昇順）
+   */
+  @Override
+  public Stream<AccountDto> streamAll() {
+    return delegate.streamAll();
+  }
+
+  /**
+   * IDに対応するアカウントの取得
+   *
+   * @param id 取得するアカウントのID
+   * @return IDに対応するアカウント
+   */
+  @Override
+  public Optional<AccountDto> findById(Integer id) {
+    var cached = byId.getIfPresent(id);
+    if (cached != null) {
+      return Optional.of(copy(cached));
+    }
+    var loaded = generation.get();
+    var accountOpt = delegate.findById(id);
+    accountOpt.ifPresent(account -> put(account, loaded));
+    return accountOpt.map(CachingAccountDao::copy);
+  }
+
+  /**
+   * 除外ID以外でメアドが存在するか確認
+   *
+   * @param email 存在確認するメアド
+   * @param id 除外するID
+   * @return 除外ID以外でメアドが存在する場合は{@code true}/存在しない場合は{@code false}
+   */
+  @Override
+  public boolean existsByEmailAndIdNot(String email, Integer id) {
+    var owner = ownerOf(email);
+    return owner.isPresent() && !owner.get().equals(id);
+  }
+
+  /**
+   * アカウントの更新
+   *
+   * @param account 更新するアカウント
+   */
+  @Override
+  public void update(AccountDto account) {
+    // 旧メアドのエントリも消すため、更新前のキャッシュを確認
+    var before = byId.getIfPresent(account.getId());
+    delegate.update(account);
+    invalidate(account.getId(), account.getEmail(), before == null ? null : before.getEmail());
+  }
+
+  /**
+   * メアドの条件付き更新
+   * 成否に関わらず(失敗は他で更新済みのため)IDと新旧メアドのエントリを無効化する
+   *
+   * @param id 更新するアカウントのID
+   * @param version 読み込んだ時の版番号
+   * @param email 新しいメアド
+   * @return 更新した場合は{@code true}/他で更新・削除されていた場合は{@code false}
+   */
+  @Override
+  public boolean updateEmail(int id, int version, String email) {
+    var before = byId.getIfPresent(id);
+    try {
+      return delegate.updateEmail(id, version, email);
+    } finally {
+      invalidate(id, email, before == null ? null : before.getEmail());
+    }
+  }
+
+  /**
+   * IDに対応するアカウントの削除
+   *
+   * @param id 削除するアカウントのID
+   */
+  @Override
+  public void deleteById(Integer id) {
+    var before = byId.getIfPresent(id);
+    delegate.deleteById(id);
+    invalidate(id, before == null ? null : before.getEmail(), null);
+  }
+
+  /**
+   * メアドが存在するか確認
+   *
+   * @param email 存在確認するメアド
+   * @return メアドが存在する場合は{@code true}/存在しない場合は{@code false}
+   */
+  @Override
+  public boolean existsByEmail(String email) {
+    return ownerOf(email).isPresent();
+  }
+
+  /**
+   * アカウントの作成
+   * 「未登録」として保存したメアドのエントリを無効化する
+   *
+   * @param account 作成するアカウント
+   */
+  @Override
+  public void create(AccountDto account) {
+    delegate.create(account);
+    invalidate(null, account.getEmail(), null);
+  }
+
+  /**
+   * メアドが未使用の場合だけアカウントを作成
+   * 成否に関わらず(失敗は他で登録済みのため)メアドのエントリを無効化する
+   *
+   * @param account 作成するアカウント
+   * @return 作成した場合は{@code true}/メアドが既に使用されている場合は{@code false}
+   */
+  @Override
+  public boolean createIfAbsent(AccountDto account) {
+    try {
+      return delegate.createIfAbsent(account);
+    } finally {
+      invalidate(null, account.getEmail(), null);
+    }
+  }
+
+  /**
+   * アカウントの一括作成
+   * 「未登録」として保存したメアドのエントリを無効化する
+   *
+   * @param accounts 作成するアカウント一覧
+   * @return メアドの重複により作成しなかったアカウント一覧
+   */
+  @Override
+  public List<AccountDto> createAll(List<AccountDto> accounts) {
+    var rejected = delegate.createAll(accounts);
+    var emails = accounts.stream().map(AccountDto::getEmail).toList();
+    Runnable evict = () -> {
+      generation.incrementAndGet();
+      byEmail.invalidateAll(emails);
+    };
+    evict.run();
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+        @Override
+        public void afterCompletion(int status) {
+          evict.run();
+        }
+      });
+    }
+    return rejected;
+  }
+
+  /**
+   * DAOを通さずに更新したアカウントのエントリの無効化
+   * (AccountRepository.replacePassword・一括移行のSQLなど、版番号を上げる更新の後に呼ぶ)
+   *
+   * @param id 更新したアカウントのID
+   * @param email 更新したアカウントのメアド
+   */
+  public void evict(int id, String email) {
+    invalidate(id, email, null);
+  }
+
+  /**
+   * メアドを使用しているアカウントのID
+   * メアドのエントリはIDのエントリとメアドが一致する場合だけ信用する
+   * (旧メアドのエントリがキャッシュに残っていても誤判定しない)
+   *
+   * @param email メアド
+   * @return 使用しているアカウントのID(未使用の場合は空)
+   */
+  private Optional<Integer> ownerOf(String email) {
+    return findByEmail(email).map(AccountDto::getId);
+  }
+
+  /**
+   * 委譲先から読み込んだアカウントをキャッシュに保存
+   * 読込み開始後に無効化があった場合は保存しない。判定はキーごとの計算の中で行うため、
+   * 無効化(世代を上げてからキーを消す)と前後しても古い値が残らない。
+   * 保存済みの値の方が新しい版の場合も置き換えない
+   *
+   * @param account 保存するアカウント(コピーを保存する)
+   * @param loaded 読込み開始時の世代
+   */
+  private void put(AccountDto account, long loaded) {
+    byId.asMap().compute(account.getId(), (id, cached) -> {
+      if (generation.get() != loaded || (cached != null && cached.getVersion() > account.getVersion())) {
+        return cached;
+      }
+      return copy(account);
+    });
+    byEmail.asMap().compute(account.getEmail(),
+        (email, cached) -> generation.get() != loaded ? cached : Optional.of(account.getId()));
+  }
+
+  /**
+   * 未登録のメアドをキャッシュに保存
+   * 読込み開始後に無効化があった場合は保存しない
+   *
+   * @param email 未登録のメアド
+   * @param loaded 読込み開始時の世代
+   */
+  private void putAbsent(String email, long loaded) {
+    byEmail.asMap().compute(email, (key, cached) -> generation.get() != loaded ? cached : Optional.empty());
+  }
+
+  /**
+   * エントリの無効化
+   * トランザクション中はコミット後(ロールバック時も)にもう一度無効化する
+   *
+   * @param id 無効化するID({@code null}の場合は対象外)
+   * @param email 無効化するメアド({@code null}の場合は対象外)
+   * @param oldEmail 無効化する旧メアド({@code null}の場合は対象外)
+   */
+  private void invalidate(Integer id, String email, String oldEmail) {
+    Runnable evict = () -> {
+      generation.incrementAndGet();
+      if (id != null) {
+        byId.invalidate(id);
+      }
+      if (email != null) {
+        byEmail.invalidate(email);
+      }
+      if (oldEmail != null) {
+        byEmail.invalidate(oldEmail);
+      }
+    };
+    evict.run();
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+        @Override
+        public void afterCompletion(int status) {
+          evict.run();
+        }
+      });
+    }
+  }
+
+  /**
+   * DTOのコピーを作成
+   *
+   * @param account コピー元
+   * @return コピー
+   */
+  private static AccountDto copy(AccountDto account) {
+    return new AccountDto(account.getId(), account.getEmail(), account.getPassword(), account.getRole(),
+        account.getVersion());
+  }
+}
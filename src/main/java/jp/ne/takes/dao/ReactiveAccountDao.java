@@ -0,0 +1,94 @@
+package jp.ne.takes.dao;
+
+import jp.ne.takes.dto.AccountDto;
+import jp.ne.takes.dto.AccountPageRequest;
+import jp.ne.takes.dto.AccountSummary;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * ノンブロッキングのアカウントDAOインタフェース
+ * {@link AccountDao}と同じ操作を、結果を待たずにMono/Fluxで返す
+ * (購読されるまで実行しない。該当なしは空のMono)
+ *
+ * @author k_igari
+ * @author Learning System Department
+ * @author TAKES Co., Ltd.
+ * @version 1.0 Date 2023/10
+ */
+public interface ReactiveAccountDao {
+
+  /**
+   * メアドに対応するアカウントの取得
+   *
+   * @param email 取得するアカウントのメアド
+   * @return メアドに対応するアカウント(該当なしは空)
+   */
+  public Mono<AccountDto> findByEmail(String email);
+
+  /**
+   * 全アカウント一覧の取得
+   *
+   * @return 全アカウント一覧(ID昇順)
+   */
+  public Flux<AccountDto> findAll();
+
+  /**
+   * アカウント一覧の1ページ分を取得
+   * 次ページの有無を判定するため、ページ件数より1件多く取得する
+   *
+   * @param request ページ要求（並び順・カーソル・件数）
+   * @return 1ページ分のアカウントの概要
+   */
+  public Flux<AccountSummary> findPage(AccountPageRequest request);
+
+  /**
+   * IDに対応するアカウントの取得
+   *
+   * @param id 取得するアカウントのID
+   * @return IDに対応するアカウント(該当なしは空)
+   */
+  public Mono<AccountDto> findById(Integer id);
+
+  /**
+   * 除外ID以外でメアドが存在するか確認
+   *
+   * @param email 存在確認するメアド
+   * @param id 除外するID
+   * @return 除外ID以外でメアドが存在する場合は{@code true}/存在しない場合は{@code false}
+   */
+  public Mono<Boolean> existsByEmailAndIdNot(String email, Integer id);
+
+  /**
+   * アカウントの更新
+   *
+   * @param account 更新するアカウント
+   * @return 完了
+   */
+  public Mono<Void> update(AccountDto account);
+
+  /**
+   * IDに対応するアカウントの削除
+   *
+   * @param id 削除するアカウントのID
+   * @return 完了
+   */
+  public Mono<Void> deleteById(Integer id);
+
+  /**
+   * メアドが存在するか確認
+   *
+   * @param email 存在確認するメアド
+   * @return メアドが存在する場合は{@code true}/存在しない場合は{@code false}
+   */
+  public Mono<Boolean> existsByEmail(String email);
+
+  /**
+   * アカウントの作成
+   * 採番したIDは引数のアカウントに設定する
+   *
+   * @param account 作成するアカウント
+   * @return 完了(メアドが既に使用されている場合はDataIntegrityViolationException)
+   */
+  public Mono<Void> create(AccountDto account);
+}
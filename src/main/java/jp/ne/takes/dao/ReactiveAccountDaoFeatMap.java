@@ -0,0 +1,139 @@
+package jp.ne.takes.dao;
+
+import org.springframework.stereotype.Repository;
+
+import jakarta.annotation.PostConstruct;
+import jp.ne.takes.dto.AccountDto;
+import jp.ne.takes.dto.AccountPageRequest;
+import jp.ne.takes.dto.AccountSummary;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * ノンブロッキングのアカウントDAOクラス
+ * Feat.マップ
+ *
+ * {@link AccountDaoFeatMap}(WALなし)をそのまま使い、各操作を購読時に実行する。
+ * マップ版の操作はロックを取らず(CASで更新)、I/Oも待たないため、
+ * イベントループのスレッドで実行してもブロックしない。
+ * ※非永続的(再起動すると初期データに戻る)
+ *
+ * @author k_igari
+ * @author Learning System Department
+ * @author TAKES Co., Ltd.
+ * @version 1.0 Date 2023/10
+ */
+@Repository("ReactiveAccountDaoFeatMap")
+public class ReactiveAccountDaoFeatMap implements ReactiveAccountDao {
+  /** 似非データベース(WALは使わない：fsyncの待ちでブロックしないように) */
+  private final AccountDaoFeatMap map = new AccountDaoFeatMap(AccountWriteAheadLog.disabled());
+
+  /**
+   * 初期化
+   * 空のマップに初期データを保存する
+   */
+  @PostConstruct
+  public void init() {
+    map.init();
+  }
+
+  /**
+   * メアドに対応するアカウントの取得
+   *
+   * @param email 取得するアカウントのメアド
+   * @return メアドに対応するアカウント(該当なしは空)
+   */
+  @Override
+  public Mono<AccountDto> findByEmail(String email) {
+    return Mono.fromSupplier(() -> map.findByEmail(email).orElse(null));
+  }
+
+  /**
+   * 全アカウント一覧の取得
+   *
+   * @return 全アカウント一覧(ID昇順)
+   */
+  @Override
+  public Flux<AccountDto> findAll() {
+    return Flux.fromStream(map::streamAll);
+  }
+
+  /**
+   * アカウント一覧の1ページ分を取得
+   *
+   * @param request ページ要求（並び順・カーソル・件数）
+   * @return 1ページ分のアカウントの概要
+   */
+  @Override
+  public Flux<AccountSummary> findPage(AccountPageRequest request) {
+    return Flux.defer(() -> Flux.fromIterable(map.findPage(request)));
+  }
+
+  /**
+   * IDに対応するアカウントの取得
+   *
+   * @param id 取得するアカウントのID
+   * @return IDに対応するアカウント(該当なしは空)
+   */
+  @Override
+  public Mono<AccountDto> findById(Integer id) {
+    return Mono.fromSupplier(() -> map.findById(id).orElse(null));
+  }
+
+  /**
+   * 除外ID以外でメアドが存在するか確認
+   *
+   * @param email 存在確認するメアド
+   * @param id 除外するID
+   * @return 除外ID以外でメアドが存在する場合は{@code true}/存在しない場合は{@code false}
+   */
+  @Override
+  public Mono<Boolean> existsByEmailAndIdNot(String email, Integer id) {
+    return Mono.fromSupplier(() -> map.existsByEmailAndIdNot(email, id));
+  }
+
+  /**
+   * アカウントの更新
+   *
+   * @param account 更新するアカウント
+   * @return 完了(新メアドが他のアカウントで使用されている場合はDuplicateKeyException、
+   *         他で更新されていた場合はOptimisticLockingFailureException)
+   */
+  @Override
+  public Mono<Void> update(AccountDto account) {
+    return Mono.fromRunnable(() -> map.update(account));
+  }
+
+  /**
+   * IDに対応するアカウントの削除
+   *
+   * @param id 削除するアカウントのID
+   * @return 完了
+   */
+  @Override
+  public Mono<Void> deleteById(Integer id) {
+    return Mono.fromRunnable(() -> map.deleteById(id));
+  }
+
+  /**
+   * メアドが存在するか確認
+   *
+   * @param email 存在確認するメアド
+   * @return メアドが存在する場合は{@code true}/存在しない場合は{@code false}
+   */
+  @Override
+  public Mono<Boolean> existsByEmail(String email) {
+    return Mono.fromSupplier(() -> map.existsByEmail(email));
+  }
+
+  /**
+   * アカウントの作成
+   *
+   * @param account 作成するアカウント
+   * @return 完了(メアドが既に使用されている場合はDuplicateKeyException)
+   */
+  @Override
+  public Mono<Void> create(AccountDto account) {
+    return Mono.fromRunnable(() -> map.create(account));
+  }
+}
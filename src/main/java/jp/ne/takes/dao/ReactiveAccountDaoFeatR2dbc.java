@@ -0,0 +1,237 @@
+package jp.ne.takes.dao;
+
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+
+import io.r2dbc.spi.Readable;
+import jp.ne.takes.dto.AccountDto;
+import jp.ne.takes.dto.AccountDto.Role;
+import jp.ne.takes.dto.AccountPageRequest;
+import jp.ne.takes.dto.AccountSummary;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * ノンブロッキングのアカウントDAOクラス
+ * Feat.R2DBC
+ *
+ * JDBCと違い、SQLの応答を待つ間スレッドを占有しないため、
+ * 少数のイベントループのスレッドで多数の読取りを同時に処理できる。
+ * 接続先は account.r2dbc.*(R2dbcConfig、JDBCの接続プール・トランザクションとは別)。
+ * 各操作はSQL文1回で完結するため、トランザクションは使わない
+ * (更新は版番号を条件にしたUPDATE文で、他での更新を上書きしない)。
+ *
+ * @author k_igari
+ * @author Learning System Department
+ * @author TAKES Co., Ltd.
+ * @version 1.0 Date 2023/10
+ */
+@Repository("ReactiveAccountDaoFeatR2dbc")
+public class ReactiveAccountDaoFeatR2dbc implements ReactiveAccountDao {
+  /** 取得する列 */
+  private static final String COLUMNS = "SELECT id, email, password, role, version FROM accounts";
+
+  /** SQLの実行 */
+  private final DatabaseClient client;
+
+  /**
+   * コンストラクタ
+   *
+   * @param client SQLの実行(R2DBCの接続プール)
+   */
+  public ReactiveAccountDaoFeatR2dbc(DatabaseClient client) {
+    this.client = client;
+  }
+
+  /**
+   * メアドに対応するアカウントの取得
+   *
+   * @param email 取得するアカウントのメアド
+   * @return メアドに対応するアカウント(該当なしは空)
+   */
+  @Override
+  public Mono<AccountDto> findByEmail(String email) {
+    return client.sql(COLUMNS + " WHERE email = :email")
+        .bind("email", email)
+        .map(ReactiveAccountDaoFeatR2dbc::toDto)
+        .one();
+  }
+
+  /**
+   * 全アカウント一覧の取得
+   * 行は届いた順に流す(全件をメモリに集めない)
+   *
+   * @return 全アカウント一覧(ID昇順)
+   */
+  @Override
+  public Flux<AccountDto> findAll() {
+    return client.sql(COLUMNS + " ORDER BY id")
+        .map(ReactiveAccountDaoFeatR2dbc::toDto)
+        .all();
+  }
+
+  /**
+   * アカウント一覧の1ページ分を取得
+   * カーソルより後ろの行をLIMITで取得する(OFFSETは使わない)
+   *
+   * @param request ページ要求（並び順・カーソル・件数）
+   * @return 1ページ分のアカウントの概要
+   */
+  @Override
+  public Flux<AccountSummary> findPage(AccountPageRequest request) {
+    var sort = request.getSort();
+    var op = sort.isAscending() ? ">" : "<";
+    var dir = sort.isAscending() ? "ASC" : "DESC";
+    // クエリの作成(カーソルより後ろの行に絞り込む)
+    var sql = new StringBuilder("SELECT id, email FROM accounts");
+    if (!request.isFirst()) {
+      if (sort.isByEmail()) {
+        sql.append(" WHERE email ").append(op).append(" :afterEmail OR (email = :afterEmail AND id ").append(op).append(" :afterId)");
+      } else {
+        sql.append(" WHERE id ").append(op).append(" :afterId");
+      }
+    }
+    if (sort.isByEmail()) {
+      sql.append(" ORDER BY email ").append(dir).append(", id ").append(dir);
+    } else {
+      sql.append(" ORDER BY id ").append(dir);
+    }
+    sql.append(" LIMIT :limit");
+    // パラメータの設定
+    var spec = client.sql(sql.toString()).bind("limit", request.getFetchSize());
+    if (!request.isFirst()) {
+      if (sort.isByEmail()) {
+        spec = spec.bind("afterEmail", request.getAfterEmail());
+      }
+      spec = spec.bind("afterId", request.getAfterId());
+    }
+    return spec.map(row -> new AccountSummary(row.get("id", Integer.class), row.get("email", String.class)))
+        .all();
+  }
+
+  /**
+   * IDに対応するアカウントの取得
+   *
+   * @param id 取得するアカウントのID
+   * @return IDに対応するアカウント(該当なしは空)
+   */
+  @Override
+  public Mono<AccountDto> findById(Integer id) {
+    return client.sql(COLUMNS + " WHERE id = :id")
+        .bind("id", id)
+        .map(ReactiveAccountDaoFeatR2dbc::toDto)
+        .one();
+  }
+
+  /**
+   * 除外ID以外でメアドが存在するか確認
+   *
+   * @param email 存在確認するメアド
+   * @param id 除外するID
+   * @return 除外ID以外でメアドが存在する場合は{@code true}/存在しない場合は{@code false}
+   */
+  @Override
+  public Mono<Boolean> existsByEmailAndIdNot(String email, Integer id) {
+    return client.sql("SELECT 1 FROM accounts WHERE email = :email AND id <> :id LIMIT 1")
+        .bind("email", email)
+        .bind("id", id)
+        .map(row -> Boolean.TRUE)
+        .first()
+        .hasElement();
+  }
+
+  /**
+   * アカウントの更新
+   * 読み込んだ時の版番号を条件に更新し、成功したらアカウントの版番号を進める
+   *
+   * @param account 更新するアカウント
+   * @return 完了(他で更新・削除されていた場合はOptimisticLockingFailureException)
+   */
+  @Override
+  public Mono<Void> update(AccountDto account) {
+    return client.sql("UPDATE accounts SET email = :email, password = :password, role = :role,"
+            + " version = version + 1 WHERE id = :id AND version = :version")
+        .bind("email", account.getEmail())
+        .bind("password", account.getPassword())
+        .bind("role", account.getRole().name())
+        .bind("id", account.getId())
+        .bind("version", account.getVersion())
+        .fetch()
+        .rowsUpdated()
+        .flatMap(updated -> {
+          if (updated == 0) {
+            return Mono.error(new OptimisticLockingFailureException(
+                "他で更新・削除されています: id=" + account.getId()));
+          }
+          account.setVersion(account.getVersion() + 1);
+          return Mono.empty();
+        });
+  }
+
+  /**
+   * IDに対応するアカウントの削除
+   *
+   * @param id 削除するアカウントのID
+   * @return 完了
+   */
+  @Override
+  public Mono<Void> deleteById(Integer id) {
+    return client.sql("DELETE FROM accounts WHERE id = :id")
+        .bind("id", id)
+        .then();
+  }
+
+  /**
+   * メアドが存在するか確認
+   *
+   * @param email 存在確認するメアド
+   * @return メアドが存在する場合は{@code true}/存在しない場合は{@code false}
+   */
+  @Override
+  public Mono<Boolean> existsByEmail(String email) {
+    return client.sql("SELECT 1 FROM accounts WHERE email = :email LIMIT 1")
+        .bind("email", email)
+        .map(row -> Boolean.TRUE)
+        .first()
+        .hasElement();
+  }
+
+  /**
+   * アカウントの作成
+   * 採番されたIDを引数のアカウントに設定する
+   *
+   * @param account 作成するアカウント
+   * @return 完了(メアドが既に使用されている場合はDataIntegrityViolationException)
+   */
+  @Override
+  public Mono<Void> create(AccountDto account) {
+    return client.sql("INSERT INTO accounts (email, password, role, version) VALUES (:email, :password, :role, 0)")
+        .filter(statement -> statement.returnGeneratedValues("id"))
+        .bind("email", account.getEmail())
+        .bind("password", account.getPassword())
+        .bind("role", account.getRole().name())
+        .map(row -> row.get("id", Integer.class))
+        .one()
+        .doOnNext(id -> {
+          account.setId(id);
+          account.setVersion(0);
+        })
+        .then();
+  }
+
+  /**
+   * 結果行をアカウントに変換
+   *
+   * @param row 結果行
+   * @return アカウント
+   */
+  private static AccountDto toDto(Readable row) {
+    return new AccountDto(
+        row.get("id", Integer.class),
+        row.get("email", String.class),
+        row.get("password", String.class),
+        Role.valueOf(row.get("role", String.class)),
+        row.get("version", Integer.class));
+  }
+}
@@ -0,0 +1,658 @@
+package jp.ne.takes.dao;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import jp.ne.takes.dto.AccountDto;
+import jp.ne.takes.dto.AccountPageRequest;
+import jp.ne.takes.dto.AccountSummary;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * アカウントDAOクラス
+ * Feat.階層(メモリの前段 + DBの後段)
+ *
+ * 読取りはすべてメモリ上のマップ(AccountDaoFeatMapをWALなしで使用)から返し、
+ * 書込みもまずマップに反映してから、変更のあったIDをDBへ書き戻す(write-behind)。
+ * 起動時に後段のJPA版DAOから全件を読み込んでマップを温める。
+ *
+ * 書き戻しは変更されたIDの集合として溜め、書き戻す時点のマップの内容を
+ * DELETE・UPDATE・INSERTのJDBCバッチでまとめて反映する(DBにあるIDはUPDATE、無いIDはINSERT)。
+ * ON DUPLICATE KEY UPDATEはメアドの一意制約でも発火し別のIDの行を上書きするため使わない。
+ * 同じIDへの複数回の変更は1回の書込みにまとまる。
+ * <ul>
+ *   <li>SYNC：書込みのたびに呼出し元のスレッドで書き戻してから返す。
+ *       書き戻しに失敗した場合はメモリの変更を取り消して例外を投げる</li>
+ *   <li>ASYNC：一定間隔で書き戻す。未反映の件数・時間が上限を超えている場合は
+ *       メモリを変更する前に呼出し元のスレッドで書き戻す(DBとの差を上限内に抑える)。
+ *       書き戻せない場合はメモリを変更せずに例外を投げる</li>
+ * </ul>
+ * バッチが失敗した場合は1件ずつ書き直し、その行だけが原因の失敗(一意制約・値の不正)が続く行は
+ * 書き戻し不能として隔離する(他の行の書き戻しを止めない)。ただし他に未反映の行がある間は隔離せず、
+ * それらの後に書き直す(別のバッチの行が手放す予定のメアドを使っている場合)。隔離した行はメモリにだけ残り、
+ * 件数は account.tiered.dead-letters として公開する。同じIDが再び変更されるか、
+ * {@link #retryDeadLetters()}を呼ぶと再び書き戻しの対象になる。
+ * IDはマップで採番し(DBの最大ID以降)、DBにもそのIDで書き込む。
+ * ※accountsテーブルへの書込みはこのDAOだけが行う前提(他のDAO・一括移行とは併用しない)
+ *
+ * @author k_igari
+ * @author Learning System Department
+ * @author TAKES Co., Ltd.
+ * @version 1.0 Date 2023/10
+ */
+@Slf4j
+public class TieredAccountDao implements AccountDao, AutoCloseable {
+  /** 書き戻しの方式 */
+  public enum Durability { SYNC, ASYNC }
+
+  /** DBにあるIDの確認 */
+  private static final String EXISTING_IDS_SQL = "SELECT id FROM accounts WHERE id IN (%s)";
+  /** 追加 */
+  private static final String INSERT_SQL =
+      "INSERT INTO accounts (email, password, role, version, id) VALUES (?, ?, ?, ?, ?)";
+  /** 更新(全項目を上書き) */
+  private static final String UPDATE_SQL =
+      "UPDATE accounts SET email = ?, password = ?, role = ?, version = ? WHERE id = ?";
+  /** 削除 */
+  private static final String DELETE_SQL = "DELETE FROM accounts WHERE id = ?";
+  /**
+   * メアドの一時退避
+   * 同じ書き戻しの中でメアドを入れ替えた行があっても一意制約に当たらないよう、
+   * UPDATEの前に対象行のメアドをID由来の値にしておく(同じトランザクション内のため外からは見えない)
+   */
+  private static final String PARK_EMAIL_SQL = "UPDATE accounts SET email = CONCAT('#', id) WHERE id IN (%s)";
+  /** 1回のバッチの最大件数 */
+  private static final int BATCH_SIZE = 500;
+
+  /** メモリの前段(読取りはすべてここから) */
+  private final AccountDaoFeatMap front;
+  /** DBの後段(起動時の読込み用) */
+  private final AccountDao back;
+  /** 書き戻し用のJdbcTemplate */
+  private final JdbcTemplate jdbcTemplate;
+  /** 書き戻し用のトランザクション */
+  private final TransactionTemplate transactionTemplate;
+  /** 書き戻しの方式 */
+  private final Durability durability;
+  /** 書き戻しの間隔(ASYNC) */
+  private final Duration flushInterval;
+  /** 未反映の時間の上限(ASYNC) */
+  private final long maxLagNanos;
+  /** 未反映の件数の上限(ASYNC) */
+  private final int maxPending;
+
+  /** 変更があり未反映のID */
+  private final Set<Integer> dirty = ConcurrentHashMap.newKeySet();
+  /** 書き戻せずに隔離したID → 失敗の理由 */
+  private final Map<Integer, String> deadLetters = new ConcurrentHashMap<>();
+  /** 未反映の変更が発生した時刻(System.nanoTime、0は未反映なし) */
+  private final AtomicLong pendingSince = new AtomicLong();
+  /** 書き戻しを1スレッドずつ実行するためのロック */
+  private final ReentrantLock flushLock = new ReentrantLock();
+  /** 定期的な書き戻し(ASYNC) */
+  private ScheduledExecutorService flusher;
+
+  /**
+   * コンストラクタ
+   *
+   * @param back DBの後段となるDAO(JPA版)
+   * @param jdbcTemplate 書き戻し用のJdbcTemplate
+   * @param transactionTemplate 書き戻し用のトランザクション
+   * @param durability 書き戻しの方式
+   * @param flushInterval 書き戻しの間隔(ASYNC)
+   * @param maxLag 未反映の時間の上限(ASYNC)
+   * @param maxPending 未反映の件数の上限(ASYNC)
+   */
+  public TieredAccountDao(AccountDao back, JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate,
+      Durability durability, Duration flushInterval, Duration maxLag, int maxPending) {
+    this.front = new AccountDaoFeatMap(AccountWriteAheadLog.disabled());
+    this.back = back;
+    this.jdbcTemplate = jdbcTemplate;
+    this.transactionTemplate = transactionTemplate;
+    this.durability = durability;
+    this.flushInterval = flushInterval;
+    this.maxLagNanos = maxLag.toNanos();
+    this.maxPending = maxPending;
+  }
+
+  /**
+   * 開始
+   * 後段のDBから全件をメモリに読み込み、ASYNCの場合は定期的な書き戻しを開始する
+   */
+  public void start() {
+    var started = System.nanoTime();
+    var template = new TransactionTemplate(transactionTemplate.getTransactionManager());
+    template.setReadOnly(true);
+    template.executeWithoutResult(status -> {
+      try (var accounts = back.streamAll()) {
+        accounts.forEach(front::store);
+      }
+    });
+    log.info("アカウントをメモリに読み込みました: {}件 ({}ms, 書き戻し={})",
+        front.findAllSummaries().size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started), durability);
+    if (durability == Durability.ASYNC) {
+      flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        var thread = new Thread(r, "account-write-behind");
+        thread.setDaemon(true);
+        return thread;
+      });
+      var millis = flushInterval.toMillis();
+      flusher.scheduleWithFixedDelay(this::flushQuietly, millis, millis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * 停止
+   * 定期的な書き戻しを止め、未反映の変更をすべて書き戻す
+   */
+  @Override
+  public void close() {
+    if (flusher != null) {
+      flusher.shutdown();
+      try {
+        flusher.awaitTermination(10, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    flush();
+  }
+
+  /**
+   * 未反映の件数(メトリクス用)
+   *
+   * @return 未反映のIDの件数
+   */
+  public int getPendingCount() {
+    return dirty.size();
+  }
+
+  /**
+   * 書き戻せずに隔離した件数(メトリクス用)
+   *
+   * @return 隔離したIDの件数
+   */
+  public int getDeadLetterCount() {
+    return deadLetters.size();
+  }
+
+  /**
+   * 隔離したIDを再び書き戻しの対象にする(原因のデータを直した後に使用)
+   */
+  public void retryDeadLetters() {
+    for (var id : deadLetters.keySet()) {
+      deadLetters.remove(id);
+      dirty.add(id);
+    }
+    pendingSince.compareAndSet(0, System.nanoTime());
+  }
+
+  /**
+   * 未反映の時間(メトリクス用)
+   *
+   * @return 最も古い未反映の変更からの経過時間(ミリ秒)
+   */
+  public long getLagMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(lagNanos());
+  }
+
+  /**
+   * 最も古い未反映の変更からの経過時間
+   *
+   * @return 経過時間(ナノ秒、未反映なしは0)
+   */
+  private long lagNanos() {
+    var since = pendingSince.get();
+    return since == 0 ? 0 : System.nanoTime() - since;
+  }
+
+  /**
+   * メアドに対応するアカウントの取得
+   *
+   * @param email 取得するアカウントのメアド
+   * @return メアドに対応するアカウント
+   */
+  @Override
+  public Optional<AccountDto> findByEmail(String email) {
+    return front.findByEmail(email);
+  }
+
+  /**
+   * 全アカウント一覧の取得
+   *
+   * @return 全アカウント一覧
+   */
+  @Override
+  public List<AccountDto> findAll() {
+    return front.findAll();
+  }
+
+  /**
+   * 全アカウントの概要一覧の取得
+   *
+   * @return 全アカウントの概要一覧
+   */
+  @Override
+  public List<AccountSummary> findAllSummaries() {
+    return front.findAllSummaries();
+  }
+
+  /**
+   * アカウント一覧の1ページ分を取得
+   *
+   * @param request ページ要求（並び順・カーソル・件数）
+   * @return 1ページ分のアカウントの概要
+   */
+  @Override
+  public List<AccountSummary> findPage(AccountPageRequest request) {
+    return front.findPage(request);
+  }
+
+  /**
+   * 全アカウントを1件ずつ流すストリームの取得
+   *
+   * @return 全アカウントのストリーム（ID昇順）
+   */
+  @Override
+  public Stream<AccountDto> streamAll() {
+    return front.streamAll();
+  }
+
+  /**
+   * IDに対応するアカウントの取得
+   *
+   * @param id 取得するアカウントのID
+   * @return IDに対応するアカウント
+   */
+  @Override
+  public Optional<AccountDto> findById(Integer id) {
+    return front.findById(id);
+  }
+
+  /**
+   * 除外ID以外でメアドが存在するか確認
+   *
+   * @param email 存在確認するメアド
+   * @param id 除外するID
+   * @return 除外ID以外でメアドが存在する場合は{@code true}/存在しない場合は{@code false}
+   */
+  @Override
+  public boolean existsByEmailAndIdNot(String email, Integer id) {
+    return front.existsByEmailAndIdNot(email, id);
+  }
+
+  /**
+   * メアドが存在するか確認
+   *
+   * @param email 存在確認するメアド
+   * @return メアドが存在する場合は{@code true}/存在しない場合は{@code false}
+   */
+  @Override
+  public boolean existsByEmail(String email) {
+    return front.existsByEmail(email);
+  }
+
+  /**
+   * アカウントの更新
+   *
+   * @param account 更新するアカウント
+   */
+  @Override
+  public void update(AccountDto account) {
+    beforeWrite();
+    int id = account.getId();
+    var lock = front.lockOf(id);
+    Change change;
+    lock.lock();
+    try {
+      var before = front.findById(id).orElse(null);
+      front.update(account);
+      change = new Change(id, before, front.findById(id).orElse(null));
+    } finally {
+      lock.unlock();
+    }
+    written(List.of(change));
+  }
+
+  /**
+   * メアドの条件付き更新
+   *
+   * @param id 更新するアカウントのID
+   * @param version 読み込んだ時の版番号
+   * @param email 新しいメアド
+   * @return 更新した場合は{@code true}/他で更新・削除されていた場合は{@code false}
+   */
+  @Override
+  public boolean updateEmail(int id, int version, String email) {
+    beforeWrite();
+    var lock = front.lockOf(id);
+    Change change;
+    lock.lock();
+    try {
+      var before = front.findById(id).orElse(null);
+      if (!front.updateEmail(id, version, email)) {
+        return false;
+      }
+      change = new Change(id, before, front.findById(id).orElse(null));
+    } finally {
+      lock.unlock();
+    }
+    written(List.of(change));
+    return true;
+  }
+
+  /**
+   * IDに対応するアカウントの削除
+   *
+   * @param id 削除するアカウントのID
+   */
+  @Override
+  public void deleteById(Integer id) {
+    beforeWrite();
+    var lock = front.lockOf(id);
+    Change change;
+    lock.lock();
+    try {
+      var before = front.findById(id).orElse(null);
+      front.deleteById(id);
+      change = new Change(id, before, null);
+    } finally {
+      lock.unlock();
+    }
+    written(List.of(change));
+  }
+
+  /**
+   * アカウントの作成
+   *
+   * @param account 作成するアカウント
+   */
+  @Override
+  public void create(AccountDto account) {
+    beforeWrite();
+    front.create(account);
+    written(List.of(created(account)));
+  }
+
+  /**
+   * メアドが未使用の場合だけアカウントを作成
+   *
+   * @param account 作成するアカウント
+   * @return 作成した場合は{@code true}/メアドが既に使用されている場合は{@code false}
+   */
+  @Override
+  public boolean createIfAbsent(AccountDto account) {
+    beforeWrite();
+    if (!front.createIfAbsent(account)) {
+      return false;
+    }
+    written(List.of(created(account)));
+    return true;
+  }
+
+  /**
+   * アカウントの一括作成
+   *
+   * @param accounts 作成するアカウント一覧
+   * @return メアドの重複により作成しなかったアカウント一覧
+   */
+  @Override
+  public List<AccountDto> createAll(List<AccountDto> accounts) {
+    beforeWrite();
+    var rejected = front.createAll(accounts);
+    Set<AccountDto> skipped = Collections.newSetFromMap(new IdentityHashMap<>());
+    skipped.addAll(rejected);
+    written(accounts.stream().filter(account -> !skipped.contains(account)).map(this::created).toList());
+    return rejected;
+  }
+
+  /**
+   * メモリの変更(SYNCの書き戻し失敗時の取消し用)
+   *
+   * @param id 変更したID
+   * @param before 変更前({@code null}は作成)
+   * @param after 変更後({@code null}は削除)
+   */
+  private record Change(int id, AccountDto before, AccountDto after) {}
+
+  /**
+   * 作成したアカウントの変更
+   *
+   * @param account 作成したアカウント(採番済み)
+   * @return 変更
+   */
+  private Change created(AccountDto account) {
+    return new Change(account.getId(), null, front.findById(account.getId()).orElse(null));
+  }
+
+  /**
+   * メモリへの書込み前の処理(ASYNC)
+   * 未反映の件数・時間が上限を超えている場合は先に書き戻す。
+   * 書き戻せない場合はここで例外となり、メモリは変更しない
+   */
+  private void beforeWrite() {
+    if (durability == Durability.ASYNC && (dirty.size() >= maxPending || lagNanos() >= maxLagNanos)) {
+      flush();
+    }
+  }
+
+  /**
+   * メモリへの書込み後の処理
+   * SYNCは変更したIDをその場で書き戻し、失敗した場合はメモリの変更を取り消して例外を投げる。
+   * ASYNCは変更したIDを未反映として記録する(例外は投げない)
+   *
+   * @param changes メモリの変更
+   */
+  private void written(List<Change> changes) {
+    if (changes.isEmpty()) {
+      return;
+    }
+    var ids = changes.stream().map(Change::id).toList();
+    ids.forEach(deadLetters::remove);
+    if (durability == Durability.SYNC) {
+      flushLock.lock();
+      try {
+        write(ids);
+      } catch (RuntimeException e) {
+        for (var change : changes) {
+          if (!front.revert(change.id(), change.after(), change.before())) {
+            log.warn("書き戻しに失敗した変更を取り消せません(他で変更済み): id={}", change.id());
+          }
+        }
+        throw e;
+      } finally {
+        flushLock.unlock();
+      }
+      return;
+    }
+    dirty.addAll(ids);
+    pendingSince.compareAndSet(0, System.nanoTime());
+  }
+
+  /**
+   * 定期的な書き戻し(失敗は次回に再試行)
+   */
+  private void flushQuietly() {
+    try {
+      flush();
+    } catch (RuntimeException e) {
+      log.warn("アカウントの書き戻しに失敗しました(次回に再試行): {}", e.getMessage());
+    }
+  }
+
+  /**
+   * 未反映の変更の書き戻し
+   * 書き戻す時点のメモリの内容を書き込む(メモリに無いIDは削除)。
+   * バッチが失敗した場合は1件ずつ書き直す(writeEach)。
+   * 接続断などDB側の失敗の場合は未反映のまま残し、例外を投げる
+   */
+  public void flush() {
+    flushLock.lock();
+    try {
+      while (!dirty.isEmpty()) {
+        var ids = new ArrayList<Integer>(Math.min(dirty.size(), BATCH_SIZE));
+        for (var it = dirty.iterator(); it.hasNext() && ids.size() < BATCH_SIZE;) {
+          ids.add(it.next());
+          it.remove();
+        }
+        pendingSince.set(dirty.isEmpty() ? 0 : System.nanoTime());
+        try {
+          write(ids);
+        } catch (DataIntegrityViolationException e) {
+          writeEach(ids);
+        } catch (RuntimeException e) {
+          requeue(ids);
+          throw e;
+        }
+      }
+    } finally {
+      flushLock.unlock();
+    }
+  }
+
+  /**
+   * バッチが失敗した行の1件ずつの書込み
+   * 失敗した行は、他の行が書けた(メアドの入替え等の順序が原因の可能性がある)間は繰り返し書き直し、
+   * 最後に残りをまとめてもう一度書く(互いのメアドの入替え)。それでも書けない行は、
+   * 他に未反映の行があれば未反映に戻し、無ければ隔離する。
+   * 一意制約・値の不正以外の失敗の場合は残りを未反映に戻して例外を投げる
+   *
+   * @param ids バッチが失敗したID
+   */
+  private void writeEach(List<Integer> ids) {
+    var remaining = ids;
+    var failures = new HashMap<Integer, DataIntegrityViolationException>();
+    while (!remaining.isEmpty()) {
+      var failed = new ArrayList<Integer>();
+      for (var i = 0; i < remaining.size(); i++) {
+        var id = remaining.get(i);
+        try {
+          write(List.of(id));
+        } catch (DataIntegrityViolationException e) {
+          failed.add(id);
+          failures.put(id, e);
+        } catch (RuntimeException e) {
+          requeue(failed);
+          requeue(remaining.subList(i, remaining.size()));
+          throw e;
+        }
+      }
+      if (failed.size() == remaining.size()) {
+        break;
+      }
+      remaining = failed;
+    }
+    if (remaining.isEmpty()) {
+      return;
+    }
+    if (remaining.size() > 1) {
+      try {
+        write(remaining);
+        return;
+      } catch (DataIntegrityViolationException e) {
+        // 隔離する
+      } catch (RuntimeException e) {
+        requeue(remaining);
+        throw e;
+      }
+    }
+    if (!dirty.isEmpty()) {
+      // 他の未反映の行(メアドを手放す予定の行を含みうる)を書き戻した後に再試行する
+      requeue(remaining);
+      return;
+    }
+    for (var id : remaining) {
+      var cause = failures.get(id);
+      deadLetters.put(id, String.valueOf(cause.getMostSpecificCause().getMessage()));
+      log.error("アカウントを書き戻せないため隔離しました(メモリにのみ反映): id={}", id, cause);
+    }
+  }
+
+  /**
+   * 未反映に戻す
+   *
+   * @param ids 書き戻せなかったID
+   */
+  private void requeue(List<Integer> ids) {
+    if (ids.isEmpty()) {
+      return;
+    }
+    dirty.addAll(ids);
+    pendingSince.compareAndSet(0, System.nanoTime());
+  }
+
+  /**
+   * IDごとのメモリの内容をDBに書き込む(1トランザクション)
+   *
+   * @param ids 書き込むID
+   */
+  private void write(List<Integer> ids) {
+    var upserts = new ArrayList<AccountDto>(ids.size());
+    var deletes = new ArrayList<Integer>();
+    for (var id : ids) {
+      front.findById(id).ifPresentOrElse(upserts::add, () -> deletes.add(id));
+    }
+    transactionTemplate.executeWithoutResult(status -> {
+      // 削除を先に行い、解放されたメアドを同じ書き戻しで再利用できるようにする
+      if (!deletes.isEmpty()) {
+        jdbcTemplate.batchUpdate(DELETE_SQL, deletes, deletes.size(), (ps, id) -> ps.setInt(1, id));
+      }
+      if (upserts.isEmpty()) {
+        return;
+      }
+      var inList = upserts.stream().map(account -> Integer.toString(account.getId())).collect(Collectors.joining(","));
+      var existing = Set.copyOf(jdbcTemplate.queryForList(String.format(EXISTING_IDS_SQL, inList), Integer.class));
+      var updates = upserts.stream().filter(account -> existing.contains(account.getId())).toList();
+      var inserts = upserts.stream().filter(account -> !existing.contains(account.getId())).toList();
+      if (updates.size() > 1) {
+        var parked = updates.stream().map(account -> Integer.toString(account.getId())).collect(Collectors.joining(","));
+        jdbcTemplate.update(String.format(PARK_EMAIL_SQL, parked));
+      }
+      // 更新で手放したメアドを追加で使えるよう、更新を先に行う
+      if (!updates.isEmpty()) {
+        jdbcTemplate.batchUpdate(UPDATE_SQL, updates, updates.size(), TieredAccountDao::setRow);
+      }
+      if (!inserts.isEmpty()) {
+        jdbcTemplate.batchUpdate(INSERT_SQL, inserts, inserts.size(), TieredAccountDao::setRow);
+      }
+    });
+    // 隔離後に書き戻せた(再度変更された)ID
+    ids.forEach(deadLetters::remove);
+  }
+
+  /**
+   * INSERT・UPDATEのパラメータの設定(メアド・パスワード・権限・版番号・IDの順)
+   *
+   * @param ps 文
+   * @param account 書き込むアカウント
+   * @throws SQLException 設定できない場合
+   */
+  private static void setRow(PreparedStatement ps, AccountDto account) throws SQLException {
+    ps.setString(1, account.getEmail());
+    ps.setString(2, account.getPassword());
+    ps.setString(3, account.getRole().name());
+    ps.setInt(4, account.getVersion());
+    ps.setInt(5, account.getId());
+  }
+}
@@ -8,6 +8,8 @@ import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
 import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
+import jakarta.persistence.Version;
 
 import lombok.AllArgsConstructor;
 import lombok.Getter;
@@ -17,15 +19,22 @@ import lombok.Setter;
 /**
  * アカウントDTOクラス
  * アカウント新規作成・更新用
- * 
+ *
+ * 既存のテーブルには版番号の列とメアドの一意制約を追加しておくこと
+ * <pre>
+ * ALTER TABLE accounts ADD COLUMN version INT NOT NULL DEFAULT 0;
+ * ALTER TABLE accounts ADD CONSTRAINT uk_accounts_email UNIQUE (email);
+ * </pre>
+ *
  * @author k_igari
  * @author Learning System Department
  * @author TAKES Co., Ltd.
  * @version 1.0 Date 2023/10
  */
-/** データベースにマッピング */
+/** データベースにマッピング(メアドは一意) */
 @Entity
-@Table(name="accounts")
+@Table(name="accounts",
+    uniqueConstraints = @UniqueConstraint(name = "uk_accounts_email", columnNames = "email"))
 /** コンストラクタとアクセサを自動生成 */
 @NoArgsConstructor
 @AllArgsConstructor
@@ -45,10 +54,15 @@ public class AccountDto {
   /** パスワード */
   @Column
   private String password = "";
-  
+
   /** 権限 */
   public enum Role { USER, ADMIN }
   @Enumerated(EnumType.STRING)
   @Column(nullable = false, length = 20)
   private Role role = Role.USER;
-}
\ No newline at end of file
+
+  /** 版番号(楽観ロック用：更新のたびに1増える、JPAを通さないINSERTのため既定値0) */
+  @Version
+  @Column(nullable = false, columnDefinition = "INT NOT NULL DEFAULT 0")
+  private int version = 0;
+}
@@ -0,0 +1,54 @@
+package jp.ne.takes.dto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.Getter;
+
+/**
+ * アカウント一括取込みの結果
+ * 取り込めなかった行は行番号・メアド・理由を記録する(件数が多い場合は先頭から上限件数まで)
+ *
+ * @author k_igari
+ * @author Learning System Department
+ * @author TAKES Co., Ltd.
+ * @version 1.0 Date 2023/10
+ */
+@Getter
+public class AccountImportResult {
+  /** 記録するエラーの上限件数 */
+  public static final int MAX_ERRORS = 1000;
+
+  /** 取り込めなかった行 */
+  public record Error(long line, String email, String message) {}
+
+  /** 取り込んだ件数 */
+  private long imported;
+  /** 取り込めなかった件数 */
+  private long rejected;
+  /** 取り込めなかった行(先頭から最大MAX_ERRORS件) */
+  private final List<Error> errors = new ArrayList<>();
+
+  /**
+   * 取り込んだ件数の加算
+   *
+   * @param count 件数
+   */
+  public void addImported(long count) {
+    imported += count;
+  }
+
+  /**
+   * 取り込めなかった行の追加
+   *
+   * @param line 行番号
+   * @param email メアド
+   * @param message 理由
+   */
+  public void addError(long line, String email, String message) {
+    rejected++;
+    if (errors.size() < MAX_ERRORS) {
+      errors.add(new Error(line, email, message));
+    }
+  }
+}
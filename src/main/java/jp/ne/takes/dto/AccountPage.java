@@ -0,0 +1,48 @@
+package jp.ne.takes.dto;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * アカウント一覧の1ページ分
+ *
+ * @author k_igari
+ * @author Learning System Department
+ * @author TAKES Co., Ltd.
+ * @version 1.0 Date 2023/10
+ */
+@Getter
+@AllArgsConstructor
+public class AccountPage {
+  /** ページ内のアカウント */
+  private final List<AccountSummary> content;
+  /** 次ページの要求（最終ページは{@code null}） */
+  private final AccountPageRequest next;
+
+  /**
+   * DAOの取得結果からページを作成
+   *
+   * @param request ページ要求
+   * @param fetched DAOの取得結果（最大{@code request.getFetchSize()}件）
+   * @return ページ
+   */
+  public static AccountPage of(AccountPageRequest request, List<AccountSummary> fetched) {
+    if (fetched.size() <= request.getSize()) {
+      // 1件多く取れなければ最終ページ
+      return new AccountPage(fetched, null);
+    }
+    var content = fetched.subList(0, request.getSize());
+    return new AccountPage(content, request.next(content.get(content.size() - 1)));
+  }
+
+  /**
+   * 次ページがあるか確認
+   *
+   * @return 次ページがある場合は{@code true}
+   */
+  public boolean hasNext() {
+    return next != null;
+  }
+}
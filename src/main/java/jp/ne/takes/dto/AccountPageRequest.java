@@ -0,0 +1,95 @@
+package jp.ne.takes.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * アカウント一覧のページ要求
+ * キーセット(カーソル)ページング用
+ *
+ * OFFSETは読み飛ばす行数に比例して遅くなるため使わず、
+ * 前ページ最終行のID(メアド順の場合はメアドとID)をカーソルとして
+ * 「カーソルより後ろ」の行だけを取得する
+ *
+ * @author k_igari
+ * @author Learning System Department
+ * @author TAKES Co., Ltd.
+ * @version 1.0 Date 2023/10
+ */
+@Getter
+@AllArgsConstructor
+public class AccountPageRequest {
+  /** 1ページの既定件数 */
+  public static final int DEFAULT_SIZE = 20;
+  /** 1ページの最大件数 */
+  public static final int MAX_SIZE = 100;
+
+  /** 並び順 */
+  private final AccountSort sort;
+  /** カーソル：前ページ最終行のID（先頭ページは{@code null}） */
+  private final Integer afterId;
+  /** カーソル：前ページ最終行のメアド（メアド順のみ使用） */
+  private final String afterEmail;
+  /** 1ページの件数 */
+  private final int size;
+
+  /**
+   * 先頭ページの要求を作成
+   *
+   * @param sort 並び順
+   * @param size 1ページの件数
+   * @return 先頭ページの要求
+   */
+  public static AccountPageRequest first(AccountSort sort, int size) {
+    return new AccountPageRequest(sort, null, null, size);
+  }
+
+  /**
+   * 画面から受け取った値でページ要求を作成
+   * 不正な値は既定値に補正する
+   *
+   * @param sort 並び順（{@code null}はID昇順）
+   * @param afterId カーソルのID
+   * @param afterEmail カーソルのメアド
+   * @param size 1ページの件数
+   * @return ページ要求
+   */
+  public static AccountPageRequest of(AccountSort sort, Integer afterId, String afterEmail, Integer size) {
+    var s = (sort != null) ? sort : AccountSort.ID_ASC;
+    var n = (size == null || size < 1) ? DEFAULT_SIZE : Math.min(size, MAX_SIZE);
+    if (afterId == null || (s.isByEmail() && afterEmail == null)) {
+      // カーソルが揃っていなければ先頭ページ
+      return first(s, n);
+    }
+    return new AccountPageRequest(s, afterId, s.isByEmail() ? afterEmail : null, n);
+  }
+
+  /**
+   * 先頭ページか確認
+   *
+   * @return 先頭ページの場合は{@code true}
+   */
+  public boolean isFirst() {
+    return afterId == null;
+  }
+
+  /**
+   * DAOが取得する件数
+   * 次ページの有無を判定するため1件多く取得する
+   *
+   * @return 取得件数
+   */
+  public int getFetchSize() {
+    return size + 1;
+  }
+
+  /**
+   * 指定行の次から始まるページ要求を作成
+   *
+   * @param last 現在ページの最終行
+   * @return 次ページの要求
+   */
+  public AccountPageRequest next(AccountSummary last) {
+    return new AccountPageRequest(sort, last.getId(), sort.isByEmail() ? last.getEmail() : null, size);
+  }
+}
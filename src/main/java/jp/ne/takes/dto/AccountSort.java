@@ -0,0 +1,51 @@
+package jp.ne.takes.dto;
+
+/**
+ * アカウント一覧の並び順
+ * キーセット(カーソル)ページングで使用する
+ *
+ * メアド順はメアドが同一の場合に備えてIDを第2キーにする
+ *
+ * @author k_igari
+ * @author Learning System Department
+ * @author TAKES Co., Ltd.
+ * @version 1.0 Date 2023/10
+ */
+public enum AccountSort {
+  /** ID昇順 */
+  ID_ASC(false, true),
+  /** ID降順 */
+  ID_DESC(false, false),
+  /** メアド昇順 */
+  EMAIL_ASC(true, true),
+  /** メアド降順 */
+  EMAIL_DESC(true, false);
+
+  /** メアドで並べるか */
+  private final boolean byEmail;
+  /** 昇順か */
+  private final boolean ascending;
+
+  private AccountSort(boolean byEmail, boolean ascending) {
+    this.byEmail = byEmail;
+    this.ascending = ascending;
+  }
+
+  /**
+   * メアドで並べるか確認
+   *
+   * @return メアド順の場合は{@code true}/ID順の場合は{@code false}
+   */
+  public boolean isByEmail() {
+    return byEmail;
+  }
+
+  /**
+   * 昇順か確認
+   *
+   * @return 昇順の場合は{@code true}/降順の場合は{@code false}
+   */
+  public boolean isAscending() {
+    return ascending;
+  }
+}
@@ -0,0 +1,23 @@
+package jp.ne.takes.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * アカウントの概要(一覧表示用の射影)
+ * IDとメアドだけを取得し、パスワード(ハッシュ)・権限は読み込まない
+ * ※エンティティではないため永続化コンテキストで管理されない
+ *
+ * @author k_igari
+ * @author Learning System Department
+ * @author TAKES Co., Ltd.
+ * @version 1.0 Date 2023/10
+ */
+@Getter
+@AllArgsConstructor
+public class AccountSummary {
+  /** ID */
+  private final int id;
+  /** メールアドレス */
+  private final String email;
+}
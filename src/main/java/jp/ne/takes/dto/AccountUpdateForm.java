@@ -26,4 +26,6 @@ public class AccountUpdateForm {
   @NotBlank(message="メールアドレスが未入力です")
   @Email(message = "有効なメールアドレスを入力してください")
   private String email = "";
+  /** 版番号(画面表示時の値：更新時に他の更新と競合していないか確認する) */
+  private int version = 0;
 }
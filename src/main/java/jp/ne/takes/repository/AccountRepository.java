@@ -1,8 +1,21 @@
 package jp.ne.takes.repository;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
+import org.hibernate.jpa.HibernateHints;
+
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.transaction.annotation.Transactional;
+
+import jakarta.persistence.QueryHint;
+import jp.ne.takes.dao.AccountDao;
 
 import jp.ne.takes.dto.AccountDto;
 
@@ -41,6 +54,144 @@ public interface AccountRepository extends JpaRepository<AccountDto, Integer> {
    */
   boolean existsByEmailAndIdNot(String email, Integer id);
 
+  /**
+   * 登録済みのメアドの取得(一括作成の重複確認用)
+   *
+   * @param emails 確認するメアド一覧
+   * @return 登録済みのメアド一覧
+   */
+  @Query("SELECT a.email FROM AccountDto a WHERE a.email IN :emails")
+  List<String> findExistingEmails(Collection<String> emails);
+
+  /**
+   * パスワードの置換え(再ハッシュ用)
+   * 保存済みのパスワードが読み込んだ時と同じ場合だけ更新し、その間の変更を上書きしない
+   *
+   * @param id 更新するアカウントのID
+   * @param oldPassword 読み込んだ時のパスワード(ハッシュ)
+   * @param newPassword 新しいパスワード(ハッシュ)
+   * @return 更新件数(変更されていた場合は0)
+   */
+  @Transactional
+  @Modifying(clearAutomatically = true)
+  @Query("UPDATE AccountDto a SET a.password = :newPassword, a.version = a.version + 1 WHERE a.id = :id AND a.password = :oldPassword")
+  int replacePassword(Integer id, String oldPassword, String newPassword);
+
+  /**
+   * メアドの条件付き更新
+   * 版番号が読み込んだ時と同じ場合だけメアドを書き換え、版番号を1増やす
+   * (メアドの重複は一意制約の違反として例外になる)
+   *
+   * @param id 更新するアカウントのID
+   * @param version 読み込んだ時の版番号
+   * @param email 新しいメアド
+   * @return 更新件数(他で更新・削除されていた場合は0)
+   */
+  @Transactional
+  @Modifying(clearAutomatically = true)
+  @Query("UPDATE AccountDto a SET a.email = :email, a.version = a.version + 1 WHERE a.id = :id AND a.version = :version")
+  int updateEmail(Integer id, int version, String email);
+
+  /**
+   * 全アカウントを1件ずつ流すストリームの取得(エクスポート用)
+   * 前方向のみのカーソルでフェッチサイズ分ずつ読み込む
+   * ※トランザクション内で消費し、必ず閉じること
+   *
+   * @return 全アカウントのストリーム（ID昇順）
+   */
+  @QueryHints({
+    @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "" + AccountDao.STREAM_FETCH_SIZE),
+    @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+  })
+  Stream<AccountDto> streamAllByOrderByIdAsc();
+
+  // 以下はキーセットページング用。件数はPageable(ページ番号は常に0)で指定する
+  // 取得する型(typeの射影)に必要な列だけをSELECTする
+
+  /**
+   * 先頭ページの取得(ID昇順)
+   *
+   * @param pageable 取得件数
+   * @param type 取得する型(射影)
+   * @return アカウント一覧
+   */
+  <T> List<T> findAllByOrderByIdAsc(Pageable pageable, Class<T> type);
+
+  /**
+   * 先頭ページの取得(ID降順)
+   *
+   * @param pageable 取得件数
+   * @param type 取得する型(射影)
+   * @return アカウント一覧
+   */
+  <T> List<T> findAllByOrderByIdDesc(Pageable pageable, Class<T> type);
+
+  /**
+   * 先頭ページの取得(メアド昇順)
+   *
+   * @param pageable 取得件数
+   * @param type 取得する型(射影)
+   * @return アカウント一覧
+   */
+  <T> List<T> findAllByOrderByEmailAscIdAsc(Pageable pageable, Class<T> type);
+
+  /**
+   * 先頭ページの取得(メアド降順)
+   *
+   * @param pageable 取得件数
+   * @param type 取得する型(射影)
+   * @return アカウント一覧
+   */
+  <T> List<T> findAllByOrderByEmailDescIdDesc(Pageable pageable, Class<T> type);
+
+  /**
+   * カーソルより後ろのページの取得(ID昇順)
+   *
+   * @param id カーソルのID
+   * @param pageable 取得件数
+   * @param type 取得する型(射影)
+   * @return アカウント一覧
+   */
+  <T> List<T> findByIdGreaterThanOrderByIdAsc(Integer id, Pageable pageable, Class<T> type);
+
+  /**
+   * カーソルより後ろのページの取得(ID降順)
+   *
+   * @param id カーソルのID
+   * @param pageable 取得件数
+   * @param type 取得する型(射影)
+   * @return アカウント一覧
+   */
+  <T> List<T> findByIdLessThanOrderByIdDesc(Integer id, Pageable pageable, Class<T> type);
+
+  /**
+   * カーソルより後ろのページの取得(メアド昇順)
+   * WHERE email > ? OR (email = ? AND id > ?)
+   *
+   * @param email カーソルのメアド
+   * @param sameEmail カーソルのメアド(同一メアド内のID比較用)
+   * @param id カーソルのID
+   * @param pageable 取得件数
+   * @param type 取得する型(射影)
+   * @return アカウント一覧
+   */
+  <T> List<T> findByEmailGreaterThanOrEmailAndIdGreaterThanOrderByEmailAscIdAsc(
+      String email, String sameEmail, Integer id, Pageable pageable, Class<T> type);
+
+  /**
+   * カーソルより後ろのページの取得(メアド降順)
+   * WHERE email < ? OR (email = ? AND id < ?)
+   *
+   * @param email カーソルのメアド
+   * @param sameEmail カーソルのメアド(同一メアド内のID比較用)
+   * @param id カーソルのID
+   * @param pageable 取得件数
+   * @param type 取得する型(射影)
+   * @return アカウント一覧
+   */
+  <T> List<T> findByEmailLessThanOrEmailAndIdLessThanOrderByEmailDescIdDesc(
+      String email, String sameEmail, Integer id, Pageable pageable, Class<T> type);
+
   // 以下のメソッドはJpaRepositoryが宣言不要で提供
 
   // アカウントを保存（新規または更新）
@@ -1,7 +1,10 @@
 package jp.ne.takes.security;
 
+import java.io.Serializable;
 import java.util.Collection;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
@@ -10,63 +13,149 @@ import org.springframework.security.core.userdetails.UserDetails;
 import jp.ne.takes.dto.AccountDto;
 import jp.ne.takes.dto.AccountDto.Role;
 import lombok.Getter;
-import lombok.RequiredArgsConstructor;
 
 /**
- * Spring Security の UserDetails 実装クラス。
- * 
- * 認証に使用するユーザー情報（アカウント情報）をラップして、
- * Spring Security が必要とする形式で提供する。
- * 
- * 
- * 本クラスは {@link AccountDto} を元に、メールアドレス・パスワードなどを
- * {@code UserDetails} インタフェース経由で Spring Security に提供する。
- * 権限（ロール）は現時点では未使用のため空リストを返す。
- * 
+ * ログイン中のユーザーを表すプリンシパル。
+ *
+ * セッションに保存されるため、ID・メールアドレス・権限だけを持つ不変のオブジェクトとする。
+ * パスワード（ハッシュ）や版番号は持たない（パスワードの照合は {@link AccountUserDetails} で行う）。
+ *
+ * 権限リストはロールごとに1つだけ作成して全プリンシパルで共有し、
+ * {@link #getAuthorities()} の呼び出しのたびにリストを作成しない。
+ *
  * @author TAKES Co., Ltd.
  */
 @Getter
-@RequiredArgsConstructor
-public class AccountPrincipal implements UserDetails {
+public final class AccountPrincipal implements UserDetails, Serializable {
 
-    /** アカウント情報（メールアドレス・パスワード）を保持するDTO */
-    private final AccountDto account;
+    private static final long serialVersionUID = 1L;
+
+    /** ロール → 権限リスト（Spring Securityの規約 "ROLE_XXX"） */
+    private static final Map<Role, List<GrantedAuthority>> AUTHORITIES = new EnumMap<>(Role.class);
+    static {
+        for (var role : Role.values()) {
+            AUTHORITIES.put(role, List.of(new SimpleGrantedAuthority("ROLE_" + role.name())));
+        }
+    }
+
+    /** アカウントID */
+    private final int id;
+
+    /** メールアドレス */
+    private final String email;
+
+    /** 権限リスト（変更不可） */
+    private final List<GrantedAuthority> authorities;
+
+    /**
+     * コンストラクタ
+     *
+     * @param id アカウントID
+     * @param email メールアドレス
+     * @param authorities 権限
+     */
+    public AccountPrincipal(int id, String email, Collection<? extends GrantedAuthority> authorities) {
+        this.id = id;
+        this.email = email;
+        this.authorities = shared(authorities);
+    }
+
+    /**
+     * コンストラクタ（ロールの共有の権限リストを使う）
+     *
+     * @param id アカウントID
+     * @param email メールアドレス
+     * @param role ロール
+     */
+    private AccountPrincipal(int id, String email, Role role) {
+        this.id = id;
+        this.email = email;
+        this.authorities = authoritiesOf(role);
+    }
+
+    /**
+     * アカウント情報からプリンシパルを作成する
+     *
+     * @param account アカウント情報
+     * @return プリンシパル
+     */
+    public static AccountPrincipal of(AccountDto account) {
+        return new AccountPrincipal(account.getId(), account.getEmail(), account.getRole());
+    }
+
+    /**
+     * ロールからプリンシパルを作成する（プリンシパル以外のオブジェクトは作成しない）
+     *
+     * @param id アカウントID
+     * @param email メールアドレス
+     * @param role ロール
+     * @return プリンシパル
+     */
+    public static AccountPrincipal of(int id, String email, Role role) {
+        return new AccountPrincipal(id, email, role);
+    }
+
+    /**
+     * ロールの権限リストを返す
+     *
+     * @param role ロール（{@code null} の場合は USER）
+     * @return 権限リスト（ロールごとに共有）
+     */
+    public static List<GrantedAuthority> authoritiesOf(Role role) {
+        return AUTHORITIES.get(role != null ? role : Role.USER);
+    }
+
+    /**
+     * ロール1つだけの権限は共有のリストに置き換え、それ以外は変更不可のコピーにする
+     *
+     * @param authorities 権限
+     * @return 権限リスト
+     */
+    private static List<GrantedAuthority> shared(Collection<? extends GrantedAuthority> authorities) {
+        if (authorities.size() == 1) {
+            var name = authorities.iterator().next().getAuthority();
+            for (var list : AUTHORITIES.values()) {
+                if (list.get(0).getAuthority().equals(name)) {
+                    return list;
+                }
+            }
+        }
+        return List.copyOf(authorities);
+    }
 
     /**
      * 権限情報を返す
-     * 
+     *
      * @return 権限リスト
      */
     @Override
     public Collection<? extends GrantedAuthority> getAuthorities() {
-      // DBのROLE文字列をSpring Securityの規約 "ROLE_XXX" に変換
-      Role role = account.getRole() != null ? account.getRole() : Role.USER;
-      return List.of(new SimpleGrantedAuthority("ROLE_" + role.name()));
+        return authorities;
     }
 
     /**
      * パスワードを取得する
-     * 
-     * @return パスワード（現在は平文）
+     *
+     * @return 常に {@code null}（プリンシパルはパスワードを持たない）
      */
     @Override
     public String getPassword() {
-        return account.getPassword();
+        return null;
     }
 
     /**
      * ユーザー名（メールアドレス）を取得する
-     * 
+     *
      * @return メールアドレス
      */
     @Override
     public String getUsername() {
-        return account.getEmail();
+        return email;
     }
 
     /**
      * アカウントの有効期限が切れていないかを判定
-     * 
+     *
      * @return 常に {@code true}
      */
     @Override
@@ -76,7 +165,7 @@ public class AccountPrincipal implements UserDetails {
 
     /**
      * アカウントがロックされていないかを判定
-     * 
+     *
      * @return 常に {@code true}
      */
     @Override
@@ -86,7 +175,7 @@ public class AccountPrincipal implements UserDetails {
 
     /**
      * 認証情報の有効期限が切れていないかを判定
-     * 
+     *
      * @return 常に {@code true}
      */
     @Override
@@ -96,11 +185,51 @@ public class AccountPrincipal implements UserDetails {
 
     /**
      * アカウントが有効であるかを判定
-     * 
+     *
      * @return 常に {@code true}
      */
     @Override
     public boolean isEnabled() {
         return true;
     }
+
+    /**
+     * 標準の直列化から復元した場合も、権限リストを共有のリストに置き換える
+     *
+     * @return 復元したプリンシパル
+     */
+    private Object readResolve() {
+        return new AccountPrincipal(id, email, authorities);
+    }
+
+    /**
+     * 同じアカウントか判定（アカウントIDで比較）
+     *
+     * @param obj 比較対象
+     * @return 同じアカウントIDの場合は {@code true}
+     */
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof AccountPrincipal other && other.id == id;
+    }
+
+    /**
+     * ハッシュ値（アカウントID）
+     *
+     * @return ハッシュ値
+     */
+    @Override
+    public int hashCode() {
+        return Integer.hashCode(id);
+    }
+
+    /**
+     * 文字列表現（ログ用）
+     *
+     * @return ID・メールアドレス・権限
+     */
+    @Override
+    public String toString() {
+        return "AccountPrincipal[id=" + id + ", email=" + email + ", authorities=" + authorities + "]";
+    }
 }
@@ -0,0 +1,209 @@
+package jp.ne.takes.security;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.web.context.HttpSessionSecurityContextRepository;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import jakarta.servlet.http.HttpSession;
+import jakarta.servlet.http.HttpSessionAttributeListener;
+import jakarta.servlet.http.HttpSessionBindingEvent;
+import jakarta.servlet.http.HttpSessionEvent;
+import jakarta.servlet.http.HttpSessionIdListener;
+import jakarta.servlet.http.HttpSessionListener;
+import jp.ne.takes.service.AccountChangedEvent;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * ログイン中のセッションの一覧。
+ *
+ * セッションに SecurityContext が保存された時にアカウントIDごとに記録し、
+ * アカウントの変更イベント（{@link AccountChangedEvent}）をそのアカウントの全セッションに反映する。
+ * <ul>
+ *   <li>メールアドレスの変更：各セッションの principal をその場で差し替える</li>
+ *   <li>パスワードの変更：変更したリクエスト以外のセッション（他の端末）を無効にする</li>
+ *   <li>アカウントの削除：全セッションを無効にする（管理者による削除を含む）</li>
+ * </ul>
+ * イベントの内容だけで反映し、セッションごとにアカウントをDBから読み直さない。
+ * トランザクション内で発行されたイベントはコミット後に反映する。
+ *
+ * 対象はこのサーバーのメモリ上のセッション（Servletコンテナのセッション）。
+ * 共有セッション（-Pjdbc-session）ではセッションのイベントが届かないため、
+ * SharedAccountSessions が全サーバーのセッションをアカウントIDで検索して反映する。
+ * トークン方式（account.auth.mode=token）では {@link AccountTokenDenylist} がトークンを失効させる。
+ */
+@Component
+@Slf4j
+public class AccountSessionRegistry
+        implements HttpSessionListener, HttpSessionIdListener, HttpSessionAttributeListener {
+
+    /** SecurityContext を保存するセッション属性名 */
+    private static final String CONTEXT_KEY = HttpSessionSecurityContextRepository.SPRING_SECURITY_CONTEXT_KEY;
+
+    /** アカウントID → セッションID → セッション */
+    private final Map<Integer, Map<String, HttpSession>> sessionsByAccount = new ConcurrentHashMap<>();
+
+    /** セッションID → アカウントID */
+    private final Map<String, Integer> accountBySession = new ConcurrentHashMap<>();
+
+    /**
+     * アカウントの変更をセッションに反映する
+     *
+     * @param event アカウントの変更イベント
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onAccountChanged(AccountChangedEvent event) {
+        var sessions = sessionsByAccount.get(event.getId());
+        if (sessions == null) {
+            return;
+        }
+        var current = currentSessionId();
+        // 無効にするとセッションの破棄で一覧から外れるため、コピーを走査
+        for (var session : List.copyOf(sessions.values())) {
+            try {
+                switch (event.getType()) {
+                    case EMAIL_CHANGED -> replaceEmail(session, event.getId(), event.getEmail());
+                    case PASSWORD_CHANGED -> {
+                        if (!session.getId().equals(current)) {
+                            session.invalidate();
+                        }
+                    }
+                    case DELETED -> session.invalidate();
+                }
+            } catch (IllegalStateException e) {
+                // 反映中に期限切れ・ログアウトで無効になったセッション
+                unregister(session);
+            }
+        }
+        log.debug("アカウントの変更をセッションに反映しました: {}", event);
+    }
+
+    @Override
+    public void attributeAdded(HttpSessionBindingEvent event) {
+        if (CONTEXT_KEY.equals(event.getName())) {
+            register(event.getSession(), event.getValue());
+        }
+    }
+
+    @Override
+    public void attributeReplaced(HttpSessionBindingEvent event) {
+        if (CONTEXT_KEY.equals(event.getName())) {
+            // event.getValue() は置き換え前の値
+            register(event.getSession(), event.getSession().getAttribute(CONTEXT_KEY));
+        }
+    }
+
+    @Override
+    public void attributeRemoved(HttpSessionBindingEvent event) {
+        if (CONTEXT_KEY.equals(event.getName())) {
+            unregister(event.getSession());
+        }
+    }
+
+    @Override
+    public void sessionDestroyed(HttpSessionEvent event) {
+        unregister(event.getSession());
+    }
+
+    @Override
+    public void sessionIdChanged(HttpSessionEvent event, String oldSessionId) {
+        // ログイン時のセッション固定化対策などでIDが変わった場合は記録し直す
+        var id = accountBySession.remove(oldSessionId);
+        if (id != null) {
+            remove(id, oldSessionId);
+            register(event.getSession(), event.getSession().getAttribute(CONTEXT_KEY));
+        }
+    }
+
+    /**
+     * セッションの principal のメールアドレスを差し替える
+     *
+     * @param session セッション
+     * @param id アカウントID
+     * @param email 変更後のメールアドレス
+     */
+    private static void replaceEmail(HttpSession session, int id, String email) {
+        if (!(session.getAttribute(CONTEXT_KEY) instanceof SecurityContext context)) {
+            return;
+        }
+        var auth = context.getAuthentication();
+        if (auth == null || !(auth.getPrincipal() instanceof AccountPrincipal principal)
+                || principal.getId() != id || principal.getEmail().equals(email)) {
+            return;
+        }
+        context.setAuthentication(AuthenticationRefresher.withPrincipal(auth,
+                new AccountPrincipal(id, email, principal.getAuthorities())));
+        // 変更を通知（セッションの永続化・複製の対象にする）
+        session.setAttribute(CONTEXT_KEY, context);
+    }
+
+    /**
+     * セッションをログイン中のアカウントに記録する
+     *
+     * @param session セッション
+     * @param value SecurityContext
+     */
+    private void register(HttpSession session, Object value) {
+        if (!(value instanceof SecurityContext context)
+                || context.getAuthentication() == null
+                || !(context.getAuthentication().getPrincipal() instanceof AccountPrincipal principal)) {
+            unregister(session);
+            return;
+        }
+        var previous = accountBySession.put(session.getId(), principal.getId());
+        if (previous != null && previous != principal.getId()) {
+            // 同じセッションで別のアカウントにログインし直した
+            remove(previous, session.getId());
+        }
+        // 最後の1件の削除(remove)と競合しないよう、追加もアカウントの単位で行う
+        sessionsByAccount.compute(principal.getId(), (key, sessions) -> {
+            var target = sessions != null ? sessions : new ConcurrentHashMap<String, HttpSession>();
+            target.put(session.getId(), session);
+            return target;
+        });
+    }
+
+    /**
+     * セッションの記録を削除する
+     *
+     * @param session セッション
+     */
+    private void unregister(HttpSession session) {
+        var id = accountBySession.remove(session.getId());
+        if (id != null) {
+            remove(id, session.getId());
+        }
+    }
+
+    /**
+     * アカウントのセッションを削除する（最後の1件の場合はアカウントごと削除）
+     *
+     * @param id アカウントID
+     * @param sessionId セッションID
+     */
+    private void remove(int id, String sessionId) {
+        sessionsByAccount.computeIfPresent(id, (key, sessions) -> {
+            sessions.remove(sessionId);
+            return sessions.isEmpty() ? null : sessions;
+        });
+    }
+
+    /**
+     * 現在のリクエストのセッションID（作成はしない）
+     *
+     * @return セッションID（リクエストの処理中でない・セッションがない場合は {@code null}）
+     */
+    private static String currentSessionId() {
+        if (RequestContextHolder.getRequestAttributes() instanceof ServletRequestAttributes attributes) {
+            var session = attributes.getRequest().getSession(false);
+            return session == null ? null : session.getId();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,141 @@
+package jp.ne.takes.security;
+
+import java.time.Duration;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import jp.ne.takes.service.AccountChangedEvent;
+
+/**
+ * 失効させたトークンの一覧（メモリ上）。
+ *
+ * アカウントの変更（メールアドレス・パスワードの変更、削除）の時刻をアカウントIDごとに記録し、
+ * それより前に発行されたトークンを無効にする（変更した本人には AuthenticationRefresher が発行し直す）。
+ * トークンの有効期間を過ぎた記録は不要になるため、次の失効の登録時に取り除く。
+ *
+ * 照会はトークンの検証のたびに行うため、IDと時刻のプリミティブ配列（オープンアドレス法）で持ち、
+ * ロックもオブジェクトの作成もせずに読む。登録時は新しい配列を作成して差し替える（登録はまれ）。
+ * ※記録はこのサーバーのメモリだけにある（他のサーバーではトークンの有効期間まで有効）。
+ */
+@Component
+public class AccountTokenDenylist {
+
+    /** 記録を残す期間（トークンの有効期間） */
+    private final long retentionMillis;
+
+    /** 登録の排他 */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /** 現在の一覧（登録のたびに差し替える） */
+    private volatile Table table = new Table(4);
+
+    /**
+     * コンストラクタ
+     *
+     * @param ttl トークンの有効期間
+     */
+    public AccountTokenDenylist(@Value("${account.token.ttl:15m}") Duration ttl) {
+        this.retentionMillis = ttl.toMillis();
+    }
+
+    /**
+     * アカウントの変更で発行済みのトークンを失効させる
+     * （変更したリクエストでトークンを発行し直す前に失効させるため、イベントの発行時に同期で処理する）
+     *
+     * @param event アカウントの変更イベント
+     */
+    @EventListener
+    public void onAccountChanged(AccountChangedEvent event) {
+        revoke(event.getId());
+    }
+
+    /**
+     * アカウントのトークンを失効させる（現在より前に発行されたもの）
+     *
+     * @param id アカウントID
+     */
+    public void revoke(int id) {
+        revoke(id, System.currentTimeMillis());
+    }
+
+    /**
+     * アカウントのトークンを失効させる
+     *
+     * @param id アカウントID
+     * @param revokedAt この時刻より前に発行されたトークンを無効にする（エポックミリ秒）
+     */
+    void revoke(int id, long revokedAt) {
+        lock.lock();
+        try {
+            var current = table;
+            // 有効期間を過ぎた記録を除いて作り直す
+            long expired = revokedAt - retentionMillis;
+            int live = 1;
+            for (int i = 0; i < current.revokedAt.length; i++) {
+                if (current.revokedAt[i] > expired) {
+                    live++;
+                }
+            }
+            var next = new Table(Integer.highestOneBit(Math.max(live, 2) * 2 - 1) << 1);
+            for (int i = 0; i < current.revokedAt.length; i++) {
+                if (current.revokedAt[i] > expired) {
+                    next.put(current.ids[i], current.revokedAt[i]);
+                }
+            }
+            next.put(id, revokedAt);
+            table = next;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * トークンが失効しているか判定する
+     *
+     * @param id アカウントID
+     * @param issuedAt トークンの発行時刻（エポックミリ秒）
+     * @return 失効している場合は {@code true}
+     */
+    public boolean isRevoked(int id, long issuedAt) {
+        var current = table;
+        int mask = current.ids.length - 1;
+        for (int i = Table.hash(id) & mask; current.revokedAt[i] != 0; i = (i + 1) & mask) {
+            if (current.ids[i] == id) {
+                return issuedAt < current.revokedAt[i];
+            }
+        }
+        return false;
+    }
+
+    /**
+     * アカウントIDと失効時刻の表（容量は2のべき乗、失効時刻0は空き）
+     */
+    private static final class Table {
+        private final int[] ids;
+        private final long[] revokedAt;
+
+        Table(int capacity) {
+            this.ids = new int[capacity];
+            this.revokedAt = new long[capacity];
+        }
+
+        static int hash(int id) {
+            int h = id * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+
+        /** 同じIDは新しい時刻で上書きする */
+        void put(int id, long at) {
+            int mask = ids.length - 1;
+            int i = hash(id) & mask;
+            while (revokedAt[i] != 0 && ids[i] != id) {
+                i = (i + 1) & mask;
+            }
+            ids[i] = id;
+            revokedAt[i] = Math.max(revokedAt[i], at);
+        }
+    }
+}
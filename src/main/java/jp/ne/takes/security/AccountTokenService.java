@@ -0,0 +1,320 @@
+package jp.ne.takes.security;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jp.ne.takes.dto.AccountDto.Role;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 署名付きトークンの発行と検証。
+ *
+ * トークンは「本文.署名」（それぞれBase64URL、パディングなし）で、
+ * 本文は 形式(1) + アカウントID(4) + 発行時刻(8) + 有効期限(8) + ロール(1) + メールアドレス(UTF-8)、
+ * 署名は本文の HMAC-SHA256。検証はCPUだけで行い、DBもセッションも参照しない。
+ *
+ * 検証ではプリンシパル（とメールアドレスの文字列）以外のオブジェクトを作成しない。
+ * 復号・署名計算の作業領域（Mac と配列）はプールから借りて使い回す
+ * （仮想スレッドでもリクエストごとに作成しないよう、ThreadLocal は使わない）。
+ *
+ * 鍵（account.token.secret）を指定しない場合は起動ごとに生成する。
+ * 複数台で動かす場合は全サーバーに同じ鍵を指定すること。
+ */
+@Component
+@Slf4j
+public class AccountTokenService {
+
+    /** 本文の形式 */
+    private static final byte FORMAT = 1;
+
+    /** 本文のメールアドレスより前の長さ */
+    private static final int HEADER_LENGTH = 1 + 4 + 8 + 8 + 1;
+
+    /** 本文の最大長（メールアドレスは最大255文字） */
+    private static final int MAX_PAYLOAD_LENGTH = HEADER_LENGTH + 255 * 4;
+
+    /** 署名の長さ */
+    private static final int SIGNATURE_LENGTH = 32;
+
+    /** 署名方式 */
+    private static final String ALGORITHM = "HmacSHA256";
+
+    /** ロール（values() は呼び出しのたびに配列を作成するため保持） */
+    private static final Role[] ROLES = Role.values();
+
+    /** Base64URL の文字 → 値（対象外の文字は -1） */
+    private static final byte[] DECODE = new byte[128];
+    static {
+        Arrays.fill(DECODE, (byte) -1);
+        var alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+        for (int i = 0; i < alphabet.length(); i++) {
+            DECODE[alphabet.charAt(i)] = (byte) i;
+        }
+    }
+
+    private final SecretKeySpec key;
+    private final long ttlMillis;
+    private final AccountTokenDenylist denylist;
+
+    /** 作業領域のプール（空きは null） */
+    private final AtomicReferenceArray<Workspace> pool;
+
+    /**
+     * コンストラクタ
+     *
+     * @param secret 署名の鍵（Base64、32バイト以上。空の場合は起動ごとに生成）
+     * @param ttl トークンの有効期間
+     * @param denylist 失効させたトークンの一覧
+     */
+    public AccountTokenService(
+            @Value("${account.token.secret:}") String secret,
+            @Value("${account.token.ttl:15m}") Duration ttl,
+            AccountTokenDenylist denylist) {
+        byte[] keyBytes;
+        if (secret.isBlank()) {
+            keyBytes = new byte[32];
+            new SecureRandom().nextBytes(keyBytes);
+            log.info("トークンの署名鍵を生成しました（再起動すると発行済みのトークンは無効になります）");
+        } else {
+            keyBytes = Base64.getDecoder().decode(secret);
+            if (keyBytes.length < 32) {
+                throw new IllegalStateException("account.token.secret は32バイト以上にしてください");
+            }
+        }
+        this.key = new SecretKeySpec(keyBytes, ALGORITHM);
+        this.ttlMillis = ttl.toMillis();
+        this.denylist = denylist;
+        this.pool = new AtomicReferenceArray<>(Runtime.getRuntime().availableProcessors() * 2);
+    }
+
+    /**
+     * トークンの有効期間
+     *
+     * @return 有効期間
+     */
+    public Duration getTtl() {
+        return Duration.ofMillis(ttlMillis);
+    }
+
+    /**
+     * トークンを発行する
+     *
+     * @param principal ログイン中のユーザー
+     * @return トークン
+     */
+    public String issue(AccountPrincipal principal) {
+        var email = principal.getEmail().getBytes(StandardCharsets.UTF_8);
+        if (HEADER_LENGTH + email.length > MAX_PAYLOAD_LENGTH) {
+            throw new IllegalArgumentException("メールアドレスが長すぎます");
+        }
+        long now = System.currentTimeMillis();
+        var payload = new byte[HEADER_LENGTH + email.length];
+        payload[0] = FORMAT;
+        writeInt(payload, 1, principal.getId());
+        writeLong(payload, 5, now);
+        writeLong(payload, 13, now + ttlMillis);
+        payload[21] = (byte) roleOf(principal).ordinal();
+        System.arraycopy(email, 0, payload, HEADER_LENGTH, email.length);
+
+        var workspace = borrow();
+        try {
+            workspace.mac.update(payload);
+            var signature = workspace.mac.doFinal();
+            var encoder = Base64.getUrlEncoder().withoutPadding();
+            return encoder.encodeToString(payload) + "." + encoder.encodeToString(signature);
+        } finally {
+            release(workspace);
+        }
+    }
+
+    /**
+     * トークンを検証する
+     *
+     * @param token トークン
+     * @return ログイン中のユーザー（署名が不正・期限切れ・失効済みの場合は {@code null}）
+     */
+    public AccountPrincipal verify(CharSequence token) {
+        if (token == null || token.length() > (MAX_PAYLOAD_LENGTH + SIGNATURE_LENGTH) * 4 / 3 + 4) {
+            return null;
+        }
+        int dot = -1;
+        for (int i = 0; i < token.length(); i++) {
+            if (token.charAt(i) == '.') {
+                dot = i;
+                break;
+            }
+        }
+        if (dot <= 0) {
+            return null;
+        }
+        var workspace = borrow();
+        try {
+            var payload = workspace.payload;
+            int length = decode(token, 0, dot, payload);
+            if (length <= HEADER_LENGTH || payload[0] != FORMAT
+                    || decode(token, dot + 1, token.length(), workspace.signature) != SIGNATURE_LENGTH) {
+                return null;
+            }
+            // 署名の照合（一致しない位置で打ち切らない）
+            workspace.mac.update(payload, 0, length);
+            workspace.mac.doFinal(workspace.expected, 0);
+            int diff = 0;
+            for (int i = 0; i < SIGNATURE_LENGTH; i++) {
+                diff |= workspace.expected[i] ^ workspace.signature[i];
+            }
+            if (diff != 0) {
+                return null;
+            }
+            int id = readInt(payload, 1);
+            long issuedAt = readLong(payload, 5);
+            long expiresAt = readLong(payload, 13);
+            int role = payload[21];
+            if (System.currentTimeMillis() >= expiresAt || role < 0 || role >= ROLES.length
+                    || denylist.isRevoked(id, issuedAt)) {
+                return null;
+            }
+            var email = new String(payload, HEADER_LENGTH, length - HEADER_LENGTH, StandardCharsets.UTF_8);
+            return AccountPrincipal.of(id, email, ROLES[role]);
+        } catch (GeneralSecurityException e) {
+            return null;
+        } finally {
+            release(workspace);
+        }
+    }
+
+    /**
+     * プリンシパルの権限に対応するロール
+     *
+     * @param principal ログイン中のユーザー
+     * @return ロール
+     */
+    private static Role roleOf(AccountPrincipal principal) {
+        for (var role : ROLES) {
+            if (AccountPrincipal.authoritiesOf(role).equals(principal.getAuthorities())) {
+                return role;
+            }
+        }
+        throw new IllegalArgumentException("ロール1つの権限のみトークンにできます: " + principal.getAuthorities());
+    }
+
+    /**
+     * Base64URL（パディングなし）を復号する
+     *
+     * @param source 文字列
+     * @param from 開始位置
+     * @param to 終了位置（この位置を含まない）
+     * @param target 復号先
+     * @return 復号したバイト数（不正な文字列・復号先に収まらない場合は -1）
+     */
+    private static int decode(CharSequence source, int from, int to, byte[] target) {
+        int chars = to - from;
+        int length = chars / 4 * 3 + Math.max(chars % 4 - 1, 0);
+        if (chars % 4 == 1 || length > target.length) {
+            return -1;
+        }
+        int bits = 0;
+        int count = 0;
+        int out = 0;
+        for (int i = from; i < to; i++) {
+            char c = source.charAt(i);
+            int value = c < 128 ? DECODE[c] : -1;
+            if (value < 0) {
+                return -1;
+            }
+            bits = bits << 6 | value;
+            count += 6;
+            if (count >= 8) {
+                count -= 8;
+                target[out++] = (byte) (bits >> count);
+            }
+        }
+        return out;
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        for (int i = 0; i < 4; i++) {
+            bytes[offset + i] = (byte) (value >>> (24 - i * 8));
+        }
+    }
+
+    private static void writeLong(byte[] bytes, int offset, long value) {
+        for (int i = 0; i < 8; i++) {
+            bytes[offset + i] = (byte) (value >>> (56 - i * 8));
+        }
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            value = value << 8 | (bytes[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+    private static long readLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = value << 8 | (bytes[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+    /**
+     * 作業領域を借りる（空きがなければ作成する）
+     *
+     * @return 作業領域
+     */
+    private Workspace borrow() {
+        for (int i = 0; i < pool.length(); i++) {
+            var workspace = pool.getAndSet(i, null);
+            if (workspace != null) {
+                return workspace;
+            }
+        }
+        return new Workspace(key);
+    }
+
+    /**
+     * 作業領域を返す（プールが満杯なら捨てる）
+     *
+     * @param workspace 作業領域
+     */
+    private void release(Workspace workspace) {
+        workspace.mac.reset();
+        for (int i = 0; i < pool.length(); i++) {
+            if (pool.compareAndSet(i, null, workspace)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 検証の作業領域（同時に1スレッドだけが使う）
+     */
+    private static final class Workspace {
+        private final Mac mac;
+        private final byte[] payload = new byte[MAX_PAYLOAD_LENGTH];
+        private final byte[] signature = new byte[SIGNATURE_LENGTH];
+        private final byte[] expected = new byte[SIGNATURE_LENGTH];
+
+        Workspace(SecretKeySpec key) {
+            try {
+                this.mac = Mac.getInstance(ALGORITHM);
+                this.mac.init(key);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(ALGORITHM + " を使用できません", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package jp.ne.takes.security;
+
+import java.time.Duration;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.userdetails.UserCache;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import jp.ne.takes.dto.AccountDto;
+
+/**
+ * ログイン用のユーザー情報キャッシュ。
+ *
+ * DaoAuthenticationProvider に設定し、短時間に同じメールアドレスで繰り返される
+ * ログイン(朝の集中ログイン・再ログイン)のDB照会を省く。
+ * キャッシュにはアカウントのコピーを持つ AccountUserDetails を保存し、取得のたびに
+ * 新しいコピーを返すため、セッション間でアカウント情報を共有しない。
+ *
+ * パスワードが一致しない場合は DaoAuthenticationProvider がキャッシュを使わずに
+ * 再取得するため、パスワード変更直後でも新しいパスワードでログインできる。
+ * メールアドレス・パスワード・権限の変更時と削除時は AccountService から無効化する。
+ */
+@Component
+public class AccountUserCache implements UserCache {
+
+    /** メールアドレス → ユーザー情報 */
+    private final Cache<String, AccountUserDetails> cache;
+
+    /**
+     * コンストラクタ
+     *
+     * @param maximumSize キャッシュの最大件数
+     * @param ttl 保存してから無効になるまでの時間
+     */
+    public AccountUserCache(
+            @Value("${account.user-cache.maximum-size:10000}") long maximumSize,
+            @Value("${account.user-cache.ttl:60s}") Duration ttl) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttl)
+                .build();
+    }
+
+    /**
+     * キャッシュからユーザー情報を取得する
+     *
+     * @param username メールアドレス
+     * @return ユーザー情報のコピー（未登録の場合は {@code null}）
+     */
+    @Override
+    public UserDetails getUserFromCache(String username) {
+        var cached = cache.getIfPresent(username);
+        return cached == null ? null : copy(cached);
+    }
+
+    /**
+     * ユーザー情報をキャッシュに保存する
+     *
+     * @param user ユーザー情報（AccountUserDetails 以外は保存しない）
+     */
+    @Override
+    public void putUserInCache(UserDetails user) {
+        if (user instanceof AccountUserDetails details) {
+            cache.put(details.getUsername(), copy(details));
+        }
+    }
+
+    /**
+     * ユーザー情報をキャッシュから削除する
+     *
+     * @param username メールアドレス
+     */
+    @Override
+    public void removeUserFromCache(String username) {
+        if (username != null) {
+            cache.invalidate(username);
+        }
+    }
+
+    /**
+     * アカウントのコピーを持つユーザー情報を作成する
+     *
+     * @param details コピー元
+     * @return コピー
+     */
+    private static AccountUserDetails copy(AccountUserDetails details) {
+        var account = details.getAccount();
+        return new AccountUserDetails(
+                new AccountDto(account.getId(), account.getEmail(), account.getPassword(), account.getRole(),
+                        account.getVersion()));
+    }
+}
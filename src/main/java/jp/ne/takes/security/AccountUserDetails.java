@@ -0,0 +1,104 @@
+package jp.ne.takes.security;
+
+import java.util.Collection;
+
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.userdetails.UserDetails;
+
+import jp.ne.takes.dto.AccountDto;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * ログイン時に読み込むユーザー情報。
+ *
+ * パスワードの照合・再ハッシュのため、パスワード（ハッシュ）を含む {@link AccountDto} を
+ * そのまま保持する。認証の間だけ使い、セッションには保存しない
+ * （認証成功後は {@link #toPrincipal()} で作成した {@link AccountPrincipal} に置き換える）。
+ */
+@Getter
+@RequiredArgsConstructor
+public class AccountUserDetails implements UserDetails {
+
+    /** アカウント情報（メールアドレス・パスワード・権限・版番号） */
+    private final AccountDto account;
+
+    /**
+     * セッションに保存するプリンシパルを作成する
+     *
+     * @return ID・メールアドレス・権限だけを持つプリンシパル
+     */
+    public AccountPrincipal toPrincipal() {
+        return AccountPrincipal.of(account);
+    }
+
+    /**
+     * 権限情報を返す
+     *
+     * @return 権限リスト（ロールごとに共有）
+     */
+    @Override
+    public Collection<? extends GrantedAuthority> getAuthorities() {
+        return AccountPrincipal.authoritiesOf(account.getRole());
+    }
+
+    /**
+     * パスワードを取得する
+     *
+     * @return パスワード（ハッシュ）
+     */
+    @Override
+    public String getPassword() {
+        return account.getPassword();
+    }
+
+    /**
+     * ユーザー名（メールアドレス）を取得する
+     *
+     * @return メールアドレス
+     */
+    @Override
+    public String getUsername() {
+        return account.getEmail();
+    }
+
+    /**
+     * アカウントの有効期限が切れていないかを判定
+     *
+     * @return 常に {@code true}
+     */
+    @Override
+    public boolean isAccountNonExpired() {
+        return true;
+    }
+
+    /**
+     * アカウントがロックされていないかを判定
+     *
+     * @return 常に {@code true}
+     */
+    @Override
+    public boolean isAccountNonLocked() {
+        return true;
+    }
+
+    /**
+     * 認証情報の有効期限が切れていないかを判定
+     *
+     * @return 常に {@code true}
+     */
+    @Override
+    public boolean isCredentialsNonExpired() {
+        return true;
+    }
+
+    /**
+     * アカウントが有効であるかを判定
+     *
+     * @return 常に {@code true}
+     */
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+}
@@ -1,10 +1,13 @@
 package jp.ne.takes.security;
 
 import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsPasswordService;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Service;
 
+import jp.ne.takes.dao.CachingAccountDao;
+import jp.ne.takes.dto.AccountDto;
 import jp.ne.takes.repository.AccountRepository;
 import lombok.RequiredArgsConstructor;
 
@@ -13,32 +16,65 @@ import lombok.RequiredArgsConstructor;
  * 
  * ログイン時に入力されたメールアドレスをもとに、
  * アカウント情報（AccountDto）をデータベースから取得し、
- * {@link AccountPrincipal} にラップして返す。
+ * {@link AccountUserDetails} にラップして返す。
+ * （認証成功後、セッションには {@link AccountPrincipal} を保存する）
  * 
  * 
  * 本クラスは {@link org.springframework.security.authentication.dao.DaoAuthenticationProvider}
  * から呼び出され、ログイン認証の対象となるユーザー情報を提供する。
  * 
- * 
+ * また、ログイン後の再ハッシュ（{@link PasswordRehasher}）の保存先として
+ * {@code UserDetailsPasswordService} も実装する。
  */
 @Service
 @RequiredArgsConstructor
-public class AccountUserDetailsService implements UserDetailsService {
+public class AccountUserDetailsService implements UserDetailsService, UserDetailsPasswordService {
 
     /** アカウント情報を取得するためのリポジトリ */
     private final AccountRepository repository;
 
+    /** ログイン用のユーザー情報キャッシュ（再ハッシュ後に無効化） */
+    private final AccountUserCache userCache;
+
+    /** キャッシュ版DAO（DAOを通さずに版番号を上げるため、再ハッシュ後に無効化） */
+    private final CachingAccountDao accountCache;
+
     /**
      * メールアドレスをもとにユーザー情報を取得する。
      * 
      * @param email 入力されたメールアドレス（ユーザー名）
-     * @return Spring Security 用のユーザー情報（AccountPrincipal）
+     * @return Spring Security 用のユーザー情報（AccountUserDetails）
      * @throws UsernameNotFoundException アカウントが見つからなかった場合にスロー
      */
     @Override
     public UserDetails loadUserByUsername(String email) throws UsernameNotFoundException {
         return repository.findByEmail(email)
-                .map(dto -> new AccountPrincipal(dto))
+                .map(dto -> new AccountUserDetails(dto))
                 .orElseThrow(() -> new UsernameNotFoundException("ユーザーが存在しません: " + email));
     }
+
+    /**
+     * 再ハッシュしたパスワードを保存する。
+     * ログイン時に読み込んだハッシュから変わっていない場合だけ更新する
+     * （その間に本人が変更したパスワードは上書きしない）。
+     *
+     * @param user ログインしたユーザー（読み込んだ時のハッシュを含む）
+     * @param newPassword 再ハッシュしたパスワード
+     * @return 新しいパスワードのユーザー情報
+     */
+    @Override
+    public UserDetails updatePassword(UserDetails user, String newPassword) {
+        if (!(user instanceof AccountUserDetails details)) {
+            return user;
+        }
+        var account = details.getAccount();
+        if (repository.replacePassword(account.getId(), account.getPassword(), newPassword) == 0) {
+            return user;
+        }
+        userCache.removeUserFromCache(account.getEmail());
+        accountCache.evict(account.getId(), account.getEmail());
+        return new AccountUserDetails(
+                new AccountDto(account.getId(), account.getEmail(), newPassword, account.getRole(),
+                        account.getVersion() + 1));
+    }
 }
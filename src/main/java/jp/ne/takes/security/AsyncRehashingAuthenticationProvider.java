@@ -0,0 +1,56 @@
+package jp.ne.takes.security;
+
+import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+/**
+ * 再ハッシュを非同期で行う認証プロバイダ。
+ *
+ * 標準の DaoAuthenticationProvider は UserDetailsPasswordService が設定されていると
+ * 認証成功時にその場で再ハッシュと保存を行い、ログインのレスポンスが遅くなる。
+ * 本クラスは upgradeEncoding で再ハッシュが必要と判定した場合、
+ * 再ハッシュと保存を {@link PasswordRehasher} に任せてすぐに認証結果を返す。
+ *
+ * 認証結果のプリンシパルは、読み込んだユーザー情報（パスワードを含む）ではなく
+ * ID・メールアドレス・権限だけの {@link AccountPrincipal} にする（セッションを小さく保つ）。
+ */
+public class AsyncRehashingAuthenticationProvider extends DaoAuthenticationProvider {
+
+    private final PasswordEncoder passwordEncoder;
+    private final PasswordRehasher rehasher;
+
+    /**
+     * コンストラクタ
+     *
+     * @param passwordEncoder パスワードエンコーダ
+     * @param rehasher 非同期の再ハッシュ
+     */
+    public AsyncRehashingAuthenticationProvider(PasswordEncoder passwordEncoder, PasswordRehasher rehasher) {
+        setPasswordEncoder(passwordEncoder);
+        this.passwordEncoder = passwordEncoder;
+        this.rehasher = rehasher;
+    }
+
+    /**
+     * 認証成功時の結果を作成する（必要なら再ハッシュを予約）
+     * プリンシパルは {@link AccountPrincipal} に置き換える
+     *
+     * @param principal プリンシパル
+     * @param authentication 入力された認証情報
+     * @param user 読み込んだユーザー
+     * @return 認証結果
+     */
+    @Override
+    protected Authentication createSuccessAuthentication(Object principal, Authentication authentication,
+            UserDetails user) {
+        if (authentication.getCredentials() != null && passwordEncoder.upgradeEncoding(user.getPassword())) {
+            rehasher.rehash(user, authentication.getCredentials().toString());
+        }
+        if (user instanceof AccountUserDetails details) {
+            return super.createSuccessAuthentication(details.toPrincipal(), authentication, user);
+        }
+        return super.createSuccessAuthentication(principal, authentication, user);
+    }
+}
@@ -1,13 +1,14 @@
 package jp.ne.takes.security;
 
-import jakarta.transaction.Transactional;
-
-import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContext;
 import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.web.context.SecurityContextRepository;
 import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
 
-import jp.ne.takes.dao.AccountDao;
 import lombok.RequiredArgsConstructor;
 
 /**
@@ -17,56 +18,68 @@ import lombok.RequiredArgsConstructor;
  * SecurityContext の Authentication を、最新の AccountPrincipal へ差し替える
  *
  * これにより、ビューの #authentication.name が即時に更新内容を反映。
+ * 差し替えた認証情報はログイン状態の保存先（セッション、またはトークンのCookie）にも保存する。
+ *
+ * 本人の他のセッション（他の端末）は {@link AccountSessionRegistry} が
+ * アカウントの変更イベントで更新する。
  */
 @Component
 @RequiredArgsConstructor
 public class AuthenticationRefresher {
 
-//  @Qualifier("AccountDaoFeatMap")
-//  @Qualifier("AccountDaoFeatEntityManagerJpql")
-//  @Qualifier("AccountDaoFeatEntityManagerSql")
-  @Qualifier("AccountDaoFeatJpaRepository")
-  private final AccountDao dao;
+  /** ログイン状態の保存先（トークン方式の場合はトークンを発行し直す） */
+  private final SecurityContextRepository securityContextRepository;
 
   /**
    * 引数のアカウントIDが「現在ログイン中の本人」の場合に限って、
-   * SecurityContext の Authentication を最新の principal で差し替える。
+   * 更新した値で principal を差し替える（DBは再取得しない）。
    *
    * @param id 更新したアカウントの ID
+   * @param email 更新後のメールアドレス
    */
-  @Transactional
-  public void refreshIfSelf(int id) {
-      // 今のスレッドに紐づく認証状態(SecurityContext)を取得
+  public void refreshIfSelf(int id, String email) {
       var context = SecurityContextHolder.getContext();
-      // 現在の認証トークン（Authentication）を取得
       var currentAuth = context.getAuthentication();
-      // 未ログインなら何もせず終了
       if (currentAuth == null) return;
+      if (!(currentAuth.getPrincipal() instanceof AccountPrincipal ap)) return;
+      if (ap.getId() != id) return;
 
-      // ログイン中のアカウント情報(Principal)を取得
-      var principal = currentAuth.getPrincipal();
-      // 自作の AccountPrincipal でない場合（例えば匿名や別の実装）には触れず終了
-      if (!(principal instanceof AccountPrincipal ap)) return;
-
-      // 本人か判定（現在のprincipalのIDと更新対象IDの一致を確認）
-      if (ap.getAccount().getId() != id) return;
+      // 現在の principal の権限のまま、メールアドレスだけ反映
+      replace(context, currentAuth, new AccountPrincipal(id, email, ap.getAuthorities()));
+  }
 
-      // DBから最新状態を再取得（更新直後の値を反映）
-      var updatedOpt = dao.findById(id);
-      if (updatedOpt.isEmpty()) return;
+  /**
+   * 資格情報・権限・details を維持したまま principal だけ置き換える。
+   *
+   * @param context 現在の SecurityContext
+   * @param currentAuth 現在の Authentication
+   * @param newPrincipal 新しい principal
+   */
+  private void replace(SecurityContext context, Authentication currentAuth, AccountPrincipal newPrincipal) {
+      // SecurityContext に反映
+      context.setAuthentication(withPrincipal(currentAuth, newPrincipal));
 
-      // 新しいPrincipalを作成してセッション内の本人情報を最新化
-      var newPrincipal = new AccountPrincipal(updatedOpt.get());
+      // ログイン状態の保存先に反映（リクエストの処理中の場合）
+      if (RequestContextHolder.getRequestAttributes() instanceof ServletRequestAttributes attributes
+          && attributes.getResponse() != null) {
+        securityContextRepository.saveContext(context, attributes.getRequest(), attributes.getResponse());
+      }
+  }
 
-      // 資格情報(認証に使ったパスワード)、既存の権限・details(IPアドレス、セッションID等) を維持したまま principal だけ置き換える
+  /**
+   * principal だけを置き換えた Authentication を作成する。
+   *
+   * @param currentAuth 現在の Authentication
+   * @param newPrincipal 新しい principal
+   * @return 資格情報・権限・details が同じ Authentication
+   */
+  static Authentication withPrincipal(Authentication currentAuth, AccountPrincipal newPrincipal) {
       var newAuth = new UsernamePasswordAuthenticationToken(
               newPrincipal,
               currentAuth.getCredentials(), //資格情報
               currentAuth.getAuthorities() //権限情報
       );
       newAuth.setDetails(currentAuth.getDetails());
-
-      // SecurityContext に反映
-      context.setAuthentication(newAuth);
+      return newAuth;
   }
 }
@@ -0,0 +1,126 @@
+package jp.ne.takes.security;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.DelegatingPasswordEncoder;
+import org.springframework.security.crypto.password.NoOpPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.security.crypto.password.Pbkdf2PasswordEncoder;
+import org.springframework.stereotype.Component;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * bcrypt の強度（ワークファクタ）の自動調整。
+ *
+ * 起動時に現在のCPUで bcrypt のハッシュ時間を計測し、目標のログイン時間
+ * （account.bcrypt.target-latency）を超えない最大の強度を選ぶ。
+ * bcrypt は強度が1上がるごとに処理時間が2倍になるため、基準の強度で計測した時間から外挿する。
+ * account.bcrypt.strength を指定した場合は計測せずにその値を使う。
+ *
+ * ここで作る PasswordEncoder は、保存済みハッシュの強度が選んだ強度より低い場合だけ
+ * 再ハッシュが必要と判定する（計測の揺れやCPUの違いで選んだ強度が下がっても、強いハッシュを弱めない）。
+ */
+@Component
+@Slf4j
+public class BcryptStrengthCalibrator {
+
+    /** 計測の回数（中央値を使う） */
+    private static final int SAMPLES = 5;
+
+    /** 選んだ強度 */
+    private final int strength;
+
+    /**
+     * コンストラクタ（計測を実行）
+     *
+     * @param fixedStrength 固定の強度（0の場合は計測）
+     * @param targetLatency 目標のハッシュ時間
+     * @param minStrength 強度の下限
+     * @param maxStrength 強度の上限
+     */
+    public BcryptStrengthCalibrator(
+            @Value("${account.bcrypt.strength:0}") int fixedStrength,
+            @Value("${account.bcrypt.target-latency:250ms}") Duration targetLatency,
+            @Value("${account.bcrypt.min-strength:10}") int minStrength,
+            @Value("${account.bcrypt.max-strength:16}") int maxStrength) {
+        if (fixedStrength > 0) {
+            this.strength = fixedStrength;
+            log.info("bcryptの強度: {}（固定）", strength);
+        } else {
+            this.strength = calibrate(targetLatency, minStrength, maxStrength);
+        }
+    }
+
+    /**
+     * 選んだ強度を取得する
+     *
+     * @return bcrypt の強度
+     */
+    public int getStrength() {
+        return strength;
+    }
+
+    /**
+     * 選んだ強度の bcrypt を既定とする DelegatingPasswordEncoder を作成する
+     * {bcrypt}, {noop}, {pbkdf2@SpringSecurity_v5_8} の接頭辞で自動判別
+     *
+     * @return PasswordEncoder
+     */
+    public PasswordEncoder createDelegatingPasswordEncoder() {
+        // 平文は非推奨だが、移行前の{noop}パスワードの照合(とログイン後・一括移行での再ハッシュ)に必要
+        @SuppressWarnings("deprecation")
+        PasswordEncoder noop = NoOpPasswordEncoder.getInstance();
+        Map<String, PasswordEncoder> encoders = Map.of(
+                "bcrypt", new BCryptPasswordEncoder(strength),
+                "noop", noop,
+                "pbkdf2@SpringSecurity_v5_8", Pbkdf2PasswordEncoder.defaultsForSpringSecurity_v5_8());
+        return new DelegatingPasswordEncoder("bcrypt", encoders);
+    }
+
+    /**
+     * 目標時間に収まる最大の強度を計測して選ぶ
+     *
+     * @param target 目標のハッシュ時間
+     * @param min 強度の下限
+     * @param max 強度の上限
+     * @return 強度
+     */
+    private static int calibrate(Duration target, int min, int max) {
+        var base = min;
+        var baseNanos = measure(base);
+        var nanos = baseNanos;
+        var chosen = base;
+        // 1上げるごとに2倍になる前提で、目標を超えない最大の強度
+        while (chosen < max && nanos * 2 <= target.toNanos()) {
+            chosen++;
+            nanos *= 2;
+        }
+        log.info("bcryptの強度: {}（強度{}の計測 {}ms、推定 {}ms、目標 {}ms）",
+                chosen, base, baseNanos / 1_000_000, nanos / 1_000_000, target.toMillis());
+        return chosen;
+    }
+
+    /**
+     * 指定した強度のハッシュ時間を計測する（ウォームアップ後の中央値）
+     *
+     * @param strength 強度
+     * @return ハッシュ時間（ナノ秒）
+     */
+    private static long measure(int strength) {
+        var encoder = new BCryptPasswordEncoder(strength);
+        encoder.encode("calibration");
+        var samples = new long[SAMPLES];
+        for (var i = 0; i < SAMPLES; i++) {
+            var started = System.nanoTime();
+            encoder.encode("calibration");
+            samples[i] = System.nanoTime() - started;
+        }
+        Arrays.sort(samples);
+        return samples[SAMPLES / 2];
+    }
+}
@@ -0,0 +1,126 @@
+package jp.ne.takes.security;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.core.serializer.DefaultDeserializer;
+import org.springframework.core.serializer.DefaultSerializer;
+import org.springframework.core.serializer.Deserializer;
+import org.springframework.core.serializer.Serializer;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextImpl;
+
+/**
+ * セッション属性の直列化。
+ *
+ * ログイン中の SecurityContext（{@link AccountPrincipal} の認証済みトークン）は
+ * ID・メールアドレス・権限名だけを書き出す（Javaの標準の直列化はクラス記述子を含み数百バイトになる）。
+ * それ以外の属性（CSRFトークン等）は標準の直列化で書き出す。
+ *
+ * 簡易形式では認証の details（IPアドレス・セッションID）は保存しない（本アプリでは参照しない）。
+ * 先頭の1バイトで形式を区別するため、形式を変えても保存済みのセッションを読める。
+ */
+public class CompactSessionCodec implements Serializer<Object>, Deserializer<Object> {
+
+    /** 形式：Javaの標準の直列化 */
+    private static final int JAVA = 0;
+
+    /** 形式：AccountPrincipal の SecurityContext */
+    private static final int SECURITY_CONTEXT = 1;
+
+    private final DefaultSerializer serializer = new DefaultSerializer();
+    private final DefaultDeserializer deserializer;
+
+    /**
+     * コンストラクタ
+     *
+     * @param classLoader 標準の直列化で復元するクラスのクラスローダ
+     */
+    public CompactSessionCodec(ClassLoader classLoader) {
+        this.deserializer = new DefaultDeserializer(classLoader);
+    }
+
+    /**
+     * セッション属性を書き出す
+     *
+     * @param object セッション属性の値
+     * @param outputStream 出力先
+     * @throws IOException 書き出しに失敗した場合
+     */
+    @Override
+    public void serialize(Object object, OutputStream outputStream) throws IOException {
+        var principal = compactPrincipal(object);
+        if (principal == null) {
+            outputStream.write(JAVA);
+            serializer.serialize(object, outputStream);
+            return;
+        }
+        var out = new DataOutputStream(outputStream);
+        out.writeByte(SECURITY_CONTEXT);
+        out.writeInt(principal.getId());
+        out.writeUTF(principal.getEmail());
+        var authorities = principal.getAuthorities();
+        out.writeShort(authorities.size());
+        for (var authority : authorities) {
+            out.writeUTF(authority.getAuthority());
+        }
+        out.flush();
+    }
+
+    /**
+     * セッション属性を読み込む
+     *
+     * @param inputStream 入力元
+     * @return セッション属性の値
+     * @throws IOException 読み込みに失敗した場合
+     */
+    @Override
+    public Object deserialize(InputStream inputStream) throws IOException {
+        var in = new DataInputStream(inputStream);
+        int format = in.readUnsignedByte();
+        if (format == JAVA) {
+            return deserializer.deserialize(in);
+        }
+        if (format != SECURITY_CONTEXT) {
+            throw new IOException("未知のセッション属性の形式です: " + format);
+        }
+        int id = in.readInt();
+        var email = in.readUTF();
+        int count = in.readUnsignedShort();
+        List<GrantedAuthority> authorities = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            authorities.add(new SimpleGrantedAuthority(in.readUTF()));
+        }
+        // 権限がロール1つの場合は共有の権限リストを使う
+        var principal = new AccountPrincipal(id, email, authorities);
+        return new SecurityContextImpl(
+                UsernamePasswordAuthenticationToken.authenticated(principal, null, principal.getAuthorities()));
+    }
+
+    /**
+     * 簡易形式で書き出せる SecurityContext であればプリンシパルを返す
+     * （資格情報を保持していない、権限がプリンシパルと同じ認証済みトークンに限る）
+     *
+     * @param object セッション属性の値
+     * @return プリンシパル（簡易形式で書き出せない場合は {@code null}）
+     */
+    private static AccountPrincipal compactPrincipal(Object object) {
+        if (object instanceof SecurityContext context
+                && context.getAuthentication() instanceof UsernamePasswordAuthenticationToken auth
+                && auth.isAuthenticated()
+                && auth.getCredentials() == null
+                && auth.getPrincipal() instanceof AccountPrincipal principal
+                && auth.getAuthorities().equals(principal.getAuthorities())) {
+            return principal;
+        }
+        return null;
+    }
+}
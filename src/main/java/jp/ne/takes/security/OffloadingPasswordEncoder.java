@@ -0,0 +1,168 @@
+package jp.ne.takes.security;
+
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * ハッシュ処理を専用スレッドで実行する PasswordEncoder。
+ *
+ * bcrypt 等の重い encode / matches をCPU数分の専用スレッドに任せ、
+ * 同時に実行・待機できる件数を上限で抑える。待ち行列が満杯の場合は待たずに
+ * {@link PasswordHashingBusyException} をスローし、ログインが集中しても
+ * リクエストスレッドがハッシュ待ちで埋まらないようにする（/home 等の軽い画面を守る）。
+ *
+ * 以下をメトリクスとして公開する。
+ * <ul>
+ *   <li>password.hash.queue … 待ち行列の件数</li>
+ *   <li>password.hash.wait … 待ち行列での待ち時間（op=encode/matches）</li>
+ *   <li>password.hash.time … ハッシュ処理の時間（op=encode/matches）</li>
+ *   <li>password.hash.rejected … 混雑で拒否した件数</li>
+ * </ul>
+ */
+public class OffloadingPasswordEncoder implements PasswordEncoder, DisposableBean {
+
+    /** 実際のハッシュ処理 */
+    private final PasswordEncoder delegate;
+    /** ハッシュ専用スレッド */
+    private final ThreadPoolExecutor executor;
+    /** 1件あたりの待ち時間の上限 */
+    private final Duration maxWait;
+    /** メトリクスの登録先 */
+    private final MeterRegistry registry;
+    /** 拒否件数 */
+    private final Counter rejected;
+
+    /**
+     * コンストラクタ
+     *
+     * @param delegate 実際のハッシュ処理
+     * @param threads スレッド数（0以下の場合はCPU数）
+     * @param queueCapacity 待ち行列の上限
+     * @param maxWait 1件あたりの待ち時間の上限
+     * @param registry メトリクスの登録先
+     */
+    public OffloadingPasswordEncoder(PasswordEncoder delegate, int threads, int queueCapacity,
+            Duration maxWait, MeterRegistry registry) {
+        var size = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        var seq = new AtomicInteger();
+        this.delegate = delegate;
+        this.maxWait = maxWait;
+        this.registry = registry;
+        this.executor = new ThreadPoolExecutor(size, size, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> {
+                    var t = new Thread(r, "password-hash-" + seq.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        this.rejected = Counter.builder("password.hash.rejected")
+                .description("混雑で拒否したハッシュ処理の件数")
+                .register(registry);
+        Gauge.builder("password.hash.queue", executor, e -> e.getQueue().size())
+                .description("ハッシュ処理の待ち行列の件数")
+                .register(registry);
+    }
+
+    /**
+     * パスワードのハッシュ化
+     *
+     * @param rawPassword 平文パスワード
+     * @return ハッシュ
+     * @throws PasswordHashingBusyException 混雑している場合
+     */
+    @Override
+    public String encode(CharSequence rawPassword) {
+        return offload("encode", () -> delegate.encode(rawPassword));
+    }
+
+    /**
+     * パスワードの照合
+     *
+     * @param rawPassword 平文パスワード
+     * @param encodedPassword ハッシュ
+     * @return 一致する場合は {@code true}
+     * @throws PasswordHashingBusyException 混雑している場合
+     */
+    @Override
+    public boolean matches(CharSequence rawPassword, String encodedPassword) {
+        return offload("matches", () -> delegate.matches(rawPassword, encodedPassword));
+    }
+
+    /**
+     * 再ハッシュが必要か判定（接頭辞・強度の確認のみで軽いため呼出し元で実行）
+     *
+     * @param encodedPassword ハッシュ
+     * @return 再ハッシュが必要な場合は {@code true}
+     */
+    @Override
+    public boolean upgradeEncoding(String encodedPassword) {
+        return delegate.upgradeEncoding(encodedPassword);
+    }
+
+    /**
+     * 専用スレッドを停止する
+     */
+    @Override
+    public void destroy() {
+        executor.shutdown();
+    }
+
+    /**
+     * 専用スレッドで実行し、結果を待つ
+     *
+     * @param <T> 結果の型
+     * @param op 処理名（メトリクスのタグ）
+     * @param task 処理
+     * @return 結果
+     */
+    private <T> T offload(String op, Callable<T> task) {
+        var enqueued = System.nanoTime();
+        var waitTimer = Timer.builder("password.hash.wait").tag("op", op).register(registry);
+        var hashTimer = Timer.builder("password.hash.time").tag("op", op).register(registry);
+        try {
+            var future = executor.submit(() -> {
+                var started = System.nanoTime();
+                waitTimer.record(started - enqueued, TimeUnit.NANOSECONDS);
+                try {
+                    return task.call();
+                } finally {
+                    hashTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+                }
+            });
+            try {
+                return future.get(maxWait.toMillis(), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                future.cancel(true);
+                rejected.increment();
+                throw new PasswordHashingBusyException("パスワード処理の待ち時間が上限を超えました", e);
+            }
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw new PasswordHashingBusyException("パスワード処理が混雑しています", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PasswordHashingBusyException("パスワード処理の待機が中断されました", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException re) {
+                throw re;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package jp.ne.takes.security;
+
+import org.springframework.security.authentication.AuthenticationServiceException;
+
+/**
+ * パスワードのハッシュ処理が混雑している場合の例外。
+ *
+ * ハッシュ専用スレッドの待ち行列が満杯、または待ち時間が上限を超えた場合にスローする。
+ * ログイン時は認証失敗として扱われ（/?busy へ遷移）、
+ * 登録・パスワード変更では 503 の混雑画面を返す。
+ */
+public class PasswordHashingBusyException extends AuthenticationServiceException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * コンストラクタ
+     *
+     * @param msg メッセージ
+     * @param cause 原因
+     */
+    public PasswordHashingBusyException(String msg, Throwable cause) {
+        super(msg, cause);
+    }
+}
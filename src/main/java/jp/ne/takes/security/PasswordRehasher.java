@@ -0,0 +1,41 @@
+package jp.ne.takes.security;
+
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsPasswordService;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Component;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * ログイン後のパスワード再ハッシュ。
+ *
+ * 保存済みハッシュの方式が現在の設定と異なる・強度が低い場合に、ログインで入力された
+ * パスワードを別スレッドで再ハッシュして保存する。ログインのレスポンスは待たせない。
+ * ハッシュ処理が混雑している場合は見送り、次回のログインで再試行する。
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class PasswordRehasher {
+
+    private final PasswordEncoder passwordEncoder;
+    private final UserDetailsPasswordService passwordService;
+
+    /**
+     * 再ハッシュして保存する（非同期）
+     *
+     * @param user ログインしたユーザー（保存済みハッシュを含む）
+     * @param rawPassword ログインで入力されたパスワード
+     */
+    @Async
+    public void rehash(UserDetails user, String rawPassword) {
+        try {
+            passwordService.updatePassword(user, passwordEncoder.encode(rawPassword));
+        } catch (PasswordHashingBusyException e) {
+            log.debug("混雑のため再ハッシュを見送りました: {}", user.getUsername());
+        }
+    }
+}
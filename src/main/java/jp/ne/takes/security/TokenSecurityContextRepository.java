@@ -0,0 +1,132 @@
+package jp.ne.takes.security;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseCookie;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.context.SecurityContextImpl;
+import org.springframework.security.web.context.HttpRequestResponseHolder;
+import org.springframework.security.web.context.SecurityContextRepository;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * 署名付きトークンで認証状態を保持する SecurityContextRepository。
+ *
+ * ログイン成功時（と本人の情報の更新時）にトークンを発行してCookieに保存し、
+ * 以降のリクエストではCookie（または Authorization: Bearer ヘッダー）のトークンを検証して
+ * 認証状態を復元する。サーバー側にセッションを持たないため、複数台で動かしても
+ * セッションの共有・スティッキーセッションが不要になる。
+ * トークンの有効期間（account.token.ttl）を過ぎたら再ログインが必要。
+ */
+public class TokenSecurityContextRepository implements SecurityContextRepository {
+
+    /** トークンを保存するCookie名 */
+    public static final String COOKIE_NAME = "ACCOUNT_TOKEN";
+
+    /** Authorization ヘッダーの接頭辞 */
+    private static final String BEARER = "Bearer ";
+
+    private final AccountTokenService tokenService;
+
+    /**
+     * コンストラクタ
+     *
+     * @param tokenService トークンの発行と検証
+     */
+    public TokenSecurityContextRepository(AccountTokenService tokenService) {
+        this.tokenService = tokenService;
+    }
+
+    /**
+     * リクエストのトークンから認証状態を復元する
+     * （{@link #loadDeferredContext} から初めて参照された時に呼ばれる）
+     *
+     * @param holder リクエスト
+     * @return 認証状態（トークンがない・無効な場合は未認証）
+     */
+    @Override
+    @SuppressWarnings("deprecation")
+    public SecurityContext loadContext(HttpRequestResponseHolder holder) {
+        var principal = tokenService.verify(token(holder.getRequest()));
+        if (principal == null) {
+            return SecurityContextHolder.createEmptyContext();
+        }
+        return new SecurityContextImpl(
+                UsernamePasswordAuthenticationToken.authenticated(principal, null, principal.getAuthorities()));
+    }
+
+    /**
+     * 認証状態をトークンにしてCookieに保存する（未認証の場合はCookieを削除）
+     *
+     * @param context 認証状態
+     * @param request リクエスト
+     * @param response レスポンス
+     */
+    @Override
+    public void saveContext(SecurityContext context, HttpServletRequest request, HttpServletResponse response) {
+        var authentication = context.getAuthentication();
+        if (authentication != null && authentication.isAuthenticated()
+                && authentication.getPrincipal() instanceof AccountPrincipal principal) {
+            writeCookie(request, response, tokenService.issue(principal), tokenService.getTtl().toSeconds());
+        } else if (token(request) != null) {
+            writeCookie(request, response, "", 0);
+        }
+    }
+
+    /**
+     * リクエストにトークンがあるか判定する
+     *
+     * @param request リクエスト
+     * @return トークンがある場合は {@code true}
+     */
+    @Override
+    public boolean containsContext(HttpServletRequest request) {
+        return token(request) != null;
+    }
+
+    /**
+     * リクエストのトークン（Authorization ヘッダーを優先）
+     *
+     * @param request リクエスト
+     * @return トークン（ない場合は {@code null}）
+     */
+    private static String token(HttpServletRequest request) {
+        var header = request.getHeader(HttpHeaders.AUTHORIZATION);
+        if (header != null && header.startsWith(BEARER)) {
+            return header.substring(BEARER.length());
+        }
+        var cookies = request.getCookies();
+        if (cookies != null) {
+            for (var cookie : cookies) {
+                if (COOKIE_NAME.equals(cookie.getName()) && !cookie.getValue().isEmpty()) {
+                    return cookie.getValue();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * トークンのCookieを書き出す（スクリプトから読めない・同一サイトのみ）
+     *
+     * @param request リクエスト
+     * @param response レスポンス
+     * @param value トークン
+     * @param maxAge 有効期間（秒、0の場合は削除）
+     */
+    private static void writeCookie(HttpServletRequest request, HttpServletResponse response, String value,
+            long maxAge) {
+        var path = request.getContextPath().isEmpty() ? "/" : request.getContextPath();
+        var cookie = ResponseCookie.from(COOKIE_NAME, value)
+                .path(path)
+                .httpOnly(true)
+                .secure(request.isSecure())
+                .sameSite("Lax")
+                .maxAge(maxAge)
+                .build();
+        response.addHeader(HttpHeaders.SET_COOKIE, cookie.toString());
+    }
+}
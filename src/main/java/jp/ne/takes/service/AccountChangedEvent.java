@@ -0,0 +1,70 @@
+package jp.ne.takes.service;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.ToString;
+
+/**
+ * アカウントの変更イベント
+ * AccountServiceの更新処理が発行し、ログイン状態(セッション・トークン)に反映する側が受け取る
+ * ※受け取る側はイベントの内容だけで反映する(アカウントをDBから読み直さない)
+ *
+ * @author k_igari
+ * @author Learning System Department
+ * @author TAKES Co., Ltd.
+ * @version 1.0 Date 2023/10
+ */
+@Getter
+@ToString
+@RequiredArgsConstructor
+public class AccountChangedEvent {
+  /** 変更の種類 */
+  public enum Type {
+    /** メールアドレスの変更 */
+    EMAIL_CHANGED,
+    /** パスワードの変更 */
+    PASSWORD_CHANGED,
+    /** アカウントの削除 */
+    DELETED
+  }
+
+  /** 変更したアカウントのID */
+  private final int id;
+  /** 変更の種類 */
+  private final Type type;
+  /** 変更後のメールアドレス(削除の場合は削除時点のメアド、不明の場合はnull) */
+  private final String email;
+
+  /**
+   * メールアドレスの変更
+   *
+   * @param id アカウントのID
+   * @param email 変更後のメールアドレス
+   * @return イベント
+   */
+  public static AccountChangedEvent emailChanged(int id, String email) {
+    return new AccountChangedEvent(id, Type.EMAIL_CHANGED, email);
+  }
+
+  /**
+   * パスワードの変更
+   *
+   * @param id アカウントのID
+   * @param email アカウントのメールアドレス
+   * @return イベント
+   */
+  public static AccountChangedEvent passwordChanged(int id, String email) {
+    return new AccountChangedEvent(id, Type.PASSWORD_CHANGED, email);
+  }
+
+  /**
+   * アカウントの削除
+   *
+   * @param id アカウントのID
+   * @param email 削除時点のメールアドレス(不明の場合はnull)
+   * @return イベント
+   */
+  public static AccountChangedEvent deleted(int id, String email) {
+    return new AccountChangedEvent(id, Type.DELETED, email);
+  }
+}
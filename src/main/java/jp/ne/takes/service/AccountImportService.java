@@ -0,0 +1,182 @@
+package jp.ne.takes.service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Service;
+
+import jakarta.validation.Validator;
+import jp.ne.takes.dao.AccountDao;
+import jp.ne.takes.dto.AccountDto;
+import jp.ne.takes.dto.AccountDto.Role;
+import jp.ne.takes.dto.AccountImportResult;
+import jp.ne.takes.dto.User;
+import jp.ne.takes.security.BcryptStrengthCalibrator;
+
+/**
+ * アカウント一括取込みサービスクラスの定義
+ *
+ * CSV(email,password[,role])を1行ずつ読み、チャンク単位で
+ * 入力チェック → パスワードの並列ハッシュ化 → DAOの一括作成(createAll) を行う。
+ * ファイル全体をメモリに載せず、トランザクションもチャンクごとに分ける。
+ * ※先頭行が "email" で始まる場合はヘッダーとして読み飛ばす
+ *
+ * @author k_igari
+ * @author Learning System Department
+ * @author TAKES Co., Ltd.
+ * @version 1.0 Date 2023/10
+ */
+@Service
+public class AccountImportService {
+  /** 1チャンクの行数 */
+  private static final int CHUNK_SIZE = 2000;
+
+  /** 取込み中の1行 */
+  private record Row(long line, AccountDto account, String rawPassword) {}
+
+  /** アカウントDAO */
+  private final AccountDao dao;
+  /** 入力チェック(新規登録と同じUserの制約を使用) */
+  private final Validator validator;
+  /** ハッシュ化(ログイン用の混雑制御は通さず、この取込みの並列数で制御) */
+  private final PasswordEncoder encoder;
+  /** ハッシュ化の並列数 */
+  private final int parallelism;
+
+  /**
+   * コンストラクタ
+   *
+   * @param dao アカウントDAO
+   * @param validator 入力チェック
+   * @param calibrator bcryptの強度の自動調整(ログインと同じ強度でハッシュ化)
+   * @param parallelism ハッシュ化の並列数(0以下の場合はCPU数)
+   */
+  public AccountImportService(
+      @Qualifier("AccountDaoFeatJpaRepository") AccountDao dao,
+      Validator validator,
+      BcryptStrengthCalibrator calibrator,
+      @Value("${account.import.parallelism:0}") int parallelism) {
+    this.dao = dao;
+    this.validator = validator;
+    this.encoder = calibrator.createDelegatingPasswordEncoder();
+    this.parallelism = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+  }
+
+  /**
+   * CSVの取込み
+   *
+   * @param in CSVの入力(UTF-8)
+   * @return 取込み結果
+   * @throws IOException 読込みに失敗した場合
+   */
+  public AccountImportResult importCsv(InputStream in) throws IOException {
+    var result = new AccountImportResult();
+    var pool = new ForkJoinPool(parallelism);
+    try (var reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+      var chunk = new ArrayList<Row>(CHUNK_SIZE);
+      var lineNo = 0L;
+      String line;
+      while ((line = reader.readLine()) != null) {
+        lineNo++;
+        if (line.isBlank() || (lineNo == 1 && line.startsWith("email"))) {
+          continue;
+        }
+        var row = parse(lineNo, line, result);
+        if (row != null) {
+          chunk.add(row);
+        }
+        if (chunk.size() == CHUNK_SIZE) {
+          store(chunk, pool, result);
+          chunk.clear();
+        }
+      }
+      store(chunk, pool, result);
+    } finally {
+      pool.shutdown();
+    }
+    return result;
+  }
+
+  /**
+   * 1行の解析と入力チェック
+   *
+   * @param lineNo 行番号
+   * @param line 行
+   * @param result 取込み結果(エラーの記録先)
+   * @return 取り込む行(エラーの場合は{@code null})
+   */
+  private Row parse(long lineNo, String line, AccountImportResult result) {
+    var columns = line.split(",", -1);
+    if (columns.length < 2 || columns.length > 3) {
+      result.addError(lineNo, null, "列数が不正です(email,password[,role])");
+      return null;
+    }
+    var user = new User();
+    user.setEmail(columns[0].strip());
+    user.setPassword(columns[1].strip());
+    var violations = validator.validate(user);
+    if (!violations.isEmpty()) {
+      result.addError(lineNo, user.getEmail(), violations.iterator().next().getMessage());
+      return null;
+    }
+    var role = Role.USER;
+    if (columns.length == 3 && !columns[2].isBlank()) {
+      try {
+        role = Role.valueOf(columns[2].strip().toUpperCase());
+      } catch (IllegalArgumentException e) {
+        result.addError(lineNo, user.getEmail(), "権限が不正です: " + columns[2]);
+        return null;
+      }
+    }
+    var account = new AccountDto();
+    account.setEmail(user.getEmail());
+    account.setRole(role);
+    return new Row(lineNo, account, user.getPassword());
+  }
+
+  /**
+   * チャンクの保存
+   * パスワードを並列にハッシュ化してから一括作成し、メアドの重複を行ごとに記録する
+   *
+   * @param chunk 取り込む行
+   * @param pool ハッシュ化のスレッドプール
+   * @param result 取込み結果
+   */
+  private void store(List<Row> chunk, ForkJoinPool pool, AccountImportResult result) {
+    if (chunk.isEmpty()) {
+      return;
+    }
+    try {
+      pool.submit(() -> chunk.parallelStream()
+          .forEach(row -> row.account().setPassword(encoder.encode(row.rawPassword())))).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("パスワードのハッシュ化が中断されました", e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("パスワードのハッシュ化に失敗しました", e.getCause());
+    }
+    // 行番号を引くため、DTOの同一性で対応付け
+    var lines = new IdentityHashMap<AccountDto, Long>(chunk.size());
+    var accounts = new ArrayList<AccountDto>(chunk.size());
+    for (var row : chunk) {
+      lines.put(row.account(), row.line());
+      accounts.add(row.account());
+    }
+    var rejected = dao.createAll(accounts);
+    for (var account : rejected) {
+      result.addError(lines.get(account), account.getEmail(), "このメールアドレスは既に使用されています");
+    }
+    result.addImported(accounts.size() - rejected.size());
+  }
+}
@@ -2,8 +2,11 @@ package jp.ne.takes.service;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.crypto.password.PasswordEncoder;
@@ -14,9 +17,14 @@ import org.springframework.validation.BindingResult;
 import jp.ne.takes.dao.AccountDao;
 import jp.ne.takes.dto.AccountDto;
 import jp.ne.takes.dto.AccountDto.Role;
+import jp.ne.takes.dto.AccountPage;
+import jp.ne.takes.dto.AccountPageRequest;
+import jp.ne.takes.dto.AccountSummary;
 import jp.ne.takes.dto.AccountUpdateForm;
 import jp.ne.takes.dto.PasswordChangeForm;
 import jp.ne.takes.dto.User;
+import jp.ne.takes.security.AccountPrincipal;
+import jp.ne.takes.security.AccountUserCache;
 import jp.ne.takes.security.AuthenticationRefresher;
 import lombok.RequiredArgsConstructor;
 
@@ -35,13 +43,21 @@ public class AccountService {
    *  ※以下1つ有効にしたインスタンスをDI(注入)
    */
 //  @Qualifier("AccountDaoFeatMap")
+//  @Qualifier("AccountDaoFeatMappedFile")
 //  @Qualifier("AccountDaoFeatEntityManagerJpql")
 //  @Qualifier("AccountDaoFeatEntityManagerSql")
   @Qualifier("AccountDaoFeatJpaRepository")
+//  @Qualifier("AccountDaoFeatTiered")  // メモリの前段 + DBの後段(account.tiered.*)
+//  @Qualifier("AccountDaoFeatCache")  // 上記のいずれかをキャッシュで包む(account.cache.delegate)
+//                                     // ※複数台構成では他の台の更新がaccount.cache.ttlの間は反映されない
   private final AccountDao dao;
 
   private final PasswordEncoder passwordEncoder;
   private final AuthenticationRefresher authRefresher;
+  /** ログイン用のユーザー情報キャッシュ(メアド・パスワード・権限の変更時と削除時に無効化) */
+  private final AccountUserCache userCache;
+  /** アカウントの変更イベントの発行(ログイン中の全セッション・発行済みのトークンに反映) */
+  private final ApplicationEventPublisher eventPublisher;
   
   /**
    * ログインの検証
@@ -67,14 +83,37 @@ public class AccountService {
   }
 
   /**
-   * 全アカウント一覧の取得
+   * 全アカウントの概要一覧の取得
    * 
-   * @return 全アカウント一覧
+   * @return 全アカウントの概要一覧(IDとメアドのみ)
    */
-  public List<AccountDto> findAll() {
-    return dao.findAll();
+  public List<AccountSummary> findAll() {
+    return dao.findAllSummaries();
   }  
 
+  /**
+   * アカウント一覧の1ページ分を取得
+   * 
+   * @param request ページ要求（並び順・カーソル・件数）
+   * @return 1ページ分のアカウントと次ページの要求
+   */
+  public AccountPage findPage(AccountPageRequest request) {
+    return AccountPage.of(request, dao.findPage(request));
+  }
+
+  /**
+   * 全アカウントを1件ずつ出力先へ渡す(エクスポート用)
+   * ストリームはこのトランザクション内で消費し終えてから閉じる
+   * 
+   * @param sink 1件ごとの出力先
+   */
+  @Transactional(readOnly = true)
+  public void exportAll(Consumer<AccountDto> sink) {
+    try (var accounts = dao.streamAll()) {
+      accounts.forEach(sink);
+    }
+  }
+
   /**
    * IDに対応するアカウントの取得
    *
@@ -87,51 +126,63 @@ public class AccountService {
 
   /**
    * アカウントの更新
+   * 本人確認はログイン中の認証情報で行い、メアドの重複確認と更新は
+   * 版番号を条件にしたUPDATE文1回にまとめる(重複は一意制約の違反として検出)。
+   * 版番号が変わっていた場合は他の画面での更新を上書きせず、最新の内容を表示し直す
+   * ※一意制約の違反でトランザクションがロールバック専用にならないよう、
+   *   このメソッドはトランザクションにせずDAOの呼出しごとにコミットする
    * 
    * @param account 更新するアカウント情報
    * @param result バリデーションの結果
    * @return 成功{@code true}/失敗{@code false}
    */
-  @Transactional
   public boolean isUpdateSuccessful(AccountUpdateForm account, BindingResult result) {
     // メアドの入力エラーを確認
     if(result.hasFieldErrors("email")) {
       // DBから元のEmailを取得、上書きして戻す
-      var currentOpt = dao.findById(account.getId()).get();
-      account.setEmail(currentOpt.getEmail());
+      dao.findById(account.getId()).ifPresent(current -> account.setEmail(current.getEmail()));
       return false;
     }
     
-    // ログイン中ユーザー（メール）を取得
+    // ログイン中ユーザーを取得
     // SecurityContextHolder -> いまのリクエストを処理しているスレッドに紐づく“認証情報（だれがログイン中か）”の置き場所
     //  Spring Security がログイン成功時にここへ Authentication を入れ、各層（Controller/Service 等）から取り出せる
     Authentication auth = SecurityContextHolder.getContext().getAuthentication();
-    String loginEmail = (auth != null ? auth.getName() : null);
 
-    // 更新対象の現行レコードをDBから再取得
-    var currentOpt = dao.findById(account.getId());
-    if (currentOpt.isEmpty()) {
-      result.reject("notfound", "対象アカウントが存在しません");
+    // 本人チェック：ログイン中のアカウントのID と 更新対象のID が一致すること(DBは読まない)
+    if (auth == null || !(auth.getPrincipal() instanceof AccountPrincipal principal)
+        || principal.getId() != account.getId()) {
+      result.reject("forbidden", "自分のアカウントのみ更新できます");
       return false;
     }
-    var current = currentOpt.get();
+    var oldEmail = principal.getEmail();
 
-    // 本人チェック：ログインメール と 現行レコードのメール が一致すること
-    if (loginEmail == null || !loginEmail.equals(current.getEmail())) {
-      result.reject("forbidden", "自分のアカウントのみ更新できます");
+    // 版番号を条件にメアドを更新(自身以外で使用中のメアドは一意制約の違反になる)
+    boolean updated;
+    try {
+      updated = dao.updateEmail(account.getId(), account.getVersion(), account.getEmail());
+    } catch (DataIntegrityViolationException e) {
+      result.rejectValue("email", "error.email", "このメールアドレスは既に使用されています");
       return false;
     }
-    
-    // メアドが自身以外で使用されていないか確認
-    if(dao.existsByEmailAndIdNot(account.getEmail(), account.getId())) {
-      result.rejectValue("email", "error.email", "このメールアドレスは既に使用されています");
+    if (!updated) {
+      // 他の画面で更新・削除済み：最新の内容で表示し直す
+      var latestOpt = dao.findById(account.getId());
+      if (latestOpt.isEmpty()) {
+        result.reject("notfound", "対象アカウントが存在しません");
+        return false;
+      }
+      account.setEmail(latestOpt.get().getEmail());
+      account.setVersion(latestOpt.get().getVersion());
+      result.reject("conflict", "他の画面で更新されています。最新の内容を確認してから更新してください");
       return false;
     }
 
-    // アカウント情報を更新
-    current.setEmail(account.getEmail());
-    dao.update(current);
-    authRefresher.refreshIfSelf(account.getId());
+    // ログイン用キャッシュと認証情報を更新後の内容にする
+    userCache.removeUserFromCache(oldEmail);
+    userCache.removeUserFromCache(account.getEmail());
+    eventPublisher.publishEvent(AccountChangedEvent.emailChanged(account.getId(), account.getEmail()));
+    authRefresher.refreshIfSelf(account.getId(), account.getEmail());
     return true;
   }
   
@@ -174,6 +225,10 @@ public class AccountService {
     // ハッシュ化して保存
     account.setPassword(passwordEncoder.encode(form.getNewPassword()));
     dao.update(account); 
+    userCache.removeUserFromCache(email);
+    // 他の端末のセッション・発行済みのトークンを無効にし、本人にはトークンを発行し直す
+    eventPublisher.publishEvent(AccountChangedEvent.passwordChanged(account.getId(), account.getEmail()));
+    authRefresher.refreshIfSelf(account.getId(), account.getEmail());
     return true;
   }
 
@@ -183,29 +238,27 @@ public class AccountService {
    * @param id 削除するアカウントのID
    */
   public void deleteById(int id) {
+    var accountOpt = dao.findById(id);
     dao.deleteById(id);
+    accountOpt.ifPresent(account -> userCache.removeUserFromCache(account.getEmail()));
+    // 削除したアカウントのセッション・トークンを無効にする(管理者による削除を含む)
+    var email = accountOpt.map(AccountDto::getEmail).orElse(null);
+    eventPublisher.publishEvent(AccountChangedEvent.deleted(id, email));
   }
 
   /**
    * アカウントの登録
+   * メアドの重複確認と作成はDAOのcreateIfAbsent 1回で行う
+   * (同時に同じメアドで登録されても、作成されるのは1件だけ)
+   * ※パスワードのハッシュ化中にDB接続を占有しないよう、トランザクションにはしない
    * 
    * @param account 登録するアカウント情報
    * @param result バリデーションの結果
    * @return 成功{@code true}/失敗{@code false}
    */
-  @Transactional
   public boolean isRegisterSuccessful(User user, BindingResult result) {
-    // メアドの入力エラーを確認
-    if(result.hasFieldErrors("email")) {
-      return false;
-    }
-    // メアドが使用されていないか確認
-    if(dao.existsByEmail(user.getEmail())) {
-      result.rejectValue("email", "error.email", "このメールアドレスは既に使用されています");
-      return false;
-    }
-    // パスワードの入力エラーを確認
-    if(result.hasFieldErrors("password")) {
+    // メアド・パスワードの入力エラーを確認
+    if(result.hasFieldErrors("email") || result.hasFieldErrors("password")) {
       return false;
     }
     //ハッシュ化
@@ -216,8 +269,11 @@ public class AccountService {
     account.setEmail(user.getEmail());
     account.setPassword(encoded);
     account.setRole(Role.USER); // デフォルトで権限をUSERにする
-    // アカウントを作成
-    dao.create(account);
+    // メアドが使用されていなければアカウントを作成
+    if(!dao.createIfAbsent(account)) {
+      result.rejectValue("email", "error.email", "このメールアドレスは既に使用されています");
+      return false;
+    }
     return true;
   }
 } // from Class
@@ -0,0 +1,208 @@
+package jp.ne.takes.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jp.ne.takes.dao.CachingAccountDao;
+import jp.ne.takes.security.AccountUserCache;
+import jp.ne.takes.security.BcryptStrengthCalibrator;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * {noop}パスワードの一括移行ジョブ
+ *
+ * accountsをIDのキーセット順にチャンク単位で走査し、{noop}のパスワードを
+ * 複数コアで並列にbcryptへ再ハッシュしてバッチ更新で書き戻す。
+ * ログインしない休眠アカウントも移行され、ログイン時の変換(追加の照会とflush)は不要になる。
+ *
+ * 移行済みの行は条件に一致しなくなるため、停止・再起動してもその続きから再開する。
+ * 更新は「パスワードが読み込んだ時と同じ場合」に限るため、走査中に本人が変更したパスワードは上書きしない。
+ * DAOを通さずに版番号を上げるため、移行した行はキャッシュ版DAOからも無効化する。
+ * DB・CPUへの負荷は並列数とチャンク間の休止(DBの稼働率)で抑える。
+ *
+ * @author k_igari
+ * @author Learning System Department
+ * @author TAKES Co., Ltd.
+ * @version 1.0 Date 2023/10
+ */
+@Component
+@Slf4j
+public class PasswordMigrationJob {
+  /** 移行対象の読込み(キーセット順) */
+  private static final String SELECT_SQL =
+      "SELECT id, email, password FROM accounts WHERE password LIKE '{noop}%' AND id > ? ORDER BY id LIMIT ?";
+  /** 書き戻し(読込み時から変わっていない場合のみ) */
+  private static final String UPDATE_SQL =
+      "UPDATE accounts SET password = ?, version = version + 1 WHERE id = ? AND password = ?";
+  /** {noop}の接頭辞 */
+  private static final String NOOP = "{noop}";
+
+  /** 移行対象の1行 */
+  private record Row(int id, String email, String password) {}
+
+  private final JdbcTemplate jdbcTemplate;
+  private final AccountUserCache userCache;
+  /** キャッシュ版DAO(移行したアカウントを無効化) */
+  private final CachingAccountDao accountCache;
+  /** 再ハッシュ(ログイン用の混雑制御は通さず、このジョブの並列数で制御) */
+  private final PasswordEncoder encoder;
+
+  /** 起動時に実行するか */
+  private final boolean enabled;
+  /** 1チャンクの件数 */
+  private final int chunkSize;
+  /** 再ハッシュの並列数 */
+  private final int parallelism;
+  /** DBの稼働率の上限(0～1)。チャンクの処理時間に応じて休止する */
+  private final double dbBudget;
+
+  /** 実行中か */
+  private final AtomicBoolean running = new AtomicBoolean();
+  /** 最後に処理したID(再開位置) */
+  private final AtomicInteger lastId = new AtomicInteger();
+  /** 走査件数 */
+  private final AtomicLong scanned = new AtomicLong();
+  /** 移行件数 */
+  private final AtomicLong upgraded = new AtomicLong();
+  /** 走査中に変更されたため見送った件数 */
+  private final AtomicLong skipped = new AtomicLong();
+
+  /**
+   * コンストラクタ
+   *
+   * @param jdbcTemplate JdbcTemplate
+   * @param userCache ログイン用のユーザー情報キャッシュ(移行したアカウントを無効化)
+   * @param accountCache キャッシュ版DAO(移行したアカウントを無効化)
+   * @param calibrator bcryptの強度の自動調整(ログインと同じ強度で再ハッシュ)
+   * @param registry メトリクスの登録先
+   * @param enabled 起動時に実行するか
+   * @param chunkSize 1チャンクの件数
+   * @param parallelism 再ハッシュの並列数(0以下の場合はCPU数の半分)
+   * @param dbBudget DBの稼働率の上限(0～1)
+   */
+  public PasswordMigrationJob(
+      JdbcTemplate jdbcTemplate,
+      AccountUserCache userCache,
+      CachingAccountDao accountCache,
+      BcryptStrengthCalibrator calibrator,
+      MeterRegistry registry,
+      @Value("${account.migration.enabled:false}") boolean enabled,
+      @Value("${account.migration.chunk-size:500}") int chunkSize,
+      @Value("${account.migration.parallelism:0}") int parallelism,
+      @Value("${account.migration.db-budget:0.5}") double dbBudget) {
+    this.jdbcTemplate = jdbcTemplate;
+    this.userCache = userCache;
+    this.accountCache = accountCache;
+    this.encoder = calibrator.createDelegatingPasswordEncoder();
+    this.enabled = enabled;
+    this.chunkSize = chunkSize;
+    this.parallelism = parallelism > 0 ? parallelism : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    this.dbBudget = Math.min(1.0, Math.max(0.01, dbBudget));
+    Gauge.builder("password.migration.scanned", scanned, AtomicLong::get).register(registry);
+    Gauge.builder("password.migration.upgraded", upgraded, AtomicLong::get).register(registry);
+    Gauge.builder("password.migration.skipped", skipped, AtomicLong::get).register(registry);
+    Gauge.builder("password.migration.last-id", lastId, AtomicInteger::get).register(registry);
+  }
+
+  /**
+   * 起動完了後に別スレッドで実行
+   */
+  @EventListener(ApplicationReadyEvent.class)
+  public void onReady() {
+    if (enabled) {
+      var thread = new Thread(this::run, "password-migration");
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+
+  /**
+   * 移行の実行
+   * 実行中の場合は何もしない
+   */
+  public void run() {
+    if (!running.compareAndSet(false, true)) {
+      return;
+    }
+    var pool = new ForkJoinPool(parallelism);
+    try {
+      log.info("{noop}パスワードの移行を開始します(ID {}より後、{}件ずつ、並列数{})", lastId.get(), chunkSize, parallelism);
+      while (!Thread.currentThread().isInterrupted()) {
+        var started = System.nanoTime();
+        var rows = jdbcTemplate.query(SELECT_SQL,
+            (rs, i) -> new Row(rs.getInt("id"), rs.getString("email"), rs.getString("password")),
+            lastId.get(), chunkSize);
+        var dbNanos = System.nanoTime() - started;
+        if (rows.isEmpty()) {
+          break;
+        }
+        // 再ハッシュは並列に(CPU)、書き戻しは1回のバッチで(DB)
+        var encoded = pool.submit(() -> rows.parallelStream()
+            .map(row -> encoder.encode(row.password().substring(NOOP.length())))
+            .toList()).get();
+        var writeStarted = System.nanoTime();
+        var counts = write(rows, encoded);
+        dbNanos += System.nanoTime() - writeStarted;
+
+        for (var i = 0; i < rows.size(); i++) {
+          // 0件は走査中に変更された行(SUCCESS_NO_INFOは件数不明のため移行扱い)
+          if (counts[i] != 0) {
+            upgraded.incrementAndGet();
+            userCache.removeUserFromCache(rows.get(i).email());
+            accountCache.evict(rows.get(i).id(), rows.get(i).email());
+          } else {
+            skipped.incrementAndGet();
+          }
+        }
+        scanned.addAndGet(rows.size());
+        lastId.set(rows.get(rows.size() - 1).id());
+        log.info("{noop}パスワードの移行: 走査{}件 移行{}件 見送り{}件 (ID {}まで)",
+            scanned.get(), upgraded.get(), skipped.get(), lastId.get());
+
+        // DBの稼働率が上限を超えないよう休止
+        var pauseNanos = (long) (dbNanos * (1 - dbBudget) / dbBudget);
+        TimeUnit.NANOSECONDS.sleep(pauseNanos);
+      }
+      log.info("{noop}パスワードの移行が完了しました: 移行{}件 見送り{}件", upgraded.get(), skipped.get());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      log.info("{noop}パスワードの移行を中断しました(ID {}まで)", lastId.get());
+    } catch (ExecutionException | RuntimeException e) {
+      log.error("{noop}パスワードの移行に失敗しました(ID {}まで、再実行で続きから再開)", lastId.get(), e);
+    } finally {
+      pool.shutdown();
+      running.set(false);
+    }
+  }
+
+  /**
+   * チャンクの書き戻し
+   *
+   * @param rows 読み込んだ行
+   * @param encoded 再ハッシュしたパスワード(行と同じ順)
+   * @return 行ごとの更新件数
+   */
+  private int[] write(List<Row> rows, List<String> encoded) {
+    var args = new ArrayList<Object[]>(rows.size());
+    for (var i = 0; i < rows.size(); i++) {
+      var row = rows.get(i);
+      args.add(new Object[] { encoded.get(i), row.id(), row.password() });
+    }
+    return jdbcTemplate.batchUpdate(UPDATE_SQL, args);
+  }
+}
@@ -0,0 +1,65 @@
+package jp.ne.takes.service;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+
+import jp.ne.takes.dao.ReactiveAccountDao;
+import jp.ne.takes.dto.AccountPage;
+import jp.ne.takes.dto.AccountPageRequest;
+import jp.ne.takes.dto.AccountSummary;
+import lombok.RequiredArgsConstructor;
+import reactor.core.publisher.Mono;
+
+/**
+ * ノンブロッキングのアカウント照会サービスクラスの定義
+ * 一覧・照会の結果はIDとメアドだけを返す(パスワード・権限は返さない)
+ * 
+ * @author k_igari
+ * @author Learning System Department
+ * @author TAKES Co., Ltd.
+ * @version 1.0 Date 2023/10
+ */
+@Service
+@RequiredArgsConstructor
+public class ReactiveAccountService {
+  /** ノンブロッキングのアカウントDAO
+   *  ※以下1つ有効にしたインスタンスをDI(注入)
+   */
+//  @Qualifier("ReactiveAccountDaoFeatMap")
+  @Qualifier("ReactiveAccountDaoFeatR2dbc")
+  private final ReactiveAccountDao dao;
+
+  /**
+   * アカウント一覧の1ページ分を取得
+   * 
+   * @param request ページ要求（並び順・カーソル・件数）
+   * @return 1ページ分のアカウントと次ページの要求
+   */
+  public Mono<AccountPage> findPage(AccountPageRequest request) {
+    return dao.findPage(request)
+        .collectList()
+        .map(fetched -> AccountPage.of(request, fetched));
+  }
+
+  /**
+   * IDに対応するアカウントの概要の取得
+   *
+   * @param id 取得するアカウントのID
+   * @return IDに対応するアカウントの概要(該当なしは空)
+   */
+  public Mono<AccountSummary> findById(int id) {
+    return dao.findById(id)
+        .map(account -> new AccountSummary(account.getId(), account.getEmail()));
+  }
+
+  /**
+   * メアドに対応するアカウントの概要の取得
+   *
+   * @param email 取得するアカウントのメアド
+   * @return メアドに対応するアカウントの概要(該当なしは空)
+   */
+  public Mono<AccountSummary> findByEmail(String email) {
+    return dao.findByEmail(email)
+        .map(account -> new AccountSummary(account.getId(), account.getEmail()));
+  }
+}
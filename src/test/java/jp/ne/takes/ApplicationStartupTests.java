@@ -0,0 +1,59 @@
+package jp.ne.takes;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import jp.ne.takes.dao.ReactiveAccountDao;
+import jp.ne.takes.dto.AccountDto;
+import jp.ne.takes.dto.AccountDto.Role;
+import jp.ne.takes.repository.AccountRepository;
+import reactor.test.StepVerifier;
+
+/**
+ * アプリケーションの起動のテスト
+ * 組込みDB(H2)に対し、JDBC(JPA)側とR2DBC側の両方のDAOが起動して同じDBを読み書きできることを確認する
+ */
+@SpringBootTest(properties = {
+		"spring.datasource.url=jdbc:h2:mem:startup;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1",
+		"spring.datasource.driver-class-name=org.h2.Driver",
+		"spring.datasource.username=sa",
+		"spring.datasource.password=",
+		"spring.jpa.hibernate.ddl-auto=create",
+		"account.r2dbc.url=r2dbc:h2:mem:///startup?options=MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1",
+		"account.r2dbc.username=sa",
+		"account.r2dbc.password=",
+		"account.migration.enabled=false",
+		"account.map.wal.enabled=false"
+})
+class ApplicationStartupTests {
+
+	@Autowired
+	private AccountRepository repository;
+	@Autowired
+	@Qualifier("ReactiveAccountDaoFeatR2dbc")
+	private ReactiveAccountDao reactiveDao;
+
+	@DynamicPropertySource
+	static void mappedFile(DynamicPropertyRegistry registry) throws IOException {
+		var directory = Files.createTempDirectory("startup");
+		registry.add("account.mapped-file.path", () -> directory.resolve("accounts.dat").toString());
+	}
+
+	@Test
+	void jdbcAndR2dbcStacksShareTheDatabase() {
+		var saved = repository.save(new AccountDto(0, "startup@example.com", "{noop}Passw0rd", Role.USER, 0));
+
+		StepVerifier.create(reactiveDao.findByEmail("startup@example.com"))
+				.assertNext(found -> assertThat(found.getId()).isEqualTo(saved.getId()))
+				.verifyComplete();
+	}
+}
@@ -0,0 +1,160 @@
+package jp.ne.takes.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * 読取り・書込みの振分けのテスト
+ * 主DBとレプリカに見立てた2つのH2(インメモリ)に、それぞれ自分の名前を入れておき、
+ * どちらに接続したかを読み取った名前で確認する
+ */
+class ReadWriteRoutingDataSourceTests {
+
+	/** 書込み後に主DBから読む時間 */
+	private static final Duration WINDOW = Duration.ofMillis(300);
+
+	private ReadWriteRoutingDataSource routing;
+	private SwitchableDataSource replica;
+	private JdbcTemplate jdbcTemplate;
+	private TransactionTemplate readOnly;
+	private TransactionTemplate readWrite;
+
+	@BeforeEach
+	void setUp() {
+		var primary = h2("primary");
+		replica = new SwitchableDataSource(h2("replica"));
+		routing = new ReadWriteRoutingDataSource(primary, List.of(replica), WINDOW, Duration.ofSeconds(1));
+		var dataSource = new LazyConnectionDataSourceProxy(routing);
+		jdbcTemplate = new JdbcTemplate(dataSource);
+		var transactionManager = new DataSourceTransactionManager(dataSource);
+		readWrite = new TransactionTemplate(transactionManager);
+		readOnly = new TransactionTemplate(transactionManager);
+		readOnly.setReadOnly(true);
+	}
+
+	@AfterEach
+	void tearDown() {
+		SecurityContextHolder.clearContext();
+		routing.close();
+	}
+
+	@Test
+	void readOnlyTransactionUsesReplica() {
+		String node = readOnly.execute(status -> node());
+		assertThat(node).isEqualTo("replica");
+	}
+
+	@Test
+	void writeTransactionUsesPrimary() {
+		String node = readWrite.execute(status -> node());
+		assertThat(node).isEqualTo("primary");
+	}
+
+	@Test
+	void readAfterOwnWriteUsesPrimaryUntilWindowExpires() throws InterruptedException {
+		login("alice");
+		readWrite.executeWithoutResult(status -> jdbcTemplate.update("UPDATE node SET writes = writes + 1"));
+
+		String node = readOnly.execute(status -> node());
+		assertThat(node).isEqualTo("primary");
+
+		Thread.sleep(WINDOW.toMillis() + 100);
+		node = readOnly.execute(status -> node());
+		assertThat(node).isEqualTo("replica");
+	}
+
+	@Test
+	void readAfterOtherUsersWriteUsesReplica() {
+		login("alice");
+		readWrite.executeWithoutResult(status -> jdbcTemplate.update("UPDATE node SET writes = writes + 1"));
+
+		login("bob");
+		String node = readOnly.execute(status -> node());
+		assertThat(node).isEqualTo("replica");
+	}
+
+	@Test
+	void rolledBackWriteDoesNotPinReadsToPrimary() {
+		login("alice");
+		readWrite.executeWithoutResult(status -> {
+			jdbcTemplate.update("UPDATE node SET writes = writes + 1");
+			status.setRollbackOnly();
+		});
+
+		String node = readOnly.execute(status -> node());
+		assertThat(node).isEqualTo("replica");
+	}
+
+	@Test
+	void unhealthyReplicaIsSkippedUntilItRecovers() {
+		replica.down = true;
+		routing.checkReplicas();
+		assertThat(routing.getHealthyReplicas()).isEmpty();
+		String node = readOnly.execute(status -> node());
+		assertThat(node).isEqualTo("primary");
+
+		replica.down = false;
+		routing.checkReplicas();
+		node = readOnly.execute(status -> node());
+		assertThat(node).isEqualTo("replica");
+	}
+
+	/**
+	 * 接続先のDBの名前
+	 */
+	private String node() {
+		return jdbcTemplate.queryForObject("SELECT name FROM node", String.class);
+	}
+
+	private static void login(String name) {
+		SecurityContextHolder.getContext().setAuthentication(new TestingAuthenticationToken(name, "", "ROLE_USER"));
+	}
+
+	/**
+	 * 自分の名前を1行持つインメモリのH2
+	 */
+	private static JdbcDataSource h2(String name) {
+		var dataSource = new JdbcDataSource();
+		dataSource.setURL("jdbc:h2:mem:" + name + "-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1");
+		var jdbc = new JdbcTemplate(dataSource);
+		jdbc.execute("CREATE TABLE node (name VARCHAR(20), writes INT)");
+		jdbc.update("INSERT INTO node VALUES (?, 0)", name);
+		return dataSource;
+	}
+
+	/**
+	 * 停止を模擬できるデータソース
+	 */
+	private static class SwitchableDataSource extends DelegatingDataSource {
+		volatile boolean down;
+
+		SwitchableDataSource(JdbcDataSource target) {
+			super(target);
+		}
+
+		@Override
+		public Connection getConnection() throws SQLException {
+			if (down) {
+				throw new SQLException("replica is down");
+			}
+			return super.getConnection();
+		}
+	}
+}
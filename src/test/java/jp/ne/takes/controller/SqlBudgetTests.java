@@ -0,0 +1,413 @@
+package jp.ne.takes.controller;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestBuilders.formLogin;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.csrf;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.redirectedUrl;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.view;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.ResultActions;
+
+import jp.ne.takes.dto.AccountDto;
+import jp.ne.takes.dto.AccountDto.Role;
+import jp.ne.takes.security.AccountPrincipal;
+
+/**
+ * エンドポイントごとのSQL実行回数の上限(予算)のテスト
+ * 組込みDB(H2)に対し、SpringSecurityのフィルターを含めてリクエストを処理し、
+ * データソースを包んで数えたSQL文の件数・DBとの往復回数が予算を超えた場合は失敗にする
+ *
+ * <ul>
+ *   <li>SQL文：execute系の呼出しとバッチに追加した文の件数</li>
+ *   <li>往復：execute系とexecuteBatchの呼出し回数(バッチは1回で送る)</li>
+ * </ul>
+ * 予算は現在の実行回数に合わせてあるため、クエリを減らした場合は予算も下げること。
+ * DAOはキャッシュ版(委譲先はJpaRepository版)を使い、毎回新しいアカウントで測ってキャッシュに当たらないようにする
+ */
+@SpringBootTest(properties = {
+		"spring.datasource.url=jdbc:h2:mem:sql-budget;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1",
+		"spring.datasource.driver-class-name=org.h2.Driver",
+		"spring.datasource.username=sa",
+		"spring.datasource.password=",
+		"spring.jpa.hibernate.ddl-auto=create",
+		"account.cache.delegate=AccountDaoFeatJpaRepository",
+		"account.migration.enabled=false",
+		"account.map.wal.enabled=false",
+		"account.bcrypt.strength=4",
+		"logging.level.org.springframework.security=INFO"
+})
+@AutoConfigureMockMvc
+class SqlBudgetTests {
+
+	@Autowired
+	private MockMvc mockMvc;
+	@Autowired
+	private CountingDataSource counter;
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+	@Autowired
+	private PasswordEncoder passwordEncoder;
+
+	private AccountPrincipal admin;
+	private AccountPrincipal user;
+
+	@DynamicPropertySource
+	static void mappedFile(DynamicPropertyRegistry registry) throws IOException {
+		var directory = Files.createTempDirectory("sql-budget");
+		registry.add("account.mapped-file.path", () -> directory.resolve("accounts.dat").toString());
+	}
+
+	@BeforeEach
+	void setUp() {
+		admin = insert(Role.ADMIN);
+		user = insert(Role.USER);
+	}
+
+	@Test
+	void loginPage() throws Exception {
+		performWithin(0, 0, get("/"))
+				.andExpect(view().name("login"));
+	}
+
+	@Test
+	void loginLoadsAccountOnceThenUsesCache() throws Exception {
+		performWithin(1, 1, formLogin("/login").user(user.getUsername()).password("Passw0rd"))
+				.andExpect(redirectedUrl("/home"));
+		performWithin(0, 0, formLogin("/login").user(user.getUsername()).password("Passw0rd"))
+				.andExpect(redirectedUrl("/home"));
+	}
+
+	@Test
+	void failedLogin() throws Exception {
+		performWithin(1, 1, formLogin("/login").user(user.getUsername()).password("Wr0ngPass"))
+				.andExpect(redirectedUrl("/?error"));
+	}
+
+	@Test
+	void home() throws Exception {
+		performWithin(0, 0, get("/home").with(user(user)))
+				.andExpect(view().name("home"));
+	}
+
+	@Test
+	void listFirstPage() throws Exception {
+		performWithin(1, 1, get("/account/list").with(user(user)))
+				.andExpect(view().name("account-list"));
+	}
+
+	@Test
+	void listNextPage() throws Exception {
+		performWithin(1, 1, get("/account/list")
+				.param("sort", "EMAIL_ASC")
+				.param("afterId", String.valueOf(id(admin)))
+				.param("afterEmail", admin.getUsername())
+				.with(user(user)))
+				.andExpect(view().name("account-list"));
+	}
+
+	@Test
+	void export() throws Exception {
+		performWithin(1, 1, get("/account/export").param("format", "NDJSON").with(user(admin)))
+				.andExpect(status().isOk());
+	}
+
+	@Test
+	void showUpdateForm() throws Exception {
+		performWithin(1, 1, get("/account/" + id(user)).with(user(user)))
+				.andExpect(view().name("account-form"));
+	}
+
+	@Test
+	void update() throws Exception {
+		performWithin(1, 1, post("/account/update")
+				.param("id", String.valueOf(id(user)))
+				.param("email", uniqueEmail())
+				.param("version", "0")
+				.with(csrf()).with(user(user)))
+				.andExpect(redirectedUrl("/account/list"));
+	}
+
+	@Test
+	void updateWithStaleVersion() throws Exception {
+		// 条件付きUPDATE(0件) + 最新の内容の再読込み
+		performWithin(2, 2, post("/account/update")
+				.param("id", String.valueOf(id(user)))
+				.param("email", uniqueEmail())
+				.param("version", "5")
+				.with(csrf()).with(user(user)))
+				.andExpect(view().name("account-form"));
+	}
+
+	@Test
+	void updateWithEmailInUse() throws Exception {
+		performWithin(1, 1, post("/account/update")
+				.param("id", String.valueOf(id(user)))
+				.param("email", admin.getUsername())
+				.param("version", "0")
+				.with(csrf()).with(user(user)))
+				.andExpect(view().name("account-form"));
+	}
+
+	@Test
+	void showPasswordForm() throws Exception {
+		performWithin(0, 0, get("/account/password").with(user(user)))
+				.andExpect(view().name("account-password"));
+	}
+
+	@Test
+	void changePassword() throws Exception {
+		// メアドでの読込み + 版番号付きのUPDATE
+		performWithin(2, 2, post("/account/password")
+				.param("currentPassword", "Passw0rd")
+				.param("newPassword", "NewPassw0rd")
+				.param("confirmPassword", "NewPassw0rd")
+				.with(csrf()).with(user(user)))
+				.andExpect(redirectedUrl("/home"));
+	}
+
+	@Test
+	void cancel() throws Exception {
+		performWithin(0, 0, get("/account/cancel").with(user(user)))
+				.andExpect(redirectedUrl("/account/list"));
+	}
+
+	@Test
+	void delete() throws Exception {
+		// サービスの読込み + DELETE
+		// (リポジトリのdeleteById内の読込みは、リクエスト全体で共有する永続化コンテキストから取得しSQLにならない)
+		performWithin(2, 2, post("/account/delete")
+				.param("id", String.valueOf(id(user)))
+				.with(csrf()).with(user(admin)))
+				.andExpect(redirectedUrl("/account/list"));
+	}
+
+	@Test
+	void showRegisterForm() throws Exception {
+		performWithin(0, 0, get("/account/create").with(user(user)))
+				.andExpect(view().name("account-register"));
+	}
+
+	@Test
+	void register() throws Exception {
+		performWithin(1, 1, post("/account/register")
+				.param("email", uniqueEmail())
+				.param("password", "Passw0rd")
+				.with(csrf()).with(user(user)))
+				.andExpect(redirectedUrl("/account/list"));
+	}
+
+	@Test
+	void registerWithEmailInUse() throws Exception {
+		performWithin(1, 1, post("/account/register")
+				.param("email", user.getUsername())
+				.param("password", "Passw0rd")
+				.with(csrf()).with(user(user)))
+				.andExpect(view().name("account-register"));
+	}
+
+	@Test
+	void importAccounts() throws Exception {
+		var csv = "email,password,role\n"
+				+ uniqueEmail() + ",Passw0rd,USER\n"
+				+ uniqueEmail() + ",Passw0rd,USER\n"
+				+ uniqueEmail() + ",Passw0rd,ADMIN\n";
+		var file = new MockMultipartFile("file", "accounts.csv", "text/csv", csv.getBytes(StandardCharsets.UTF_8));
+		// 使用中のメアドの照会 + 3件のINSERTを1回のバッチで
+		performWithin(4, 2, multipart("/account/import").file(file).with(csrf()).with(user(admin)))
+				.andExpect(view().name("account-import"));
+	}
+
+	/**
+	 * リクエストを処理し、SQL文の件数・往復回数が予算以内であることを確認する
+	 *
+	 * @param statements SQL文の件数の予算
+	 * @param roundTrips 往復回数の予算
+	 * @param request リクエスト
+	 * @return 処理結果
+	 */
+	private ResultActions performWithin(int statements, int roundTrips, RequestBuilder request) throws Exception {
+		counter.reset();
+		var result = mockMvc.perform(request);
+		assertThat(counter.getStatements())
+				.as("SQL文の件数 %s", counter.getExecuted())
+				.isLessThanOrEqualTo(statements);
+		assertThat(counter.getRoundTrips())
+				.as("DBとの往復回数 %s", counter.getExecuted())
+				.isLessThanOrEqualTo(roundTrips);
+		return result;
+	}
+
+	/**
+	 * パスワード Passw0rd のアカウントを登録する(キャッシュを通さずDBへ直接)
+	 */
+	private AccountPrincipal insert(Role role) {
+		var email = uniqueEmail();
+		var password = passwordEncoder.encode("Passw0rd");
+		jdbcTemplate.update("INSERT INTO accounts (email, password, role, version) VALUES (?, ?, ?, 0)",
+				email, password, role.name());
+		var id = jdbcTemplate.queryForObject("SELECT id FROM accounts WHERE email = ?", Integer.class, email);
+		return AccountPrincipal.of(new AccountDto(id, email, password, role, 0));
+	}
+
+	private static int id(AccountPrincipal principal) {
+		return principal.getId();
+	}
+
+	private static String uniqueEmail() {
+		return "budget-" + UUID.randomUUID().toString().substring(0, 8) + "@example.com";
+	}
+
+	@TestConfiguration
+	static class CountingConfig {
+
+		/**
+		 * アプリケーションのデータソースを数える側で包む
+		 */
+		@Bean
+		static BeanPostProcessor countingDataSourcePostProcessor() {
+			return new BeanPostProcessor() {
+				@Override
+				public Object postProcessAfterInitialization(Object bean, String beanName) {
+					if (bean instanceof DataSource dataSource && !(bean instanceof CountingDataSource)
+							&& "dataSource".equals(beanName)) {
+						return new CountingDataSource(dataSource);
+					}
+					return bean;
+				}
+			};
+		}
+	}
+
+	/**
+	 * 実行したSQL文・DBとの往復を数えるデータソース
+	 * 接続・文をJDKの動的プロキシで包み、execute系・addBatch・executeBatchの呼出しを数える
+	 */
+	static class CountingDataSource extends DelegatingDataSource {
+		private final AtomicInteger statements = new AtomicInteger();
+		private final AtomicInteger roundTrips = new AtomicInteger();
+		private final List<String> executed = Collections.synchronizedList(new ArrayList<>());
+
+		CountingDataSource(DataSource target) {
+			super(target);
+		}
+
+		void reset() {
+			statements.set(0);
+			roundTrips.set(0);
+			executed.clear();
+		}
+
+		int getStatements() {
+			return statements.get();
+		}
+
+		int getRoundTrips() {
+			return roundTrips.get();
+		}
+
+		List<String> getExecuted() {
+			synchronized (executed) {
+				return List.copyOf(executed);
+			}
+		}
+
+		@Override
+		public Connection getConnection() throws SQLException {
+			return connection(super.getConnection());
+		}
+
+		@Override
+		public Connection getConnection(String username, String password) throws SQLException {
+			return connection(super.getConnection(username, password));
+		}
+
+		private Connection connection(Connection target) {
+			return proxy(Connection.class, target, (proxy, method, args) -> {
+				var result = invoke(target, method, args);
+				if (result instanceof Statement statement && Statement.class.isAssignableFrom(method.getReturnType())) {
+					var sql = args != null && args.length > 0 && args[0] instanceof String s ? s : null;
+					return statement(method.getReturnType(), statement, sql);
+				}
+				return result;
+			});
+		}
+
+		private Object statement(Class<?> type, Statement target, String preparedSql) {
+			return proxy(type, target, (proxy, method, args) -> {
+				var sql = args != null && args.length > 0 && args[0] instanceof String s ? s : preparedSql;
+				switch (method.getName()) {
+					case "addBatch" -> {
+						statements.incrementAndGet();
+						executed.add(sql);
+					}
+					case "executeBatch", "executeLargeBatch" -> roundTrips.incrementAndGet();
+					case "execute", "executeQuery", "executeUpdate", "executeLargeUpdate" -> {
+						statements.incrementAndGet();
+						roundTrips.incrementAndGet();
+						executed.add(sql);
+					}
+					default -> {
+					}
+				}
+				return invoke(target, method, args);
+			});
+		}
+
+		private static <T> T proxy(Class<T> type, Object target, InvocationHandler handler) {
+			InvocationHandler identity = (proxy, method, args) -> switch (method.getName()) {
+				case "equals" -> args[0] == proxy;
+				case "hashCode" -> System.identityHashCode(proxy);
+				case "toString" -> "counting:" + target;
+				default -> handler.invoke(proxy, method, args);
+			};
+			return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, identity));
+		}
+
+		private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+			try {
+				return method.invoke(target, args);
+			} catch (InvocationTargetException e) {
+				throw e.getTargetException();
+			}
+		}
+	}
+}
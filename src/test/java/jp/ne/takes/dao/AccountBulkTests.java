@@ -0,0 +1,91 @@
+package jp.ne.takes.dao;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import jp.ne.takes.dto.AccountDto;
+import jp.ne.takes.dto.AccountDto.Role;
+
+/**
+ * 一括作成の共通処理のテスト
+ * 登録済みの確認の後に同じメアドが登録された場合に、その行だけを除いて他の行を作成することを確認する
+ */
+class AccountBulkTests {
+
+	private Connection connection;
+
+	@BeforeEach
+	void setUp() throws SQLException {
+		connection = DriverManager.getConnection("jdbc:h2:mem:bulk;MODE=MySQL");
+		try (var statement = connection.createStatement()) {
+			statement.execute("CREATE TABLE accounts (id INT AUTO_INCREMENT PRIMARY KEY, email VARCHAR(255) UNIQUE,"
+					+ " password VARCHAR(255), role VARCHAR(20) NOT NULL, version INT NOT NULL DEFAULT 0)");
+		}
+		connection.setAutoCommit(false);
+	}
+
+	@AfterEach
+	void tearDown() throws SQLException {
+		connection.close();
+	}
+
+	@Test
+	void insertsEveryRowWhenNoneCollide() throws SQLException {
+		var rejected = new ArrayList<AccountDto>();
+
+		AccountBulk.insert(connection, accounts("a@example.com", "b@example.com"), AccountBulk::batch, rejected);
+		connection.commit();
+
+		assertThat(rejected).isEmpty();
+		assertThat(emails()).containsExactly("a@example.com", "b@example.com");
+	}
+
+	@Test
+	void rowRegisteredAfterCheckIsRejectedAndOthersAreCreated() throws SQLException {
+		// 登録済みの確認の後に別のリクエストが登録した
+		try (var ps = connection.prepareStatement(AccountBulk.INSERT_SQL)) {
+			AccountBulk.bind(ps, account("b@example.com"));
+			ps.executeUpdate();
+		}
+		var rejected = new ArrayList<AccountDto>();
+
+		AccountBulk.insert(connection, accounts("a@example.com", "b@example.com", "c@example.com"),
+				AccountBulk::batch, rejected);
+		connection.commit();
+
+		assertThat(rejected).extracting(AccountDto::getEmail).containsExactly("b@example.com");
+		assertThat(emails()).containsExactly("a@example.com", "b@example.com", "c@example.com");
+	}
+
+	private List<String> emails() throws SQLException {
+		var emails = new ArrayList<String>();
+		try (var statement = connection.createStatement();
+				var rs = statement.executeQuery("SELECT email FROM accounts ORDER BY email")) {
+			while (rs.next()) {
+				emails.add(rs.getString(1));
+			}
+		}
+		return emails;
+	}
+
+	private static List<AccountDto> accounts(String... emails) {
+		var accounts = new ArrayList<AccountDto>();
+		for (var email : emails) {
+			accounts.add(account(email));
+		}
+		return accounts;
+	}
+
+	private static AccountDto account(String email) {
+		return new AccountDto(0, email, "{noop}secret", Role.USER, 0);
+	}
+}
@@ -0,0 +1,246 @@
+package jp.ne.takes.dao;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.dao.DataAccessResourceFailureException;
+
+import jp.ne.takes.dto.AccountDto;
+import jp.ne.takes.dto.AccountDto.Role;
+import jp.ne.takes.dto.AccountPageRequest;
+import jp.ne.takes.dto.AccountSort;
+import jp.ne.takes.dto.AccountSummary;
+
+/**
+ * メモリマップドファイル版DAOのテスト
+ * 書込み途中で停止したファイル(旧版が残っている・新版が壊れている)から復元できることと、
+ * スロットの再利用・索引によるページングを確認する
+ */
+class AccountDaoFeatMappedFileTests {
+
+	/** 1レコードのバイト数 */
+	private static final int RECORD_SIZE = 512;
+	/** レコード内の状態の位置 */
+	private static final int OFF_STATE = 4;
+	/** レコード内のメアドの位置 */
+	private static final int OFF_EMAIL = 16;
+	/** 状態：有効 */
+	private static final byte LIVE = 3;
+
+	@TempDir
+	Path directory;
+
+	private AccountDaoFeatMappedFile dao;
+
+	@AfterEach
+	void tearDown() throws IOException {
+		if (dao != null) {
+			dao.close();
+		}
+	}
+
+	@Test
+	void reopenKeepsChangesAndDoesNotReuseIds() throws IOException {
+		dao = open(8);
+		var alice = account("alice@example.com");
+		dao.create(alice);
+		dao.update(new AccountDto(1, "admin@example.com", "changed", Role.ADMIN, 0));
+		dao.deleteById(alice.getId());
+
+		dao = reopen(8);
+		assertThat(dao.findById(1)).hasValueSatisfying(found -> {
+			assertThat(found.getEmail()).isEqualTo("admin@example.com");
+			assertThat(found.getPassword()).isEqualTo("changed");
+			assertThat(found.getVersion()).isEqualTo(1);
+		});
+		assertThat(dao.findById(alice.getId())).isEmpty();
+		assertThat(dao.findAll()).extracting(AccountDto::getId).containsExactly(1, 2, 3);
+
+		var bob = account("bob@example.com");
+		dao.create(bob);
+		assertThat(bob.getId()).isGreaterThan(alice.getId());
+	}
+
+	@Test
+	void idsBelowOneDoNotMatchHeaderOrDeletedEntries() throws IOException {
+		dao = open(8);
+		// 削除済みの印(-1)を作る
+		dao.deleteById(3);
+
+		for (var id : List.of(0, -1)) {
+			assertThat(dao.findById(id)).isEmpty();
+			dao.update(new AccountDto(id, "changed" + id + "@example.com", "changed", Role.USER, 0));
+			assertThat(dao.updateEmail(id, 0, "changed" + id + "@example.com")).isFalse();
+			dao.deleteById(id);
+		}
+
+		assertThat(dao.findAll()).extracting(AccountDto::getId).containsExactly(1, 2);
+		dao = reopen(8);
+		assertThat(dao.findAll()).extracting(AccountDto::getId).containsExactly(1, 2);
+	}
+
+	@Test
+	void crashBeforeRetiringOldVersionKeepsNewerVersion() throws IOException {
+		dao = open(8);
+		// 初期データのID 1 はスロット1、更新後の版は空きスロット4に書かれる
+		assertThat(dao.updateEmail(1, 0, "admin@example.com")).isTrue();
+		dao.close();
+		// 旧版を削除済みにする前に停止した状態を再現
+		patch(1, OFF_STATE, LIVE);
+
+		dao = reopen(8);
+		assertThat(dao.findById(1)).hasValueSatisfying(found -> {
+			assertThat(found.getEmail()).isEqualTo("admin@example.com");
+			assertThat(found.getVersion()).isEqualTo(1);
+		});
+		assertThat(dao.findByEmail("takes@takes.ne.jp")).isEmpty();
+		assertThat(dao.findAll()).hasSize(3);
+	}
+
+	@Test
+	void tornNewVersionFallsBackToPreviousVersion() throws IOException {
+		dao = open(8);
+		assertThat(dao.updateEmail(1, 0, "admin@example.com")).isTrue();
+		dao.close();
+		// 新版の書込み途中(CRCが合わない)で停止し、旧版も削除済みになっていない状態を再現
+		patch(1, OFF_STATE, LIVE);
+		patch(4, OFF_EMAIL, (byte) 'x');
+
+		dao = reopen(8);
+		assertThat(dao.findById(1)).hasValueSatisfying(found -> {
+			assertThat(found.getEmail()).isEqualTo("takes@takes.ne.jp");
+			assertThat(found.getVersion()).isZero();
+		});
+		assertThat(dao.findByEmail("admin@example.com")).isEmpty();
+		// 壊れたスロットは再利用される
+		dao.create(account("alice@example.com"));
+		assertThat(Files.size(file())).isEqualTo(8L * RECORD_SIZE);
+	}
+
+	@Test
+	void deletedAndSupersededSlotsAreReused() throws IOException {
+		dao = open(8);
+		for (var i = 0; i < 50; i++) {
+			dao.update(new AccountDto(2, "user" + i + "@example.com", "Takes123456", Role.USER, 0));
+			var account = account("temp" + i + "@example.com");
+			dao.create(account);
+			dao.deleteById(account.getId());
+		}
+		assertThat(Files.size(file())).isEqualTo(8L * RECORD_SIZE);
+		assertThat(dao.findById(2)).hasValueSatisfying(found -> assertThat(found.getVersion()).isEqualTo(50));
+
+		dao = reopen(8);
+		assertThat(dao.findAll()).extracting(AccountDto::getEmail)
+				.containsExactly("takes@takes.ne.jp", "user49@example.com", "k.igari@takes.ne.jp");
+	}
+
+	@Test
+	void pagesFollowIndexOrderAfterChanges() throws IOException {
+		dao = open(16);
+		var random = new Random(1);
+		var created = new ArrayList<Integer>();
+		for (var i = 0; i < 40; i++) {
+			var account = account("user" + random.nextInt(1000) + "-" + i + "@example.com");
+			dao.create(account);
+			created.add(account.getId());
+		}
+		for (var i = 0; i < created.size(); i += 3) {
+			dao.update(new AccountDto(created.get(i), "changed" + random.nextInt(1000) + "-" + i + "@example.com",
+					"Takes123456", Role.USER, 0));
+		}
+		for (var i = 1; i < created.size(); i += 5) {
+			dao.deleteById(created.get(i));
+		}
+
+		assertPages();
+		dao = reopen(16);
+		assertPages();
+	}
+
+	@Test
+	void oldFormatFileIsRejected() throws IOException {
+		try (var file = new RandomAccessFile(file().toFile(), "rw")) {
+			file.writeInt(1);
+			file.writeByte(1);
+		}
+		var old = new AccountDaoFeatMappedFile(file().toString(), 8, false);
+
+		assertThatThrownBy(old::open).isInstanceOf(DataAccessResourceFailureException.class);
+	}
+
+	/**
+	 * 全ての並び順で、ページを辿った結果が全件を並べ替えた結果と一致することを確認
+	 */
+	private void assertPages() {
+		var all = dao.findAllSummaries();
+		var byEmail = Comparator.comparing(AccountSummary::getEmail).thenComparingInt(AccountSummary::getId);
+		var byId = Comparator.comparingInt(AccountSummary::getId);
+		assertThat(walk(AccountSort.ID_ASC)).isEqualTo(sorted(all, byId));
+		assertThat(walk(AccountSort.ID_DESC)).isEqualTo(sorted(all, byId.reversed()));
+		assertThat(walk(AccountSort.EMAIL_ASC)).isEqualTo(sorted(all, byEmail));
+		assertThat(walk(AccountSort.EMAIL_DESC)).isEqualTo(sorted(all, byEmail.reversed()));
+	}
+
+	private List<Integer> walk(AccountSort sort) {
+		var ids = new ArrayList<Integer>();
+		var request = AccountPageRequest.first(sort, 7);
+		while (true) {
+			var page = dao.findPage(request);
+			var rows = page.subList(0, Math.min(page.size(), 7));
+			rows.forEach(row -> ids.add(row.getId()));
+			if (page.size() <= 7) {
+				return ids;
+			}
+			request = request.next(rows.get(rows.size() - 1));
+		}
+	}
+
+	private static List<Integer> sorted(List<AccountSummary> all, Comparator<AccountSummary> order) {
+		return all.stream().sorted(order).map(AccountSummary::getId).toList();
+	}
+
+	private AccountDaoFeatMappedFile open(int segmentRecords) throws IOException {
+		var opened = new AccountDaoFeatMappedFile(file().toString(), segmentRecords, false);
+		opened.open();
+		return opened;
+	}
+
+	private AccountDaoFeatMappedFile reopen(int segmentRecords) throws IOException {
+		if (dao != null) {
+			dao.close();
+			dao = null;
+		}
+		return open(segmentRecords);
+	}
+
+	/**
+	 * 閉じたファイルのレコードの1バイトを書き換える
+	 */
+	private void patch(int slot, int offset, byte value) throws IOException {
+		dao = null;
+		try (var file = new RandomAccessFile(file().toFile(), "rw")) {
+			file.seek((long) slot * RECORD_SIZE + offset);
+			file.writeByte(value);
+		}
+	}
+
+	private Path file() {
+		return directory.resolve("accounts.dat");
+	}
+
+	private static AccountDto account(String email) {
+		return new AccountDto(0, email, "Takes123456", Role.USER, 0);
+	}
+}
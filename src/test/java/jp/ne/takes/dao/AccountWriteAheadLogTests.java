@@ -0,0 +1,262 @@
+package jp.ne.takes.dao;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.dao.DataAccessResourceFailureException;
+
+import jp.ne.takes.dao.AccountWriteAheadLog.FsyncPolicy;
+import jp.ne.takes.dto.AccountDto;
+import jp.ne.takes.dto.AccountDto.Role;
+
+/**
+ * マップ版DAOの先行書込みログ(WAL)のテスト
+ * スナップショットとそれ以降のログから復元できること、壊れた末尾の記録を読み捨てること、
+ * スナップショットと並行した変更も失われないこと、
+ * 書込みに失敗した後は更新を受け付けずマップも変わらないことを確認する
+ */
+class AccountWriteAheadLogTests {
+
+	@TempDir
+	Path directory;
+
+	/** 書込み中のログ */
+	private AccountWriteAheadLog wal;
+	/** スナップショットの取得元 */
+	private final Map<Integer, AccountRecord> live = new ConcurrentHashMap<>();
+
+	@AfterEach
+	void tearDown() {
+		if (wal != null) {
+			wal.stop();
+		}
+	}
+
+	@Test
+	void snapshotAndLaterSegmentsAreReplayed() {
+		start();
+		upsert(record(1, "a@example.com", 0));
+		upsert(record(2, "b@example.com", 0));
+		upsert(record(3, "c@example.com", 0));
+		wal.snapshot();
+		assertThat(walDirectory().resolve(String.format("snapshot-%016d.dat", 2))).exists();
+		// スナップショット後の更新・削除・作成
+		upsert(record(1, "a2@example.com", 1));
+		wal.delete(live.get(2), () -> live.remove(2));
+		upsert(record(4, "d@example.com", 0));
+
+		var recovered = new HashMap<Integer, AccountRecord>();
+		var maxId = restart(recovered);
+
+		assertThat(maxId).isEqualTo(4);
+		assertThat(recovered).containsOnlyKeys(1, 3, 4);
+		assertThat(recovered.get(1).email()).isEqualTo("a2@example.com");
+		assertThat(recovered.get(1).version()).isEqualTo(1);
+	}
+
+	@Test
+	void truncatedTailIsDiscarded() throws IOException {
+		start();
+		upsert(record(1, "a@example.com", 0));
+		upsert(record(2, "b@example.com", 0));
+		wal.stop();
+		wal = null;
+		// 最後の記録の書込み途中で停止した状態を再現
+		try (var file = new RandomAccessFile(lastSegment().toFile(), "rw")) {
+			file.setLength(file.length() - 3);
+		}
+
+		var recovered = new HashMap<Integer, AccountRecord>();
+		restart(recovered);
+
+		assertThat(recovered).containsOnlyKeys(1);
+	}
+
+	@Test
+	void corruptTailIsDiscarded() throws IOException {
+		start();
+		upsert(record(1, "a@example.com", 0));
+		upsert(record(2, "b@example.com", 0));
+		wal.stop();
+		wal = null;
+		// 最後の記録のCRCが合わない状態を再現
+		try (var file = new RandomAccessFile(lastSegment().toFile(), "rw")) {
+			file.seek(file.length() - 1);
+			var last = file.readByte();
+			file.seek(file.length() - 1);
+			file.writeByte(last ^ 0x01);
+		}
+
+		var recovered = new HashMap<Integer, AccountRecord>();
+		restart(recovered);
+
+		assertThat(recovered).containsOnlyKeys(1);
+		// 復元後の記録は新しいセグメントに書かれ、次の起動でも読める
+		upsert(record(3, "c@example.com", 0));
+		recovered.clear();
+		restart(recovered);
+		assertThat(recovered).containsOnlyKeys(1, 3);
+	}
+
+	@Test
+	void writesDuringSnapshotAreRecovered() throws Exception {
+		// 記録してから反映するまでの間を広げる
+		wal = new AccountWriteAheadLog(true, walDirectory().toString(), FsyncPolicy.ALWAYS, 1, 3600, 1_000_000) {
+			@Override
+			public void upsert(AccountRecord record, Runnable apply) {
+				super.upsert(record, () -> pause(apply));
+			}
+
+			@Override
+			public void delete(AccountRecord record, Runnable apply) {
+				super.delete(record, () -> pause(apply));
+			}
+		};
+		var dao = new AccountDaoFeatMap(wal);
+		dao.init();
+		var done = new AtomicBoolean();
+		var executor = Executors.newFixedThreadPool(4);
+		try {
+			var writers = new ArrayList<Future<?>>();
+			for (var t = 0; t < 4; t++) {
+				var prefix = "w" + t + "-";
+				writers.add(executor.submit(() -> {
+					for (var i = 0; i < 100; i++) {
+						var account = new AccountDto(0, prefix + i + "@example.com", "Takes123456", Role.USER, 0);
+						dao.create(account);
+						dao.update(new AccountDto(account.getId(), prefix + i + "-changed@example.com", "changed", Role.USER, 0));
+						if (i % 3 == 0) {
+							dao.deleteById(account.getId());
+						}
+					}
+				}));
+			}
+			var snapshots = executor.submit(() -> {
+				while (!done.get()) {
+					wal.snapshot();
+				}
+			});
+			for (var writer : writers) {
+				writer.get(1, TimeUnit.MINUTES);
+			}
+			done.set(true);
+			snapshots.get(1, TimeUnit.MINUTES);
+		} finally {
+			done.set(true);
+			executor.shutdownNow();
+		}
+		var expected = new HashMap<Integer, AccountRecord>();
+		for (var id = 1; id <= 3 + 4 * 100; id++) {
+			dao.findById(id).ifPresent(found -> expected.put(found.getId(), AccountRecord.of(found, found.getVersion())));
+		}
+
+		var recovered = new HashMap<Integer, AccountRecord>();
+		restart(recovered);
+
+		assertThat(recovered).isEqualTo(expected);
+	}
+
+	@Test
+	void writesAreRejectedAfterWriteFailure() throws IOException {
+		wal = newLog();
+		var dao = new AccountDaoFeatMap(wal);
+		dao.init();
+		// 保存先が使えなくなり、次のセグメントを開けない
+		breakDirectory();
+		wal.snapshot();
+
+		assertThatThrownBy(() -> dao.update(new AccountDto(1, "changed@example.com", "Takes123456", Role.USER, 0)))
+				.isInstanceOf(DataAccessResourceFailureException.class);
+		assertThatThrownBy(() -> dao.create(new AccountDto(0, "new@example.com", "Takes123456", Role.USER, 0)))
+				.isInstanceOf(DataAccessResourceFailureException.class);
+		assertThatThrownBy(() -> dao.deleteById(2)).isInstanceOf(DataAccessResourceFailureException.class);
+
+		// 記録できなかった変更はマップにも反映されない
+		assertThat(dao.findById(1)).hasValueSatisfying(found -> {
+			assertThat(found.getEmail()).isEqualTo("takes@takes.ne.jp");
+			assertThat(found.getVersion()).isZero();
+		});
+		assertThat(dao.existsByEmail("changed@example.com")).isFalse();
+		assertThat(dao.existsByEmail("new@example.com")).isFalse();
+		assertThat(dao.findById(2)).isPresent();
+	}
+
+	private void start() {
+		wal = newLog();
+		wal.recover(new HashMap<>());
+		wal.start(live::values);
+	}
+
+	private int restart(Map<Integer, AccountRecord> recovered) {
+		if (wal != null) {
+			wal.stop();
+		}
+		wal = newLog();
+		var maxId = wal.recover(recovered);
+		live.clear();
+		live.putAll(recovered);
+		wal.start(live::values);
+		return maxId;
+	}
+
+	private AccountWriteAheadLog newLog() {
+		return new AccountWriteAheadLog(true, walDirectory().toString(), FsyncPolicy.ALWAYS, 1, 3600, 1_000_000);
+	}
+
+	private void upsert(AccountRecord record) {
+		wal.upsert(record, () -> live.put(record.id(), record));
+	}
+
+	private static void pause(Runnable apply) {
+		try {
+			Thread.sleep(1);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		apply.run();
+	}
+
+	private Path lastSegment() throws IOException {
+		try (var files = Files.list(walDirectory())) {
+			return files.filter(p -> p.getFileName().toString().startsWith("wal-")).sorted()
+					.reduce((a, b) -> b).orElseThrow();
+		}
+	}
+
+	/**
+	 * 保存先のディレクトリを同名のファイルに置き換える
+	 */
+	private void breakDirectory() throws IOException {
+		try (var files = Files.list(walDirectory())) {
+			for (var file : files.toList()) {
+				Files.delete(file);
+			}
+		}
+		Files.delete(walDirectory());
+		Files.createFile(walDirectory());
+	}
+
+	private Path walDirectory() {
+		return directory.resolve("wal");
+	}
+
+	private static AccountRecord record(int id, String email, int version) {
+		return new AccountRecord(id, email, "Takes123456", Role.USER, version);
+	}
+}
@@ -0,0 +1,102 @@
+package jp.ne.takes.dao;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.Optional;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import jp.ne.takes.dto.AccountDto;
+import jp.ne.takes.dto.AccountDto.Role;
+
+/**
+ * キャッシュ版DAOのテスト
+ * DAOを通さない更新の無効化と、無効化と前後した読込みの結果が古い値として残らないことを確認する
+ */
+class CachingAccountDaoTests {
+
+	/** 委譲先(読込みの途中で処理を差し込める) */
+	private SlowMap delegate;
+	private CachingAccountDao dao;
+
+	@BeforeEach
+	void setUp() {
+		delegate = new SlowMap();
+		delegate.init();
+		dao = new CachingAccountDao(delegate, 100, Duration.ofMinutes(1));
+	}
+
+	@Test
+	void evictDropsEntryUpdatedOutsideTheDao() {
+		assertThat(dao.findById(2)).hasValueSatisfying(found -> assertThat(found.getVersion()).isZero());
+		// DAOを通さないパスワードの置換え(版番号が上がる)
+		delegate.update(new AccountDto(2, "gs_k.igari@takesgrp.info", "rehashed", Role.USER, 0));
+		dao.evict(2, "gs_k.igari@takesgrp.info");
+
+		assertThat(dao.findById(2)).hasValueSatisfying(found -> {
+			assertThat(found.getPassword()).isEqualTo("rehashed");
+			assertThat(found.getVersion()).isEqualTo(1);
+		});
+		assertThat(dao.findByEmail("gs_k.igari@takesgrp.info"))
+				.hasValueSatisfying(found -> assertThat(found.getVersion()).isEqualTo(1));
+	}
+
+	@Test
+	void loadFinishingAfterEvictIsNotCached() {
+		// 古い値を読んだ後、保存する前に別の処理が更新して無効化した
+		delegate.afterRead = () -> {
+			delegate.afterRead = null;
+			delegate.update(new AccountDto(2, "gs_k.igari@takesgrp.info", "rehashed", Role.USER, 0));
+			dao.evict(2, "gs_k.igari@takesgrp.info");
+		};
+		assertThat(dao.findById(2)).hasValueSatisfying(found -> assertThat(found.getVersion()).isZero());
+
+		assertThat(dao.findById(2)).hasValueSatisfying(found -> assertThat(found.getVersion()).isEqualTo(1));
+	}
+
+	@Test
+	void unregisteredEmailLoadFinishingAfterCreateIsNotCached() {
+		delegate.afterRead = () -> {
+			delegate.afterRead = null;
+			dao.create(new AccountDto(0, "new@example.com", "Takes123456", Role.USER, 0));
+		};
+		assertThat(dao.existsByEmail("new@example.com")).isFalse();
+
+		assertThat(dao.existsByEmail("new@example.com")).isTrue();
+	}
+
+	/**
+	 * 読込みの後に処理を差し込めるマップ版DAO
+	 */
+	private static class SlowMap extends AccountDaoFeatMap {
+
+		/** 読込みの後に実行する処理 */
+		private Runnable afterRead;
+
+		SlowMap() {
+			super(AccountWriteAheadLog.disabled());
+		}
+
+		@Override
+		public Optional<AccountDto> findById(Integer id) {
+			var found = super.findById(id);
+			runAfterRead();
+			return found;
+		}
+
+		@Override
+		public Optional<AccountDto> findByEmail(String email) {
+			var found = super.findByEmail(email);
+			runAfterRead();
+			return found;
+		}
+
+		private void runAfterRead() {
+			if (afterRead != null) {
+				afterRead.run();
+			}
+		}
+	}
+}
@@ -0,0 +1,177 @@
+package jp.ne.takes.dao;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.UUID;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.r2dbc.core.DatabaseClient;
+
+import io.r2dbc.h2.H2ConnectionConfiguration;
+import io.r2dbc.h2.H2ConnectionFactory;
+import jp.ne.takes.dto.AccountDto;
+import jp.ne.takes.dto.AccountDto.Role;
+import jp.ne.takes.dto.AccountPageRequest;
+import jp.ne.takes.dto.AccountSort;
+import jp.ne.takes.dto.AccountSummary;
+import reactor.test.StepVerifier;
+
+/**
+ * ノンブロッキングのアカウントDAOのテスト
+ * R2DBC版は組込みのH2(R2DBCドライバ)、マップ版は初期データなしのマップに対して同じ操作を確認する
+ */
+class ReactiveAccountDaoTests {
+
+	private DatabaseClient client;
+
+	@AfterEach
+	void tearDown() {
+		if (client != null) {
+			client.sql("SHUTDOWN").then().block();
+		}
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = {"map", "r2dbc"})
+	void createAssignsIdAndFindsByIdAndEmail(String kind) {
+		var dao = dao(kind);
+		var account = account("alice@example.com");
+
+		StepVerifier.create(dao.create(account)).verifyComplete();
+		assertThat(account.getId()).isPositive();
+
+		StepVerifier.create(dao.findById(account.getId()))
+				.assertNext(found -> {
+					assertThat(found.getEmail()).isEqualTo("alice@example.com");
+					assertThat(found.getRole()).isEqualTo(Role.USER);
+					assertThat(found.getVersion()).isZero();
+				})
+				.verifyComplete();
+		StepVerifier.create(dao.findByEmail("alice@example.com"))
+				.assertNext(found -> assertThat(found.getId()).isEqualTo(account.getId()))
+				.verifyComplete();
+		StepVerifier.create(dao.findByEmail("nobody@example.com")).verifyComplete();
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = {"map", "r2dbc"})
+	void createWithEmailInUseFails(String kind) {
+		var dao = dao(kind);
+		dao.create(account("alice@example.com")).block();
+
+		StepVerifier.create(dao.create(account("alice@example.com")))
+				.verifyError(DataIntegrityViolationException.class);
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = {"map", "r2dbc"})
+	void existsChecks(String kind) {
+		var dao = dao(kind);
+		var alice = account("alice@example.com");
+		dao.create(alice).block();
+
+		StepVerifier.create(dao.existsByEmail("alice@example.com")).expectNext(true).verifyComplete();
+		StepVerifier.create(dao.existsByEmail("bob@example.com")).expectNext(false).verifyComplete();
+		StepVerifier.create(dao.existsByEmailAndIdNot("alice@example.com", alice.getId())).expectNext(false).verifyComplete();
+		StepVerifier.create(dao.existsByEmailAndIdNot("alice@example.com", alice.getId() + 1)).expectNext(true).verifyComplete();
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = {"map", "r2dbc"})
+	void updateThenDelete(String kind) {
+		var dao = dao(kind);
+		var alice = account("alice@example.com");
+		dao.create(alice).block();
+
+		var changed = dao.findById(alice.getId()).block();
+		changed.setEmail("alice2@example.com");
+		StepVerifier.create(dao.update(changed)).verifyComplete();
+		StepVerifier.create(dao.findById(alice.getId()))
+				.assertNext(found -> {
+					assertThat(found.getEmail()).isEqualTo("alice2@example.com");
+					assertThat(found.getVersion()).isEqualTo(1);
+				})
+				.verifyComplete();
+
+		StepVerifier.create(dao.deleteById(alice.getId())).verifyComplete();
+		StepVerifier.create(dao.findById(alice.getId())).verifyComplete();
+		StepVerifier.create(dao.existsByEmail("alice2@example.com")).expectNext(false).verifyComplete();
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = {"map", "r2dbc"})
+	void findAllAndPages(String kind) {
+		var dao = dao(kind);
+		for (var email : new String[] {"carol@example.com", "alice@example.com", "bob@example.com"}) {
+			dao.create(account(email)).block();
+		}
+
+		StepVerifier.create(dao.findAll().map(AccountDto::getEmail))
+				.expectNext("carol@example.com", "alice@example.com", "bob@example.com")
+				.verifyComplete();
+
+		// 2件ずつ(次ページの判定用に1件多く取得)
+		var first = AccountPageRequest.of(AccountSort.EMAIL_ASC, null, null, 2);
+		var page = dao.findPage(first).collectList().block();
+		assertThat(page).extracting(AccountSummary::getEmail)
+				.containsExactly("alice@example.com", "bob@example.com", "carol@example.com");
+
+		var next = first.next(page.get(1));
+		StepVerifier.create(dao.findPage(next).map(AccountSummary::getEmail))
+				.expectNext("carol@example.com")
+				.verifyComplete();
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = {"map", "r2dbc"})
+	void updateWithStaleVersionFails(String kind) {
+		var dao = dao(kind);
+		var alice = account("alice@example.com");
+		dao.create(alice).block();
+		var stale = dao.findById(alice.getId()).block();
+		var current = dao.findById(alice.getId()).block();
+		current.setEmail("alice2@example.com");
+		dao.update(current).block();
+
+		stale.setEmail("alice3@example.com");
+		StepVerifier.create(dao.update(stale)).verifyError(OptimisticLockingFailureException.class);
+		StepVerifier.create(dao.findById(alice.getId()).map(AccountDto::getEmail))
+				.expectNext("alice2@example.com")
+				.verifyComplete();
+	}
+
+	/**
+	 * 空のDAOを作成
+	 *
+	 * @param kind map(マップ版)/r2dbc(R2DBC版)
+	 */
+	private ReactiveAccountDao dao(String kind) {
+		if ("map".equals(kind)) {
+			return new ReactiveAccountDaoFeatMap();
+		}
+		var connectionFactory = new H2ConnectionFactory(H2ConnectionConfiguration.builder()
+				.url("mem:reactive-" + UUID.randomUUID() + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1")
+				.username("sa")
+				.build());
+		client = DatabaseClient.create(connectionFactory);
+		client.sql("CREATE TABLE accounts (id INT AUTO_INCREMENT PRIMARY KEY, email VARCHAR(255) NOT NULL,"
+						+ " password VARCHAR(255), role VARCHAR(20) NOT NULL, version INT NOT NULL DEFAULT 0,"
+						+ " CONSTRAINT uk_accounts_email UNIQUE (email))")
+				.then()
+				.block();
+		return new ReactiveAccountDaoFeatR2dbc(client);
+	}
+
+	private static AccountDto account(String email) {
+		var account = new AccountDto();
+		account.setEmail(email);
+		account.setPassword("{noop}Passw0rd");
+		account.setRole(Role.USER);
+		return account;
+	}
+}
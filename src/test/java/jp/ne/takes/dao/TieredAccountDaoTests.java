@@ -0,0 +1,156 @@
+package jp.ne.takes.dao;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import jp.ne.takes.dao.TieredAccountDao.Durability;
+import jp.ne.takes.dto.AccountDto;
+import jp.ne.takes.dto.AccountDto.Role;
+
+/**
+ * 階層版DAOのテスト
+ * 書き戻せない行を隔離して他の行を書き戻すこと、メアドが重複する追加で他の行を上書きしないこと、
+ * SYNCの失敗はメモリの変更を取り消すこと、ASYNCの上限超過で書き戻せない場合はメモリを変更せずに失敗することを確認する
+ */
+class TieredAccountDaoTests {
+
+	private JdbcTemplate jdbcTemplate;
+	private TransactionTemplate transactionTemplate;
+	private TieredAccountDao dao;
+
+	@BeforeEach
+	void setUp() {
+		var dataSource = new DriverManagerDataSource(
+				"jdbc:h2:mem:tiered-" + UUID.randomUUID() + ";MODE=MySQL;DB_CLOSE_DELAY=-1", "sa", "");
+		jdbcTemplate = new JdbcTemplate(dataSource);
+		// poisonで始まるメアドは書き込めない(その行だけが原因の失敗)
+		jdbcTemplate.execute("CREATE TABLE accounts (id INT PRIMARY KEY, email VARCHAR(255) UNIQUE,"
+				+ " password VARCHAR(255), role VARCHAR(20) NOT NULL, version INT NOT NULL DEFAULT 0,"
+				+ " CHECK (email NOT LIKE 'poison%'))");
+		transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+	}
+
+	@AfterEach
+	void tearDown() {
+		if (dao != null) {
+			try {
+				dao.close();
+			} catch (DataAccessException e) {
+				// 書き戻せない状態のまま終了するテスト
+			}
+		}
+	}
+
+	@Test
+	void poisonRowIsIsolatedAndOtherRowsAreWritten() {
+		dao = open(Durability.ASYNC, 100);
+		dao.create(account("a@example.com"));
+		dao.create(account("poison@example.com"));
+		dao.create(account("b@example.com"));
+
+		dao.flush();
+
+		assertThat(emails()).containsExactly("a@example.com", "b@example.com");
+		assertThat(dao.getDeadLetterCount()).isEqualTo(1);
+		assertThat(dao.getPendingCount()).isZero();
+		// 隔離した行は以降の書き戻しを止めない
+		dao.create(account("c@example.com"));
+		dao.flush();
+		assertThat(emails()).containsExactly("a@example.com", "b@example.com", "c@example.com");
+	}
+
+	@Test
+	void deadLetterIsWrittenAfterItIsFixed() {
+		dao = open(Durability.ASYNC, 100);
+		var poison = account("poison@example.com");
+		dao.create(poison);
+		dao.flush();
+		assertThat(dao.getDeadLetterCount()).isEqualTo(1);
+
+		dao.update(new AccountDto(poison.getId(), "fixed@example.com", "Takes123456", Role.USER, 0));
+		dao.flush();
+
+		assertThat(dao.getDeadLetterCount()).isZero();
+		assertThat(emails()).containsExactly("fixed@example.com");
+	}
+
+	@Test
+	void emailHeldByAnotherRowIsNotOverwritten() {
+		dao = open(Durability.ASYNC, 100);
+		// メモリに無い行がメアドを使っている(一意制約で失敗すべき追加)
+		jdbcTemplate.update("INSERT INTO accounts (id, email, password, role, version) VALUES (99, 'taken@example.com', 'other', 'ADMIN', 5)");
+		dao.create(account("taken@example.com"));
+
+		dao.flush();
+
+		assertThat(dao.getDeadLetterCount()).isEqualTo(1);
+		assertThat(jdbcTemplate.queryForMap("SELECT id, password, role, version FROM accounts WHERE email = 'taken@example.com'"))
+				.containsEntry("ID", 99).containsEntry("PASSWORD", "other").containsEntry("ROLE", "ADMIN").containsEntry("VERSION", 5);
+	}
+
+	@Test
+	void syncFailureRevertsMemory() {
+		dao = open(Durability.SYNC, 100);
+		var alice = account("alice@example.com");
+		dao.create(alice);
+
+		assertThatThrownBy(() -> dao.create(account("poison@example.com")))
+				.isInstanceOf(DataIntegrityViolationException.class);
+		assertThatThrownBy(() -> dao.update(new AccountDto(alice.getId(), "poison2@example.com", "changed", Role.USER, 0)))
+				.isInstanceOf(DataIntegrityViolationException.class);
+
+		assertThat(dao.existsByEmail("poison@example.com")).isFalse();
+		assertThat(dao.existsByEmail("poison2@example.com")).isFalse();
+		assertThat(dao.findById(alice.getId())).hasValueSatisfying(found -> {
+			assertThat(found.getEmail()).isEqualTo("alice@example.com");
+			assertThat(found.getPassword()).isEqualTo("Takes123456");
+			assertThat(found.getVersion()).isZero();
+		});
+		assertThat(dao.findByEmail("alice@example.com")).isPresent();
+		assertThat(dao.findAllSummaries()).hasSize(1);
+		assertThat(emails()).containsExactly("alice@example.com");
+	}
+
+	@Test
+	void asyncWriteOverLimitFailsBeforeChangingMemory() {
+		dao = open(Durability.ASYNC, 1);
+		dao.create(account("a@example.com"));
+		// DBに書けなくなった
+		jdbcTemplate.execute("DROP TABLE accounts");
+
+		assertThatThrownBy(() -> dao.create(account("b@example.com"))).isInstanceOf(DataAccessException.class);
+
+		assertThat(dao.existsByEmail("b@example.com")).isFalse();
+		assertThat(dao.getPendingCount()).isEqualTo(1);
+		assertThat(dao.getDeadLetterCount()).isZero();
+	}
+
+	private TieredAccountDao open(Durability durability, int maxPending) {
+		var opened = new TieredAccountDao(new AccountDaoFeatMap(AccountWriteAheadLog.disabled()), jdbcTemplate,
+				transactionTemplate, durability, Duration.ofHours(1), Duration.ofHours(1), maxPending);
+		opened.start();
+		return opened;
+	}
+
+	private List<String> emails() {
+		return jdbcTemplate.queryForList("SELECT email FROM accounts ORDER BY id", String.class);
+	}
+
+	private static AccountDto account(String email) {
+		return new AccountDto(0, email, "Takes123456", Role.USER, 0);
+	}
+}